@@ -1,11 +1,14 @@
 package client;
 
 import java.io.Console;
+import java.io.File;
 import java.security.KeyFactory;
 import java.security.KeyPair;
 import java.security.KeyPairGenerator;
 import java.security.PrivateKey;
+import java.util.ArrayList;
 import java.util.Base64;
+import java.util.List;
 
 import javax.crypto.Cipher;
 import javax.net.ssl.SSLSocket;
@@ -18,11 +21,13 @@ import java.security.spec.PKCS8EncodedKeySpec;
 import common.protocol.Message;
 import common.protocol.ProtocolChannel;
 
+import common.protocol.messages.AckMessage;
 import common.protocol.messages.AuthenticateMessage;
 import common.protocol.messages.GetMessage;
 import common.protocol.messages.GetResponseMessage;
 import common.protocol.messages.PostMessage;
 import common.protocol.messages.StatusMessage;
+import common.protocol.messages.SubscribeMessage;
 import common.protocol.user_creation.CreateMessage;
 import merrimackutil.cli.LongOption;
 import merrimackutil.cli.OptionParser;
@@ -38,10 +43,16 @@ public class Client {
     private static boolean create = false;
     private static boolean post = false;
     private static boolean get = false;
+    private static boolean ack = false;
+    private static boolean full = false;
+    private static boolean watch = false;
+    private static String stateFile = "sync.json";
     private static String recvr;
     private static String message;
     private static String privKey;
     private static NonceCache nonceCache;
+    private static final int MAX_REDIRECTS = 3;
+    private static final int WATCH_SECONDS = 300;
 
     private static final Objects mapper = new Objects();
 
@@ -52,11 +63,15 @@ public class Client {
         System.out.println("usage:");
         System.out.println("  client --create --user <user> --host <host> --port <portnum>");
         System.out.println("  client --post <msg> --user <user> --recvr <user> --host <host> --port <portnum>");
-        System.out.println("  client --get --key <privkey> --user <user> --host <host> --port <portnum>");
+        System.out.println("  client --get --key <privkey> --user <user> --host <host> --port <portnum> [--ack] [--full] [--state <file>] [--watch]");
         System.out.println("options:");
         System.out.println("  -c, --create     Create a new account.");
         System.out.println("  -o, --post       Post a message.");
         System.out.println("  -g, --get        Get all posts.");
+        System.out.println("  -a, --ack        Delete the posts from the server once they are read.");
+        System.out.println("  -f, --full       Get every post, not only the ones after the last --get.");
+        System.out.println("  -s, --state      The file the last read post is kept in (default sync.json).");
+        System.out.println("  -w, --watch      After --get, wait for new posts and show them as they arrive.");
         System.out.println("  -r, --recvr      The message receiver.");
         System.out.println("  -k, --key        The private key.");
         System.out.println("  -u, --user       The username.");
@@ -77,7 +92,7 @@ public class Client {
         }
 
         OptionParser parser;
-        LongOption[] opts = new LongOption[8];
+        LongOption[] opts = new LongOption[12];
         opts[0] = new LongOption("create", false, 'c');
         opts[1] = new LongOption("post", true, 'o');
         opts[2] = new LongOption("get", false, 'g');
@@ -86,10 +101,14 @@ public class Client {
         opts[5] = new LongOption("user", true, 'u');
         opts[6] = new LongOption("host", true, 'h');
         opts[7] = new LongOption("port", true, 'p');
+        opts[8] = new LongOption("ack", false, 'a');
+        opts[9] = new LongOption("full", false, 'f');
+        opts[10] = new LongOption("state", true, 's');
+        opts[11] = new LongOption("watch", false, 'w');
 
         parser = new OptionParser(args);
         parser.setLongOpts(opts);
-        parser.setOptString("cgo:r:k:u:h:p:");
+        parser.setOptString("cgafwo:r:k:u:h:p:s:");
 
         Tuple<Character, String> currOpt;
 
@@ -100,6 +119,10 @@ public class Client {
                 case 'c': create = true; break;
                 case 'o': post = true; message = currOpt.getSecond(); break;
                 case 'g': get = true; break;
+                case 'a': ack = true; break;
+                case 'f': full = true; break;
+                case 'w': watch = true; break;
+                case 's': stateFile = currOpt.getSecond(); break;
                 case 'r': recvr = currOpt.getSecond(); break;
                 case 'k': privKey = currOpt.getSecond(); break;
                 case 'u': user = currOpt.getSecond(); break;
@@ -135,6 +158,7 @@ public class Client {
                 return;
             }
             System.out.println("Authenticated.");
+            channel.closeChannel();
             System.out.println("Posting message from " + user + " to " + recvr + ": " + message);
         
             // TLS and send message
@@ -154,8 +178,14 @@ public class Client {
                 return;
             }
             System.out.println("Authenticated.");
+            ProtocolChannel session = channel;
             System.out.println("Retrieving posts for user: " + user);
-            handleGet();
+            List<String> read = handleGet(session);
+            if (ack && !read.isEmpty())
+                acknowledge(session, read);
+            if (watch)
+                watchPosts(session);
+            session.closeChannel();
         } else {
             System.err.println("Error: No valid action specified.");
             usage();
@@ -187,7 +217,8 @@ public class Client {
       
 // Start TLS
 try {
-   
+    Message response = null;
+    for (int hops = 0; hops <= MAX_REDIRECTS; hops++) {
 
     SSLSocketFactory factory = (SSLSocketFactory) SSLSocketFactory.getDefault();
     SSLSocket socket = (SSLSocket) factory.createSocket(host, port);
@@ -213,7 +244,13 @@ try {
   
 
     // Receive response
-    Message response = channel.receiveMessage();
+    response = channel.receiveMessage();
+
+    // Retry at the server that owns this user
+    if (!followRedirect(response))
+        break;
+    channel.closeChannel();
+    }
   
 
     // Check the response type
@@ -232,41 +269,94 @@ try {
     return false;
 }
     }
-    private static void handleGet() throws Exception {
-   
-    // Load private key from Base64 string
-    byte[] privKeyBytes = java.util.Base64.getDecoder().decode(privKey);
-    KeyFactory keyFactory = KeyFactory.getInstance("ElGamal", "BC");
-    PKCS8EncodedKeySpec keySpec = new PKCS8EncodedKeySpec(privKeyBytes);
-    PrivateKey privateKey = keyFactory.generatePrivate(keySpec);
-    
-    // Set up TLS + ProtocolChannel
-    SSLSocketFactory factory = (SSLSocketFactory) SSLSocketFactory.getDefault();
-    SSLSocket socket = (SSLSocket) factory.createSocket(host, port);
-    socket.startHandshake();
-
-    channel = new ProtocolChannel(socket);
-    channel.addMessageType(new GetMessage());
-    channel.addMessageType(new GetResponseMessage());
-    channel.addMessageType(new PostMessage());
-    channel.addMessageType(new StatusMessage());
-
-    // Send get message
-    channel.sendMessage(new GetMessage(user));
-
-    Message response = channel.receiveMessage();
-  
+    /**
+     * Applies the routing hint of a response, if any, so that the next
+     * connection goes to the server that owns the user.
+     * @param response the response from the server.
+     * @return true if the request must be retried at the new address.
+     */
+    private static boolean followRedirect(Message response) {
+        if (!(response instanceof StatusMessage))
+            return false;
+        String redirect = ((StatusMessage) response).getRedirect();
+        if (redirect == null)
+            return false;
+
+        int sep = redirect.lastIndexOf(':');
+        host = redirect.substring(0, sep);
+        port = Integer.parseInt(redirect.substring(sep + 1));
+        System.out.println("Redirected to " + host + ":" + port);
+        return true;
+    }
 
+    /**
+     * Fetches and decrypts the user's posts that arrived since the last
+     * --get, unless --full was given, and records the newest one read. The
+     * request goes over the authenticated connection, so a --get holds a
+     * single connection at the server.
+     * @param session the connection the user authenticated on.
+     * @return the ids of the posts that were decrypted and shown.
+     * @throws Exception if the request fails.
+     */
+    private static List<String> handleGet(ProtocolChannel session) throws Exception {
+    PrivateKey privateKey = loadPrivateKey();
+    
+    SyncState state = new SyncState(new File(stateFile));
+    long since = full ? 0 : state.getLastSeq(user);
+
+    session.addMessageType(new GetResponseMessage());
+    session.addMessageType(new PostMessage());
+    session.sendMessage(new GetMessage(user, since, full ? null : state.getDigest(user)));
+    Message response = receive(session);
+
+    List<String> read = new ArrayList<>();
+    if (response instanceof StatusMessage && ((StatusMessage) response).getStatus()) {
+        // The mailbox digest still matches, nothing was added or deleted
+        System.out.println("You have no new messages.");
+        return read;
+    }
     if (!(response instanceof GetResponseMessage)) {
         System.out.println("Unexpected response from server.");
-        return;
+        return read;
     }
 
     // Process posts
     GetResponseMessage getResp = (GetResponseMessage) response;
-    System.out.println("You have " + getResp.getPosts().size() + " message(s):\n");
+    System.out.println("You have " + getResp.getPosts().size() + (since > 0 ? " new" : "") + " message(s):\n");
+    long newest = since;
 
     for (PostMessage post : getResp.getPosts()) {
+        newest = Math.max(newest, post.getSeq());
+        if (showPost(post, privateKey) && post.getId() != null)
+            read.add(post.getId());
+    }
+
+    if (newest > state.getLastSeq(user))
+        state.setLastSeq(user, newest);
+    if (getResp.getDigest() != null)
+        state.setDigest(user, getResp.getDigest());
+    return read;
+}
+
+    /**
+     * Loads the user's ElGamal private key from the --key argument.
+     * @return the private key.
+     * @throws Exception if the key can't be decoded.
+     */
+    private static PrivateKey loadPrivateKey() throws Exception {
+        byte[] privKeyBytes = java.util.Base64.getDecoder().decode(privKey);
+        KeyFactory keyFactory = KeyFactory.getInstance("ElGamal", "BC");
+        PKCS8EncodedKeySpec keySpec = new PKCS8EncodedKeySpec(privKeyBytes);
+        return keyFactory.generatePrivate(keySpec);
+    }
+
+    /**
+     * Decrypts a post and prints it.
+     * @param post the post.
+     * @param privateKey the user's private key.
+     * @return true if the post was decrypted.
+     */
+    private static boolean showPost(PostMessage post, PrivateKey privateKey) {
         try {
             // Unwrap AES key with ElGamal private key
             byte[] wrappedKey = java.util.Base64.getDecoder().decode(post.getWrappedKey());
@@ -278,15 +368,80 @@ try {
             String plaintext = post.getDecryptedPayload(aesKeyBytes);
 
             System.out.println("From: " + post.getUser());
+            if (post.getTimestamp() != 0)
+                System.out.println("Sent: " + java.time.Instant.ofEpochMilli(post.getTimestamp()));
             System.out.println("Message: " + plaintext);
             System.out.println("--------------");
+            return true;
         } catch (Exception e) {
             System.out.println("[Error decrypting post]: " + e.getMessage());
+            return false;
         }
     }
 
-    channel.closeChannel();
-}
+    /**
+     * Subscribes over the authenticated connection and shows posts as the
+     * server pushes them, until the subscription expires.
+     * @param session the connection the user authenticated on.
+     * @throws Exception if the request fails.
+     */
+    private static void watchPosts(ProtocolChannel session) throws Exception {
+        PrivateKey privateKey = loadPrivateKey();
+        SyncState state = new SyncState(new File(stateFile));
+        session.addMessageType(new PostMessage());
+        session.sendMessage(new SubscribeMessage(user, state.getLastSeq(user), WATCH_SECONDS));
+        System.out.println("Waiting for new posts...\n");
+
+        while (true) {
+            Message msg;
+            try {
+                msg = session.receiveMessage();
+            } catch (NullPointerException e) {
+                // Empty frame after the previous message, keep reading.
+                continue;
+            } catch (java.util.NoSuchElementException e) {
+                // The server closed the connection
+                return;
+            }
+            if (msg instanceof PostMessage) {
+                PostMessage post = (PostMessage) msg;
+                showPost(post, privateKey);
+                if (post.getSeq() > state.getLastSeq(user))
+                    state.setLastSeq(user, post.getSeq());
+            } else {
+                System.out.println(((StatusMessage) msg).getPayload());
+                return;
+            }
+        }
+    }
+
+    /**
+     * Deletes posts from the server over the authenticated connection.
+     * @param session the connection the user authenticated on.
+     * @param ids the ids of the posts to delete.
+     * @throws Exception if the request fails.
+     */
+    private static void acknowledge(ProtocolChannel session, List<String> ids) throws Exception {
+        session.sendMessage(new AckMessage(user, ids));
+        System.out.println(((StatusMessage) receive(session)).getPayload());
+    }
+
+    /**
+     * Receives the response to a request sent over the authenticated
+     * connection, skipping the empty frame after the previous response.
+     * @param session the connection the user authenticated on.
+     * @return the response.
+     * @throws Exception if the response can't be decoded.
+     */
+    private static Message receive(ProtocolChannel session) throws Exception {
+        while (true) {
+            try {
+                return session.receiveMessage();
+            } catch (NullPointerException e) {
+                // Empty frame after the previous response, keep reading.
+            }
+        }
+    }
 
 
     /**
@@ -319,6 +474,8 @@ try {
             String privKeyEncoded = Base64.getEncoder().encodeToString(kp.getPrivate().getEncoded());
         
         
+            Message response = null;
+            for (int hops = 0; hops <= MAX_REDIRECTS; hops++) {
             SSLSocketFactory factory = (SSLSocketFactory) SSLSocketFactory.getDefault();
             SSLSocket socket = (SSLSocket) factory.createSocket(host, port);
             
@@ -333,7 +490,11 @@ try {
     
             
             // Receive the response
-            Message response = channel.receiveMessage();
+            response = channel.receiveMessage();
+            if (!followRedirect(response))
+                break;
+            channel.closeChannel();
+            }
             System.out.println("Received response: " + response);
             
             // Additional debug info for response handling
@@ -356,7 +517,6 @@ try {
                 System.out.println("Account created successfully.");
                 System.out.println("Private Key:\n" + privKeyEncoded);
 
-                @SuppressWarnings("static-access")
                 String totpKey = status.getPayload();
                 byte[] totpBytes = Base64.getDecoder().decode(totpKey);
                 String base32Totp = Base32.encodeToString(totpBytes, true); // no padding
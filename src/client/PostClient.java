@@ -8,6 +8,8 @@ import javax.crypto.Cipher;
 import javax.crypto.KeyGenerator;
 import javax.crypto.SecretKey;
 import javax.crypto.spec.GCMParameterSpec;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
 import java.net.Socket;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
@@ -18,15 +20,41 @@ import java.security.spec.X509EncodedKeySpec;
 import java.util.Base64;
 
 public class PostClient {
-    private final ProtocolChannel channel;
+    private static final int MAX_REDIRECTS = 3;
+    private ProtocolChannel channel;
 
     public PostClient(Socket socket) throws IOException {
+        open(socket);
+    }
+
+    /**
+     * Wraps a connected socket in a protocol channel.
+     * @param socket the connected socket.
+     * @throws IOException if the socket can't be used.
+     */
+    private void open(Socket socket) throws IOException {
         this.channel = new ProtocolChannel(socket);
         channel.addMessageType(new PubKeyRequest());
         channel.addMessageType(new PostMessage());
         channel.addMessageType(new StatusMessage());
     }
 
+    /**
+     * Moves the channel to the server named by a routing hint.
+     * @param redirect the host:port of the server that owns the recipient.
+     * @throws IOException if the new server can't be reached.
+     */
+    private void reconnect(String redirect) throws IOException {
+        channel.closeChannel();
+        int sep = redirect.lastIndexOf(':');
+        SSLSocketFactory factory = (SSLSocketFactory) SSLSocketFactory.getDefault();
+        SSLSocket socket = (SSLSocket) factory.createSocket(redirect.substring(0, sep),
+            Integer.parseInt(redirect.substring(sep + 1)));
+        socket.startHandshake();
+        open(socket);
+        System.out.println("Redirected to " + redirect);
+    }
+
 /**
  * Sends an encrypted message to a specified recipient.
  *
@@ -50,18 +78,25 @@ public class PostClient {
 
     public void sendMessage(String user, String recvr, String plaintext) throws Exception {
 
-        // Step 1: Request recipient's public key
-        PubKeyRequest pubKeyRequest = new PubKeyRequest(recvr);
-        channel.sendMessage(pubKeyRequest);
+        // Step 1: Request recipient's public key, following the server to
+        // the node that owns the recipient if it redirects us
+        StatusMessage pubKeyResponse = null;
+        for (int hops = 0; hops <= MAX_REDIRECTS; hops++) {
+            PubKeyRequest pubKeyRequest = new PubKeyRequest(recvr);
+            channel.sendMessage(pubKeyRequest);
 
-        // Step 2: Receive public key response
-        StatusMessage pubKeyResponse = (StatusMessage) channel.receiveMessage();
+            // Step 2: Receive public key response
+            pubKeyResponse = (StatusMessage) channel.receiveMessage();
+            if (pubKeyResponse.getRedirect() == null)
+                break;
+            reconnect(pubKeyResponse.getRedirect());
+        }
         if (!pubKeyResponse.getStatus()) {
             return;
         }
 
         // Step 3: Decode recipient's ElGamal public key
-        byte[] pubKeyBytes = Base64.getDecoder().decode(StatusMessage.getPayload());
+        byte[] pubKeyBytes = Base64.getDecoder().decode(pubKeyResponse.getPayload());
         X509EncodedKeySpec keySpec = new X509EncodedKeySpec(pubKeyBytes);
         KeyFactory keyFactory = KeyFactory.getInstance("ElGamal", "BC");
         PublicKey recipientPubKey = keyFactory.generatePublic(keySpec);
@@ -0,0 +1,115 @@
+package client;
+
+import java.io.File;
+import java.io.IOException;
+
+import merrimackutil.json.JSONSerializable;
+import merrimackutil.json.JsonIO;
+import merrimackutil.json.types.JSONObject;
+import merrimackutil.json.types.JSONType;
+
+/**
+ * The client's record of the last post sequence number it has read and the
+ * last mailbox digest it has seen for each user, kept in a small JSON file
+ * so that the next --get only asks the server for newer posts, and gets a
+ * not-modified answer if the mailbox did not change at all.
+ */
+public class SyncState implements JSONSerializable {
+    private final File file;
+    private JSONObject marks = new JSONObject();
+
+    /**
+     * Loads the sync state, starting empty if the file does not exist or
+     * can't be read.
+     * @param file the state file.
+     */
+    public SyncState(File file) {
+        this.file = file;
+        if (!file.exists())
+            return;
+        try {
+            deserialize(JsonIO.readObject(file));
+        } catch (IOException e) {
+            System.err.println("[ERROR] Ignoring sync state " + file + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Gets the last sequence number read for a user.
+     * @param user the user.
+     * @return the sequence number, 0 if nothing was read yet.
+     */
+    public long getLastSeq(String user) {
+        JSONObject mark = markOf(user);
+        return mark.containsKey("seq") ? mark.getLong("seq") : 0;
+    }
+
+    /**
+     * Gets the last mailbox digest seen for a user.
+     * @param user the user.
+     * @return the digest, or null if none was seen yet.
+     */
+    public String getDigest(String user) {
+        JSONObject mark = markOf(user);
+        return mark.containsKey("digest") ? mark.getString("digest") : null;
+    }
+
+    /**
+     * Records the last sequence number read for a user and saves the file.
+     * @param user the user.
+     * @param seq the sequence number.
+     */
+    public void setLastSeq(String user, long seq) {
+        markOf(user).put("seq", seq);
+        save();
+    }
+
+    /**
+     * Records the last mailbox digest seen for a user and saves the file.
+     * @param user the user.
+     * @param digest the digest.
+     */
+    public void setDigest(String user, String digest) {
+        markOf(user).put("digest", digest);
+        save();
+    }
+
+    /**
+     * Gets the entry of a user, creating an empty one if needed.
+     */
+    private JSONObject markOf(String user) {
+        if (!marks.containsKey(user))
+            marks.put(user, new JSONObject());
+        return marks.getObject(user);
+    }
+
+    /**
+     * Writes the state file.
+     */
+    private void save() {
+        try {
+            JsonIO.writeFormattedObject(this, file);
+        } catch (IOException e) {
+            System.err.println("[ERROR] Failed to save sync state: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Converts JSON data to an object of this type.
+     * @param obj a JSON type to deserialize.
+     */
+    @Override
+    public void deserialize(JSONType obj) {
+        if (obj.isObject())
+            marks = (JSONObject) obj;
+    }
+
+    /**
+     * Converts the object to a JSON type.
+     * @return a JSON object mapping users to their sequence number and digest.
+     */
+    @Override
+    public JSONType toJSONType() {
+        return marks;
+    }
+}
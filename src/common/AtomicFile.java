@@ -0,0 +1,53 @@
+package common;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import merrimackutil.json.JSONSerializable;
+import merrimackutil.json.JsonIO;
+
+/**
+ * Replaces files atomically. The new contents go to a temporary file next
+ * to the target, are forced to disk and then renamed over the target, so a
+ * crash leaves either the old file or the new one, never a torn mix.
+ */
+public class AtomicFile {
+
+    private AtomicFile() {}
+
+    /**
+     * Writes an object as formatted JSON, replacing the file atomically.
+     * Callers writing the same file must not run concurrently.
+     * @param obj the object to write.
+     * @param file the target file.
+     * @throws IOException if the file can't be written.
+     */
+    public static void writeJson(JSONSerializable obj, File file) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        JsonIO.writeFormattedObject(obj, tmp);
+        try (FileChannel channel = FileChannel.open(tmp.toPath(), StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory(file);
+    }
+
+    /**
+     * Forces the directory entry of a renamed file to disk. Not every
+     * platform can open a directory, in which case the rename is left to
+     * the file system.
+     * @param file the file whose directory is synced.
+     */
+    public static void syncDirectory(File file) {
+        File dir = file.getAbsoluteFile().getParentFile();
+        try (FileChannel channel = FileChannel.open(dir.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Directories can't be opened for syncing here
+        }
+    }
+}
@@ -4,23 +4,110 @@ import merrimackutil.json.*;
 import merrimackutil.json.types.*;
 import server.Configuration;
 import java.io.*;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+import common.protocol.messages.MailboxSummary;
+import common.protocol.post.Payload;
 import common.protocol.post.Post;
+import server.cache.MailboxCache;
+import server.storage.BoardImage;
+import server.storage.BoardStore;
+import server.storage.JsonBoardStore;
+import server.storage.SegmentedPayloadLog;
 
 /**
- * This class represents a board of encrypted posts.
+ * This class represents a board of encrypted posts. Acknowledged posts are
+ * tombstoned by id and hidden from readers right away; {@link #compact()}
+ * drops them from the list later.
+ *
+ * Posts are indexed by id and by recipient. Each recipient's mailbox keeps
+ * its posts oldest first along with the count and size of the live ones, so
+ * lookups, tombstoning and retention checks don't scan the whole board.
+ *
+ * Every post gets the next sequence number of its recipient when it is
+ * added. The last number handed out per recipient is kept apart from the
+ * posts and saved with them, so numbers are never reused after the posts
+ * that carried them are deleted.
+ *
+ * Each mailbox also keeps the XOR of a 64-bit fingerprint of every live
+ * post id. Together with the count and the last sequence number it forms a
+ * digest of the mailbox that is updated in O(1) per change and lets readers
+ * skip fetching a mailbox that did not change.
+ *
+ * Recipients with live posts are also kept in a {@link PresenceFilter}, which
+ * lets readers rule out an empty mailbox without taking the board lock.
+ *
+ * The board is persisted through a {@link BoardStore}. Changes made since
+ * the last save are kept aside and handed to the store on
+ * {@link #saveToFile()}: single posts and deletes to a store that keeps
+ * them, the whole board after compaction or to a store that rewrites
+ * everything.
+ *
+ * Every post encodes its wire form once as it joins the board. With a
+ * {@link SegmentedPayloadLog} set, the encrypted part and the wire form of
+ * every post are moved into memory-mapped segments instead, and released
+ * when compaction or a removal drops the post. Posts that have aged out of
+ * the hot window may later have their payload moved to a compressed cold
+ * tier through {@link #replacePayload(Post, Payload)}; reads go through the
+ * same posts either way.
+ *
+ * A {@link MailboxCache} in front of the board is told about every change
+ * to a mailbox, so it never holds on to posts the board has dropped.
  */
 public class Board implements JSONSerializable {
     private List<Post> posts;
-    private static final String BOARD_FILE = Configuration.getBoardFile();
+    private Set<String> tombstones = new HashSet<>();
+    // Posts before this index are tombstoned until the next compaction
+    private int liveHead;
+    private Map<String, Post> byId = new HashMap<>();
+    private Map<String, Mailbox> mailboxes = new HashMap<>();
+    private Map<String, Long> sequences = new HashMap<>();
+    private volatile PresenceFilter presence = new PresenceFilter();
+    private int liveCount;
+    private long liveBytes;
+    private final BoardStore store;
+    private final List<Post> appended = new ArrayList<>();
+    private final Map<String, List<String>> deleted = new LinkedHashMap<>();
+    private boolean rewrite;
+    private SegmentedPayloadLog payloads;
+    private MailboxCache cache;
+    private int pins;
+    private final List<Payload> held = new ArrayList<>();
+
+    // A recipient's posts, oldest first, possibly including tombstoned ones
+    private static class Mailbox {
+        private final ArrayDeque<Post> posts = new ArrayDeque<>();
+        private int count;
+        private long bytes;
+        private long fingerprints;
+    }
 
     public Board() {
+        this(new JsonBoardStore(new File(Configuration.getBoardFile())));
+    }
+
+    /**
+     * Creates an empty board persisted through a store.
+     * @param store the storage engine.
+     */
+    public Board(BoardStore store) {
+        this.store = store;
         posts = new ArrayList<>();
         System.out.println("[DEBUG] Board created with an empty post list.");
     }
 
     public Board(JSONObject obj) throws InvalidObjectException {
+        this.store = new JsonBoardStore(new File(Configuration.getBoardFile()));
         posts = new ArrayList<>();
         System.out.println("[DEBUG] Board deserialization from JSONObject started.");
         deserialize(obj);
@@ -28,14 +115,37 @@ public class Board implements JSONSerializable {
     }
 
     /**
-     * Adds a post to the board.
+     * Adds a post to the board, numbering it if it has no sequence number.
      * @param post the post to add
      */
-    public void addPost(Post post) {
+    public synchronized void addPost(Post post) {
         posts.add(post);
+        index(post);
+        prepare(post);
+        if (cache != null)
+            cache.invalidate(post.getUser());
+        appended.add(post);
         System.out.println("[DEBUG] Added post: " + post);
     }
 
+    /**
+     * Adds posts to the board in order, e.g. when restoring a snapshot.
+     * @param added the posts to add
+     */
+    public synchronized void addPosts(Collection<Post> added) {
+        posts.addAll(added);
+        List<Post> batch = new ArrayList<>(added);
+        for (Post post : batch)
+            index(post);
+        ParallelLoader.forEach(batch, Post::cacheWire);
+        for (Post post : batch)
+            prepare(post);
+        if (cache != null)
+            cache.clear();
+        rewrite = true;
+        System.out.println("[DEBUG] Added " + added.size() + " posts.");
+    }
+
 /**
  * Retrieves the list of posts on the board.
  * @return a list of posts currently on the board.
@@ -46,6 +156,446 @@ public class Board implements JSONSerializable {
         return posts;
     }
 
+    /**
+     * Retrieves the posts addressed to a single recipient.
+     * @param user the recipient.
+     * @return a copy of the list of posts for {@code user}.
+     */
+    public synchronized List<Post> getPostsFor(String user) {
+        return getPostsFor(user, 0);
+    }
+
+    /**
+     * Retrieves the posts addressed to a recipient after a sequence number.
+     * The mailbox is walked from the newest post back, so the cost depends on
+     * the number of new posts rather than the size of the mailbox.
+     * @param user the recipient.
+     * @param since the last sequence number the reader has seen, 0 for all.
+     * @return a copy of the posts for {@code user}, oldest first.
+     */
+    public synchronized List<Post> getPostsFor(String user, long since) {
+        List<Post> userPosts = new ArrayList<>();
+        Mailbox mailbox = mailboxes.get(user);
+        if (mailbox == null)
+            return userPosts;
+        for (Iterator<Post> it = mailbox.posts.descendingIterator(); it.hasNext(); ) {
+            Post post = it.next();
+            if (post.getSeq() <= since)
+                break;
+            if (!tombstones.contains(post.getId())) {
+                userPosts.add(post);
+            }
+        }
+        Collections.reverse(userPosts);
+        return userPosts;
+    }
+
+    /**
+     * Gets the last sequence number handed out for a recipient.
+     * @param user the recipient.
+     * @return the sequence number, 0 if the recipient never had a post.
+     */
+    public synchronized long getLastSeq(String user) {
+        return sequences.getOrDefault(user, 0L);
+    }
+
+    /**
+     * Gets the last sequence number handed out for every recipient.
+     * @return a copy of the sequence numbers by recipient.
+     */
+    public synchronized Map<String, Long> getSequences() {
+        return new HashMap<>(sequences);
+    }
+
+    /**
+     * Raises the sequence numbers of recipients to at least the given ones,
+     * e.g. when restoring a snapshot.
+     * @param restored the sequence numbers by recipient.
+     */
+    public synchronized void mergeSequences(Map<String, Long> restored) {
+        for (Map.Entry<String, Long> entry : restored.entrySet())
+            sequences.merge(entry.getKey(), entry.getValue(), Math::max);
+    }
+
+    /**
+     * Check if a recipient may have live posts. Takes no lock, so a reader
+     * polling an empty mailbox never waits for writers.
+     * @param user the recipient.
+     * @return false if the recipient certainly has no live posts.
+     */
+    public boolean mightHavePosts(String user) {
+        return presence.mightContain(user);
+    }
+
+    /**
+     * Summarizes a recipient's mailbox from the in-memory counters.
+     * @param user the recipient.
+     * @return the count, latest sequence number and digest of the mailbox.
+     */
+    public synchronized MailboxSummary summarize(String user) {
+        return new MailboxSummary(user, getMailboxCount(user), getLastSeq(user), getMailboxDigest(user));
+    }
+
+    /**
+     * Gets the digest of a recipient's mailbox. It changes whenever a post
+     * is added to or deleted from the mailbox.
+     * @param user the recipient.
+     * @return the digest.
+     */
+    public synchronized String getMailboxDigest(String user) {
+        Mailbox mailbox = mailboxes.get(user);
+        int count = mailbox == null ? 0 : mailbox.count;
+        long fingerprints = mailbox == null ? 0 : mailbox.fingerprints;
+        return Long.toHexString(getLastSeq(user)) + "-" + Integer.toHexString(count) + "-" + Long.toHexString(fingerprints);
+    }
+
+    /**
+     * Gets the number of live posts addressed to a recipient.
+     * @param user the recipient.
+     * @return the number of posts.
+     */
+    public synchronized int getMailboxCount(String user) {
+        Mailbox mailbox = mailboxes.get(user);
+        return mailbox == null ? 0 : mailbox.count;
+    }
+
+    /**
+     * Gets the size of the live posts addressed to a recipient.
+     * @param user the recipient.
+     * @return the size in bytes, see {@link Post#getSize()}.
+     */
+    public synchronized long getMailboxBytes(String user) {
+        Mailbox mailbox = mailboxes.get(user);
+        return mailbox == null ? 0 : mailbox.bytes;
+    }
+
+    /**
+     * Gets the recipients that have a mailbox on the board.
+     * @return a copy of the recipient names.
+     */
+    public synchronized List<String> getRecipients() {
+        return new ArrayList<>(mailboxes.keySet());
+    }
+
+    /**
+     * Gets the number of live posts on the board.
+     * @return the number of posts.
+     */
+    public synchronized int getLiveCount() {
+        return liveCount;
+    }
+
+    /**
+     * Gets the size of the live posts on the board.
+     * @return the size in bytes.
+     */
+    public synchronized long getLiveBytes() {
+        return liveBytes;
+    }
+
+    /**
+     * Finds the oldest live post addressed to a recipient.
+     * @param user the recipient.
+     * @return the post or null if the mailbox is empty.
+     */
+    public synchronized Post oldestLive(String user) {
+        Mailbox mailbox = mailboxes.get(user);
+        if (mailbox == null)
+            return null;
+        // Tombstoned posts at the head will never be returned again
+        while (!mailbox.posts.isEmpty() && tombstones.contains(mailbox.posts.peekFirst().getId()))
+            mailbox.posts.pollFirst();
+        return mailbox.posts.peekFirst();
+    }
+
+    /**
+     * Finds the oldest live post on the board. Tombstoned posts at the front
+     * stay tombstoned until the board is compacted, so a cursor moves past
+     * them once instead of every eviction scanning them again.
+     * @return the post or null if the board is empty.
+     */
+    public synchronized Post oldestLive() {
+        while (liveHead < posts.size() && tombstones.contains(posts.get(liveHead).getId()))
+            liveHead++;
+        return liveHead < posts.size() ? posts.get(liveHead) : null;
+    }
+
+    /**
+     * Returns a copy of every live post on the board that is safe to iterate
+     * while other threads keep posting. Tombstoned posts are left out.
+     * @return a copy of the list of posts.
+     */
+    public synchronized List<Post> getPostsSnapshot() {
+        List<Post> live = new ArrayList<>(posts.size());
+        for (Post post : posts) {
+            if (!tombstones.contains(post.getId()))
+                live.add(post);
+        }
+        return live;
+    }
+
+    /**
+     * Tombstones posts addressed to a recipient. Ids that are unknown, already
+     * tombstoned, or addressed to someone else are ignored.
+     * @param user the recipient acknowledging the posts.
+     * @param ids the ids of the posts.
+     * @return the number of posts tombstoned.
+     */
+    public synchronized int tombstone(String user, Collection<String> ids) {
+        int count = 0;
+        for (String id : ids) {
+            Post post = byId.get(id);
+            if (post != null && post.getUser().equals(user) && tombstones.add(id)) {
+                Mailbox mailbox = mailboxes.get(user);
+                mailbox.count--;
+                mailbox.bytes -= post.getSize();
+                mailbox.fingerprints ^= fingerprint(id);
+                if (mailbox.count == 0)
+                    presence.remove(user);
+                liveCount--;
+                liveBytes -= post.getSize();
+                deleted.computeIfAbsent(user, k -> new ArrayList<>()).add(id);
+                if (cache != null)
+                    cache.invalidate(user);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Gets the number of tombstoned posts still on the board.
+     * @return the number of posts waiting for compaction.
+     */
+    public synchronized int getTombstoneCount() {
+        return tombstones.size();
+    }
+
+    /**
+     * Drops tombstoned posts from the board.
+     * @return the number of posts removed.
+     */
+    public synchronized int compact() {
+        int removed = 0;
+        for (Iterator<Post> it = posts.iterator(); it.hasNext(); ) {
+            Post post = it.next();
+            if (tombstones.contains(post.getId())) {
+                it.remove();
+                release(post);
+                removed++;
+            }
+        }
+        tombstones.clear();
+        reindex();
+        rewrite = true;
+        System.out.println("[DEBUG] Compacted " + removed + " posts.");
+        return removed;
+    }
+
+    /**
+     * Removes the given posts from the board.
+     * @param removed the posts to remove.
+     */
+    public synchronized void removePosts(Collection<Post> removed) {
+        posts.removeAll(new HashSet<>(removed));
+        for (Post post : removed) {
+            release(post);
+            if (cache != null)
+                cache.invalidate(post.getUser());
+        }
+        reindex();
+        rewrite = true;
+        System.out.println("[DEBUG] Removed " + removed.size() + " posts.");
+    }
+
+    /**
+     * Removes every post and sequence number from the board.
+     */
+    public synchronized void clear() {
+        for (Post post : posts)
+            release(post);
+        posts.clear();
+        tombstones.clear();
+        sequences.clear();
+        reindex();
+        rewrite = true;
+        if (cache != null)
+            cache.clear();
+        System.out.println("[DEBUG] Board cleared.");
+    }
+
+    /**
+     * Keeps the payloads of posts added from now on in memory-mapped
+     * segments instead of on the heap.
+     * @param payloads the payload log.
+     */
+    public synchronized void setPayloadLog(SegmentedPayloadLog payloads) {
+        this.payloads = payloads;
+    }
+
+    /**
+     * Finds the live posts matching a condition, e.g. the ones due to move
+     * to another storage tier.
+     * @param match the condition.
+     * @return the matching posts in board order.
+     */
+    public synchronized List<Post> findPosts(Predicate<Post> match) {
+        List<Post> found = new ArrayList<>();
+        for (Post post : posts) {
+            if (!tombstones.contains(post.getId()) && match.test(post))
+                found.add(post);
+        }
+        return found;
+    }
+
+    /**
+     * Moves a post's payload to other storage. The old payload is released.
+     * A post that was deleted or removed meanwhile is left alone.
+     * @param post the post.
+     * @param payload the payload in its new storage, holding the same post.
+     * @return true if the payload was moved; false if the caller has to
+     *         release the new payload.
+     */
+    public synchronized boolean replacePayload(Post post, Payload payload) {
+        if (byId.get(post.getId()) != post || tombstones.contains(post.getId()))
+            return false;
+        release(post);
+        post.offload(payload);
+        return true;
+    }
+
+    /**
+     * Keeps the payloads of posts dropped from the board readable until
+     * {@link #unpin()}, so a long-running reader of a copy of the board,
+     * like an export, never finds its posts' storage gone.
+     */
+    public synchronized void pin() {
+        pins++;
+    }
+
+    /**
+     * Ends a {@link #pin()} and releases the payloads held back for it once
+     * no pin is left.
+     */
+    public synchronized void unpin() {
+        if (--pins == 0) {
+            for (Payload payload : held)
+                payload.release();
+            held.clear();
+        }
+    }
+
+    /**
+     * Releases the storage of a post that left the board, or holds it back
+     * while the board is pinned. The caller holds the lock.
+     * @param post the post.
+     */
+    private void release(Post post) {
+        Payload payload = post.getPayload();
+        if (payload == null)
+            return;
+        if (pins > 0)
+            held.add(payload);
+        else
+            payload.release();
+    }
+
+    /**
+     * Puts a cache of encoded mailboxes in front of the board.
+     * @param cache the cache.
+     */
+    public synchronized void setMailboxCache(MailboxCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Gets the cache of encoded mailboxes.
+     * @return the cache, or null if mailboxes are not cached.
+     */
+    public synchronized MailboxCache getMailboxCache() {
+        return cache;
+    }
+
+    /**
+     * Readies a numbered post for reads: its payload and wire form go to the
+     * payload log if there is one, otherwise the wire form is cached with
+     * the post. A post whose payload can't be stored stays on the heap. The
+     * caller holds the lock.
+     * @param post the post.
+     */
+    private void prepare(Post post) {
+        if (payloads != null && !post.isOffloaded()) {
+            try {
+                post.offload(payloads.append(post));
+                return;
+            } catch (IOException e) {
+                System.err.println("[ERROR] Failed to store payload of post " + post.getId() + ": " + e.getMessage());
+            }
+        }
+        post.cacheWire();
+    }
+
+    /**
+     * Adds a post to the indexes, numbering it if needed. The caller holds
+     * the lock.
+     * @param post the post.
+     */
+    private void index(Post post) {
+        long last = sequences.getOrDefault(post.getUser(), 0L);
+        if (post.getSeq() == 0)
+            post.setSeq(last + 1);
+        if (post.getSeq() > last)
+            sequences.put(post.getUser(), post.getSeq());
+
+        byId.put(post.getId(), post);
+        Mailbox mailbox = mailboxes.computeIfAbsent(post.getUser(), k -> new Mailbox());
+        mailbox.posts.addLast(post);
+        if (!tombstones.contains(post.getId())) {
+            mailbox.count++;
+            mailbox.bytes += post.getSize();
+            mailbox.fingerprints ^= fingerprint(post.getId());
+            if (mailbox.count == 1)
+                presence.add(post.getUser());
+            liveCount++;
+            liveBytes += post.getSize();
+        }
+    }
+
+    /**
+     * Hashes a post id to 64 bits with FNV-1a for the mailbox digest.
+     * @param id the post id.
+     * @return the fingerprint.
+     */
+    private static long fingerprint(String id) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < id.length(); i++) {
+            hash ^= id.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * Rebuilds the indexes from the post list. The caller holds the lock.
+     */
+    private void reindex() {
+        liveHead = 0;
+        byId.clear();
+        mailboxes.clear();
+        liveCount = 0;
+        liveBytes = 0;
+        for (Post post : posts)
+            index(post);
+
+        // Readers use the filter without the lock, so publish a complete new one
+        PresenceFilter rebuilt = new PresenceFilter();
+        for (Map.Entry<String, Mailbox> entry : mailboxes.entrySet()) {
+            if (entry.getValue().count > 0)
+                rebuilt.add(entry.getKey());
+        }
+        presence = rebuilt;
+    }
+
 /**
  * Converts the board to a JSON type.
  * 
@@ -58,63 +608,45 @@ public class Board implements JSONSerializable {
         System.out.println("[DEBUG] Serializing Board to JSON.");
         JSONObject boardObj = new JSONObject();
         
-        // Wrapper class for the posts array
-        PostWrapper postWrapper = new PostWrapper(posts);
-        boardObj.put("posts", postWrapper.toJSONType());
+        BoardImage image = new BoardImage(posts, tombstones, sequences);
+        boardObj.put("posts", image.toJSONType());
         
         System.out.println("[DEBUG] Board serialized to JSON: " + boardObj);
         return boardObj;
     }
 
-/**
- * Loads the board data from a file and deserializes the posts.
- * 
- * Reads the JSON object from the specified board file, verifies the
- * presence of the "posts" key, and converts the array of post JSON 
- * objects into Post instances, adding them to the board's post list.
- * If the file or key is not found, or if the key does not contain
- * an array, appropriate error messages are printed.
- * 
- * Clears the existing posts before loading new ones.
- * 
- * Handles IOExceptions that may occur during file reading.
- */
-
-    public void loadFromFile() {
-        System.out.println("[DEBUG] Loading board data from file: " + BOARD_FILE);
+    /**
+     * Replaces the board with the one kept by the store.
+     */
+    public synchronized void loadFromFile() {
+        System.out.println("[DEBUG] Loading board data from the store.");
         try {
-            JSONObject boardObj = JsonIO.readObject(new File(BOARD_FILE));
-            System.out.println("[DEBUG] Board JSON loaded: " + boardObj);
-    
-            if (!boardObj.containsKey("posts")) {
-                System.err.println("[ERROR] 'posts' key not found in board JSON.");
-                return;
-            }
-    
-            JSONArray postArray = boardObj.getArray("posts");
-    
-            if (postArray == null) {
-                System.err.println("[ERROR] 'posts' key exists but is not an array.");
-                return;
-            }
-    
+            BoardImage image = store.load();
+            for (Post post : posts)
+                release(post);
             posts.clear();
-            for (int i = 0; i < postArray.size(); i++) {
-                JSONObject postObj = postArray.getObject(i);
-                posts.add(new Post(postObj));
-                System.out.println("[DEBUG] Deserialized post: " + postObj);
-            }
-    
+            posts.addAll(image.getPosts());
+            tombstones.clear();
+            tombstones.addAll(image.getTombstones());
+            sequences.clear();
+            sequences.putAll(image.getSequences());
+            reindex();
+            // Encoding the wire forms is the bulk of the work, so do it on every core
+            ParallelLoader.forEach(posts, Post::cacheWire);
+            for (Post post : posts)
+                prepare(post);
+            if (cache != null)
+                cache.clear();
+            appended.clear();
+            deleted.clear();
+            rewrite = false;
+
             System.out.println("[DEBUG] Successfully loaded " + posts.size() + " posts.");
-    
-        } catch (IOException  e) {
+        } catch (IOException e) {
             System.err.println("[ERROR] Failed to load board data: " + e.getMessage());
             e.printStackTrace();
         }
     }
-    
-    
-    
 
 /**
  * Deserializes a JSON object into the Board instance.
@@ -139,92 +671,59 @@ public class Board implements JSONSerializable {
         // Get the array of posts from the board JSON object
         JSONArray postArray = boardObj.getArray("posts");
         System.out.println("[DEBUG] Found " + postArray.size() + " posts to deserialize.");
-        for (int i = 0; i < postArray.size(); i++) {
-            JSONObject postObj = postArray.getObject(i);
-
-            // Assuming you have a Post constructor that takes a JSONObject
-            Post post = new Post(postObj);
+        for (Post post : ParallelLoader.decode(postArray, postObj -> new Post((JSONObject) postObj))) {
             posts.add(post);
+            index(post);
             System.out.println("[DEBUG] Deserialized post: " + post);
         }
+        if (boardObj.containsKey("sequences"))
+            readSequences(boardObj.getObject("sequences"));
+    }
+
+    /**
+     * Raises the sequence numbers to the ones saved in a board file.
+     * @param obj the "sequences" object mapping recipients to numbers.
+     */
+    private void readSequences(JSONObject obj) {
+        for (String user : obj.keySet())
+            sequences.merge(user, obj.getLong(user), Math::max);
     }
 /**
- * Loads existing posts from file, adds a new post, and saves the updated list.
+ * Loads existing posts from the store, adds a new post, and saves the updated list.
  */
-public void loadAndAddPost(Post newPost) {
+public synchronized void loadAndAddPost(Post newPost) {
     System.out.println("[DEBUG] Loading board, adding post, and saving...");
-
-    // Step 1: Load from file if it exists
-    File boardFile = new File(BOARD_FILE);
-    if (boardFile.exists()) {
-        loadFromFile();  // This will populate 'posts'
-    } else {
-        System.out.println("[DEBUG] Board file does not exist. Starting with empty post list.");
-    }
-
-    // Step 2: Add the new post
+    loadFromFile();
     addPost(newPost);
-
-    // Step 3: Save updated board to file
     saveToFile();
 }
+
     /**
-     * Saves the board data to a file specified by BOARD_FILE.
-     * 
-     * Creates a PostWrapper instance to serialize the posts list as a JSONArray, and then
-     * uses JsonIO to write the formatted object to the file. Will overwrite the file if it
-     * already exists.
-     * 
-     * @see JsonIO#writeFormattedObject(JSONSerializable, File)
+     * Hands the changes made since the last save to the store. A store that
+     * keeps single changes gets the added posts and tombstoned ids; after
+     * compaction, or for a store that does not, the whole board is written.
      */
-    public void saveToFile() {
-        System.out.println("[DEBUG] Saving board data to file: " + BOARD_FILE);
+    public synchronized void saveToFile() {
+        System.out.println("[DEBUG] Saving board data to the store.");
         try {
-            // Use PostWrapper to serialize posts as a JSONArray
-            PostWrapper postWrapper = new PostWrapper(posts);
-            JsonIO.writeFormattedObject(postWrapper, new File(BOARD_FILE));
-            System.out.println("[DEBUG] Board data saved to file.");
+            if (rewrite || !store.isIncremental()) {
+                store.snapshot(new BoardImage(posts, tombstones, sequences));
+            } else {
+                for (Post post : appended)
+                    store.append(post);
+                for (Map.Entry<String, List<String>> entry : deleted.entrySet())
+                    store.delete(entry.getKey(), entry.getValue());
+            }
+            store.flush();
+            appended.clear();
+            deleted.clear();
+            rewrite = false;
+            System.out.println("[DEBUG] Board data saved.");
         } catch (IOException e) {
+            // Part of the changes may have been stored, so write everything next time
+            rewrite = true;
             System.err.println("[ERROR] Failed to save board data: " + e.getMessage());
             e.printStackTrace();
         }
     }
-
-    // Wrapper class to serialize the posts array
-    private static class PostWrapper implements JSONSerializable {
-        private final JSONArray entries;
-
-        public PostWrapper(List<Post> posts) {
-            entries = new JSONArray();
-            for (Post post : posts) {
-                entries.add(post.toJSONType());
-            }
-        }
-
-        /**
-         * Converts the object to a JSON type.
-         * @return a JSON type either JSONObject or JSONArray.
-         * The returned JSONObject contains a single field, "posts", which is a JSONArray of
-         * Post JSONTypes.
-         */
-        @Override
-        public JSONType toJSONType() {
-            JSONObject root = new JSONObject();
-            root.put("posts", entries);
-            return root;
-        }
-
-/**
- * This method is intended to deserialize a JSONType object into the PostWrapper instance.
- * 
- * @param obj the JSON object to deserialize.
- * 
- * Currently, this method is unused and does not perform any operation.
- */
-
-        @Override
-        public void deserialize(JSONType obj) {
-            // unused
-        }
-    }
 }
@@ -0,0 +1,181 @@
+package common;
+
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Consumer;
+
+import merrimackutil.json.types.JSONArray;
+import merrimackutil.json.types.JSONType;
+
+/**
+ * Decodes the arrays of the data files on a fork-join pool at startup. An
+ * array is split in halves until the pieces are small enough to decode on
+ * one thread; the pieces are decoded in parallel and joined back in their
+ * original order, so callers get the same list a sequential loop would
+ * build. Small arrays are decoded on the calling thread.
+ *
+ * The first failure of any piece is rethrown to the caller.
+ */
+public class ParallelLoader {
+    private static final int CHUNK = 256;
+
+    private ParallelLoader() {}
+
+    /**
+     * Decodes one element of an array or file.
+     * @param <S> the type of the source.
+     * @param <T> the type of the decoded object.
+     */
+    public interface Decoder<S, T> {
+        /**
+         * Decodes an element.
+         * @param source the element.
+         * @return the decoded object, or null to skip the element.
+         * @throws IOException if the element is not valid.
+         */
+        T decode(S source) throws IOException;
+    }
+
+    /**
+     * Decodes the elements of a JSON array.
+     * @param <T> the type of the decoded objects.
+     * @param array the array.
+     * @param decoder decodes one element.
+     * @return the decoded objects in array order, without skipped elements.
+     * @throws InvalidObjectException if an element is not valid.
+     */
+    public static <T> List<T> decode(JSONArray array, Decoder<JSONType, T> decoder) throws InvalidObjectException {
+        List<JSONType> elements = new ArrayList<>(array.size());
+        for (int i = 0; i < array.size(); i++)
+            elements.add((JSONType) array.get(i));
+        try {
+            return map(elements, decoder);
+        } catch (InvalidObjectException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new InvalidObjectException(e.getMessage());
+        }
+    }
+
+    /**
+     * Decodes every element of a list, e.g. the files of a directory.
+     * @param <S> the type of the sources.
+     * @param <T> the type of the decoded objects.
+     * @param sources the sources.
+     * @param decoder decodes one source.
+     * @return the decoded objects in source order, without skipped sources.
+     * @throws IOException if a source can't be decoded.
+     */
+    public static <S, T> List<T> map(List<S> sources, Decoder<S, T> decoder) throws IOException {
+        return map(sources, decoder, CHUNK);
+    }
+
+    /**
+     * Decodes every element of a list in pieces of a given size. Sources
+     * that are expensive on their own, like whole files, use a size of 1.
+     * @param <S> the type of the sources.
+     * @param <T> the type of the decoded objects.
+     * @param sources the sources.
+     * @param decoder decodes one source.
+     * @param chunk the most sources decoded by one task.
+     * @return the decoded objects in source order, without skipped sources.
+     * @throws IOException if a source can't be decoded.
+     */
+    public static <S, T> List<T> map(List<S> sources, Decoder<S, T> decoder, int chunk) throws IOException {
+        MapTask<S, T> task = new MapTask<>(sources, decoder, chunk, 0, sources.size());
+        try {
+            return sources.size() <= chunk ? task.compute() : ForkJoinPool.commonPool().invoke(task);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Runs an action on every element of a list.
+     * @param <T> the type of the elements.
+     * @param items the elements.
+     * @param action the action, which must be safe to run on different
+     *        elements concurrently.
+     */
+    public static <T> void forEach(List<T> items, Consumer<T> action) {
+        EachTask<T> task = new EachTask<>(items, action, 0, items.size());
+        if (items.size() <= CHUNK)
+            task.compute();
+        else
+            ForkJoinPool.commonPool().invoke(task);
+    }
+
+    // Decodes a range of sources, splitting it while it is large; tasks are never serialized
+    @SuppressWarnings("serial")
+    private static class MapTask<S, T> extends RecursiveTask<List<T>> {
+        private final List<S> sources;
+        private final Decoder<S, T> decoder;
+        private final int chunk;
+        private final int from;
+        private final int to;
+
+        private MapTask(List<S> sources, Decoder<S, T> decoder, int chunk, int from, int to) {
+            this.sources = sources;
+            this.decoder = decoder;
+            this.chunk = chunk;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected List<T> compute() {
+            if (to - from > chunk) {
+                int mid = (from + to) >>> 1;
+                MapTask<S, T> right = new MapTask<>(sources, decoder, chunk, mid, to);
+                right.fork();
+                List<T> result = new MapTask<>(sources, decoder, chunk, from, mid).compute();
+                result.addAll(right.join());
+                return result;
+            }
+            List<T> result = new ArrayList<>(to - from);
+            for (int i = from; i < to; i++) {
+                try {
+                    T decoded = decoder.decode(sources.get(i));
+                    if (decoded != null)
+                        result.add(decoded);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            return result;
+        }
+    }
+
+    // Runs an action on a range of elements, splitting it while it is large
+    @SuppressWarnings("serial")
+    private static class EachTask<T> extends RecursiveAction {
+        private final List<T> items;
+        private final Consumer<T> action;
+        private final int from;
+        private final int to;
+
+        private EachTask(List<T> items, Consumer<T> action, int from, int to) {
+            this.items = items;
+            this.action = action;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > CHUNK) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new EachTask<>(items, action, from, mid), new EachTask<>(items, action, mid, to));
+                return;
+            }
+            for (int i = from; i < to; i++)
+                action.accept(items.get(i));
+        }
+    }
+}
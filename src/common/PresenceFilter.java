@@ -0,0 +1,75 @@
+package common;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * A counting Bloom filter over the recipients that have live posts. A
+ * recipient is added when its mailbox goes from empty to non-empty and
+ * removed when it becomes empty again. A negative answer is certain, so a
+ * reader can skip the board entirely for an empty mailbox; a positive
+ * answer may be wrong and is checked against the board.
+ *
+ * Counters are atomic, so {@link #mightContain(String)} needs no lock.
+ */
+public class PresenceFilter {
+    private static final int COUNTERS = 1 << 16;
+    private static final int HASHES = 3;
+
+    private final AtomicIntegerArray counters = new AtomicIntegerArray(COUNTERS);
+
+    /**
+     * Adds a recipient.
+     * @param user the recipient.
+     */
+    public void add(String user) {
+        long hash = hash(user);
+        for (int i = 0; i < HASHES; i++)
+            counters.incrementAndGet(slot(hash, i));
+    }
+
+    /**
+     * Removes a recipient that was added before.
+     * @param user the recipient.
+     */
+    public void remove(String user) {
+        long hash = hash(user);
+        for (int i = 0; i < HASHES; i++)
+            counters.decrementAndGet(slot(hash, i));
+    }
+
+    /**
+     * Check if a recipient may have been added.
+     * @param user the recipient.
+     * @return false if the recipient is certainly not in the filter.
+     */
+    public boolean mightContain(String user) {
+        long hash = hash(user);
+        for (int i = 0; i < HASHES; i++) {
+            if (counters.get(slot(hash, i)) == 0)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Picks the i-th counter by double hashing the two halves of the hash.
+     */
+    private static int slot(long hash, int i) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        return (h1 + i * h2) & (COUNTERS - 1);
+    }
+
+    /**
+     * Hashes a user name to 64 bits with FNV-1a over its UTF-8 bytes.
+     */
+    private static long hash(String user) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : user.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+}
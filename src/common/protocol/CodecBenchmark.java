@@ -0,0 +1,207 @@
+package common.protocol;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import common.protocol.messages.GetResponseMessage;
+import common.protocol.messages.PostMessage;
+import merrimackutil.cli.LongOption;
+import merrimackutil.cli.OptionParser;
+import merrimackutil.json.JsonIO;
+import merrimackutil.util.Tuple;
+
+/**
+ * Compares the streaming codec with the JSONObject tree path on the two
+ * messages that carry posts: a PostMessage and a GetResponseMessage. For
+ * each it times decoding a frame and encoding a message both ways, reports
+ * the time and the bytes allocated per operation, and checks that either
+ * path reads the text of the other to the same message.
+ */
+public class CodecBenchmark {
+    private static final MessageRegistry TYPES = MessageRegistry.of(new PostMessage(), new GetResponseMessage());
+
+    private static int postCount = 50;
+    private static int postSize = 4096;
+    private static int rounds = 20;
+
+    /**
+     * An operation to time.
+     */
+    private interface Op {
+        /**
+         * Runs the operation once.
+         * @throws IOException if it fails.
+         */
+        void run() throws IOException;
+    }
+
+    /**
+     * Prints the help menu.
+     */
+    public static void usage() {
+        System.out.println("usage:");
+        System.out.println("  codec-bench [--posts <n>] [--size <bytes>] [--rounds <n>]");
+        System.out.println("options:");
+        System.out.println("  -n, --posts\t\tThe posts in the response, 50 by default.");
+        System.out.println("  -s, --size\t\tThe size of each post's message, 4096 by default.");
+        System.out.println("  -r, --rounds\t\tThe timed runs of every operation, 20 by default.");
+        System.out.println("  -h, --help\t\tDisplay the help.");
+        System.exit(1);
+    }
+
+    /**
+     * Main entry point of the benchmark.
+     * @param args the command line arguments.
+     * @throws Exception if a codec fails.
+     */
+    public static void main(String[] args) throws Exception {
+        LongOption[] opts = new LongOption[4];
+        opts[0] = new LongOption("help", false, 'h');
+        opts[1] = new LongOption("posts", true, 'n');
+        opts[2] = new LongOption("size", true, 's');
+        opts[3] = new LongOption("rounds", true, 'r');
+
+        OptionParser parser = new OptionParser(args);
+        parser.setLongOpts(opts);
+        parser.setOptString("hn:s:r:");
+
+        try {
+            while (parser.getOptIdx() != args.length) {
+                Tuple<Character, String> currOpt = parser.getLongOpt(false);
+                switch (currOpt.getFirst()) {
+                    case 'n': postCount = Integer.parseInt(currOpt.getSecond()); break;
+                    case 's': postSize = Integer.parseInt(currOpt.getSecond()); break;
+                    case 'r': rounds = Integer.parseInt(currOpt.getSecond()); break;
+                    default: usage(); break;
+                }
+            }
+        } catch (NumberFormatException e) {
+            usage();
+        }
+        if (postCount < 1 || postSize < 1 || rounds < 1)
+            usage();
+
+        List<PostMessage> posts = new ArrayList<>();
+        char[] body = new char[postSize];
+        for (int i = 0; i < postCount; i++) {
+            Arrays.fill(body, (char) ('A' + i % 26));
+            posts.add(new PostMessage("id-" + i, 1700000000000L + i, i + 1, "bob", new String(body),
+                "d3JhcHBlZGtleQ==", "aXZpdml2aXZpdg=="));
+        }
+        GetResponseMessage response = new GetResponseMessage(posts, "digest");
+
+        compare("PostMessage", posts.get(0));
+        compare("GetResponseMessage", response);
+    }
+
+    /**
+     * Benchmarks one message both ways.
+     * @param name the name to report.
+     * @param msg the message.
+     * @throws IOException if a codec fails.
+     */
+    private static void compare(String name, StreamingMessage msg) throws IOException {
+        String treeText = encodeTree(msg);
+        String streamText = encodeStream(msg);
+        if (!describe(TYPES.decodeFrame(treeText)).equals(describe(msg))
+                || !describe(decodeTree(streamText)).equals(describe(msg)))
+            throw new IOException(name + ": the codecs don't agree.");
+
+        System.out.println("[BENCH] " + name + ", " + treeText.length() + " bytes");
+        time("decode tree  ", () -> decodeTree(treeText));
+        time("decode stream", () -> TYPES.decodeFrame(treeText));
+        time("encode tree  ", () -> encodeTree(msg));
+        time("encode stream", () -> encodeStream(msg));
+    }
+
+    /**
+     * Times an operation after warming it up.
+     * @param label the label to report.
+     * @param op the operation.
+     * @throws IOException if the operation fails.
+     */
+    private static void time(String label, Op op) throws IOException {
+        for (int i = 0; i < Math.max(rounds / 5, 5); i++)
+            op.run();
+        long bytes = allocated();
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++)
+            op.run();
+        long micros = (System.nanoTime() - start) / 1000 / rounds;
+        bytes = bytes < 0 ? -1 : (allocated() - bytes) / rounds;
+        System.out.println("[BENCH]   " + label + " " + micros + " us/op"
+            + (bytes < 0 ? "" : ", " + bytes / 1024 + " KB allocated/op"));
+    }
+
+    /**
+     * Decodes a frame the way channels did before streaming.
+     * @param frame the JSON text.
+     * @return the message.
+     * @throws IOException if the text is not a valid message.
+     */
+    private static Message decodeTree(String frame) throws IOException {
+        return TYPES.decode(JsonPullParser.peekType(frame), JsonIO.readObject(frame));
+    }
+
+    /**
+     * Encodes a message the way channels did before streaming.
+     * @param msg the message.
+     * @return the JSON text.
+     */
+    private static String encodeTree(Message msg) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PrintWriter writer = new PrintWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        JsonIO.writeSerializedObject(msg, writer);
+        writer.flush();
+        return out.toString(StandardCharsets.UTF_8).trim();
+    }
+
+    /**
+     * Encodes a message with the streaming writer.
+     * @param msg the message.
+     * @return the JSON text.
+     * @throws IOException if the write fails.
+     */
+    private static String encodeStream(StreamingMessage msg) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        msg.write(new JsonStreamWriter(out));
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Describes every field of a message, to compare two decodes.
+     * @param msg the message.
+     * @return the description.
+     */
+    private static String describe(Message msg) {
+        if (msg instanceof GetResponseMessage) {
+            GetResponseMessage response = (GetResponseMessage) msg;
+            StringBuilder sb = new StringBuilder(String.valueOf(response.getDigest()));
+            for (PostMessage post : response.getPosts())
+                sb.append('|').append(describe(post));
+            return sb.toString();
+        }
+        PostMessage post = (PostMessage) msg;
+        return post.getType() + "," + post.getId() + "," + post.getTimestamp() + "," + post.getSeq() + ","
+            + post.getUser() + "," + post.getWrappedKey() + "," + post.getIv() + "," + post.getMessage().hashCode();
+    }
+
+    /**
+     * Gets the bytes the current thread has allocated so far.
+     * @return the bytes, or -1 if the JVM doesn't count them.
+     */
+    private static long allocated() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean)
+            return ((com.sun.management.ThreadMXBean) threads).getCurrentThreadAllocatedBytes();
+        return -1;
+    }
+}
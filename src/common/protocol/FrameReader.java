@@ -0,0 +1,137 @@
+package common.protocol;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads newline-terminated frames from a stream and counts their bytes as
+ * they arrive, so an oversized frame is cut off without ever being held in
+ * memory. Every frame is bounded by the largest configured limit; once the
+ * message type has come in, the limit of that type applies, and a frame
+ * whose type shows up only at the end is checked against it there.
+ *
+ * A frame that is cut off leaves the rest of it unread, so the stream can't
+ * be read any further and the connection has to be closed.
+ */
+public class FrameReader {
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int FIRST_PEEK = 4096;
+
+    private final InputStream in;
+    private final byte[] chunk = new byte[BUFFER_SIZE];
+    private int pos;
+    private int end;
+    private int defaultLimit = Integer.MAX_VALUE;
+    private Map<String, Integer> typeLimits = new HashMap<>();
+    private int maxLimit = Integer.MAX_VALUE;
+    private byte[] buf = new byte[1024];
+
+    /**
+     * Creates a reader without limits.
+     * @param in the stream to read from.
+     */
+    public FrameReader(InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Sets the size limits of frames.
+     * @param defaultLimit the limit of types without their own, in bytes.
+     * @param typeLimits the limits of single message types, in bytes.
+     */
+    public void setLimits(int defaultLimit, Map<String, Integer> typeLimits) {
+        this.defaultLimit = defaultLimit;
+        this.typeLimits = new HashMap<>(typeLimits);
+        int max = defaultLimit;
+        for (int limit : typeLimits.values())
+            max = Math.max(max, limit);
+        this.maxLimit = max;
+    }
+
+    /**
+     * Reads the next frame.
+     * @return the frame without its line terminator; empty for an empty line.
+     * @throws NoSuchElementException if the stream ended or failed.
+     * @throws FrameTooLargeException if the frame is over its limit.
+     */
+    public String readFrame() throws FrameTooLargeException {
+        int len = 0;
+        int nextPeek = FIRST_PEEK;
+        int limit = maxLimit;
+        boolean typed = false;
+        while (true) {
+            if (pos == end && !fill()) {
+                if (len == 0)
+                    throw new NoSuchElementException("No frame found");
+                break;
+            }
+            byte b = chunk[pos++];
+            if (b == '\n')
+                break;
+            if (len >= limit)
+                throw new FrameTooLargeException(limit);
+            if (len == buf.length)
+                buf = Arrays.copyOf(buf, (int) Math.min(Math.min((long) buf.length * 2, (long) maxLimit + 1),
+                    Integer.MAX_VALUE - 8));
+            buf[len++] = b;
+
+            // Look for the type as the frame grows, at doubling sizes so it costs linear time
+            if (!typed && len == nextPeek) {
+                String type = Frames.peekString(new String(buf, 0, len, StandardCharsets.UTF_8), "type");
+                if (type != null) {
+                    typed = true;
+                    limit = limitFor(type);
+                    if (len > limit)
+                        throw new FrameTooLargeException(limit);
+                }
+                nextPeek = nextPeek > Integer.MAX_VALUE / 2 ? Integer.MAX_VALUE : nextPeek * 2;
+            }
+        }
+
+        if (len > 0 && buf[len - 1] == '\r')
+            len--;
+        String frame = new String(buf, 0, len, StandardCharsets.UTF_8);
+        if (buf.length > BUFFER_SIZE)
+            buf = new byte[1024];
+        if (!typed && len > defaultLimit) {
+            String type = Frames.peekString(frame, "type");
+            int own = type == null ? defaultLimit : limitFor(type);
+            if (len > own)
+                throw new FrameTooLargeException(own);
+        }
+        return frame;
+    }
+
+    /**
+     * Reads more bytes from the stream into the chunk buffer.
+     * @return false at the end of the stream.
+     * @throws NoSuchElementException if the read fails.
+     */
+    private boolean fill() {
+        int n;
+        try {
+            n = in.read(chunk);
+        } catch (IOException e) {
+            throw new NoSuchElementException(e.getMessage());
+        }
+        if (n <= 0)
+            return false;
+        pos = 0;
+        end = n;
+        return true;
+    }
+
+    /**
+     * Gets the limit of a message type.
+     * @param type the type.
+     * @return the limit in bytes.
+     */
+    private int limitFor(String type) {
+        return typeLimits.getOrDefault(type, defaultLimit);
+    }
+}
@@ -0,0 +1,20 @@
+package common.protocol;
+
+import java.io.InvalidObjectException;
+
+/**
+ * Thrown when a received frame is refused before it is decoded, e.g.
+ * because the server is over its memory budget. The message is the reason
+ * to tell the peer.
+ */
+public class FrameRejectedException extends InvalidObjectException {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Creates the exception.
+     * @param reason why the frame was refused.
+     */
+    public FrameRejectedException(String reason) {
+        super(reason);
+    }
+}
@@ -0,0 +1,17 @@
+package common.protocol;
+
+/**
+ * Thrown when a frame grows past its size limit. The rest of the frame is
+ * left unread, so the channel can't be used any more and must be closed.
+ */
+public class FrameTooLargeException extends FrameRejectedException {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Creates the exception.
+     * @param limit the limit the frame went past, in bytes.
+     */
+    public FrameTooLargeException(int limit) {
+        super("Message is larger than " + limit + " bytes.");
+    }
+}
@@ -0,0 +1,58 @@
+package common.protocol;
+
+/**
+ * Reads single fields out of the JSON text of a frame without parsing it,
+ * so a frame can be judged by its type and user before any objects are
+ * built for it. Only top-level string fields of flat messages are found:
+ * inside a JSON string every quote is escaped, so an unescaped quoted key
+ * followed by a colon can only be a key.
+ */
+public class Frames {
+
+    private Frames() {}
+
+    /**
+     * Finds the value of a string field.
+     * @param frame the JSON text of the frame.
+     * @param key the name of the field.
+     * @return the value, or null if the field is missing, not a plain
+     *         string or contains escapes.
+     */
+    public static String peekString(String frame, String key) {
+        String quoted = "\"" + key + "\"";
+        int from = 0;
+        while (true) {
+            int at = frame.indexOf(quoted, from);
+            if (at < 0)
+                return null;
+            from = at + quoted.length();
+            if (at > 0 && frame.charAt(at - 1) == '\\')
+                continue;
+            int pos = skipSpace(frame, from);
+            if (pos >= frame.length() || frame.charAt(pos) != ':')
+                continue;
+            pos = skipSpace(frame, pos + 1);
+            if (pos >= frame.length() || frame.charAt(pos) != '"')
+                return null;
+            int end = pos + 1;
+            while (end < frame.length() && frame.charAt(end) != '"') {
+                if (frame.charAt(end) == '\\')
+                    return null;
+                end++;
+            }
+            return end < frame.length() ? frame.substring(pos + 1, end) : null;
+        }
+    }
+
+    /**
+     * Skips JSON whitespace.
+     * @param s the text.
+     * @param pos where to start.
+     * @return the position of the next other character.
+     */
+    private static int skipSpace(String s, int pos) {
+        while (pos < s.length() && Character.isWhitespace(s.charAt(pos)))
+            pos++;
+        return pos;
+    }
+}
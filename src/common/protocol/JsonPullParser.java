@@ -0,0 +1,301 @@
+package common.protocol;
+
+import java.io.InvalidObjectException;
+
+/**
+ * Reads the JSON text of a frame token by token, so a message can bind its
+ * fields straight from the text instead of from a JSONObject tree built
+ * first. It accepts what merrimackutil writes and reads it the same way: a
+ * string runs to the next quote and is taken as it is, backslashes
+ * included, and a number with a fraction or exponent is cut to a long.
+ *
+ * The caller walks the structure it expects:
+ * <pre>
+ * in.beginObject();
+ * while (in.hasNext()) {
+ *     switch (in.nextName()) {
+ *         case "user": user = in.nextString(); break;
+ *         default: in.skipValue();
+ *     }
+ * }
+ * in.endObject();
+ * </pre>
+ */
+public class JsonPullParser {
+    private final String text;
+    private int pos;
+    // A value was just read, so the next member of its container needs a comma
+    private boolean afterValue;
+
+    /**
+     * Creates a parser at the start of a text.
+     * @param text the JSON text.
+     */
+    public JsonPullParser(String text) {
+        this.text = text;
+    }
+
+    /**
+     * Finds the type of a message without parsing the values of its other
+     * fields. Only the top level is looked at, so the types of nested
+     * objects, e.g. the posts of a response, are never mistaken for it.
+     * @param frame the JSON text of the message.
+     * @return the type, or null if the text is not an object with a string
+     *         "type" field.
+     */
+    public static String peekType(String frame) {
+        JsonPullParser in = new JsonPullParser(frame);
+        try {
+            in.beginObject();
+            while (in.hasNext()) {
+                if (in.nextName().equals("type"))
+                    return in.peek() == '"' ? in.nextString() : null;
+                in.skipValue();
+            }
+        } catch (InvalidObjectException e) {
+            // Not an object we can read, the caller falls back to a tree
+        }
+        return null;
+    }
+
+    /**
+     * Reads the start of an object.
+     * @throws InvalidObjectException if the next token is not '{'.
+     */
+    public void beginObject() throws InvalidObjectException {
+        begin('{');
+    }
+
+    /**
+     * Reads the end of an object.
+     * @throws InvalidObjectException if the next token is not '}'.
+     */
+    public void endObject() throws InvalidObjectException {
+        end('}');
+    }
+
+    /**
+     * Reads the start of an array.
+     * @throws InvalidObjectException if the next token is not '['.
+     */
+    public void beginArray() throws InvalidObjectException {
+        begin('[');
+    }
+
+    /**
+     * Reads the end of an array.
+     * @throws InvalidObjectException if the next token is not ']'.
+     */
+    public void endArray() throws InvalidObjectException {
+        end(']');
+    }
+
+    /**
+     * Checks whether the current object or array has another member, and
+     * reads the comma before it.
+     * @return false at the end of the object or array.
+     * @throws InvalidObjectException if the text ends or a comma is missing.
+     */
+    public boolean hasNext() throws InvalidObjectException {
+        char c = peek();
+        if (c == '}' || c == ']')
+            return false;
+        if (afterValue) {
+            if (c != ',')
+                throw error("expected ','");
+            pos++;
+            afterValue = false;
+        }
+        return true;
+    }
+
+    /**
+     * Reads the name of the next field of an object and the colon after it.
+     * @return the name.
+     * @throws InvalidObjectException if the next token is not a name.
+     */
+    public String nextName() throws InvalidObjectException {
+        String name = readString();
+        if (peek() != ':')
+            throw error("expected ':'");
+        pos++;
+        afterValue = false;
+        return name;
+    }
+
+    /**
+     * Reads a string value.
+     * @return the string, or null for a JSON null.
+     * @throws InvalidObjectException if the next value is not a string.
+     */
+    public String nextString() throws InvalidObjectException {
+        if (peek() == 'n') {
+            literal("null");
+            afterValue = true;
+            return null;
+        }
+        String value = readString();
+        afterValue = true;
+        return value;
+    }
+
+    /**
+     * Reads a number value as a long.
+     * @return the number, with any fraction cut off.
+     * @throws InvalidObjectException if the next value is not a number.
+     */
+    public long nextLong() throws InvalidObjectException {
+        peek();
+        int start = pos;
+        boolean whole = true;
+        while (pos < text.length()) {
+            char c = text.charAt(pos);
+            if (c == '.' || c == 'e' || c == 'E' || c == '+')
+                whole = false;
+            else if (c != '-' && (c < '0' || c > '9'))
+                break;
+            pos++;
+        }
+        if (pos == start)
+            throw error("expected a number");
+        String number = text.substring(start, pos);
+        afterValue = true;
+        try {
+            return whole ? Long.parseLong(number) : (long) Double.parseDouble(number);
+        } catch (NumberFormatException e) {
+            throw error("bad number " + number);
+        }
+    }
+
+    /**
+     * Reads a boolean value.
+     * @return the boolean.
+     * @throws InvalidObjectException if the next value is not a boolean.
+     */
+    public boolean nextBoolean() throws InvalidObjectException {
+        boolean value = peek() == 't';
+        literal(value ? "true" : "false");
+        afterValue = true;
+        return value;
+    }
+
+    /**
+     * Skips the next value, with everything nested in it.
+     * @throws InvalidObjectException if the next value is not valid JSON.
+     */
+    public void skipValue() throws InvalidObjectException {
+        char c = peek();
+        if (c == '{') {
+            beginObject();
+            while (hasNext()) {
+                nextName();
+                skipValue();
+            }
+            endObject();
+        } else if (c == '[') {
+            beginArray();
+            while (hasNext())
+                skipValue();
+            endArray();
+        } else if (c == '"') {
+            nextString();
+        } else if (c == 't' || c == 'f') {
+            nextBoolean();
+        } else if (c == 'n') {
+            literal("null");
+            afterValue = true;
+        } else {
+            nextLong();
+        }
+    }
+
+    /**
+     * Checks that nothing but whitespace follows the value read.
+     * @throws InvalidObjectException if there is more text.
+     */
+    public void finish() throws InvalidObjectException {
+        skipSpace();
+        if (pos < text.length())
+            throw error("expected the end of the text");
+    }
+
+    /**
+     * Reads the opening bracket of an object or array.
+     * @param bracket the bracket.
+     * @throws InvalidObjectException if the next token is something else.
+     */
+    private void begin(char bracket) throws InvalidObjectException {
+        if (peek() != bracket)
+            throw error("expected '" + bracket + "'");
+        pos++;
+        afterValue = false;
+    }
+
+    /**
+     * Reads the closing bracket of an object or array.
+     * @param bracket the bracket.
+     * @throws InvalidObjectException if the next token is something else.
+     */
+    private void end(char bracket) throws InvalidObjectException {
+        if (peek() != bracket)
+            throw error("expected '" + bracket + "'");
+        pos++;
+        afterValue = true;
+    }
+
+    /**
+     * Reads a quoted string.
+     * @return the text between the quotes.
+     * @throws InvalidObjectException if there is no string.
+     */
+    private String readString() throws InvalidObjectException {
+        if (peek() != '"')
+            throw error("expected a string");
+        int close = text.indexOf('"', pos + 1);
+        if (close < 0)
+            throw error("unterminated string");
+        String value = text.substring(pos + 1, close);
+        pos = close + 1;
+        return value;
+    }
+
+    /**
+     * Reads a keyword.
+     * @param word the keyword.
+     * @throws InvalidObjectException if the text doesn't continue with it.
+     */
+    private void literal(String word) throws InvalidObjectException {
+        if (!text.startsWith(word, pos))
+            throw error("expected " + word);
+        pos += word.length();
+    }
+
+    /**
+     * Skips whitespace and returns the next character without reading it.
+     * @return the character.
+     * @throws InvalidObjectException if the text ends.
+     */
+    private char peek() throws InvalidObjectException {
+        skipSpace();
+        if (pos >= text.length())
+            throw error("unexpected end of the text");
+        return text.charAt(pos);
+    }
+
+    /**
+     * Skips JSON whitespace.
+     */
+    private void skipSpace() {
+        while (pos < text.length() && Character.isWhitespace(text.charAt(pos)))
+            pos++;
+    }
+
+    /**
+     * Builds the exception for malformed text.
+     * @param what what went wrong.
+     * @return the exception.
+     */
+    private InvalidObjectException error(String what) {
+        return new InvalidObjectException("Bad JSON at " + pos + ": " + what + ".");
+    }
+}
@@ -0,0 +1,151 @@
+package common.protocol;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes JSON text straight to a stream in UTF-8, so a message can be sent
+ * from its fields without building a JSONObject tree and a string of it
+ * first. Strings are written as they are, the way merrimackutil writes
+ * them, so the text parses to the same message on either side.
+ */
+public class JsonStreamWriter {
+    private static final byte[] NULL = "null".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] TRUE = "true".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] FALSE = "false".getBytes(StandardCharsets.US_ASCII);
+
+    private final OutputStream out;
+    // A value was just written, so the next member of its container needs a comma
+    private boolean afterValue;
+
+    /**
+     * Creates a writer.
+     * @param out the stream; the caller buffers and flushes it.
+     */
+    public JsonStreamWriter(OutputStream out) {
+        this.out = out;
+    }
+
+    /**
+     * Starts an object.
+     * @return this writer.
+     * @throws IOException if the write fails.
+     */
+    public JsonStreamWriter beginObject() throws IOException {
+        separate();
+        out.write('{');
+        afterValue = false;
+        return this;
+    }
+
+    /**
+     * Ends an object.
+     * @return this writer.
+     * @throws IOException if the write fails.
+     */
+    public JsonStreamWriter endObject() throws IOException {
+        out.write('}');
+        afterValue = true;
+        return this;
+    }
+
+    /**
+     * Starts an array.
+     * @return this writer.
+     * @throws IOException if the write fails.
+     */
+    public JsonStreamWriter beginArray() throws IOException {
+        separate();
+        out.write('[');
+        afterValue = false;
+        return this;
+    }
+
+    /**
+     * Ends an array.
+     * @return this writer.
+     * @throws IOException if the write fails.
+     */
+    public JsonStreamWriter endArray() throws IOException {
+        out.write(']');
+        afterValue = true;
+        return this;
+    }
+
+    /**
+     * Writes the name of the next field of an object.
+     * @param name the name.
+     * @return this writer.
+     * @throws IOException if the write fails.
+     */
+    public JsonStreamWriter name(String name) throws IOException {
+        separate();
+        quote(name);
+        out.write(':');
+        afterValue = false;
+        return this;
+    }
+
+    /**
+     * Writes a string value.
+     * @param value the string, or null for a JSON null.
+     * @return this writer.
+     * @throws IOException if the write fails.
+     */
+    public JsonStreamWriter value(String value) throws IOException {
+        separate();
+        if (value == null)
+            out.write(NULL);
+        else
+            quote(value);
+        afterValue = true;
+        return this;
+    }
+
+    /**
+     * Writes a number value.
+     * @param value the number.
+     * @return this writer.
+     * @throws IOException if the write fails.
+     */
+    public JsonStreamWriter value(long value) throws IOException {
+        separate();
+        out.write(Long.toString(value).getBytes(StandardCharsets.US_ASCII));
+        afterValue = true;
+        return this;
+    }
+
+    /**
+     * Writes a boolean value.
+     * @param value the boolean.
+     * @return this writer.
+     * @throws IOException if the write fails.
+     */
+    public JsonStreamWriter value(boolean value) throws IOException {
+        separate();
+        out.write(value ? TRUE : FALSE);
+        afterValue = true;
+        return this;
+    }
+
+    /**
+     * Writes the comma between two members of an object or array.
+     * @throws IOException if the write fails.
+     */
+    private void separate() throws IOException {
+        if (afterValue)
+            out.write(',');
+    }
+
+    /**
+     * Writes a quoted string.
+     * @param s the string.
+     * @throws IOException if the write fails.
+     */
+    private void quote(String s) throws IOException {
+        out.write('"');
+        out.write(s.getBytes(StandardCharsets.UTF_8));
+        out.write('"');
+    }
+}
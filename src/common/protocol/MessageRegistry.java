@@ -0,0 +1,91 @@
+package common.protocol;
+
+import merrimackutil.json.JsonIO;
+import merrimackutil.json.types.JSONObject;
+
+import java.io.InvalidObjectException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An immutable table of the message types a channel can decode, keyed by
+ * their type names. Decoding never changes a prototype, so one registry is
+ * built once and shared by every channel of the same kind instead of each
+ * channel allocating and filling its own table.
+ */
+public final class MessageRegistry {
+    /** The registry without any types. */
+    public static final MessageRegistry EMPTY = new MessageRegistry(Map.of());
+
+    private final Map<String, Message> prototypes;
+
+    /**
+     * Creates a registry.
+     * @param prototypes the prototypes by type name; not copied.
+     */
+    private MessageRegistry(Map<String, Message> prototypes) {
+        this.prototypes = prototypes;
+    }
+
+    /**
+     * Builds a registry of the given types.
+     * @param prototypes an instance of every type.
+     * @return the registry.
+     * @throws IllegalArgumentException if two prototypes have the same type.
+     */
+    public static MessageRegistry of(Message... prototypes) {
+        Map<String, Message> types = new HashMap<>();
+        for (Message prototype : prototypes) {
+            if (types.put(prototype.getType(), prototype) != null)
+                throw new IllegalArgumentException("Message type " + prototype.getType() + " is registered twice.");
+        }
+        return new MessageRegistry(Map.copyOf(types));
+    }
+
+    /**
+     * Builds a registry with one more type. A type that is already
+     * registered is replaced.
+     * @param prototype an instance of the type.
+     * @return the new registry; this one is unchanged.
+     */
+    public MessageRegistry with(Message prototype) {
+        Map<String, Message> types = new HashMap<>(prototypes);
+        types.put(prototype.getType(), prototype);
+        return new MessageRegistry(Map.copyOf(types));
+    }
+
+    /**
+     * Decodes a message with the prototype of its type.
+     * @param type the type name of the message.
+     * @param obj the JSON object of the message.
+     * @return the message, or null if the type is not registered.
+     * @throws InvalidObjectException if the object is not a valid
+     *         message of its type.
+     */
+    public Message decode(String type, JSONObject obj) throws InvalidObjectException {
+        Message prototype = type == null ? null : prototypes.get(type);
+        return prototype == null ? null : prototype.decode(obj);
+    }
+
+    /**
+     * Decodes a message from the JSON text of its frame. A type that can
+     * stream binds its fields straight from the text; other types, and text
+     * whose type can't be found, are parsed into a tree first.
+     * @param frame the JSON text.
+     * @return the message, or null if its type is not registered.
+     * @throws InvalidObjectException if the text is not a valid message of
+     *         its type.
+     */
+    public Message decodeFrame(String frame) throws InvalidObjectException {
+        String type = JsonPullParser.peekType(frame);
+        Message prototype = type == null ? null : prototypes.get(type);
+        if (prototype instanceof StreamingMessage) {
+            JsonPullParser in = new JsonPullParser(frame);
+            Message msg = ((StreamingMessage) prototype).read(in);
+            in.finish();
+            return msg;
+        }
+        JSONObject obj = JsonIO.readObject(frame);
+        return decode(obj.getString("type"), obj);
+    }
+}
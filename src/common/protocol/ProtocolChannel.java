@@ -16,16 +16,16 @@
  */
 package common.protocol;
 
-import merrimackutil.json.types.JSONObject;
 import merrimackutil.json.JsonIO;
 import java.net.Socket;
-import java.util.Scanner;
 
 import common.protocol.messages.StatusMessage;
 
+import java.io.BufferedOutputStream;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.io.InvalidObjectException;
-import java.util.HashMap;
+import java.util.Map;
 import java.io.IOException;
 
 /**
@@ -37,9 +37,12 @@ import java.io.IOException;
  public class ProtocolChannel
  {
     private Socket sock;        // The socket associated with the channel.
+    private OutputStream raw;
     private PrintWriter out;
-    private Scanner in;
-    private HashMap<String, Message> knownTypes;
+    private boolean rawError;
+    private FrameReader in;
+    private MessageRegistry knownTypes;
+    private FrameFilter filter;
     private boolean doTracing;
 
     /**
@@ -54,9 +57,10 @@ import java.io.IOException;
       if (!sock.isConnected())
         throw new IllegalArgumentException("Socket must be connected.");
       this.sock = sock;
-      out = new PrintWriter(sock.getOutputStream(), true);
-      in = new Scanner(sock.getInputStream());
-      knownTypes = new HashMap<>();
+      raw = new BufferedOutputStream(sock.getOutputStream());
+      out = new PrintWriter(raw, true);
+      in = new FrameReader(sock.getInputStream());
+      knownTypes = MessageRegistry.EMPTY;
       doTracing = false;
     }
 
@@ -68,13 +72,55 @@ import java.io.IOException;
       doTracing = !doTracing;
     }
 
+   /**
+    * Limit the size of received frames. A frame over its limit is cut off
+    * as it arrives and the channel has to be closed.
+    * @param defaultLimit the limit of message types without their own, in bytes.
+    * @param typeLimits the limits of single message types, in bytes.
+    */
+    public void setFrameLimits(int defaultLimit, Map<String, Integer> typeLimits)
+    {
+      in.setLimits(defaultLimit, typeLimits);
+    }
+
+   /**
+    * Judges received frames before they are decoded.
+    */
+   public interface FrameFilter
+   {
+    /**
+     * Decides whether a frame may be decoded.
+     * @param frame the JSON text of the frame.
+     * @return null to decode the frame, or the reason it is refused.
+     */
+    String admit(String frame);
+   }
+
+   /**
+    * Set the filter every received frame has to pass before it is decoded.
+    * @param filter the filter, or null to decode every frame.
+    */
+    public void setFrameFilter(FrameFilter filter)
+    {
+      this.filter = filter;
+    }
+
    /**
     * Add a new known message type.
     * @param msg an instance of the new message type to add.
     */
     public void addMessageType(Message msg)
     {
-      knownTypes.put(msg.getType(), msg);
+      knownTypes = knownTypes.with(msg);
+    }
+
+   /**
+    * Replace the known message types with a shared registry.
+    * @param types the registry of the types the channel can decode.
+    */
+    public void setMessageTypes(MessageRegistry types)
+    {
+      knownTypes = types;
     }
 
    /**
@@ -83,12 +129,56 @@ import java.io.IOException;
     */
    public void sendMessage(Message msg)
    {
+    if (msg instanceof StreamingMessage)
+    {
+      // Written from its fields, terminated the way the tree form is
+      StreamingMessage streaming = (StreamingMessage) msg;
+      sendFrame(msg.toString(), out -> streaming.write(new JsonStreamWriter(out)));
+      return;
+    }
     trace("Local -> Remote: " + msg);
     JsonIO.writeSerializedObject(msg, out);
     out.println();
     out.flush();
    }
 
+   /**
+    * Writes the JSON text of a frame straight to the socket.
+    */
+   public interface FrameBody
+   {
+    /**
+     * Writes the frame without its line terminators.
+     * @param out the buffered socket stream.
+     * @throws IOException if the write fails.
+     */
+    void writeTo(OutputStream out) throws IOException;
+   }
+
+   /**
+    * Send a frame whose JSON text is already encoded, e.g. posts kept in
+    * their wire form. The frame is terminated the same way as
+    * {@link #sendMessage(Message)} terminates one.
+    * @param description what the frame holds, for tracing.
+    * @param body writes the JSON text of the frame.
+    */
+   public void sendFrame(String description, FrameBody body)
+   {
+    trace("Local -> Remote: " + description);
+    try
+    {
+      out.flush();
+      body.writeTo(raw);
+      byte[] end = (System.lineSeparator() + System.lineSeparator()).getBytes();
+      raw.write(end);
+      raw.flush();
+    }
+    catch (IOException ex)
+    {
+      rawError = true;
+    }
+   }
+
    /**
     * Receive a message from the other end of the
     * channel.
@@ -97,21 +187,41 @@ import java.io.IOException;
     * the message can
     * @throws InvalidObjectException if the recieved message
     * can not be decoded.
+    * @throws FrameRejectedException if the frame filter refused the message;
+    * the channel is still usable.
+    * @throws FrameTooLargeException if the frame is over its size limit; the
+    * channel must be closed.
     */
    public Message receiveMessage() throws InvalidObjectException
    {
-    String raw = in.nextLine();
-    JSONObject obj = JsonIO.readObject(raw);
-    Message m;
-    if (knownTypes.containsKey(obj.getString("type")))
-      m = knownTypes.get(obj.getString("type")).decode(obj);
-    else
+    String raw = in.readFrame();
+    if (filter != null && !raw.isEmpty())
+    {
+      String reason = filter.admit(raw);
+      if (reason != null)
+      {
+        trace("Remote -> Local: refused, " + reason);
+        throw new FrameRejectedException(reason);
+      }
+    }
+    Message m = knownTypes.decodeFrame(raw);
+    if (m == null)
       throw new InvalidObjectException("Not a valid message.");
 
     trace("Remote -> Local: " + m);
     return m;
    }
 
+   /**
+    * Check if a previous send has failed, for example because the peer
+    * closed the connection.
+    * @return true if the channel has seen a write error; otherwise, false.
+    */
+   public boolean checkError()
+   {
+    return out.checkError() || rawError;
+   }
+
    /**
     *  Close the channel.
     */
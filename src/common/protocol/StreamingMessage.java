@@ -0,0 +1,29 @@
+package common.protocol;
+
+import java.io.IOException;
+import java.io.InvalidObjectException;
+
+/**
+ * A message that reads and writes its JSON text field by field. Channels
+ * decode and send such messages without a JSONObject tree in between,
+ * which saves copying the large Base64 fields of posts several times. The
+ * text is the same as the tree form, so peers using either form agree.
+ */
+public interface StreamingMessage extends Message {
+
+    /**
+     * Reads a message of this type.
+     * @param in the parser, at the start of the message's object.
+     * @return the message.
+     * @throws InvalidObjectException if the text is not a valid message of
+     *         this type.
+     */
+    Message read(JsonPullParser in) throws InvalidObjectException;
+
+    /**
+     * Writes the message as a JSON object.
+     * @param out the writer.
+     * @throws IOException if the write fails.
+     */
+    void write(JsonStreamWriter out) throws IOException;
+}
@@ -0,0 +1,113 @@
+package common.protocol.messages;
+
+import common.protocol.Message;
+import merrimackutil.json.types.JSONArray;
+import merrimackutil.json.types.JSONObject;
+import merrimackutil.json.types.JSONType;
+
+import java.io.InvalidObjectException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Acknowledges posts a recipient has read so the server can delete them.
+ * Only accepted on a connection that authenticated as the recipient.
+ */
+public class AckMessage implements Message {
+    private String user;
+    private List<String> ids;
+
+    public AckMessage() {
+        this.ids = new ArrayList<>();
+    }
+
+    public AckMessage(String user, List<String> ids) {
+        this.user = user;
+        this.ids = ids;
+    }
+
+    /**
+     * Returns the recipient acknowledging the posts.
+     * @return the username.
+     */
+    public String getUser() {
+        return user;
+    }
+
+    /**
+     * Returns the ids of the acknowledged posts.
+     * @return the post ids.
+     */
+    public List<String> getIds() {
+        return ids;
+    }
+
+    /**
+     * Gets the message type as a string.
+     * @return the message type as a string.
+     */
+    @Override
+    public String getType() {
+        return "Ack";
+    }
+
+    /**
+     * Converts the object to a JSON type.
+     * @return a JSON type either JSONObject or JSONArray.
+     */
+    @Override
+    public JSONType toJSONType() {
+        JSONArray array = new JSONArray();
+        array.addAll(ids);
+
+        JSONObject obj = new JSONObject();
+        obj.put("type", getType());
+        obj.put("user", user);
+        obj.put("ids", array);
+        return obj;
+    }
+
+    /**
+     * Deserialize a JSON object into an AckMessage instance.
+     * @param obj the JSON object to deserialize
+     * @throws InvalidObjectException if the object is not a JSON object or a
+     *                                field is missing.
+     */
+    @Override
+    public void deserialize(JSONType obj) throws InvalidObjectException {
+        if (!(obj instanceof JSONObject)) {
+            throw new InvalidObjectException("Expected JSONObject.");
+        }
+        JSONObject json = (JSONObject) obj;
+        json.checkValidity(new String[]{"user", "ids"});
+        this.user = json.getString("user");
+
+        JSONArray array = json.getArray("ids");
+        ids = new ArrayList<>();
+        for (int i = 0; i < array.size(); i++) {
+            ids.add(array.getString(i));
+        }
+    }
+
+    /**
+     * Decodes a JSON object into an AckMessage instance.
+     * @param obj the JSON object to decode
+     * @return an AckMessage instance
+     * @throws InvalidObjectException if required fields are missing
+     */
+    @Override
+    public Message decode(JSONObject obj) throws InvalidObjectException {
+        AckMessage msg = new AckMessage();
+        msg.deserialize(obj);
+        return msg;
+    }
+
+    /**
+     * Returns a string representation of the object.
+     * @return a string representation of the object
+     */
+    @Override
+    public String toString() {
+        return "[AckMessage] user=" + user + ", ids=" + ids.size();
+    }
+}
@@ -8,6 +8,8 @@ import java.io.InvalidObjectException;
 
 public class GetMessage implements Message {
     private String user;
+    private long since;
+    private String ifNoneMatch;
 
     public GetMessage() {}
 
@@ -15,6 +17,16 @@ public class GetMessage implements Message {
         this.user = user;
     }
 
+    /**
+     * Constructs a request for the posts after a sequence number.
+     * @param user the recipient.
+     * @param since the last sequence number the client has seen, 0 for all posts.
+     */
+    public GetMessage(String user, long since) {
+        this.user = user;
+        this.since = since;
+    }
+
     /**
      * Returns the username to get posts from.
      * @return the username.
@@ -23,6 +35,34 @@ public class GetMessage implements Message {
         return user;
     }
 
+    /**
+     * Constructs a conditional request that the server answers with a
+     * not-modified status if the mailbox digest still matches.
+     * @param user the recipient.
+     * @param since the last sequence number the client has seen, 0 for all posts.
+     * @param ifNoneMatch the mailbox digest from the previous response, or null.
+     */
+    public GetMessage(String user, long since, String ifNoneMatch) {
+        this(user, since);
+        this.ifNoneMatch = ifNoneMatch;
+    }
+
+    /**
+     * Returns the mailbox digest the client already has.
+     * @return the digest, or null for an unconditional request.
+     */
+    public String getIfNoneMatch() {
+        return ifNoneMatch;
+    }
+
+    /**
+     * Returns the last sequence number the client has seen.
+     * @return the sequence number, 0 to get every post.
+     */
+    public long getSince() {
+        return since;
+    }
+
     /**
      * Gets the message type as a string.
      * @return the message type as a string.
@@ -41,6 +81,10 @@ public class GetMessage implements Message {
         JSONObject obj = new JSONObject();
         obj.put("type", "GetMessage");
         obj.put("user", user);
+        if (since != 0)
+            obj.put("since", since);
+        if (ifNoneMatch != null)
+            obj.put("if-none-match", ifNoneMatch);
         return obj;
     }
 
@@ -56,6 +100,8 @@ public class GetMessage implements Message {
         }
         JSONObject json = (JSONObject) obj;
         this.user = json.getString("user");
+        this.since = json.containsKey("since") ? json.getLong("since") : 0;
+        this.ifNoneMatch = json.containsKey("if-none-match") ? json.getString("if-none-match") : null;
     }
 
 /**
@@ -68,15 +114,17 @@ public class GetMessage implements Message {
 
     @Override
     public Message decode(JSONObject obj) throws InvalidObjectException {
-        return new GetMessage(obj.getString("user"));
+        GetMessage msg = new GetMessage();
+        msg.deserialize(obj);
+        return msg;
     }
 
     /**
      * Converts the object to a string representation.
-     * @return a string representation of the object in the format "[GetMessage] user=<user>".
+     * @return a string representation of the object in the format "[GetMessage] user=<user>, since=<seq>".
      */
     @Override
     public String toString() {
-        return "[GetMessage] user=" + user;
+        return "[GetMessage] user=" + user + ", since=" + since;
     }
 }
\ No newline at end of file
@@ -1,16 +1,25 @@
 package common.protocol.messages;
 
+import common.protocol.JsonPullParser;
+import common.protocol.JsonStreamWriter;
 import common.protocol.Message;
+import common.protocol.StreamingMessage;
 import merrimackutil.json.types.JSONType;
 import merrimackutil.json.types.JSONArray;
 import merrimackutil.json.types.JSONObject;
 
+import java.io.IOException;
 import java.io.InvalidObjectException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 
-public class GetResponseMessage implements Message {
+import common.protocol.post.Post;
+
+public class GetResponseMessage implements StreamingMessage {
     private List<PostMessage> posts;
+    private String digest;
 
     public GetResponseMessage() {
         this.posts = new ArrayList<>();
@@ -20,6 +29,25 @@ public class GetResponseMessage implements Message {
         this.posts = posts;
     }
 
+    /**
+     * Constructs a response carrying the mailbox digest.
+     * @param posts the posts.
+     * @param digest the digest of the mailbox the posts were read from.
+     */
+    public GetResponseMessage(List<PostMessage> posts, String digest) {
+        this.posts = posts;
+        this.digest = digest;
+    }
+
+    /**
+     * Returns the digest of the mailbox, to send as the if-none-match of
+     * the next GetMessage.
+     * @return the digest, or null if the server did not send one.
+     */
+    public String getDigest() {
+        return digest;
+    }
+
     /**
      * Returns the list of posts returned in response to a GetMessage
      * @return The list of posts returned in response to a GetMessage
@@ -42,6 +70,7 @@ public class GetResponseMessage implements Message {
      * @return a JSON type either JSONObject or JSONArray.
      * The returned JSONObject contains the type and posts fields.
      * The posts field is an JSONArray of PostMessage JSONTypes.
+     * The optional digest field is the digest of the mailbox.
      */
     @Override
     public JSONType toJSONType() {
@@ -53,9 +82,57 @@ public class GetResponseMessage implements Message {
         JSONObject obj = new JSONObject();
         obj.put("type", getType());
         obj.put("posts", array);
+        if (digest != null)
+            obj.put("digest", digest);
         return obj;
     }
 
+    /**
+     * Writes a response built from the wire form of stored posts, without
+     * converting them to PostMessages. The text parses to the same message
+     * as {@link #toJSONType()} of a response holding those posts.
+     * @param out the stream.
+     * @param posts the posts.
+     * @param digest the digest of the mailbox, or null.
+     * @throws IOException if the write fails.
+     */
+    public static void write(OutputStream out, List<Post> posts, String digest) throws IOException {
+        writeHead(out, digest);
+        for (int i = 0; i < posts.size(); i++) {
+            if (i > 0)
+                out.write(',');
+            posts.get(i).writeWire(out);
+        }
+        writeTail(out);
+    }
+
+    /**
+     * Writes the start of a response, up to the opening bracket of the posts.
+     * The caller then writes the posts separated by commas and ends the
+     * response with {@link #writeTail(OutputStream)}.
+     * @param out the stream.
+     * @param digest the digest of the mailbox, or null.
+     * @throws IOException if the write fails.
+     */
+    public static void writeHead(OutputStream out, String digest) throws IOException {
+        StringBuilder head = new StringBuilder("{\"type\":\"GetResponseMessage\",");
+        if (digest != null)
+            head.append("\"digest\":\"").append(digest).append("\",");
+        head.append("\"posts\":[");
+        out.write(head.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Writes the end of a response started with
+     * {@link #writeHead(OutputStream, String)}.
+     * @param out the stream.
+     * @throws IOException if the write fails.
+     */
+    public static void writeTail(OutputStream out) throws IOException {
+        out.write(']');
+        out.write('}');
+    }
+
 /**
  * Deserializes a JSONType object into a GetResponseMessage instance.
  * 
@@ -87,6 +164,7 @@ public class GetResponseMessage implements Message {
             post.deserialize((JSONType) array.get(i));
             posts.add(post);
         }
+        digest = json.containsKey("digest") ? json.getString("digest") : null;
     }
 
     /**
@@ -104,6 +182,59 @@ public class GetResponseMessage implements Message {
         return response;
     }
 
+    /**
+     * Reads a response straight from the JSON text, binding each post
+     * without building a tree of it first.
+     * @param in the parser, at the start of the response's object.
+     * @return the response.
+     * @throws InvalidObjectException if the text is not a valid response or
+     *                                the "posts" field is missing.
+     */
+    @Override
+    public Message read(JsonPullParser in) throws InvalidObjectException {
+        GetResponseMessage response = new GetResponseMessage();
+        response.posts = null;
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "posts":
+                    response.posts = new ArrayList<>();
+                    in.beginArray();
+                    while (in.hasNext())
+                        response.posts.add(PostMessage.readPost(in));
+                    in.endArray();
+                    break;
+                case "digest":
+                    response.digest = in.nextString();
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+        if (response.posts == null)
+            throw new InvalidObjectException("Missing posts field.");
+        return response;
+    }
+
+    /**
+     * Writes the response with the fields of {@link #toJSONType()}.
+     * @param out the writer.
+     * @throws IOException if the write fails.
+     */
+    @Override
+    public void write(JsonStreamWriter out) throws IOException {
+        out.beginObject();
+        out.name("type").value(getType());
+        if (digest != null)
+            out.name("digest").value(digest);
+        out.name("posts").beginArray();
+        for (PostMessage post : posts)
+            post.write(out);
+        out.endArray();
+        out.endObject();
+    }
+
     /**
      * Returns a string representation of the object.
      * @return a string representation of the object
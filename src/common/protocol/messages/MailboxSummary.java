@@ -0,0 +1,133 @@
+package common.protocol.messages;
+
+import common.protocol.Message;
+import merrimackutil.json.types.JSONObject;
+import merrimackutil.json.types.JSONType;
+
+import java.io.InvalidObjectException;
+
+/**
+ * The summary of a recipient's mailbox: how many posts it holds, the
+ * sequence number of the newest post ever addressed to it and a digest of
+ * its contents. The digest changes whenever a post is added or deleted and
+ * can be sent back as the if-none-match of a GetMessage.
+ */
+public class MailboxSummary implements Message {
+    private String user;
+    private int count;
+    private long latest;
+    private String digest;
+
+    public MailboxSummary() {}
+
+    /**
+     * Constructs a mailbox summary.
+     * @param user the recipient.
+     * @param count the number of posts in the mailbox.
+     * @param latest the sequence number of the newest post.
+     * @param digest the digest of the mailbox contents.
+     */
+    public MailboxSummary(String user, int count, long latest, String digest) {
+        this.user = user;
+        this.count = count;
+        this.latest = latest;
+        this.digest = digest;
+    }
+
+    /**
+     * Returns the recipient.
+     * @return the username.
+     */
+    public String getUser() {
+        return user;
+    }
+
+    /**
+     * Returns the number of posts in the mailbox.
+     * @return the count.
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the sequence number of the newest post addressed to the recipient.
+     * @return the sequence number, 0 if there never was one.
+     */
+    public long getLatest() {
+        return latest;
+    }
+
+    /**
+     * Returns the digest of the mailbox contents.
+     * @return the digest.
+     */
+    public String getDigest() {
+        return digest;
+    }
+
+    /**
+     * Gets the message type as a string.
+     * @return the message type as a string.
+     */
+    @Override
+    public String getType() {
+        return "MailboxSummary";
+    }
+
+    /**
+     * Converts the object to a JSON type.
+     * @return a JSON type either JSONObject or JSONArray.
+     */
+    @Override
+    public JSONType toJSONType() {
+        JSONObject obj = new JSONObject();
+        obj.put("type", getType());
+        obj.put("user", user);
+        obj.put("count", count);
+        obj.put("latest", latest);
+        obj.put("digest", digest);
+        return obj;
+    }
+
+    /**
+     * Deserialize a JSON object into a MailboxSummary instance.
+     * @param obj the JSON object to deserialize
+     * @throws InvalidObjectException if the object is not a JSON object or a
+     *                                field is missing.
+     */
+    @Override
+    public void deserialize(JSONType obj) throws InvalidObjectException {
+        if (!(obj instanceof JSONObject)) {
+            throw new InvalidObjectException("Expected JSONObject.");
+        }
+        JSONObject json = (JSONObject) obj;
+        json.checkValidity(new String[]{"user", "count", "latest", "digest"});
+        this.user = json.getString("user");
+        this.count = json.getInt("count");
+        this.latest = json.getLong("latest");
+        this.digest = json.getString("digest");
+    }
+
+    /**
+     * Decodes a JSON object into a MailboxSummary instance.
+     * @param obj the JSON object to decode
+     * @return a MailboxSummary instance
+     * @throws InvalidObjectException if a field is missing
+     */
+    @Override
+    public Message decode(JSONObject obj) throws InvalidObjectException {
+        MailboxSummary msg = new MailboxSummary();
+        msg.deserialize(obj);
+        return msg;
+    }
+
+    /**
+     * Returns a string representation of the object.
+     * @return a string representation of the object
+     */
+    @Override
+    public String toString() {
+        return "[MailboxSummary] user=" + user + ", count=" + count + ", latest=" + latest + ", digest=" + digest;
+    }
+}
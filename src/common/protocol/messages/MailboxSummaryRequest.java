@@ -0,0 +1,88 @@
+package common.protocol.messages;
+
+import common.protocol.Message;
+import merrimackutil.json.types.JSONObject;
+import merrimackutil.json.types.JSONType;
+
+import java.io.InvalidObjectException;
+
+/**
+ * Asks for the summary of a recipient's mailbox, which the server answers
+ * from its in-memory counters without touching the posts.
+ */
+public class MailboxSummaryRequest implements Message {
+    private String user;
+
+    public MailboxSummaryRequest() {}
+
+    public MailboxSummaryRequest(String user) {
+        this.user = user;
+    }
+
+    /**
+     * Returns the recipient whose mailbox is summarized.
+     * @return the username.
+     */
+    public String getUser() {
+        return user;
+    }
+
+    /**
+     * Gets the message type as a string.
+     * @return the message type as a string.
+     */
+    @Override
+    public String getType() {
+        return "MailboxSummaryRequest";
+    }
+
+    /**
+     * Converts the object to a JSON type.
+     * @return a JSON type either JSONObject or JSONArray.
+     */
+    @Override
+    public JSONType toJSONType() {
+        JSONObject obj = new JSONObject();
+        obj.put("type", getType());
+        obj.put("user", user);
+        return obj;
+    }
+
+    /**
+     * Deserialize a JSON object into a MailboxSummaryRequest instance.
+     * @param obj the JSON object to deserialize
+     * @throws InvalidObjectException if the object is not a JSON object or
+     *                                the user is missing.
+     */
+    @Override
+    public void deserialize(JSONType obj) throws InvalidObjectException {
+        if (!(obj instanceof JSONObject)) {
+            throw new InvalidObjectException("Expected JSONObject.");
+        }
+        JSONObject json = (JSONObject) obj;
+        json.checkValidity(new String[]{"user"});
+        this.user = json.getString("user");
+    }
+
+    /**
+     * Decodes a JSON object into a MailboxSummaryRequest instance.
+     * @param obj the JSON object to decode
+     * @return a MailboxSummaryRequest instance
+     * @throws InvalidObjectException if the user is missing
+     */
+    @Override
+    public Message decode(JSONObject obj) throws InvalidObjectException {
+        MailboxSummaryRequest msg = new MailboxSummaryRequest();
+        msg.deserialize(obj);
+        return msg;
+    }
+
+    /**
+     * Returns a string representation of the object.
+     * @return a string representation of the object
+     */
+    @Override
+    public String toString() {
+        return "[MailboxSummaryRequest] user=" + user;
+    }
+}
@@ -1,9 +1,13 @@
 package common.protocol.messages;
 
+import common.protocol.JsonPullParser;
+import common.protocol.JsonStreamWriter;
 import common.protocol.Message;
+import common.protocol.StreamingMessage;
 import merrimackutil.json.types.JSONObject;
 import merrimackutil.json.types.JSONType;
 
+import java.io.IOException;
 import java.io.InvalidObjectException;
 import java.util.Base64;
 
@@ -14,7 +18,10 @@ import javax.crypto.spec.SecretKeySpec;
 /**
  * Represents a message posted to the bulletin board.
  */
-public class PostMessage implements Message {
+public class PostMessage implements StreamingMessage {
+    private String id;
+    private long timestamp;
+    private long seq;
     private String user;
     private String message;
     private String wrappedkey;
@@ -34,6 +41,48 @@ public class PostMessage implements Message {
         this.iv = iv;
     }
 
+    /**
+     * Constructs a post as the server returns it, carrying its id, time and
+     * sequence number.
+     * @param id the id the server assigned to the post.
+     * @param timestamp when the server accepted the post, in milliseconds since the epoch.
+     * @param seq the post's sequence number in the recipient's mailbox.
+     * @param user the recipient.
+     * @param message the encrypted message.
+     * @param wrappedkey the wrapped message key.
+     * @param iv the initialization vector.
+     */
+    public PostMessage(String id, long timestamp, long seq, String user, String message, String wrappedkey, String iv) {
+        this(user, message, wrappedkey, iv);
+        this.id = id;
+        this.timestamp = timestamp;
+        this.seq = seq;
+    }
+
+    /**
+     * Returns the id the server assigned to this post.
+     * @return the post id, or null for a post that has not been stored yet
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * Returns when the server accepted this post.
+     * @return the time in milliseconds since the epoch, or 0 if unknown
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Returns the sequence number of this post in the recipient's mailbox.
+     * @return the sequence number, or 0 if unknown
+     */
+    public long getSeq() {
+        return seq;
+    }
+
     /**
      * Returns the username associated with this post.
      * @return the username associated with this post
@@ -104,7 +153,7 @@ public class PostMessage implements Message {
  * Converts this PostMessage object to a JSON representation.
  * 
  * @return a JSONObject containing the serialized fields of this PostMessage, 
- *         including type, user, message, wrappedkey, and iv.
+ *         including type, user, message, wrappedkey, iv, and the id, ts and seq if known.
  */
 
     @Override
@@ -115,6 +164,12 @@ public class PostMessage implements Message {
         obj.put("message", message);
         obj.put("wrappedkey", wrappedkey);
         obj.put("iv", iv);
+        if (id != null)
+            obj.put("id", id);
+        if (timestamp != 0)
+            obj.put("ts", timestamp);
+        if (seq != 0)
+            obj.put("seq", seq);
         return obj;
     }
 
@@ -138,6 +193,9 @@ public class PostMessage implements Message {
         this.message = json.getString("message");
         this.wrappedkey = json.getString("wrappedkey");
         this.iv = json.getString("iv");
+        this.id = json.containsKey("id") ? json.getString("id") : null;
+        this.timestamp = json.containsKey("ts") ? json.getLong("ts") : 0;
+        this.seq = json.containsKey("seq") ? json.getLong("seq") : 0;
     }
 
 /**
@@ -148,6 +206,7 @@ public class PostMessage implements Message {
  */
     @Override
     public Message decode(JSONObject obj) throws InvalidObjectException {
+        obj.checkValidity(new String[]{"user", "message", "wrappedkey", "iv", "type"});
         PostMessage decoded = new PostMessage(
             obj.getString("user"),
             obj.getString("message"),
@@ -155,6 +214,73 @@ public class PostMessage implements Message {
             obj.getString("iv")
         );
         decoded.type = obj.getString("type");
+        decoded.id = obj.containsKey("id") ? obj.getString("id") : null;
+        decoded.timestamp = obj.containsKey("ts") ? obj.getLong("ts") : 0;
+        decoded.seq = obj.containsKey("seq") ? obj.getLong("seq") : 0;
         return decoded;
     }
+
+    /**
+     * Reads a post straight from the JSON text, e.g. one of the posts of a
+     * GetResponseMessage.
+     * @param in the parser, at the start of the post's object.
+     * @return the post.
+     * @throws InvalidObjectException if the text is not a valid post.
+     */
+    public static PostMessage readPost(JsonPullParser in) throws InvalidObjectException {
+        PostMessage post = new PostMessage();
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "type": post.type = in.nextString(); break;
+                case "user": post.user = in.nextString(); break;
+                case "message": post.message = in.nextString(); break;
+                case "wrappedkey": post.wrappedkey = in.nextString(); break;
+                case "iv": post.iv = in.nextString(); break;
+                case "id": post.id = in.nextString(); break;
+                case "ts": post.timestamp = in.nextLong(); break;
+                case "seq": post.seq = in.nextLong(); break;
+                default: in.skipValue();
+            }
+        }
+        in.endObject();
+        // The same fields Post.deserialize requires; a post without a recipient would corrupt the board's indexes
+        if (post.type == null || post.user == null || post.message == null || post.wrappedkey == null
+                || post.iv == null)
+            throw new InvalidObjectException("Post is missing one of type, user, message, wrappedkey or iv.");
+        return post;
+    }
+
+    /**
+     * Reads a post straight from the JSON text of its frame.
+     * @param in the parser, at the start of the post's object.
+     * @return the post.
+     * @throws InvalidObjectException if the text is not a valid post.
+     */
+    @Override
+    public Message read(JsonPullParser in) throws InvalidObjectException {
+        return readPost(in);
+    }
+
+    /**
+     * Writes the post with the fields of {@link #toJSONType()}.
+     * @param out the writer.
+     * @throws IOException if the write fails.
+     */
+    @Override
+    public void write(JsonStreamWriter out) throws IOException {
+        out.beginObject();
+        out.name("type").value(type);
+        out.name("user").value(user);
+        out.name("message").value(message);
+        out.name("wrappedkey").value(wrappedkey);
+        out.name("iv").value(iv);
+        if (id != null)
+            out.name("id").value(id);
+        if (timestamp != 0)
+            out.name("ts").value(timestamp);
+        if (seq != 0)
+            out.name("seq").value(seq);
+        out.endObject();
+    }
 }
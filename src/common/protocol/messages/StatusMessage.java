@@ -8,17 +8,34 @@ import common.protocol.Message;
 
 public class StatusMessage implements Message {
     private boolean status;
-    private static String payload;
+    private String payload;
+    private String redirect;
 
     public StatusMessage() {}
-    @SuppressWarnings("static-access")
     public StatusMessage(boolean status, String payload) {
         this.status = status;
         this.payload = payload;
     }
 
+    /**
+     * Constructs a status message carrying a routing hint.
+     * @param status the status.
+     * @param payload the payload message.
+     * @param redirect the host:port of the server that should receive the request.
+     */
+    public StatusMessage(boolean status, String payload, String redirect) {
+        this(status, payload);
+        this.redirect = redirect;
+    }
+
     public boolean getStatus() { return status; }
-    public static String getPayload() { return payload; }
+    public String getPayload() { return payload; }
+
+    /**
+     * Gets the routing hint of the message.
+     * @return the host:port to retry the request at, or null if there is none.
+     */
+    public String getRedirect() { return redirect; }
 
     /**
      * Deserialize a JSON object into a StatusMessage instance.
@@ -27,7 +44,6 @@ public class StatusMessage implements Message {
      * @throws InvalidObjectException if the object is not a JSONObject or if
      *                                "status" or "payload" fields are missing.
      */
-    @SuppressWarnings("static-access")
     @Override
     public void deserialize(JSONType obj) throws InvalidObjectException {
         if (!(obj instanceof JSONObject)) throw new InvalidObjectException("Expected JSONObject");
@@ -35,6 +51,7 @@ public class StatusMessage implements Message {
 
         this.status = json.getBoolean("status");
         this.payload = json.getString("payload");
+        this.redirect = json.containsKey("redirect") ? json.getString("redirect") : null;
     }
 
     /**
@@ -44,6 +61,7 @@ public class StatusMessage implements Message {
      * The type field is a string with the value "Status".
      * The status field is a boolean with the value of the status of the server.
      * The payload field is a string with the payload message from the server.
+     * The optional redirect field is the host:port the request belongs to.
      */
     @Override
     public JSONType toJSONType() {
@@ -51,6 +69,8 @@ public class StatusMessage implements Message {
         obj.put("type", "Status");
         obj.put("status", status);
         obj.put("payload", payload);
+        if (redirect != null)
+            obj.put("redirect", redirect);
         return obj;
     }
 /**
@@ -76,4 +96,13 @@ public class StatusMessage implements Message {
         msg.deserialize(obj);
         return msg;
     }
-}
\ No newline at end of file
+
+    /**
+     * Returns a string representation of the object.
+     * @return a string representation of the object
+     */
+    @Override
+    public String toString() {
+        return "[StatusMessage] status=" + status + (redirect != null ? ", redirect=" + redirect : "");
+    }
+}
@@ -0,0 +1,120 @@
+package common.protocol.messages;
+
+import common.protocol.Message;
+import merrimackutil.json.types.JSONObject;
+import merrimackutil.json.types.JSONType;
+
+import java.io.InvalidObjectException;
+
+/**
+ * Parks an authenticated connection until new posts arrive for the
+ * recipient. The server first sends the posts after "since", then pushes a
+ * PostMessage for every new post, and ends the subscription with a
+ * StatusMessage once the timeout expires.
+ */
+public class SubscribeMessage implements Message {
+    private String user;
+    private long since;
+    private int timeout;
+
+    public SubscribeMessage() {}
+
+    /**
+     * Constructs a subscription request.
+     * @param user the recipient.
+     * @param since the last sequence number the client has seen.
+     * @param timeout how long to wait for posts, in seconds.
+     */
+    public SubscribeMessage(String user, long since, int timeout) {
+        this.user = user;
+        this.since = since;
+        this.timeout = timeout;
+    }
+
+    /**
+     * Returns the recipient to wait for.
+     * @return the username.
+     */
+    public String getUser() {
+        return user;
+    }
+
+    /**
+     * Returns the last sequence number the client has seen.
+     * @return the sequence number.
+     */
+    public long getSince() {
+        return since;
+    }
+
+    /**
+     * Returns how long the client wants to wait.
+     * @return the timeout in seconds.
+     */
+    public int getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * Gets the message type as a string.
+     * @return the message type as a string.
+     */
+    @Override
+    public String getType() {
+        return "Subscribe";
+    }
+
+    /**
+     * Converts the object to a JSON type.
+     * @return a JSON type either JSONObject or JSONArray.
+     */
+    @Override
+    public JSONType toJSONType() {
+        JSONObject obj = new JSONObject();
+        obj.put("type", getType());
+        obj.put("user", user);
+        obj.put("since", since);
+        obj.put("timeout", timeout);
+        return obj;
+    }
+
+    /**
+     * Deserialize a JSON object into a SubscribeMessage instance.
+     * @param obj the JSON object to deserialize
+     * @throws InvalidObjectException if the object is not a JSON object or a
+     *                                field is missing.
+     */
+    @Override
+    public void deserialize(JSONType obj) throws InvalidObjectException {
+        if (!(obj instanceof JSONObject)) {
+            throw new InvalidObjectException("Expected JSONObject.");
+        }
+        JSONObject json = (JSONObject) obj;
+        json.checkValidity(new String[]{"user", "since", "timeout"});
+        this.user = json.getString("user");
+        this.since = json.getLong("since");
+        this.timeout = json.getInt("timeout");
+    }
+
+    /**
+     * Decodes a JSON object into a SubscribeMessage instance.
+     * @param obj the JSON object to decode
+     * @return a SubscribeMessage instance
+     * @throws InvalidObjectException if required fields are missing
+     */
+    @Override
+    public Message decode(JSONObject obj) throws InvalidObjectException {
+        SubscribeMessage msg = new SubscribeMessage();
+        msg.deserialize(obj);
+        return msg;
+    }
+
+    /**
+     * Returns a string representation of the object.
+     * @return a string representation of the object
+     */
+    @Override
+    public String toString() {
+        return "[SubscribeMessage] user=" + user + ", since=" + since + ", timeout=" + timeout;
+    }
+}
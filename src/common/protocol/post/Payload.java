@@ -0,0 +1,48 @@
+package common.protocol.post;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * The encrypted part of a post when it is kept outside the post object,
+ * e.g. in a memory-mapped segment file on the server.
+ */
+public interface Payload {
+
+    /**
+     * Reads the encrypted message.
+     * @return the encrypted message.
+     */
+    String getMessage();
+
+    /**
+     * Reads the wrapped message key.
+     * @return the wrapped key.
+     */
+    String getWrappedKey();
+
+    /**
+     * Reads the initialization vector.
+     * @return the initialization vector.
+     */
+    String getIv();
+
+    /**
+     * Gets the size of the payload.
+     * @return the size in bytes.
+     */
+    int getSize();
+
+    /**
+     * Writes the wire form of the post, the JSON text of its PostMessage.
+     * @param out the stream.
+     * @throws IOException if the write fails.
+     */
+    void writeWire(OutputStream out) throws IOException;
+
+    /**
+     * Tells the owner of the storage that the post is gone from the board.
+     * The payload stays readable for anyone still holding the post.
+     */
+    void release();
+}
@@ -4,22 +4,58 @@ import merrimackutil.json.types.JSONObject;
 import merrimackutil.json.types.JSONType;
 import merrimackutil.json.JSONSerializable;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.InvalidObjectException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.UUID;
 
+import common.protocol.JsonStreamWriter;
 import common.protocol.messages.PostMessage;
 
 /**
- * Represents a single encrypted post on the board.
+ * Represents a single encrypted post on the board. On the server the
+ * encrypted fields may be moved off the heap into a {@link Payload}, after
+ * which the getters read them from there.
+ *
+ * Posts on the board also keep their wire form, the JSON text of their
+ * PostMessage, encoded once when they join the board. Responses copy those
+ * bytes to the socket instead of building and serializing a PostMessage on
+ * every fetch.
  */
 public class Post implements JSONSerializable {
+    private String id;
+    private long timestamp;
+    private long seq;
     private String user;
     private String message;
     private String wrappedKey;
     private String iv;
     private String type;  // New field for the type of the post
+    private Payload payload;
+    private byte[] wire;
 
-    // Constructor with type
+    // Constructor with type, assigns a new id and stamps the post with the current time
     public Post(String user, String message, String wrappedKey, String iv, String type) {
+        this(UUID.randomUUID().toString(), System.currentTimeMillis(), 0, user, message, wrappedKey, iv, type);
+    }
+
+    /**
+     * Constructs a post with a known id, e.g. one read back from storage.
+     * @param id the post id.
+     * @param timestamp when the server accepted the post, in milliseconds since the epoch.
+     * @param seq the post's sequence number in its recipient's mailbox, or 0 if not assigned yet.
+     * @param user the recipient.
+     * @param message the encrypted message.
+     * @param wrappedKey the wrapped message key.
+     * @param iv the initialization vector.
+     * @param type the type of the post.
+     */
+    public Post(String id, long timestamp, long seq, String user, String message, String wrappedKey, String iv, String type) {
+        this.id = id;
+        this.timestamp = timestamp;
+        this.seq = seq;
         this.user = user;
         this.message = message;
         this.wrappedKey = wrappedKey;
@@ -32,6 +68,90 @@ public class Post implements JSONSerializable {
         deserialize(obj);
     }
 
+    /**
+     * Returns the id of this post, used to acknowledge it.
+     * @return the post id
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * Returns when the server accepted this post.
+     * @return the time in milliseconds since the epoch
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Returns the sequence number of this post. Sequence numbers grow by one
+     * for every post addressed to the same recipient, so a reader can ask
+     * for everything after the last one it has seen.
+     * @return the sequence number, or 0 if the board has not assigned one yet
+     */
+    public long getSeq() {
+        return seq;
+    }
+
+    /**
+     * Sets the sequence number of this post. Only the board assigns them,
+     * before the wire form is cached.
+     * @param seq the sequence number
+     */
+    public void setSeq(long seq) {
+        this.seq = seq;
+    }
+
+    /**
+     * Returns the stored size of this post, the encrypted message plus its
+     * key material, used for retention limits.
+     * @return the size in bytes
+     */
+    public int getSize() {
+        if (payload != null)
+            return payload.getSize();
+        return message.length() + wrappedKey.length() + iv.length();
+    }
+
+    /**
+     * Moves the encrypted fields of this post into external storage. The
+     * payload must hold the same message, wrapped key and IV.
+     * @param payload the stored payload.
+     */
+    public void offload(Payload payload) {
+        this.payload = payload;
+        this.wire = null;
+        this.message = null;
+        this.wrappedKey = null;
+        this.iv = null;
+    }
+
+    /**
+     * Gets the external storage of the encrypted fields.
+     * @return the payload, or null if the fields are on the heap.
+     */
+    public Payload getPayload() {
+        return payload;
+    }
+
+    /**
+     * Check if the encrypted fields are kept in external storage.
+     * @return true if the post was offloaded.
+     */
+    public boolean isOffloaded() {
+        return payload != null;
+    }
+
+    /**
+     * Releases the external storage of the post, if any, once the post is
+     * gone from the board.
+     */
+    public void release() {
+        if (payload != null)
+            payload.release();
+    }
+
     /**
      * Returns the username associated with this post.
      * @return the username associated with this post
@@ -52,7 +172,7 @@ public class Post implements JSONSerializable {
      * @return the encrypted message as a String.
      */
     public String getMessage() { 
-        return message; 
+        return payload != null ? payload.getMessage() : message; 
     }
 
     /**
@@ -60,7 +180,7 @@ public class Post implements JSONSerializable {
      * @return the wrapped key as a Base64-encoded string
      */
     public String getWrappedKey() { 
-        return wrappedKey; 
+        return payload != null ? payload.getWrappedKey() : wrappedKey; 
     }
 
     /**
@@ -68,7 +188,7 @@ public class Post implements JSONSerializable {
      * @return the initialization vector as a Base64-encoded string
      */
     public String getIv() { 
-        return iv; 
+        return payload != null ? payload.getIv() : iv; 
     }
 
     /**
@@ -79,9 +199,47 @@ public class Post implements JSONSerializable {
         return type;  // Getter for the type
     }
 
+    /**
+     * Encodes the wire form of this post, or returns the cached one.
+     * @return the JSON text of the post's PostMessage in UTF-8.
+     */
+    public byte[] encodeWire() {
+        if (wire != null)
+            return wire;
+        ByteArrayOutputStream out = new ByteArrayOutputStream(getSize() + 256);
+        try {
+            toPostMessage().write(new JsonStreamWriter(out));
+        } catch (IOException e) {
+            // A byte array stream doesn't fail
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Encodes the wire form once and keeps it with the post, unless the
+     * payload storage keeps it instead.
+     */
+    public void cacheWire() {
+        if (wire == null && payload == null)
+            wire = encodeWire();
+    }
+
+    /**
+     * Writes the wire form of this post, encoding it if it is not cached.
+     * @param out the stream.
+     * @throws IOException if the write fails.
+     */
+    public void writeWire(OutputStream out) throws IOException {
+        if (payload != null)
+            payload.writeWire(out);
+        else
+            out.write(wire != null ? wire : encodeWire());
+    }
+
     // Convert this Post to a PostMessage
     public PostMessage toPostMessage() {
-        return new PostMessage(user, message, wrappedKey, iv);
+        return new PostMessage(id, timestamp, seq, user, getMessage(), getWrappedKey(), getIv());
     }
 
     /**
@@ -103,21 +261,30 @@ public class Post implements JSONSerializable {
         this.wrappedKey = postObj.getString("wrappedkey");
         this.iv = postObj.getString("iv");
         this.type = postObj.getString("type");  // Deserialize type field
+        // Posts stored before ids existed get one now
+        this.id = postObj.containsKey("id") ? postObj.getString("id") : UUID.randomUUID().toString();
+        // and are treated as accepted now rather than expiring at once
+        this.timestamp = postObj.containsKey("ts") ? postObj.getLong("ts") : System.currentTimeMillis();
+        // The board numbers posts that don't have a sequence number yet
+        this.seq = postObj.containsKey("seq") ? postObj.getLong("seq") : 0;
     }
 
     /**
      * Converts the object to a JSON type.
      * @return a JSON type either JSONObject or JSONArray.
-     * The returned JSONObject contains the type, message, wrappedkey, user, and iv fields.
+     * The returned JSONObject contains the type, id, ts, seq, message, wrappedkey, user, and iv fields.
      */
     @Override
     public JSONType toJSONType() {
         JSONObject postObj = new JSONObject();
         postObj.put("type", "Post");  // Include the type field in the JSON serialization
-        postObj.put("message", message);  // Place message field after type
-        postObj.put("wrappedkey", wrappedKey);  // Place wrappedkey field
+        postObj.put("id", id);
+        postObj.put("ts", timestamp);
+        postObj.put("seq", seq);
+        postObj.put("message", getMessage());  // Place message field after type
+        postObj.put("wrappedkey", getWrappedKey());  // Place wrappedkey field
         postObj.put("user", user);  // Place user field after wrappedkey
-        postObj.put("iv", iv);  // Place iv field last
+        postObj.put("iv", getIv());  // Place iv field last
         return postObj;
     }
 }
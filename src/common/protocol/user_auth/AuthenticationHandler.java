@@ -1,6 +1,9 @@
 package common.protocol.user_auth;
 
 import common.protocol.messages.AuthenticateMessage;
+import server.nonce.NonceStore;
+
+import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.time.Instant;
 import java.util.Base64;
@@ -21,6 +24,19 @@ public class AuthenticationHandler {
      * @throws Exception if an error occurs during authentication
      */
     public static boolean authenticate(AuthenticateMessage message) {
+        return authenticate(message, null);
+    }
+
+    /**
+     * Authenticates a user and rejects a one-time password that was already
+     * used. A code stays valid for several time steps, so without this check
+     * a captured login could be replayed within that window.
+     * 
+     * @param message the AuthenticateMessage to process
+     * @param usedCodes the store of spent one-time passwords, or null to skip the check
+     * @return true if the user is authenticated; otherwise, false.
+     */
+    public static boolean authenticate(AuthenticateMessage message, NonceStore usedCodes) {
         try {
             String username = message.getUser();
             String password = message.getPass();
@@ -71,6 +87,18 @@ public class AuthenticationHandler {
                 System.out.println("[DEBUG] OTP validation result: " + otpValid);
             }
 
+            // 4. Spend the OTP so the same code can't log in again
+            if (otpValid && usedCodes != null) {
+                MessageDigest sha = MessageDigest.getInstance("SHA-256");
+                sha.update(username.getBytes(StandardCharsets.UTF_8));
+                sha.update((byte) 0);
+                sha.update(otp.getBytes(StandardCharsets.UTF_8));
+                if (!usedCodes.addIfAbsent(sha.digest())) {
+                    if (DEBUG) System.out.println("[DEBUG] OTP was already used or can't be recorded: " + username);
+                    return false;
+                }
+            }
+
             return otpValid;
 
         } catch (Exception e) {
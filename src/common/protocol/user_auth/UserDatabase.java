@@ -3,14 +3,19 @@ package common.protocol.user_auth;
 import merrimackutil.json.*;
 import merrimackutil.json.types.*;
 
+import common.AtomicFile;
+import common.ParallelLoader;
+
 import java.io.File;
 import java.io.IOException;
 import java.io.InvalidObjectException;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class UserDatabase {
-    private static Map<String, User> userMap = new HashMap<>();
+    private static Map<String, User> userMap = new ConcurrentHashMap<>();
 
     // Wrapper class to serialize root-level "entries" array
     private static class UserDBWrapper implements JSONSerializable {
@@ -92,14 +97,15 @@ public class UserDatabase {
             JSONObject root = (JSONObject) raw;
             JSONArray entries = root.getArray("entries");
 
-            for (int i = 0; i < entries.size(); i++) {
-                JSONType entryType = (JSONType) entries.get(i);
-                if (!(entryType instanceof JSONObject)) continue;
-
+            List<User> users = ParallelLoader.decode(entries, entryType -> {
+                if (!(entryType instanceof JSONObject))
+                    return null;
                 User user = new User();
-                user.deserialize(entryType); // ✅ this works because entryType is a JSONType
+                user.deserialize(entryType);
+                return user;
+            });
+            for (User user : users)
                 userMap.put(user.getUser(), user);
-            }
 
             System.out.println("[UserDatabase] Loaded " + userMap.size() + " users.");
         } catch (Exception e) {
@@ -108,12 +114,13 @@ public class UserDatabase {
     }
 
         /**
-         * Saves the users in the userMap to a JSON file. If the file already exists, it is overwritten.
+         * Saves the users in the userMap to a JSON file. If the file already exists, it is replaced
+         * atomically, so a crash while saving leaves the previous file intact.
          * The file is a JSON object with a single field "entries" which is an array of User JSON objects.
          * If an exception occurs while saving the users, an error message is printed to the console.
          * @param userfile the path to the users.json file
          */
-    private static void saveUsers(String userfile) {
+    private static synchronized void saveUsers(String userfile) {
         try {
             JSONArray entries = new JSONArray();
             for (User user : userMap.values()) {
@@ -121,7 +128,7 @@ public class UserDatabase {
             }
 
             UserDBWrapper db = new UserDBWrapper(entries);
-            JsonIO.writeFormattedObject(db, new File(userfile));
+            AtomicFile.writeJson(db, new File(userfile));
             System.out.println("[UserDatabase] Saved users to file.");
         } catch (IOException e) {
             System.err.println("[UserDatabase] Failed to save users: " + e.getMessage());
@@ -143,6 +150,31 @@ public class UserDatabase {
         saveUsers(userfile); // Delegate to the existing saveUsers method
     }
 
+    /**
+     * Returns a copy of every user currently in the userMap.
+     *
+     * @return the list of users
+     */
+    public static List<User> getAll() {
+        return new ArrayList<>(userMap.values());
+    }
+
+    /**
+     * Removes a user from the userMap.
+     *
+     * @param username the username of the User to remove
+     */
+    public static void remove(String username) {
+        userMap.remove(username);
+    }
+
+    /**
+     * Removes every user from the userMap.
+     */
+    public static void clear() {
+        userMap.clear();
+    }
+
     /**
      * Retrieves a User from the userMap based on the given username.
      * 
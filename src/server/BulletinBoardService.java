@@ -1,11 +1,31 @@
 package server;
 
-import merrimackutil.util.NonceCache;
 import merrimackutil.json.JsonIO;
 import merrimackutil.json.types.JSONObject;
 import merrimackutil.cli.LongOption;
 import merrimackutil.cli.OptionParser;
 import merrimackutil.util.Tuple;
+import server.replication.ReplicationFollower;
+import server.replication.ReplicationLog;
+import server.replication.ReplicationServer;
+import server.cluster.ClusterRouter;
+import server.push.SubscriptionRegistry;
+import server.retention.RetentionEngine;
+import server.snapshot.GroupCommitter;
+import server.snapshot.SnapshotManager;
+import server.cache.MailboxCache;
+import server.storage.BoardStore;
+import server.storage.ColdTier;
+import server.storage.SegmentedPayloadLog;
+import server.storage.TierMigrator;
+import server.backup.BoardExporter;
+import server.quota.AdmissionControl;
+import server.nonce.NonceStore;
+import server.nonce.NonceStoreConfig;
+import server.nonce.ReplicatedNonceStore;
+import server.nonce.StripedNonceStore;
+import common.Board;
+import common.protocol.user_auth.UserDatabase;
 
 import java.io.File;
 import java.io.FileNotFoundException;
@@ -27,7 +47,19 @@ public class BulletinBoardService
     private static boolean doHelp = false;
     private static boolean doConfig = false;
     private static String configName = null;
-    private static NonceCache nonceCache = null;
+    private static NonceStore nonceStore = null;
+    private static TrafficJournal journal = null;
+    private static Board board = null;
+    private static ReplicationLog replicationLog = null;
+    private static ReplicationFollower follower = null;
+    private static ClusterRouter router = null;
+    private static SnapshotManager snapshots = null;
+    private static Tombstoner tombstoner = null;
+    private static RetentionEngine retention = null;
+    private static SubscriptionRegistry subscriptions = null;
+    private static GroupCommitter committer = null;
+    private static BoardExporter exporter = null;
+    private static AdmissionControl admission = null;
     
 
     /**
@@ -120,10 +152,103 @@ public class BulletinBoardService
         else if (doHelp)
             usage();
         else
-        loadConfig("./src/server/config.json");
+        {
+            configName = "./src/server/config.json";
+            loadConfig(configName);
+        }
     }
 
     
+    /**
+     * Loads the board and the user database into memory. The in-memory copies
+     * are authoritative from here on and are written back on every change.
+     * With snapshots on, the state comes from the snapshot and its log and
+     * the board store and users file are only read if there is no usable
+     * snapshot.
+     * @throws IOException if the snapshot log can't be opened.
+     */
+    public static void loadState() throws IOException
+    {
+        board = new Board(BoardStore.open(config.getBoardStore(), Configuration.getBoardFile(),
+            config.getBoardLogFile(), config.getBoardShardDir(), config.getBoardShards()));
+        if (config.getPayloadDir() != null)
+            board.setPayloadLog(new SegmentedPayloadLog(new File(config.getPayloadDir()),
+                config.getPayloadSegmentMb() << 20));
+        if (config.getMailboxCacheMb() > 0)
+            board.setMailboxCache(new MailboxCache((long) config.getMailboxCacheMb() << 20));
+        if (config.getSnapshotFile() != null)
+        {
+            snapshots = new SnapshotManager(board, config.getSnapshotFile(),
+                config.getSnapshotLogFile(), config.getSnapshotInterval());
+            if (snapshots.restore())
+            {
+                snapshots.start(true);
+                return;
+            }
+        }
+
+        board.loadFromFile();
+        UserDatabase.load(Configuration.getUsersFile());
+        if (snapshots != null)
+            snapshots.start(false);
+    }
+
+    /**
+     * Starts log shipping. A leader with a replication port logs changes from
+     * here on and sends a new follower a snapshot of the current state first;
+     * a follower starts tailing its leader.
+     */
+    public static void startReplication()
+    {
+        if (config.isFollower())
+        {
+            follower = new ReplicationFollower(board, Configuration.getUsersFile(),
+                config.getLeaderHost(), config.getLeaderPort(), config.getReplicationSecret(), snapshots, subscriptions);
+            new Thread(follower, "replication-follower").start();
+        }
+        else if (config.getReplicationPort() != 0)
+        {
+            replicationLog = new ReplicationLog();
+            new Thread(new ReplicationServer(replicationLog, board, config.getReplicationPort(),
+                config.getReplicationSecret()), "replication-server").start();
+        }
+    }
+
+    /**
+     * Starts enforcing the retention policies. Followers only apply the
+     * deletes their leader ships, so they never run the engine themselves.
+     */
+    public static void startRetention()
+    {
+        tombstoner = new Tombstoner(board, snapshots, replicationLog);
+        if (config.getRetention() != null && !config.isFollower())
+        {
+            retention = new RetentionEngine(board, config.getRetention(), tombstoner);
+            retention.start();
+        }
+    }
+
+    /**
+     * Creates the replay protection store. A replicated store also starts the
+     * thread that gossips new nonces to the configured peers.
+     */
+    public static void startNonceStore()
+    {
+        NonceStoreConfig nonceConfig = config.getNonceStore();
+        StripedNonceStore local = new StripedNonceStore(nonceConfig.getLifetime(),
+            nonceConfig.getMaxEntries(), nonceConfig.getStripes());
+        if (nonceConfig.isReplicated())
+        {
+            ReplicatedNonceStore replicated = new ReplicatedNonceStore(local, nonceConfig);
+            new Thread(replicated, "nonce-gossip").start();
+            nonceStore = replicated;
+        }
+        else
+        {
+            nonceStore = local;
+        }
+    }
+
     /**
      * Main entry point of the bulletin board service.
      */
@@ -134,25 +259,70 @@ public class BulletinBoardService
         System.setProperty("javax.net.ssl.keyStore", config.getKeystoreFile());
         System.setProperty("javax.net.ssl.keyStorePassword", config.getKeystorePass());
 
+        // Followers and cluster nodes verify their peers; the default SSL context reads these once.
+        if (config.needsTruststore())
+        {
+            System.setProperty("javax.net.ssl.trustStore", config.getTruststoreFile());
+            System.setProperty("javax.net.ssl.trustStorePassword", config.getTruststorePass());
+        }
+
         System.out.println("[DEBUG] Keystore file: " + config.getKeystoreFile());
         System.out.println("[DEBUG] File exists? " + new File(config.getKeystoreFile()).exists());
 
         SSLServerSocketFactory sslFactory = (SSLServerSocketFactory) SSLServerSocketFactory.getDefault();
         SSLServerSocket server = (SSLServerSocket) sslFactory.createServerSocket(config.getPort());        System.out.println("Bulletin Board Server started on port " + config.getPort());
 
-        nonceCache = new NonceCache(32, 30);
+        loadState();
+        committer = new GroupCommitter(config.getDurability(), config.getCommitBatchSize(),
+            config.getCommitWindowMs(), snapshots == null ? null : snapshots::sync);
+        committer.start();
+        subscriptions = new SubscriptionRegistry(board, config.getSubscribeTimeout(), config.getSubscribeLimit());
+        startReplication();
+        startRetention();
+        if (config.getCluster() != null)
+            router = new ClusterRouter(configName, config.getCluster(), board, snapshots, retention,
+                replicationLog, committer);
+
+        startNonceStore();
+        new Thread(new Compactor(board, config.getCompactionInterval()), "compactor").start();
+        if (config.getColdDir() != null)
+            new Thread(new TierMigrator(board, new ColdTier(new File(config.getColdDir())), config.getHotMs(),
+                config.getColdScanInterval()), "tier-migrator").start();
+        if (config.getQuota() != null)
+            admission = new AdmissionControl(board, config.getQuota());
+        if (config.getAdminSecret() != null)
+            exporter = new BoardExporter(board, new File(config.getExportDir()), config.getAdminSecret(),
+                config.getExportRate());
+        if (config.getJournalFile() != null)
+            journal = new TrafficJournal(config.getJournalFile());
         ExecutorService pool = Executors.newFixedThreadPool(10);
 
        while (true)
         {
             SSLSocket sock = (SSLSocket) server.accept();
-            pool.submit(new ConnectionHandler(
+            // An idle connection gives its pool thread back instead of holding it forever
+            sock.setSoTimeout(config.getIdleTimeout() * 1000);
+            ConnectionHandler handler = new ConnectionHandler(
                 sock,
                 config.doDebug(),
                 "board", // service name expected in the ticket
                 config.getKeystorePass(), // shared secret
-                nonceCache
-            ));
+                nonceStore,
+                journal,
+                board,
+                replicationLog,
+                follower,
+                router,
+                snapshots,
+                tombstoner,
+                retention,
+                subscriptions,
+                committer,
+                exporter,
+                admission
+            );
+            handler.setFrameLimits(config.getFrameLimit(), config.getFrameLimits());
+            pool.submit(handler);
         }
     }
 }
\ No newline at end of file
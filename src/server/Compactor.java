@@ -0,0 +1,46 @@
+package server;
+
+import common.Board;
+
+/**
+ * Periodically drops acknowledged and expired posts from the board. Deleting a post
+ * only tombstones it, which is cheap; the compactor removes tombstoned posts
+ * from the in-memory list and rewrites the board file without them.
+ */
+public class Compactor implements Runnable {
+    private final Board board;
+    private final long intervalMs;
+
+    /**
+     * Creates a compactor.
+     * @param board the board to compact.
+     * @param intervalSeconds how often to compact.
+     */
+    public Compactor(Board board, int intervalSeconds) {
+        this.board = board;
+        this.intervalMs = intervalSeconds * 1000L;
+    }
+
+    /**
+     * Compacts the board every interval until the thread is interrupted.
+     */
+    @Override
+    public void run() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                Thread.sleep(intervalMs);
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            if (board.getTombstoneCount() == 0)
+                continue;
+            int removed;
+            synchronized (board) {
+                removed = board.compact();
+                board.saveToFile();
+            }
+            System.out.println("[SERVER] Compaction removed " + removed + " deleted posts.");
+        }
+    }
+}
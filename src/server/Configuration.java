@@ -3,10 +3,18 @@ package server;
 import merrimackutil.json.types.JSONObject;
 import merrimackutil.json.types.JSONType;
 import merrimackutil.json.JSONSerializable;
+import server.cluster.ClusterConfig;
+import server.nonce.NonceStoreConfig;
+import server.retention.RetentionConfig;
+import server.quota.QuotaConfig;
+import server.snapshot.GroupCommitter;
+import server.storage.BoardStore;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.InvalidObjectException;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * This class represents the configuration data for the bulletin board service.
@@ -17,9 +25,46 @@ public class Configuration implements JSONSerializable
   private boolean doDebug;
   private static String usersFile;
   private static String boardFile;
+  private String boardStore = BoardStore.ENGINE_JSON;
+  private String boardLogFile;
+  private String boardShardDir;
+  private int boardShards = 16;
+  private String payloadDir;
+  private int payloadSegmentMb = 64;
+  private int mailboxCacheMb;
+  private String coldDir;
+  private double hotHours = 24;
+  private int coldScanInterval = 60;
+  private String adminSecret;
+  private String exportDir = "exports";
+  private int exportRateMb = 4;
   private String keystoreFile;
   private String keystorePass;
   private String configDir;
+  private String journalFile;
+  private String role = "leader";
+  private int replicationPort;
+  private String replicationSecret;
+  private String leaderHost;
+  private int leaderPort;
+  private String truststoreFile;
+  private String truststorePass;
+  private ClusterConfig cluster;
+  private NonceStoreConfig nonceStore = new NonceStoreConfig();
+  private String snapshotFile;
+  private String snapshotLogFile;
+  private int snapshotInterval = 300;
+  private int compactionInterval = 60;
+  private RetentionConfig retention;
+  private QuotaConfig quota;
+  private int frameLimit = 1 << 20;
+  private Map<String, Integer> frameLimits = new HashMap<>();
+  private int subscribeTimeout = 300;
+  private int subscribeLimit = 4;
+  private int idleTimeout = 30;
+  private String durability = GroupCommitter.MODE_NONE;
+  private int commitBatchSize = 64;
+  private int commitWindowMs = 5;
 
   
 
@@ -95,6 +140,364 @@ public class Configuration implements JSONSerializable
     this.configDir = path;
   }
 
+  /**
+   * Get the traffic journal file.
+   * @return the path of the journal file or null if traffic recording is off.
+   */
+  public String getJournalFile()
+  {
+    return journalFile;
+  }
+
+  /**
+   * Check if this server is a read-only follower of a leader.
+   * @return true if the server is a follower; otherwise, false.
+   */
+  public boolean isFollower()
+  {
+    return role.equals("follower");
+  }
+
+  /**
+   * Get the port the leader ships its log on.
+   * @return the replication port or 0 if replication is off.
+   */
+  public int getReplicationPort()
+  {
+    return replicationPort;
+  }
+
+  /**
+   * Get the secret shared between the leader and its followers.
+   * @return the replication secret.
+   */
+  public String getReplicationSecret()
+  {
+    return replicationSecret;
+  }
+
+  /**
+   * Get the host name of the leader a follower tails.
+   * @return the leader host name.
+   */
+  public String getLeaderHost()
+  {
+    return leaderHost;
+  }
+
+  /**
+   * Get the replication port of the leader a follower tails.
+   * @return the leader's replication port.
+   */
+  public int getLeaderPort()
+  {
+    return leaderPort;
+  }
+
+  /**
+   * Get the truststore used to verify the leader's certificate.
+   * @return the truststore file path.
+   */
+  public String getTruststoreFile()
+  {
+    return resolve(truststoreFile);
+  }
+
+  /**
+   * Get the truststore password.
+   * @return the truststore password.
+   */
+  public String getTruststorePass()
+  {
+    return truststorePass;
+  }
+
+  /**
+   * Get the cluster configuration.
+   * @return the cluster section or null if the server runs on its own.
+   */
+  public ClusterConfig getCluster()
+  {
+    return cluster;
+  }
+
+  /**
+   * Get the configuration of the replay protection nonce store.
+   * @return the nonce store section, or the defaults if there is none.
+   */
+  public NonceStoreConfig getNonceStore()
+  {
+    return nonceStore;
+  }
+
+  /**
+   * Get the binary snapshot file used for fast startup.
+   * @return the snapshot file path or null if snapshots are off.
+   */
+  public String getSnapshotFile()
+  {
+    return snapshotFile;
+  }
+
+  /**
+   * Get the file changes since the last snapshot are logged to.
+   * @return the snapshot log file path.
+   */
+  public String getSnapshotLogFile()
+  {
+    return snapshotLogFile;
+  }
+
+  /**
+   * Get how often a new snapshot is taken.
+   * @return the snapshot interval in seconds.
+   */
+  public int getSnapshotInterval()
+  {
+    return snapshotInterval;
+  }
+
+  /**
+   * Get how often acknowledged posts are compacted away.
+   * @return the compaction interval in seconds.
+   */
+  public int getCompactionInterval()
+  {
+    return compactionInterval;
+  }
+
+  /**
+   * Get the retention policies.
+   * @return the retention configuration or null if posts are kept until acknowledged.
+   */
+  public RetentionConfig getRetention()
+  {
+    return retention;
+  }
+
+  /**
+   * Get the quotas.
+   * @return the quota configuration or null if posts are not limited.
+   */
+  public QuotaConfig getQuota()
+  {
+    return quota;
+  }
+
+  /**
+   * Get the size limit of received messages whose type has no limit of its own.
+   * @return the limit in bytes.
+   */
+  public int getFrameLimit()
+  {
+    return frameLimit;
+  }
+
+  /**
+   * Get the size limits of single message types.
+   * @return the limits in bytes by message type.
+   */
+  public Map<String, Integer> getFrameLimits()
+  {
+    return frameLimits;
+  }
+
+  /**
+   * Get the longest a connection may wait for posts.
+   * @return the maximum subscription timeout in seconds.
+   */
+  public int getSubscribeTimeout()
+  {
+    return subscribeTimeout;
+  }
+
+  /**
+   * Get the longest a connection may sit idle between requests before it is
+   * closed and its handler thread freed.
+   * @return the idle timeout in seconds.
+   */
+  public int getIdleTimeout()
+  {
+    return idleTimeout;
+  }
+
+  /**
+   * Get how many connections may wait for posts to the same recipient.
+   * @return the maximum number of subscriptions per recipient.
+   */
+  public int getSubscribeLimit()
+  {
+    return subscribeLimit;
+  }
+
+  /**
+   * Get the storage engine of the board.
+   * @return "memory", "json", "log" or "sharded".
+   */
+  public String getBoardStore()
+  {
+    return boardStore;
+  }
+
+  /**
+   * Get the path to the board log used by the log storage engine.
+   * @return the board log file, or null if the engine is not "log".
+   */
+  public String getBoardLogFile()
+  {
+    return boardLogFile;
+  }
+
+  /**
+   * Get the directory of the shard files used by the sharded storage engine.
+   * @return the shard directory, or null if the engine is not "sharded".
+   */
+  public String getBoardShardDir()
+  {
+    return boardShardDir;
+  }
+
+  /**
+   * Get the number of shards the sharded storage engine splits the board into.
+   * @return the number of shards.
+   */
+  public int getBoardShards()
+  {
+    return boardShards;
+  }
+
+  /**
+   * Get the directory of the memory-mapped segments post payloads are kept in.
+   * @return the payload directory, or null if payloads stay on the heap.
+   */
+  public String getPayloadDir()
+  {
+    return payloadDir;
+  }
+
+  /**
+   * Get the size of a payload segment.
+   * @return the segment size in megabytes.
+   */
+  public int getPayloadSegmentMb()
+  {
+    return payloadSegmentMb;
+  }
+
+  /**
+   * Get the memory budget of the mailbox cache.
+   * @return the budget in megabytes, or 0 if mailboxes are not cached.
+   */
+  public int getMailboxCacheMb()
+  {
+    return mailboxCacheMb;
+  }
+
+  /**
+   * Get the directory of the compressed cold tier.
+   * @return the cold tier directory, or null if every post stays hot.
+   */
+  public String getColdDir()
+  {
+    return coldDir;
+  }
+
+  /**
+   * Get how long posts stay in the hot tier before they move to the cold one.
+   * @return the hot window in milliseconds.
+   */
+  public long getHotMs()
+  {
+    return (long) (hotHours * 3600000);
+  }
+
+  /**
+   * Get how often posts that left the hot window are moved.
+   * @return the interval in seconds.
+   */
+  public int getColdScanInterval()
+  {
+    return coldScanInterval;
+  }
+
+  /**
+   * Get the secret admin tools present to the server.
+   * @return the admin secret, or null if admin requests are refused.
+   */
+  public String getAdminSecret()
+  {
+    return adminSecret;
+  }
+
+  /**
+   * Get the directory online exports are written to.
+   * @return the export directory.
+   */
+  public String getExportDir()
+  {
+    return exportDir;
+  }
+
+  /**
+   * Get the most compressed bytes an export writes per second.
+   * @return the rate in bytes per second.
+   */
+  public long getExportRate()
+  {
+    return (long) exportRateMb << 20;
+  }
+
+  /**
+   * Get how posts are made durable before they are acknowledged.
+   * @return "none", "batched" or "per-post".
+   */
+  public String getDurability()
+  {
+    return durability;
+  }
+
+  /**
+   * Get how many waiting posts trigger a sync of the change log in batched mode.
+   * @return the batch size.
+   */
+  public int getCommitBatchSize()
+  {
+    return commitBatchSize;
+  }
+
+  /**
+   * Get the longest a post waits for others to share a sync in batched mode.
+   * @return the window in milliseconds.
+   */
+  public int getCommitWindowMs()
+  {
+    return commitWindowMs;
+  }
+
+  /**
+   * Check if this server makes outgoing TLS connections to other servers
+   * and therefore needs a truststore.
+   * @return true if a truststore is required; otherwise, false.
+   */
+  public boolean needsTruststore()
+  {
+    return isFollower() || cluster != null || nonceStore.isReplicated();
+  }
+
+  /**
+   * Resolves a path relative to the directory of the configuration file.
+   * @param path the path from the configuration file.
+   * @return the canonical path.
+   */
+  private String resolve(String path)
+  {
+    try {
+      return new File(configDir, path).getCanonicalPath();
+    } catch (IOException e) {
+      throw new RuntimeException("Failed to resolve path " + path, e);
+    }
+  }
+
   /**
    * Converts JSON data to an object of this type.
    * @param obj a JSON type to deserialize.
@@ -120,6 +523,160 @@ public class Configuration implements JSONSerializable
       boardFile = config.getString("board-file");
       keystoreFile = config.getString("keystore-file");
       keystorePass = config.getString("keystore-pass");
+
+      if (config.containsKey("journal-file"))
+        journalFile = config.getString("journal-file");
+
+      if (config.containsKey("role"))
+        role = config.getString("role");
+      if (!role.equals("leader") && !role.equals("follower"))
+        throw new InvalidObjectException("Configuration -- role must be leader or follower.");
+
+      if (isFollower())
+        config.checkValidity(new String[] {
+          "leader-host", "leader-port", "replication-secret",
+          "truststore-file", "truststore-pass"
+        });
+      else if (config.containsKey("replication-port"))
+        config.checkValidity(new String[] { "replication-secret" });
+
+      if (config.containsKey("replication-port"))
+        replicationPort = config.getInt("replication-port");
+      if (config.containsKey("replication-secret"))
+        replicationSecret = config.getString("replication-secret");
+      if (config.containsKey("leader-host"))
+        leaderHost = config.getString("leader-host");
+      if (config.containsKey("leader-port"))
+        leaderPort = config.getInt("leader-port");
+      if (config.containsKey("truststore-file"))
+        truststoreFile = config.getString("truststore-file");
+      if (config.containsKey("truststore-pass"))
+        truststorePass = config.getString("truststore-pass");
+
+      if (config.containsKey("cluster"))
+      {
+        config.checkValidity(new String[] { "truststore-file", "truststore-pass" });
+        cluster = new ClusterConfig(config.getObject("cluster"));
+      }
+
+      if (config.containsKey("snapshot-file"))
+      {
+        config.checkValidity(new String[] { "snapshot-log-file" });
+        snapshotFile = config.getString("snapshot-file");
+        snapshotLogFile = config.getString("snapshot-log-file");
+        if (config.containsKey("snapshot-interval"))
+          snapshotInterval = config.getInt("snapshot-interval");
+        if (snapshotInterval <= 0)
+          throw new InvalidObjectException("Configuration -- snapshot-interval must be positive.");
+      }
+
+      if (config.containsKey("board-store"))
+        boardStore = config.getString("board-store");
+      if (!boardStore.equals(BoardStore.ENGINE_MEMORY) && !boardStore.equals(BoardStore.ENGINE_JSON)
+          && !boardStore.equals(BoardStore.ENGINE_LOG) && !boardStore.equals(BoardStore.ENGINE_SHARDED))
+        throw new InvalidObjectException("Configuration -- board-store must be memory, json, log or sharded.");
+      if (boardStore.equals(BoardStore.ENGINE_LOG))
+      {
+        config.checkValidity(new String[] { "board-log-file" });
+        boardLogFile = config.getString("board-log-file");
+      }
+      if (boardStore.equals(BoardStore.ENGINE_SHARDED))
+      {
+        config.checkValidity(new String[] { "board-shard-dir" });
+        boardShardDir = config.getString("board-shard-dir");
+        if (config.containsKey("board-shards"))
+          boardShards = config.getInt("board-shards");
+        if (boardShards <= 0 || boardShards > 256)
+          throw new InvalidObjectException("Configuration -- board-shards must be between 1 and 256.");
+      }
+
+      if (config.containsKey("payload-dir"))
+        payloadDir = config.getString("payload-dir");
+      if (config.containsKey("payload-segment-mb"))
+        payloadSegmentMb = config.getInt("payload-segment-mb");
+      if (payloadSegmentMb <= 0 || payloadSegmentMb > 1024)
+        throw new InvalidObjectException("Configuration -- payload-segment-mb must be between 1 and 1024.");
+
+      if (config.containsKey("mailbox-cache-mb"))
+        mailboxCacheMb = config.getInt("mailbox-cache-mb");
+      if (mailboxCacheMb < 0)
+        throw new InvalidObjectException("Configuration -- mailbox-cache-mb must not be negative.");
+
+      if (config.containsKey("cold-dir"))
+        coldDir = config.getString("cold-dir");
+      if (config.containsKey("hot-hours"))
+        hotHours = config.getDouble("hot-hours");
+      if (config.containsKey("cold-scan-interval"))
+        coldScanInterval = config.getInt("cold-scan-interval");
+      if (hotHours <= 0 || coldScanInterval <= 0)
+        throw new InvalidObjectException("Configuration -- hot-hours and cold-scan-interval must be positive.");
+
+      if (config.containsKey("admin-secret"))
+        adminSecret = config.getString("admin-secret");
+      if (config.containsKey("export-dir"))
+        exportDir = config.getString("export-dir");
+      if (config.containsKey("export-rate-mb"))
+        exportRateMb = config.getInt("export-rate-mb");
+      if (exportRateMb <= 0)
+        throw new InvalidObjectException("Configuration -- export-rate-mb must be positive.");
+
+      if (config.containsKey("compaction-interval"))
+        compactionInterval = config.getInt("compaction-interval");
+      if (compactionInterval <= 0)
+        throw new InvalidObjectException("Configuration -- compaction-interval must be positive.");
+
+      if (config.containsKey("subscribe-timeout"))
+        subscribeTimeout = config.getInt("subscribe-timeout");
+      if (config.containsKey("subscribe-limit"))
+        subscribeLimit = config.getInt("subscribe-limit");
+      if (subscribeTimeout <= 0 || subscribeLimit <= 0)
+        throw new InvalidObjectException("Configuration -- subscribe-timeout and subscribe-limit must be positive.");
+      if (config.containsKey("idle-timeout"))
+        idleTimeout = config.getInt("idle-timeout");
+      if (idleTimeout <= 0)
+        throw new InvalidObjectException("Configuration -- idle-timeout must be positive.");
+
+      if (config.containsKey("durability"))
+        durability = config.getString("durability");
+      if (config.containsKey("commit-batch-size"))
+        commitBatchSize = config.getInt("commit-batch-size");
+      if (config.containsKey("commit-window-ms"))
+        commitWindowMs = config.getInt("commit-window-ms");
+      if (!durability.equals(GroupCommitter.MODE_NONE) && !durability.equals(GroupCommitter.MODE_BATCHED)
+          && !durability.equals(GroupCommitter.MODE_PER_POST))
+        throw new InvalidObjectException("Configuration -- durability must be none, batched or per-post.");
+      if (!durability.equals(GroupCommitter.MODE_NONE) && snapshotFile == null)
+        throw new InvalidObjectException("Configuration -- durability " + durability + " needs the snapshot change log.");
+      if (boardStore.equals(BoardStore.ENGINE_SHARDED) && snapshotFile == null)
+        throw new InvalidObjectException("Configuration -- board-store sharded needs the snapshot change log.");
+      if (commitBatchSize <= 0 || commitWindowMs < 0)
+        throw new InvalidObjectException("Configuration -- commit-batch-size must be positive and commit-window-ms not negative.");
+
+      if (config.containsKey("retention"))
+        retention = new RetentionConfig(config.getObject("retention"));
+      if (config.containsKey("quota"))
+        quota = new QuotaConfig(config.getObject("quota"));
+      if (config.containsKey("frame-limits"))
+      {
+        JSONObject limits = config.getObject("frame-limits");
+        for (String type : limits.keySet())
+        {
+          int limit = limits.getInt(type);
+          if (limit <= 0)
+            throw new InvalidObjectException("Configuration -- frame-limits must be positive.");
+          if (type.equals("default"))
+            frameLimit = limit;
+          else
+            frameLimits.put(type, limit);
+        }
+      }
+
+      if (config.containsKey("nonce-store"))
+      {
+        nonceStore = new NonceStoreConfig(config.getObject("nonce-store"));
+        if (nonceStore.isReplicated())
+          config.checkValidity(new String[] { "truststore-file", "truststore-pass" });
+      }
     }
     else
     {
@@ -142,6 +699,65 @@ public class Configuration implements JSONSerializable
     obj.put("board-file", boardFile);
     obj.put("keystore-file", keystoreFile);
     obj.put("keystore-pass", keystorePass);
+    if (journalFile != null)
+      obj.put("journal-file", journalFile);
+    obj.put("role", role);
+    if (replicationPort != 0)
+      obj.put("replication-port", replicationPort);
+    if (replicationSecret != null)
+      obj.put("replication-secret", replicationSecret);
+    if (leaderHost != null)
+      obj.put("leader-host", leaderHost);
+    if (leaderPort != 0)
+      obj.put("leader-port", leaderPort);
+    if (truststoreFile != null)
+      obj.put("truststore-file", truststoreFile);
+    if (truststorePass != null)
+      obj.put("truststore-pass", truststorePass);
+    if (cluster != null)
+      obj.put("cluster", cluster.toJSONType());
+    obj.put("nonce-store", nonceStore.toJSONType());
+    obj.put("board-store", boardStore);
+    if (boardLogFile != null)
+      obj.put("board-log-file", boardLogFile);
+    if (boardShardDir != null)
+    {
+      obj.put("board-shard-dir", boardShardDir);
+      obj.put("board-shards", boardShards);
+    }
+    if (payloadDir != null)
+      obj.put("payload-dir", payloadDir);
+    obj.put("payload-segment-mb", payloadSegmentMb);
+    obj.put("mailbox-cache-mb", mailboxCacheMb);
+    if (coldDir != null)
+      obj.put("cold-dir", coldDir);
+    obj.put("hot-hours", hotHours);
+    obj.put("cold-scan-interval", coldScanInterval);
+    if (adminSecret != null)
+      obj.put("admin-secret", adminSecret);
+    obj.put("export-dir", exportDir);
+    obj.put("export-rate-mb", exportRateMb);
+    obj.put("compaction-interval", compactionInterval);
+    if (retention != null)
+      obj.put("retention", retention.toJSONType());
+    if (quota != null)
+      obj.put("quota", quota.toJSONType());
+    JSONObject limits = new JSONObject();
+    limits.put("default", frameLimit);
+    limits.putAll(frameLimits);
+    obj.put("frame-limits", limits);
+    obj.put("durability", durability);
+    obj.put("commit-batch-size", commitBatchSize);
+    obj.put("commit-window-ms", commitWindowMs);
+    obj.put("subscribe-timeout", subscribeTimeout);
+    obj.put("subscribe-limit", subscribeLimit);
+    obj.put("idle-timeout", idleTimeout);
+    if (snapshotFile != null)
+    {
+      obj.put("snapshot-file", snapshotFile);
+      obj.put("snapshot-log-file", snapshotLogFile);
+      obj.put("snapshot-interval", snapshotInterval);
+    }
 
     return obj;
   }
@@ -2,34 +2,169 @@
 package server;
 
 import java.io.IOException;
+import java.io.InvalidObjectException;
 import java.net.Socket;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 
 import common.protocol.Message;
+import common.protocol.MessageRegistry;
+import common.protocol.FrameRejectedException;
+import common.protocol.FrameTooLargeException;
 import common.protocol.ProtocolChannel;
+import common.protocol.messages.AckMessage;
 import common.protocol.messages.AuthenticateMessage;
 import common.protocol.messages.GetMessage;
 import common.protocol.messages.GetResponseMessage;
+import common.protocol.messages.MailboxSummaryRequest;
 import common.protocol.messages.PostMessage;
 import common.protocol.messages.PubKeyRequest;
 import common.protocol.messages.StatusMessage;
+import common.protocol.messages.SubscribeMessage;
+import common.protocol.user_creation.CreateMessage;
 import common.protocol.user_auth.AuthenticationHandler;
 import common.protocol.user_auth.UserDatabase;
-import merrimackutil.util.NonceCache;
+import server.replication.ReplicationFollower;
+import server.replication.ReplicationLog;
+import server.replication.ReplicationStatusRequest;
+import server.cache.MailboxCache;
+import server.cluster.ClusterMigrate;
+import server.cluster.ClusterRouter;
+import server.cluster.RebalanceRequest;
+import server.backup.BoardExporter;
+import server.backup.ExportRequest;
+import server.quota.AdmissionControl;
+import server.nonce.NonceGossip;
+import server.nonce.NonceStore;
+import server.nonce.ReplicatedNonceStore;
+import server.push.SubscriptionRegistry;
+import server.retention.RetentionEngine;
+import server.snapshot.GroupCommitter;
+import server.snapshot.SnapshotManager;
 import common.Board;
 import common.protocol.post.Post;
 
 
 public class ConnectionHandler implements Runnable {
 
+    // The requests a client may send, shared by every connection and the traffic replayer
+    static final MessageRegistry MESSAGE_TYPES = MessageRegistry.of(
+        new CreateMessage(), new StatusMessage(), new PostMessage(), new AuthenticateMessage(),
+        new PubKeyRequest(), new GetMessage(), new GetResponseMessage(), new ReplicationStatusRequest(),
+        new ClusterMigrate(), new RebalanceRequest(), new ExportRequest(), new NonceGossip(),
+        new AckMessage(), new SubscribeMessage(), new MailboxSummaryRequest());
+
+    /**
+     * Handles one type of request on a connection.
+     * @param <T> the type of the request.
+     */
+    @FunctionalInterface
+    private interface Handler<T extends Message> {
+        /**
+         * Handles a request.
+         * @param conn the connection the request came in on.
+         * @param msg the request.
+         * @return true to wait for the next request, false to close the connection.
+         * @throws IOException if the request can't be handled.
+         */
+        boolean handle(ConnectionHandler conn, T msg) throws IOException;
+    }
+
+    // The handler of every request type, looked up by the class of the decoded message
+    private static final Map<Class<? extends Message>, Handler<Message>> HANDLERS = Map.ofEntries(
+        route(CreateMessage.class, (conn, msg) -> {
+            conn.handleCreateMessage(msg);
+            return false;
+        }),
+        route(AuthenticateMessage.class, ConnectionHandler::handleAuthenticateMessage),
+        route(PubKeyRequest.class, (conn, msg) -> {
+            conn.handlePubKeyRequest(msg);
+            return true;
+        }),
+        route(PostMessage.class, (conn, msg) -> {
+            conn.handlePostMessage(msg);
+            return false;
+        }),
+        route(GetMessage.class, (conn, msg) -> {
+            conn.handleGetMessage(msg);
+            return true;
+        }),
+        route(MailboxSummaryRequest.class, (conn, msg) -> {
+            conn.channel.sendMessage(conn.board.summarize(msg.getUser()));
+            return true;
+        }),
+        route(AckMessage.class, (conn, msg) -> {
+            conn.handleAckMessage(msg);
+            return true;
+        }),
+        route(SubscribeMessage.class, (conn, msg) -> !conn.handleSubscribeMessage(msg)),
+        route(ReplicationStatusRequest.class, (conn, msg) -> {
+            conn.handleStatusRequest();
+            return false;
+        }),
+        route(ClusterMigrate.class, (conn, msg) -> {
+            if (conn.router == null)
+                return conn.unsupported(msg);
+            conn.channel.sendMessage(conn.router.acceptMigration(msg));
+            return true;
+        }),
+        route(RebalanceRequest.class, (conn, msg) -> {
+            if (conn.router == null)
+                return conn.unsupported(msg);
+            conn.handleRebalanceRequest(msg);
+            return false;
+        }),
+        route(ExportRequest.class, (conn, msg) -> {
+            if (conn.exporter == null)
+                return conn.unsupported(msg);
+            conn.handleExportRequest(msg);
+            return false;
+        }),
+        route(NonceGossip.class, (conn, msg) -> {
+            if (!(conn.nonceStore instanceof ReplicatedNonceStore))
+                return conn.unsupported(msg);
+            if (!((ReplicatedNonceStore) conn.nonceStore).merge(msg))
+                System.err.println("[ERROR] Rejected nonce gossip with a bad secret.");
+            return false;
+        }));
+
+    /**
+     * Pairs a request type with its handler.
+     * @param <T> the type of the request.
+     * @param type the class of the request.
+     * @param handler the handler.
+     * @return the entry of the handler table.
+     */
+    private static <T extends Message> Map.Entry<Class<? extends Message>, Handler<Message>> route(
+            Class<T> type, Handler<T> handler) {
+        return Map.entry(type, (conn, msg) -> handler.handle(conn, type.cast(msg)));
+    }
+
     private ProtocolChannel channel;
-    private NonceCache nonceCache;
+    private NonceStore nonceStore;
+    private TrafficJournal journal;
+    private long connId;
     private boolean doDebug = false;
     private String serviceName;
     private String secret;
     private byte[] sessionKey;
-    private static Board board = new Board();
+    private Board board;
+    private ReplicationLog replicationLog;
+    private ReplicationFollower follower;
+    private ClusterRouter router;
+    private SnapshotManager snapshots;
+    private Tombstoner tombstoner;
+    private RetentionEngine retention;
+    private SubscriptionRegistry subscriptions;
+    private GroupCommitter committer;
+    private BoardExporter exporter;
+    private AdmissionControl admission;
+    private AdmissionControl.Gate gate;
+    private boolean parked;
+    private String authenticatedUser;
+    private ProtocolChannel upstream;
 
     /**
      * Constructs a new connection handler for the given connection.
@@ -37,26 +172,63 @@ public class ConnectionHandler implements Runnable {
      * @param doDebug if tracing should be turned on or not.
      * @param serviceName the name of the service.
      * @param secret the secret.
-     * @param nonceCache the nonce cache of the daemon.
+     * @param nonceStore the replay protection store of the daemon.
+     * @param journal the traffic journal, or null if recording is off.
+     * @param board the board shared by all connections.
+     * @param replicationLog the leader's replication log, or null if no followers are served.
+     * @param follower the replication follower if this server is a read-only replica; otherwise, null.
+     * @param router the cluster router, or null if the server runs on its own.
+     * @param snapshots the snapshot manager changes are logged to, or null if snapshots are off.
+     * @param tombstoner deletes posts and logs the deletes.
+     * @param retention the retention engine, or null if posts are kept until acknowledged.
+     * @param subscriptions the connections waiting for posts.
+     * @param committer makes logged changes durable before they are acknowledged.
+     * @param exporter writes online exports, or null if admin requests are refused.
+     * @param admission enforces the quotas, or null if posts are not limited.
      * @throws IllegalArgumentException the socket is invalid.
      * @throws IOException we can't read or write from the channel.
      */
-    public ConnectionHandler(Socket sock, boolean doDebug, String serviceName, String secret, NonceCache nonceCache) throws IllegalArgumentException, IOException
+    public ConnectionHandler(Socket sock, boolean doDebug, String serviceName, String secret, NonceStore nonceStore,
+        TrafficJournal journal, Board board, ReplicationLog replicationLog, ReplicationFollower follower,
+        ClusterRouter router, SnapshotManager snapshots, Tombstoner tombstoner, RetentionEngine retention,
+        SubscriptionRegistry subscriptions, GroupCommitter committer, BoardExporter exporter,
+        AdmissionControl admission) throws IllegalArgumentException, IOException
     {
         this.channel = new ProtocolChannel(sock);
-        this.channel.addMessageType(new common.protocol.user_creation.CreateMessage());
-        this.channel.addMessageType(new common.protocol.messages.StatusMessage());
-        this.channel.addMessageType(new PostMessage());
-        this.channel.addMessageType(new AuthenticateMessage());
-        this.channel.addMessageType(new PubKeyRequest());
-        this.channel.addMessageType(new PostMessage());
-        this.channel.addMessageType(new GetMessage());
-        this.channel.addMessageType(new GetResponseMessage());
+        this.channel.setMessageTypes(MESSAGE_TYPES);
         this.doDebug = doDebug;
 
-        this.nonceCache = nonceCache;
+        this.nonceStore = nonceStore;
         this.serviceName = serviceName;
         this.secret = secret;
+        this.journal = journal;
+        if (journal != null)
+            this.connId = journal.openConnection();
+        this.board = board;
+        this.replicationLog = replicationLog;
+        this.follower = follower;
+        this.router = router;
+        this.snapshots = snapshots;
+        this.tombstoner = tombstoner;
+        this.retention = retention;
+        this.subscriptions = subscriptions;
+        this.committer = committer;
+        this.exporter = exporter;
+        this.admission = admission;
+        if (admission != null) {
+            gate = admission.open();
+            channel.setFrameFilter(gate);
+        }
+    }
+
+    /**
+     * Limits the size of the messages the client may send. A message over
+     * its limit is cut off as it arrives and the connection is closed.
+     * @param defaultLimit the limit of message types without their own, in bytes.
+     * @param typeLimits the limits of single message types, in bytes.
+     */
+    public void setFrameLimits(int defaultLimit, Map<String, Integer> typeLimits) {
+        channel.setFrameLimits(defaultLimit, typeLimits);
     }
 
     /**
@@ -66,7 +238,13 @@ public class ConnectionHandler implements Runnable {
     public void run() {
 
         runCommunication();
-        channel.closeChannel();
+        if (gate != null)
+            gate.done();
+        // A subscribed connection now belongs to the subscription registry
+        if (!parked)
+            channel.closeChannel();
+        if (upstream != null)
+            upstream.closeChannel();
       }
 
       /**
@@ -74,81 +252,77 @@ public class ConnectionHandler implements Runnable {
        */
       private void runCommunication() {
         try {
-            board.loadFromFile();
             while (true) {
                 System.out.println("[DEBUG] Waiting to receive a message...");
                 Message msg = null;
+                // The previous request is handled, so its bytes leave the budget
+                if (gate != null)
+                    gate.done();
     
                 try {
                     // Try to receive the message
                     msg = channel.receiveMessage();
+                } catch (FrameTooLargeException e) {
+                    System.err.println("[SERVER] Closing connection: " + e.getMessage());
+                    channel.sendMessage(new StatusMessage(false, e.getMessage()));
+                    return;
+                } catch (FrameRejectedException e) {
+                    channel.sendMessage(new StatusMessage(false, e.getMessage()));
+                    continue;
+                } catch (InvalidObjectException e) {
+                    // The frame was read whole but is not a valid message, e.g. a post without a recipient
+                    channel.sendMessage(new StatusMessage(false, "Invalid message: " + e.getMessage()));
+                    continue;
                 } catch (NullPointerException e) {
                     // If a NullPointerException occurs, log it and continue waiting for the next message
                     System.err.println("[ERROR] NullPointerException encountered while receiving message.");
                     System.err.println("[DEBUG] Received message: " + msg);
                     // You can decide whether to break out of the loop or continue waiting
                     continue; // Continue waiting for the next message
+                } catch (NoSuchElementException e) {
+                    // The client closed the connection
+                    return;
                 }
                 System.out.println("[DEBUG] Received message: " + msg);
-            if (msg.getType().equals("Create")) {
-                // Handle CreateMessage 
-                handleCreateMessage(msg);
+                if (journal != null)
+                    journal.record(connId, msg);
+            String routeKey = ClusterRouter.routingKey(msg);
+            if (router != null && routeKey != null)
+                router.awaitMove(routeKey);
+            if (router != null && routeKey != null && !router.isLocal(routeKey)) {
+                // Another node owns this user, forward or redirect the request
+                if (msg instanceof SubscribeMessage) {
+                    // A parked connection can't be relayed, the client has to go to the owner
+                    channel.sendMessage(router.redirect(routeKey));
+                    return;
+                }
+                if (upstream == null && msg instanceof AuthenticateMessage && !router.doRedirect())
+                    upstream = router.openSession(routeKey);
+                if (upstream != null) {
+                    // Keep relaying over the owner connection the client authenticated on
+                    upstream.sendMessage(msg);
+                    Message resp = ClusterRouter.receive(upstream);
+                    channel.sendMessage(resp);
+                    if (!(msg instanceof AuthenticateMessage)
+                            || (resp instanceof StatusMessage && ((StatusMessage) resp).getStatus()))
+                        continue;
+                    return;
+                }
+                channel.sendMessage(router.route(routeKey, msg));
+                if (msg instanceof PubKeyRequest || msg instanceof GetMessage || msg instanceof MailboxSummaryRequest)
+                    continue;
+                return;
+            } else if (follower != null && (msg.getType().equals("Create") || msg.getType().equals("post")
+                    || msg instanceof AckMessage)) {
+                channel.sendMessage(new StatusMessage(false, "Read-only replica, send writes to the leader."));
                 return;
-            } else if (msg.getType().equals("authenticate")) {
-            boolean success = AuthenticationHandler.authenticate((AuthenticateMessage) msg);
-
-            if (success) {
-                channel.sendMessage(new StatusMessage(true, "Authentication successful."));
             } else {
-                channel.sendMessage(new StatusMessage(false, "Authentication failed. Check your password or OTP."));
+                Handler<Message> handler = HANDLERS.get(msg.getClass());
+                if (handler == null)
+                    unsupported(msg);
+                else if (!handler.handle(this, msg))
+                    return;
             }
-            return;
-        } else if (msg.getType().equals("PubKeyRequest")) {
-            System.out.println("[SERVER] Received PubKeyRequest.");
-        
-            PubKeyRequest pubKeyRequest = (PubKeyRequest) msg;
-            String username = pubKeyRequest.getUser();  // Use getUser() here
-            System.out.println("[SERVER] Public key requested for user: " + username);
-        
-            String base64Key = UserDatabase.getEncodedPublicKey(username) ;  // You might want to change this to take a username
-            System.out.println("[SERVER] Sending public key (Base64): " + base64Key);
-        
-            channel.sendMessage((Message) new StatusMessage(true, base64Key));
-            System.out.println("[SERVER] Public key sent.");
-
-        } else if (msg.getType().equals("post")) {
-            // Handle PostMessage
-            System.out.println("[SERVER] Handling PostMessage");
-           handlePostMessage((PostMessage) msg);
-           return;
-        }
-          else if (msg instanceof GetMessage) {
-                GetMessage getMsg = (GetMessage) msg;
-                String username = getMsg.getUser();
-            
-                board.loadFromFile(); // ensure latest board
-            
-                // ✅ Step 1: Find all posts addressed to the requested user
-                List<Post> userPosts = new ArrayList<>();
-                for (Post post : board.getPosts()) {
-                    if (post.getUser().equals(username)) {
-                        userPosts.add(post);
-                    }
-                }
-            
-                // ✅ Step 2: Convert Post → PostMessage
-                List<PostMessage> converted = new ArrayList<>();
-                for (Post post : userPosts) {
-                    converted.add(post.toPostMessage()); // make sure to add this helper in Post.java
-                }
-            
-                // ✅ Step 3: Send response
-                GetResponseMessage response = new GetResponseMessage(converted);
-                channel.sendMessage(response);
-            
-        } else {
-            System.out.println("[SERVER] Unknown or unsupported message type: " + msg.getType());
-        }
 
     }
 }catch (Exception ex) {
@@ -167,16 +341,12 @@ public class ConnectionHandler implements Runnable {
          * success or failure and a message containing the base64 encoded TOTP key if
          * successful, or an error message otherwise.
          * 
-         * @param msg the CreateMessage received from the client
+         * @param createMsg the CreateMessage received from the client
          */
-    private void handleCreateMessage(Message msg) {
+    private void handleCreateMessage(CreateMessage createMsg) {
         try {
             System.out.println("[SERVER] Handling CreateMessage");
     
-            // Safe cast
-            common.protocol.user_creation.CreateMessage createMsg = 
-                (common.protocol.user_creation.CreateMessage) msg;
-    
             String username = createMsg.getUsername();
             String password = createMsg.getPassword();
             String publicKey = createMsg.getPublicKey();
@@ -188,6 +358,12 @@ public class ConnectionHandler implements Runnable {
             common.protocol.messages.StatusMessage response =
                 common.protocol.user_creation.CreateAccount.createAccount(username, password, publicKey, userfile);
     
+            // Log the new account and ship it to the followers
+            if (response.getStatus() && snapshots != null)
+                snapshots.logUser(UserDatabase.get(username));
+            if (response.getStatus() && replicationLog != null)
+                replicationLog.append(ReplicationLog.OP_USER, UserDatabase.get(username).toJSONType());
+
             // Send the response back to the client
             channel.sendMessage(response);
     
@@ -195,6 +371,196 @@ public class ConnectionHandler implements Runnable {
             e.printStackTrace();
         }
     }
+        /**
+         * Handles an AckMessage by tombstoning the acknowledged posts. Only a
+         * connection authenticated as the recipient may acknowledge them; the
+         * compactor removes them from storage later.
+         * @param ack the AckMessage to be handled
+         */
+    private void handleAckMessage(AckMessage ack) {
+        if (authenticatedUser == null || !authenticatedUser.equals(ack.getUser())) {
+            channel.sendMessage(new StatusMessage(false, "Authenticate as " + ack.getUser() + " first."));
+            return;
+        }
+
+        int count;
+        synchronized (board) {
+            count = tombstoner.tombstone(ack.getUser(), ack.getIds());
+            if (!committer.isDurable())
+                board.saveToFile();
+        }
+        if (count > 0 && !committer.commit()) {
+            channel.sendMessage(new StatusMessage(false, "Delete could not be made durable."));
+            return;
+        }
+        System.out.println("[SERVER] " + ack.getUser() + " acknowledged " + count + " posts.");
+        channel.sendMessage(new StatusMessage(true, "Deleted " + count + " posts."));
+    }
+
+        /**
+         * Handles a SubscribeMessage by handing the connection to the
+         * subscription registry, which pushes the recipient's posts until the
+         * subscription expires. Only a connection authenticated as the
+         * recipient may subscribe.
+         * @param sub the SubscribeMessage to be handled
+         * @return true if the connection was parked and this handler is done with it
+         */
+    private boolean handleSubscribeMessage(SubscribeMessage sub) {
+        if (authenticatedUser == null || !authenticatedUser.equals(sub.getUser())) {
+            channel.sendMessage(new StatusMessage(false, "Authenticate as " + sub.getUser() + " first."));
+            return false;
+        }
+        if (!subscriptions.subscribe(sub.getUser(), sub.getSince(), sub.getTimeout(), channel)) {
+            channel.sendMessage(new StatusMessage(false, "Too many subscriptions for " + sub.getUser() + "."));
+            return false;
+        }
+        parked = true;
+        return true;
+    }
+
+        /**
+         * Handles an AuthenticateMessage. The connection stays open and
+         * authenticated for acknowledgements and subscriptions.
+         * @param auth the AuthenticateMessage to be handled
+         * @return true if the user was authenticated
+         */
+    private boolean handleAuthenticateMessage(AuthenticateMessage auth) {
+        if (!AuthenticationHandler.authenticate(auth, nonceStore)) {
+            channel.sendMessage(new StatusMessage(false, "Authentication failed. Check your password or OTP."));
+            return false;
+        }
+        authenticatedUser = auth.getUser();
+        channel.sendMessage(new StatusMessage(true, "Authentication successful."));
+        return true;
+    }
+
+        /**
+         * Handles a PubKeyRequest by sending the user's public key.
+         * @param pubKeyRequest the PubKeyRequest to be handled
+         */
+    private void handlePubKeyRequest(PubKeyRequest pubKeyRequest) {
+        System.out.println("[SERVER] Received PubKeyRequest.");
+        String username = pubKeyRequest.getUser();
+        System.out.println("[SERVER] Public key requested for user: " + username);
+
+        String base64Key = UserDatabase.getEncodedPublicKey(username);
+        System.out.println("[SERVER] Sending public key (Base64): " + base64Key);
+
+        channel.sendMessage(new StatusMessage(true, base64Key));
+        System.out.println("[SERVER] Public key sent.");
+    }
+
+        /**
+         * Handles a GetMessage by sending the posts of the mailbox the client
+         * hasn't seen yet, or "Not modified." if the mailbox digest matches.
+         * @param getMsg the GetMessage to be handled
+         * @throws IOException if the mailbox can't be cached
+         */
+    private void handleGetMessage(GetMessage getMsg) throws IOException {
+        String username = getMsg.getUser();
+
+        // An empty mailbox is answered without touching the board
+        if (!board.mightHavePosts(username)) {
+            channel.sendMessage(new GetResponseMessage(new ArrayList<>()));
+            return;
+        }
+
+        // Find the posts addressed to the requested user that the client hasn't seen,
+        // unless the mailbox digest shows nothing changed since the client's last fetch.
+        // A cached mailbox serves any since; only a full read on a miss fills the cache,
+        // so incremental reads stay incremental and off-heap payloads stay off the heap.
+        MailboxCache cache = board.getMailboxCache();
+        long since = getMsg.getSince();
+        MailboxCache.Entry cached = null;
+        List<Post> userPosts = null;
+        boolean fill = false;
+        String digest;
+        synchronized (board) {
+            digest = board.getMailboxDigest(username);
+            if (!digest.equals(getMsg.getIfNoneMatch())) {
+                if (cache != null)
+                    cached = cache.get(username, digest);
+                if (cached == null) {
+                    fill = cache != null && since == 0 && cache.fits(board.getMailboxBytes(username));
+                    userPosts = board.getPostsFor(username, since);
+                }
+            }
+        }
+        if (cached == null && userPosts == null) {
+            channel.sendMessage(new StatusMessage(true, "Not modified."));
+            return;
+        }
+
+        // Send the posts in the wire form they were stored with
+        if (cached != null || fill) {
+            final MailboxCache.Entry entry = cached != null ? cached : cache.put(username, digest, userPosts);
+            channel.sendFrame("[GetResponseMessage] with " + entry.count(since) + " posts",
+                out -> entry.write(out, since));
+        } else {
+            final List<Post> found = userPosts;
+            final String tag = digest;
+            channel.sendFrame("[GetResponseMessage] with " + found.size() + " posts",
+                out -> GetResponseMessage.write(out, found, tag));
+        }
+    }
+
+        /**
+         * Handles a ReplicationStatusRequest by describing the role of the
+         * server, its cache and its quotas.
+         */
+    private void handleStatusRequest() {
+        String status;
+        if (follower != null)
+            status = follower.getMetrics().describe();
+        else if (replicationLog != null)
+            status = "role=leader, epoch=" + replicationLog.getEpoch() + ", last-lsn=" + replicationLog.getLastLsn();
+        else
+            status = "role=leader";
+        if (board.getMailboxCache() != null)
+            status += ", " + board.getMailboxCache().describe();
+        if (admission != null)
+            status += ", " + admission.describe();
+        channel.sendMessage(new StatusMessage(true, status));
+    }
+
+        /**
+         * Handles a RebalanceRequest from the admin tool.
+         * @param req the RebalanceRequest to be handled
+         * @throws IOException if the configuration can't be re-read
+         */
+    private void handleRebalanceRequest(RebalanceRequest req) throws IOException {
+        if (router.checkSecret(req.getSecret()))
+            channel.sendMessage(new StatusMessage(true, router.rebalance()));
+        else
+            channel.sendMessage(new StatusMessage(false, "Bad cluster secret."));
+    }
+
+        /**
+         * Handles an ExportRequest from the admin tool by starting an export.
+         * @param req the ExportRequest to be handled
+         */
+    private void handleExportRequest(ExportRequest req) {
+        if (!exporter.checkSecret(req.getSecret())) {
+            channel.sendMessage(new StatusMessage(false, "Bad admin secret."));
+            return;
+        }
+        try {
+            channel.sendMessage(new StatusMessage(true, "Exporting to " + exporter.start() + "."));
+        } catch (IOException e) {
+            channel.sendMessage(new StatusMessage(false, e.getMessage()));
+        }
+    }
+
+        /**
+         * Logs a request this server doesn't handle.
+         * @param msg the request
+         * @return true, the connection waits for the next request
+         */
+    private boolean unsupported(Message msg) {
+        System.out.println("[SERVER] Unknown or unsupported message type: " + msg.getType());
+        return true;
+    }
+
         /**
          * Handles a PostMessage and adds the post to the board.
          * @param postMsg the PostMessage to be handled
@@ -211,10 +577,44 @@ public class ConnectionHandler implements Runnable {
             String IV=postMsg.getIv();
     
             Post post = new Post( User, Message, WrappedKey, IV,Type);
-            // Add post to board and save
-            board.addPost(post);
-            board.loadAndAddPost(post);
-    
+            if (retention != null && !retention.fits(post)) {
+                channel.sendMessage(new StatusMessage(false, "Post is larger than the mailbox of " + User + " allows."));
+                return;
+            }
+
+            // Add post to board and save, shipping it to the followers in board order.
+            // Evictions are logged after the post so replicas apply them in the same order.
+            String refusal = null;
+            synchronized (board) {
+                if (admission != null)
+                    refusal = admission.checkPost(post);
+                if (refusal == null) {
+                    board.addPost(post);
+                    if (snapshots != null)
+                        snapshots.logPost(post);
+                    if (replicationLog != null)
+                        replicationLog.append(ReplicationLog.OP_POST, post.toJSONType());
+                    if (retention != null)
+                        retention.admit(post);
+                    if (!committer.isDurable())
+                        board.saveToFile();
+                }
+            }
+            if (refusal != null) {
+                channel.sendMessage(new StatusMessage(false, refusal));
+                return;
+            }
+
+            // Wait for the change log to reach the disk, outside the board lock so posts can batch up
+            if (!committer.commit()) {
+                // The sender is told the post failed, so take it back off the board and the followers
+                tombstoner.tombstone(User, List.of(post.getId()));
+                channel.sendMessage(new StatusMessage(false, "Post could not be made durable."));
+                return;
+            }
+
+            // Only push posts that are durable; within one batch they may go out of order
+            subscriptions.publish(post);
             channel.sendMessage(new StatusMessage(true, "Success!"));
             System.out.println("[SERVER] Post successful.");
             return;
@@ -0,0 +1,59 @@
+package server;
+
+import java.util.Collection;
+
+import common.Board;
+import merrimackutil.json.types.JSONArray;
+import merrimackutil.json.types.JSONObject;
+import server.replication.ReplicationLog;
+import server.snapshot.SnapshotManager;
+
+/**
+ * Deletes posts by tombstoning them on the board and recording the delete in
+ * the snapshot log and the replication log, so restarts and followers see
+ * it too. Used for acknowledgements and for retention.
+ */
+public class Tombstoner {
+    private final Board board;
+    private final SnapshotManager snapshots;
+    private final ReplicationLog replicationLog;
+
+    /**
+     * Creates a tombstoner.
+     * @param board the board.
+     * @param snapshots the snapshot manager, or null if snapshots are off.
+     * @param replicationLog the replication log, or null if no followers are served.
+     */
+    public Tombstoner(Board board, SnapshotManager snapshots, ReplicationLog replicationLog) {
+        this.board = board;
+        this.snapshots = snapshots;
+        this.replicationLog = replicationLog;
+    }
+
+    /**
+     * Tombstones posts addressed to a recipient. The board file is not
+     * written; the caller saves it once it has made all its changes.
+     * @param user the recipient.
+     * @param ids the ids of the posts.
+     * @return the number of posts tombstoned.
+     */
+    public int tombstone(String user, Collection<String> ids) {
+        synchronized (board) {
+            int count = board.tombstone(user, ids);
+            if (count == 0)
+                return 0;
+
+            if (snapshots != null)
+                snapshots.logDelete(user, ids);
+            if (replicationLog != null) {
+                JSONArray array = new JSONArray();
+                array.addAll(ids);
+                JSONObject data = new JSONObject();
+                data.put("user", user);
+                data.put("ids", array);
+                replicationLog.append(ReplicationLog.OP_DELETE, data);
+            }
+            return count;
+        }
+    }
+}
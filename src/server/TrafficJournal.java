@@ -0,0 +1,80 @@
+package server;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicLong;
+
+import common.protocol.Message;
+import merrimackutil.json.types.JSONObject;
+
+/**
+ * Records every decoded inbound message to a JSONL journal so that
+ * production traffic can be replayed offline with {@link TrafficReplayer}.
+ *
+ * Each line of the journal is a JSON object of the form
+ * {@code {"ts": <epoch millis>, "conn": <connection id>, "msg": {...}}}.
+ * Passwords and one-time codes are replaced with {@link #REDACTED} before a
+ * message is written, and messages carrying a cluster or admin secret are
+ * not recorded at all, so the journal holds no credentials. The replayer
+ * skips the redacted logins and account creations.
+ */
+public class TrafficJournal {
+    /** What a credential is replaced with. */
+    public static final String REDACTED = "<redacted>";
+    // The fields of client messages that hold credentials
+    private static final String[] CREDENTIALS = { "pass", "otp" };
+
+    private final PrintWriter out;
+    private final AtomicLong nextConnId = new AtomicLong(1);
+
+    /**
+     * Opens (or creates) a journal file in append mode.
+     * @param journalFile the path to the journal file.
+     * @throws IOException if the journal can not be opened.
+     */
+    public TrafficJournal(String journalFile) throws IOException {
+        this.out = new PrintWriter(new FileWriter(journalFile, true));
+        System.out.println("[SERVER] Recording inbound traffic to: " + journalFile);
+    }
+
+    /**
+     * Allocates an identifier for a new connection so that the replayer can
+     * group the messages of one connection together.
+     * @return a unique connection identifier.
+     */
+    public long openConnection() {
+        return nextConnId.getAndIncrement();
+    }
+
+    /**
+     * Appends a decoded message to the journal with its credentials
+     * redacted. Messages between nodes and admin requests, which carry a
+     * shared secret, are left out.
+     * @param connId the connection the message arrived on.
+     * @param msg the decoded message.
+     */
+    public synchronized void record(long connId, Message msg) {
+        JSONObject obj = (JSONObject) msg.toJSONType();
+        if (obj.containsKey("secret"))
+            return;
+        for (String field : CREDENTIALS) {
+            if (obj.containsKey(field))
+                obj.put(field, REDACTED);
+        }
+
+        JSONObject entry = new JSONObject();
+        entry.put("ts", System.currentTimeMillis());
+        entry.put("conn", connId);
+        entry.put("msg", obj);
+        out.println(entry.toJSON());
+        out.flush();
+    }
+
+    /**
+     * Closes the journal.
+     */
+    public synchronized void close() {
+        out.close();
+    }
+}
@@ -0,0 +1,423 @@
+package server;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+import common.protocol.Message;
+import common.protocol.ProtocolChannel;
+import common.protocol.messages.AuthenticateMessage;
+import common.protocol.messages.GetResponseMessage;
+import common.protocol.messages.PostMessage;
+import common.protocol.messages.StatusMessage;
+import common.protocol.user_creation.CreateMessage;
+import merrimackutil.cli.LongOption;
+import merrimackutil.cli.OptionParser;
+import merrimackutil.json.JsonIO;
+import merrimackutil.json.types.JSONObject;
+import merrimackutil.util.Tuple;
+
+/**
+ * Re-drives a journal recorded by {@link TrafficJournal} against a server and
+ * reports per message type latencies. Connections are replayed with the same
+ * relative start times and inter-message gaps as the recording, scaled by the
+ * requested speed. A report from an earlier run can be given as a baseline to
+ * compare latencies between runs.
+ *
+ * Logins and account creations are skipped: the journal holds no
+ * credentials, and a recorded one-time code is spent anyway. Requests that
+ * need an authenticated connection are therefore answered with a refusal
+ * on replay.
+ */
+public class TrafficReplayer {
+    private static final int RESPONSE_TIMEOUT_MS = 5000;
+
+    private static String journalFile = null;
+    private static String host = "localhost";
+    private static int port = 0;
+    private static double speed = 1.0;      // 0 means as fast as possible.
+    private static String reportFile = null;
+    private static String baselineFile = null;
+
+    private static final Map<String, List<Long>> latencies = new ConcurrentHashMap<>();
+    private static final Map<String, Integer> errors = new ConcurrentHashMap<>();
+
+    /**
+     * A single journal entry.
+     */
+    private static class Entry {
+        final long ts;
+        final Message msg;
+
+        Entry(long ts, Message msg) {
+            this.ts = ts;
+            this.msg = msg;
+        }
+    }
+
+    /**
+     * Prints the help menu.
+     */
+    public static void usage() {
+        System.out.println("usage:");
+        System.out.println("  replay --journal <file> --port <portnum> [--host <host>] [--speed <1x|Nx|max>]");
+        System.out.println("         [--report <file>] [--baseline <file>]");
+        System.out.println("options:");
+        System.out.println("  -j, --journal    The recorded traffic journal.");
+        System.out.println("  -s, --host       The host name of the server (default localhost).");
+        System.out.println("  -p, --port       The port number for the server.");
+        System.out.println("  -x, --speed      Replay speed, e.g. 1x, 10x or max (default 1x).");
+        System.out.println("  -r, --report     Write the latency report to this file.");
+        System.out.println("  -b, --baseline   Compare against a report from an earlier run.");
+        System.out.println("  -h, --help       Display the help.");
+        System.exit(1);
+    }
+
+    /**
+     * Process the command line arguments.
+     * @param args the array of command line arguments.
+     */
+    public static void processArgs(String[] args) {
+        OptionParser parser;
+        LongOption[] opts = new LongOption[7];
+        opts[0] = new LongOption("journal", true, 'j');
+        opts[1] = new LongOption("host", true, 's');
+        opts[2] = new LongOption("port", true, 'p');
+        opts[3] = new LongOption("speed", true, 'x');
+        opts[4] = new LongOption("report", true, 'r');
+        opts[5] = new LongOption("baseline", true, 'b');
+        opts[6] = new LongOption("help", false, 'h');
+
+        parser = new OptionParser(args);
+        parser.setLongOpts(opts);
+        parser.setOptString("j:s:p:x:r:b:h");
+
+        Tuple<Character, String> currOpt;
+
+        while (parser.getOptIdx() != args.length) {
+            currOpt = parser.getLongOpt(false);
+
+            switch (currOpt.getFirst()) {
+                case 'j': journalFile = currOpt.getSecond(); break;
+                case 's': host = currOpt.getSecond(); break;
+                case 'p':
+                    try {
+                        port = Integer.parseInt(currOpt.getSecond());
+                    } catch (NumberFormatException e) {
+                        System.err.println("Error: Invalid port number.");
+                        usage();
+                    }
+                    break;
+                case 'x': speed = parseSpeed(currOpt.getSecond()); break;
+                case 'r': reportFile = currOpt.getSecond(); break;
+                case 'b': baselineFile = currOpt.getSecond(); break;
+                case 'h':
+                case '?':
+                default: usage(); break;
+            }
+        }
+
+        if (journalFile == null || port == 0)
+            usage();
+    }
+
+    /**
+     * Parses a speed argument of the form "max", "N" or "Nx".
+     * @param arg the speed argument.
+     * @return the speed multiplier, 0 meaning no delays at all.
+     */
+    private static double parseSpeed(String arg) {
+        if (arg.equalsIgnoreCase("max"))
+            return 0;
+        if (arg.endsWith("x") || arg.endsWith("X"))
+            arg = arg.substring(0, arg.length() - 1);
+        try {
+            double val = Double.parseDouble(arg);
+            if (val > 0)
+                return val;
+        } catch (NumberFormatException e) {
+            // fall through to usage.
+        }
+        System.err.println("Error: Invalid speed " + arg);
+        usage();
+        return 1.0;
+    }
+
+    /**
+     * Loads the journal and groups its entries by connection, keeping the
+     * order in which the connections were first seen. Logins and account
+     * creations are left out.
+     * @param file the journal file.
+     * @return the recorded sessions.
+     * @throws IOException if the journal can not be read.
+     */
+    private static Map<Long, List<Entry>> loadJournal(String file) throws IOException {
+        Map<Long, List<Entry>> sessions = new LinkedHashMap<>();
+        int skipped = 0;
+        try (BufferedReader in = new BufferedReader(new FileReader(file))) {
+            String line;
+            int lineNo = 0;
+            while ((line = in.readLine()) != null) {
+                lineNo++;
+                if (line.isBlank())
+                    continue;
+                try {
+                    JSONObject entry = JsonIO.readObject(line);
+                    JSONObject msgObj = entry.getObject("msg");
+                    // The journal records what the server decoded, so it knows the same types
+                    Message msg = ConnectionHandler.MESSAGE_TYPES.decode(msgObj.getString("type"), msgObj);
+                    if (msg == null)
+                        throw new InvalidObjectException("Unknown message type " + msgObj.getString("type"));
+                    if (msg instanceof AuthenticateMessage || msg instanceof CreateMessage) {
+                        skipped++;
+                        continue;
+                    }
+                    sessions.computeIfAbsent(entry.getLong("conn"), k -> new ArrayList<>())
+                        .add(new Entry(entry.getLong("ts"), msg));
+                } catch (Exception e) {
+                    System.err.println("[REPLAY] Skipping journal line " + lineNo + ": " + e.getMessage());
+                }
+            }
+        }
+        if (skipped > 0)
+            System.out.println("[REPLAY] Skipped " + skipped + " logins and account creations.");
+        return sessions;
+    }
+
+    /**
+     * Sleeps until the scaled offset of a recorded timestamp has been reached.
+     * @param start the replay start time in nanoseconds.
+     * @param t0 the timestamp of the first journal entry.
+     * @param ts the timestamp to wait for.
+     */
+    private static void waitFor(long start, long t0, long ts) throws InterruptedException {
+        if (speed == 0)
+            return;
+        long due = start + (long) ((ts - t0) * 1_000_000L / speed);
+        long delay = due - System.nanoTime();
+        if (delay > 0)
+            TimeUnit.NANOSECONDS.sleep(delay);
+    }
+
+    /**
+     * Replays the messages of a single recorded connection.
+     * @param session the entries of the connection.
+     * @param start the replay start time in nanoseconds.
+     * @param t0 the timestamp of the first journal entry.
+     */
+    private static void replaySession(List<Entry> session, long start, long t0) {
+        ProtocolChannel channel = null;
+        try {
+            waitFor(start, t0, session.get(0).ts);
+            SSLSocketFactory factory = (SSLSocketFactory) SSLSocketFactory.getDefault();
+            SSLSocket socket = (SSLSocket) factory.createSocket(host, port);
+            socket.startHandshake();
+            socket.setSoTimeout(RESPONSE_TIMEOUT_MS);
+
+            channel = new ProtocolChannel(socket);
+            channel.addMessageType(new StatusMessage());
+            channel.addMessageType(new GetResponseMessage());
+            channel.addMessageType(new PostMessage());
+
+            for (Entry entry : session) {
+                waitFor(start, t0, entry.ts);
+                String type = entry.msg.getType();
+                long sent = System.nanoTime();
+                try {
+                    channel.sendMessage(entry.msg);
+                    receiveResponse(channel);
+                    latencies.computeIfAbsent(type, k -> Collections.synchronizedList(new ArrayList<>()))
+                        .add(System.nanoTime() - sent);
+                } catch (Exception e) {
+                    errors.merge(type, 1, Integer::sum);
+                    break;  // The server has most likely closed the connection.
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            System.err.println("[REPLAY] Connection failed: " + e.getMessage());
+            errors.merge("connect", 1, Integer::sum);
+        } finally {
+            if (channel != null)
+                channel.closeChannel();
+        }
+    }
+
+    /**
+     * Receives the next response, skipping the empty frames the server emits
+     * after each message.
+     * @param channel the channel to read from.
+     * @return the response message.
+     * @throws InvalidObjectException if the response can not be decoded.
+     */
+    private static Message receiveResponse(ProtocolChannel channel) throws InvalidObjectException {
+        while (true) {
+            try {
+                return channel.receiveMessage();
+            } catch (NullPointerException e) {
+                // An empty line, keep reading.
+            }
+        }
+    }
+
+    /**
+     * Returns the given percentile of a sorted list of latencies.
+     * @param sorted the sorted latencies.
+     * @param pct the percentile in the range [0, 100].
+     * @return the latency at that percentile.
+     */
+    private static long percentile(List<Long> sorted, double pct) {
+        if (sorted.isEmpty())
+            return 0;
+        int idx = (int) Math.ceil(pct / 100.0 * sorted.size()) - 1;
+        return sorted.get(Math.max(0, Math.min(idx, sorted.size() - 1)));
+    }
+
+    /**
+     * Builds the latency report, all latencies are in microseconds.
+     * @param elapsedMs the wall clock duration of the replay.
+     * @return the report as a JSON object.
+     */
+    private static JSONObject buildReport(long elapsedMs) {
+        JSONObject types = new JSONObject();
+        Map<String, Integer> allTypes = new TreeMap<>(errors);
+        for (String type : latencies.keySet())
+            allTypes.putIfAbsent(type, 0);
+
+        for (String type : allTypes.keySet()) {
+            List<Long> sorted = new ArrayList<>(latencies.getOrDefault(type, Collections.emptyList()));
+            Collections.sort(sorted);
+            long sum = 0;
+            for (long l : sorted)
+                sum += l;
+
+            JSONObject stats = new JSONObject();
+            stats.put("count", (long) sorted.size());
+            stats.put("errors", (long) errors.getOrDefault(type, 0));
+            stats.put("mean", sorted.isEmpty() ? 0 : sum / sorted.size() / 1000);
+            stats.put("p50", percentile(sorted, 50) / 1000);
+            stats.put("p95", percentile(sorted, 95) / 1000);
+            stats.put("p99", percentile(sorted, 99) / 1000);
+            stats.put("max", sorted.isEmpty() ? 0 : sorted.get(sorted.size() - 1) / 1000);
+            types.put(type, stats);
+        }
+
+        JSONObject report = new JSONObject();
+        report.put("elapsed-ms", elapsedMs);
+        report.put("speed", speed == 0 ? "max" : speed + "x");
+        report.put("types", types);
+        return report;
+    }
+
+    /**
+     * Prints the report and, if a baseline was given, the change in latency
+     * relative to it.
+     * @param report the report of this run.
+     * @param baseline the baseline report or null.
+     */
+    private static void printReport(JSONObject report, JSONObject baseline) {
+        JSONObject types = report.getObject("types");
+        JSONObject baseTypes = baseline == null ? null : baseline.getObject("types");
+
+        System.out.println("Replayed in " + stat(report, "elapsed-ms") + " ms at " + report.getString("speed"));
+        System.out.printf("%-20s %8s %7s %10s %10s %10s%n", "type", "count", "errors", "p50(us)", "p95(us)", "p99(us)");
+        for (String type : new TreeMap<>(types).keySet()) {
+            JSONObject stats = types.getObject(type);
+            System.out.printf("%-20s %8d %7d %10d %10d %10d%n", type,
+                stat(stats, "count"), stat(stats, "errors"),
+                stat(stats, "p50"), stat(stats, "p95"), stat(stats, "p99"));
+
+            if (baseTypes != null && baseTypes.containsKey(type)) {
+                JSONObject base = baseTypes.getObject(type);
+                System.out.printf("%-20s %8s %7s %10s %10s %10s%n", "  vs baseline", "", "",
+                    delta(stats, base, "p50"), delta(stats, base, "p95"), delta(stats, base, "p99"));
+            }
+        }
+    }
+
+    /**
+     * Reads a numeric statistic regardless of how the JSON parser typed it.
+     */
+    private static long stat(JSONObject stats, String key) {
+        Object val = stats.get(key);
+        return val instanceof Number ? ((Number) val).longValue() : 0;
+    }
+
+    /**
+     * Formats the relative change of a statistic against the baseline.
+     */
+    private static String delta(JSONObject stats, JSONObject base, String key) {
+        long now = stat(stats, key);
+        long then = stat(base, key);
+        if (then == 0)
+            return "n/a";
+        return String.format("%+.1f%%", (now - then) * 100.0 / then);
+    }
+
+    /**
+     * Main entry point of the traffic replayer.
+     * @param args the command line arguments.
+     * @throws Exception if the journal can not be replayed.
+     */
+    public static void main(String[] args) throws Exception {
+        processArgs(args);
+
+        System.setProperty("javax.net.ssl.trustStore", "truststore.jks");
+        System.setProperty("javax.net.ssl.trustStorePassword", "test12345");
+
+        Map<Long, List<Entry>> sessions = loadJournal(journalFile);
+        if (sessions.isEmpty()) {
+            System.out.println("Journal is empty, nothing to replay.");
+            return;
+        }
+
+        long t0 = Long.MAX_VALUE;
+        for (List<Entry> session : sessions.values())
+            t0 = Math.min(t0, session.get(0).ts);
+        final long first = t0;
+
+        System.out.println("Replaying " + sessions.size() + " connections from " + journalFile);
+        ExecutorService pool = Executors.newCachedThreadPool();
+        long start = System.nanoTime();
+        for (List<Entry> session : sessions.values())
+            pool.submit(() -> replaySession(session, start, first));
+        pool.shutdown();
+        pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000L;
+
+        JSONObject report = buildReport(elapsedMs);
+        JSONObject baseline = null;
+        if (baselineFile != null) {
+            try {
+                baseline = JsonIO.readObject(new File(baselineFile));
+            } catch (FileNotFoundException e) {
+                System.err.println("Baseline report not found: " + baselineFile);
+            }
+        }
+        printReport(report, baseline);
+
+        if (reportFile != null) {
+            try (PrintWriter out = new PrintWriter(reportFile)) {
+                out.println(report.getFormattedJSON());
+            }
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package server.backup;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import common.AtomicFile;
+import common.Board;
+import common.protocol.post.Post;
+import common.protocol.user_auth.User;
+import common.protocol.user_auth.UserDatabase;
+import merrimackutil.json.types.JSONObject;
+
+/**
+ * Writes online backups of the board and the users while the server keeps
+ * serving. An export copies the lists of live posts, sequence numbers and
+ * users under the board lock, which takes as long as copying references,
+ * and pins the board so compaction can't free the storage of the copied
+ * posts. A background thread then streams the copy out and unpins the
+ * board when it is done, so the export shows the board at one instant no
+ * matter how many posts commit meanwhile.
+ *
+ * An export is one gzip-compressed JSON object with a "board" field in the
+ * format of the board file and a "users" field in the format of the users
+ * file. Posts are copied in their wire form, which has the fields of a
+ * board file post, so posts in the cold tier are inflated straight into the
+ * export instead of being parsed. Writes are throttled so a backup doesn't take disk bandwidth from
+ * live traffic, and the file only appears under its final name once it is
+ * complete. One export runs at a time.
+ */
+public class BoardExporter {
+    private static final DateTimeFormatter STAMP = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final Board board;
+    private final File dir;
+    private final String secret;
+    private final long bytesPerSecond;
+    private boolean running;
+
+    /**
+     * Creates an exporter.
+     * @param board the board.
+     * @param dir the directory exports are written to.
+     * @param secret the admin secret requests must carry.
+     * @param bytesPerSecond the most compressed bytes to write per second.
+     */
+    public BoardExporter(Board board, File dir, String secret, long bytesPerSecond) {
+        this.board = board;
+        this.dir = dir;
+        this.secret = secret;
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * Check if a request carries the admin secret.
+     * @param secret the secret of the request.
+     * @return true if it matches.
+     */
+    public boolean checkSecret(String secret) {
+        return secret != null && MessageDigest.isEqual(this.secret.getBytes(StandardCharsets.UTF_8),
+            secret.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Takes a consistent copy of the board and the users and starts writing
+     * it out in the background.
+     * @return the file the export is written to.
+     * @throws IOException if an export is already running or the export
+     *         directory can't be created.
+     */
+    public synchronized File start() throws IOException {
+        if (running)
+            throw new IOException("An export is already running.");
+        if (!dir.isDirectory() && !dir.mkdirs())
+            throw new IOException("Can't create export directory " + dir);
+
+        List<Post> posts;
+        Map<String, Long> sequences;
+        List<User> users;
+        synchronized (board) {
+            board.pin();
+            posts = board.getPostsSnapshot();
+            sequences = board.getSequences();
+            users = UserDatabase.getAll();
+        }
+        File file = new File(dir, "export-" + STAMP.format(LocalDateTime.now()) + ".json.gz");
+        running = true;
+
+        Thread writer = new Thread(() -> {
+            long started = System.currentTimeMillis();
+            try {
+                write(file, posts, sequences, users);
+                System.out.println("[EXPORT] Wrote " + posts.size() + " posts and " + users.size() + " users to "
+                    + file + " in " + (System.currentTimeMillis() - started) + " ms.");
+            } catch (IOException | RuntimeException e) {
+                System.err.println("[EXPORT] Export to " + file + " failed: " + e.getMessage());
+            } finally {
+                board.unpin();
+                synchronized (this) {
+                    running = false;
+                }
+            }
+        }, "board-export");
+        writer.start();
+        System.out.println("[EXPORT] Exporting " + posts.size() + " posts and " + users.size() + " users to " + file + ".");
+        return file;
+    }
+
+    /**
+     * Streams a copy of the board and the users to a temporary file that is
+     * renamed to the export file when it is complete.
+     * @param file the export file.
+     * @param posts the live posts, oldest first.
+     * @param sequences the last sequence number of every recipient.
+     * @param users the users.
+     * @throws IOException if the file can't be written.
+     */
+    private void write(File file, List<Post> posts, Map<String, Long> sequences, List<User> users)
+            throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (OutputStream out = new BufferedOutputStream(new GZIPOutputStream(
+                new ThrottledOutputStream(new FileOutputStream(tmp), bytesPerSecond), BUFFER_SIZE), BUFFER_SIZE)) {
+            text(out, "{\"board\":{\"posts\":[");
+            for (int i = 0; i < posts.size(); i++) {
+                if (i > 0)
+                    out.write(',');
+                posts.get(i).writeWire(out);
+            }
+            text(out, "],\"tombstones\":[]");
+            // The JSON parser can't read an empty object back, so leave it out
+            if (!sequences.isEmpty()) {
+                JSONObject lastSeqs = new JSONObject();
+                lastSeqs.putAll(sequences);
+                text(out, ",\"sequences\":" + lastSeqs.toJSON());
+            }
+            text(out, "},\"users\":{\"entries\":[");
+            for (int i = 0; i < users.size(); i++) {
+                if (i > 0)
+                    out.write(',');
+                text(out, users.get(i).serialize());
+            }
+            text(out, "]}}");
+        } catch (IOException | RuntimeException e) {
+            tmp.delete();
+            throw e;
+        }
+        try (FileChannel channel = FileChannel.open(tmp.toPath(), StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        AtomicFile.syncDirectory(file);
+    }
+
+    /**
+     * Writes a string in UTF-8.
+     * @param out the stream.
+     * @param s the string.
+     * @throws IOException if the write fails.
+     */
+    private static void text(OutputStream out, String s) throws IOException {
+        out.write(s.getBytes(StandardCharsets.UTF_8));
+    }
+}
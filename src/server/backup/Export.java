@@ -0,0 +1,108 @@
+package server.backup;
+
+import java.io.File;
+
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+import common.protocol.Message;
+import common.protocol.ProtocolChannel;
+import common.protocol.messages.StatusMessage;
+import merrimackutil.cli.LongOption;
+import merrimackutil.cli.OptionParser;
+import merrimackutil.json.JsonIO;
+import merrimackutil.json.types.JSONObject;
+import merrimackutil.util.Tuple;
+import server.Configuration;
+
+/**
+ * Admin tool that starts an online export of a running server. The server
+ * answers as soon as it has taken its copy of the board and writes the
+ * export in the background; its log tells when the file is complete.
+ */
+public class Export {
+    private static final int TIMEOUT_MS = 60000;
+
+    /**
+     * Prints the help menu.
+     */
+    public static void usage() {
+        System.out.println("usage:");
+        System.out.println("  export --config <configfile> [--host <host>]");
+        System.out.println("options:");
+        System.out.println("  -c, --config\t\tThe server's config file with its admin secret.");
+        System.out.println("  -s, --host\t\tThe host the server runs on, localhost by default.");
+        System.out.println("  -h, --help\t\tDisplay the help.");
+        System.exit(1);
+    }
+
+    /**
+     * Main entry point of the export tool.
+     * @param args the command line arguments.
+     * @throws Exception if the configuration can't be read.
+     */
+    public static void main(String[] args) throws Exception {
+        LongOption[] opts = new LongOption[3];
+        opts[0] = new LongOption("help", false, 'h');
+        opts[1] = new LongOption("config", true, 'c');
+        opts[2] = new LongOption("host", true, 's');
+
+        OptionParser parser = new OptionParser(args);
+        parser.setLongOpts(opts);
+        parser.setOptString("hc:s:");
+
+        String configName = null;
+        String host = "localhost";
+        while (parser.getOptIdx() != args.length) {
+            Tuple<Character, String> currOpt = parser.getLongOpt(false);
+            if (currOpt.getFirst() == 'c')
+                configName = currOpt.getSecond();
+            else if (currOpt.getFirst() == 's')
+                host = currOpt.getSecond();
+            else
+                usage();
+        }
+        if (configName == null)
+            usage();
+
+        JSONObject configObj = JsonIO.readObject(new File(configName));
+        Configuration config = new Configuration(configObj);
+        config.setConfigDir(new File(configName).getParent());
+        if (config.getAdminSecret() == null) {
+            System.out.println("The configuration has no admin secret.");
+            System.exit(1);
+        }
+        if (config.getTruststorePass() != null) {
+            System.setProperty("javax.net.ssl.trustStore", config.getTruststoreFile());
+            System.setProperty("javax.net.ssl.trustStorePassword", config.getTruststorePass());
+        }
+
+        ProtocolChannel channel = null;
+        try {
+            SSLSocketFactory factory = (SSLSocketFactory) SSLSocketFactory.getDefault();
+            SSLSocket socket = (SSLSocket) factory.createSocket(host, config.getPort());
+            socket.startHandshake();
+            socket.setSoTimeout(TIMEOUT_MS);
+
+            channel = new ProtocolChannel(socket);
+            channel.addMessageType(new StatusMessage());
+            channel.sendMessage(new ExportRequest(config.getAdminSecret()));
+
+            Message resp = null;
+            while (resp == null) {
+                try {
+                    resp = channel.receiveMessage();
+                } catch (NullPointerException e) {
+                    // Empty frame, keep reading.
+                }
+            }
+            StatusMessage status = (StatusMessage) resp;
+            System.out.println((status.getStatus() ? "" : "failed, ") + status.getPayload());
+        } catch (Exception e) {
+            System.out.println(host + ": unreachable, " + e.getMessage());
+        } finally {
+            if (channel != null)
+                channel.closeChannel();
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package server.backup;
+
+import common.protocol.Message;
+import merrimackutil.json.types.JSONObject;
+import merrimackutil.json.types.JSONType;
+
+import java.io.InvalidObjectException;
+
+/**
+ * Asks a server to start an online export of its board and users. Carries
+ * the admin secret of the server.
+ */
+public class ExportRequest implements Message {
+    private String secret;
+
+    public ExportRequest() {}
+
+    public ExportRequest(String secret) {
+        this.secret = secret;
+    }
+
+    /**
+     * Returns the admin secret.
+     * @return the secret.
+     */
+    public String getSecret() {
+        return secret;
+    }
+
+    /**
+     * Gets the message type as a string.
+     * @return the message type as a string.
+     */
+    @Override
+    public String getType() {
+        return "Export";
+    }
+
+    /**
+     * Converts the object to a JSON type.
+     * @return a JSON type either JSONObject or JSONArray.
+     */
+    @Override
+    public JSONType toJSONType() {
+        JSONObject obj = new JSONObject();
+        obj.put("type", getType());
+        obj.put("secret", secret);
+        return obj;
+    }
+
+    /**
+     * Deserialize a JSON object into a ExportRequest instance.
+     * @param obj the JSON object to deserialize
+     * @throws InvalidObjectException if the object is not a JSON object
+     */
+    @Override
+    public void deserialize(JSONType obj) throws InvalidObjectException {
+        if (!(obj instanceof JSONObject)) {
+            throw new InvalidObjectException("Expected JSONObject.");
+        }
+        JSONObject json = (JSONObject) obj;
+        json.checkValidity(new String[]{"secret"});
+        this.secret = json.getString("secret");
+    }
+
+    /**
+     * Decodes a JSON object into a ExportRequest instance.
+     * @param obj the JSON object to decode
+     * @return a ExportRequest instance
+     * @throws InvalidObjectException if the secret is missing
+     */
+    @Override
+    public Message decode(JSONObject obj) throws InvalidObjectException {
+        ExportRequest msg = new ExportRequest();
+        msg.deserialize(obj);
+        return msg;
+    }
+
+    /**
+     * Returns a string representation of the object.
+     * @return a string representation that omits the secret.
+     */
+    @Override
+    public String toString() {
+        return "[Export]";
+    }
+}
@@ -0,0 +1,65 @@
+package server.backup;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+/**
+ * Limits the rate at which bytes are written to a stream. Writes are let
+ * through in slices of at most a tenth of a second's worth of bytes, and the
+ * writer sleeps whenever it gets ahead of the rate.
+ */
+public class ThrottledOutputStream extends FilterOutputStream {
+    private final long bytesPerSecond;
+    private final int slice;
+    private final long start = System.nanoTime();
+    private long written;
+
+    /**
+     * Wraps a stream.
+     * @param out the stream to write to.
+     * @param bytesPerSecond the most bytes to write per second.
+     */
+    public ThrottledOutputStream(OutputStream out, long bytesPerSecond) {
+        super(out);
+        this.bytesPerSecond = bytesPerSecond;
+        this.slice = (int) Math.max(1, Math.min(1 << 20, bytesPerSecond / 10));
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+        pace(1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            int n = Math.min(len, slice);
+            out.write(b, off, n);
+            pace(n);
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Counts written bytes and sleeps until the rate allows them.
+     * @param n the number of bytes just written.
+     * @throws InterruptedIOException if the writer is interrupted.
+     */
+    private void pace(int n) throws InterruptedIOException {
+        written += n;
+        long due = written * 1000 / bytesPerSecond;
+        long elapsed = (System.nanoTime() - start) / 1000000;
+        if (due > elapsed) {
+            try {
+                Thread.sleep(due - elapsed);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Export interrupted");
+            }
+        }
+    }
+}
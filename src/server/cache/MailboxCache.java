@@ -0,0 +1,210 @@
+package server.cache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import common.protocol.messages.GetResponseMessage;
+import common.protocol.post.Post;
+
+/**
+ * Keeps the encoded contents of recently read mailboxes in memory, so a hot
+ * mailbox is answered with one copy of ready-made bytes no matter where its
+ * posts are stored. Entries hold the wire form of every live post of a
+ * recipient and can serve any "since" from it.
+ *
+ * The cache is bounded by a byte budget and evicts the least recently used
+ * mailboxes first. The board drops a recipient's entry whenever a post is
+ * added to or deleted from the mailbox. Every entry also carries the
+ * mailbox digest it was built from, and a lookup with a different digest
+ * is a miss, so an entry that raced with a change is never served.
+ */
+public class MailboxCache {
+    // Rough bookkeeping cost of an entry on top of its bytes
+    private static final int ENTRY_OVERHEAD = 96;
+
+    private final long budget;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * The encoded live posts of one mailbox, oldest first.
+     */
+    public static class Entry {
+        private final String digest;
+        private final long[] seqs;
+        private final int[] offsets;
+        private final byte[] body;
+
+        private Entry(String digest, long[] seqs, int[] offsets, byte[] body) {
+            this.digest = digest;
+            this.seqs = seqs;
+            this.offsets = offsets;
+            this.body = body;
+        }
+
+        /**
+         * Writes a GetResponseMessage holding the posts newer than a
+         * sequence number.
+         * @param out the stream.
+         * @param since the sequence number the reader has seen.
+         * @throws IOException if the write fails.
+         */
+        public void write(OutputStream out, long since) throws IOException {
+            GetResponseMessage.writeHead(out, digest);
+            int first = seqs.length;
+            while (first > 0 && seqs[first - 1] > since)
+                first--;
+            if (first < seqs.length)
+                out.write(body, offsets[first], body.length - offsets[first]);
+            GetResponseMessage.writeTail(out);
+        }
+
+        /**
+         * Counts the posts newer than a sequence number.
+         * @param since the sequence number the reader has seen.
+         * @return the number of posts.
+         */
+        public int count(long since) {
+            int first = seqs.length;
+            while (first > 0 && seqs[first - 1] > since)
+                first--;
+            return seqs.length - first;
+        }
+
+        /**
+         * Gets the memory the entry is charged for.
+         * @return the size in bytes.
+         */
+        private long size() {
+            return ENTRY_OVERHEAD + body.length + 12L * seqs.length;
+        }
+    }
+
+    /**
+     * Creates a cache.
+     * @param budget the most bytes of entries to keep.
+     */
+    public MailboxCache(long budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * Looks up a mailbox.
+     * @param user the recipient.
+     * @param digest the current digest of the mailbox.
+     * @return the entry, or null if there is none for this digest.
+     */
+    public synchronized Entry get(String user, String digest) {
+        Entry entry = entries.get(user);
+        if (entry != null && entry.digest.equals(digest)) {
+            hits++;
+            return entry;
+        }
+        misses++;
+        return null;
+    }
+
+    /**
+     * Checks whether a mailbox is small enough to be kept, so a reader can
+     * skip encoding one that would be thrown away at once.
+     * @param mailboxBytes the stored size of the mailbox's live posts.
+     * @return true if an entry of that size fits the budget.
+     */
+    public boolean fits(long mailboxBytes) {
+        return mailboxBytes + ENTRY_OVERHEAD <= budget;
+    }
+
+    /**
+     * Encodes the live posts of a mailbox and caches them. A mailbox larger
+     * than the whole budget is encoded but not kept.
+     * @param user the recipient.
+     * @param digest the digest of the mailbox the posts were read with.
+     * @param posts every live post of the mailbox, oldest first.
+     * @return the entry.
+     * @throws IOException if a post can't be encoded.
+     */
+    public Entry put(String user, String digest, List<Post> posts) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long[] seqs = new long[posts.size()];
+        int[] offsets = new int[posts.size()];
+        for (int i = 0; i < posts.size(); i++) {
+            if (i > 0)
+                out.write(',');
+            seqs[i] = posts.get(i).getSeq();
+            offsets[i] = out.size();
+            posts.get(i).writeWire(out);
+        }
+        Entry entry = new Entry(digest, seqs, offsets, out.toByteArray());
+
+        synchronized (this) {
+            Entry old = entries.remove(user);
+            if (old != null)
+                bytes -= old.size();
+            if (entry.size() <= budget) {
+                entries.put(user, entry);
+                bytes += entry.size();
+                evict();
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * Drops the entry of a recipient after its mailbox changed.
+     * @param user the recipient.
+     */
+    public synchronized void invalidate(String user) {
+        Entry old = entries.remove(user);
+        if (old != null)
+            bytes -= old.size();
+    }
+
+    /**
+     * Drops every entry, e.g. after the whole board was replaced.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    /**
+     * Evicts the least recently used entries until the cache fits its
+     * budget. The caller holds the lock.
+     */
+    private void evict() {
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (bytes > budget && it.hasNext()) {
+            bytes -= it.next().getValue().size();
+            it.remove();
+            evictions++;
+        }
+    }
+
+    /**
+     * Describes the metrics as comma separated key=value pairs.
+     * @return the description.
+     */
+    public synchronized String describe() {
+        long lookups = hits + misses;
+        return "cache-entries=" + entries.size() + ", cache-bytes=" + bytes + ", cache-budget=" + budget
+            + ", cache-hits=" + hits + ", cache-misses=" + misses + ", cache-evictions=" + evictions
+            + ", cache-hit-rate=" + (lookups == 0 ? 0 : (100 * hits / lookups)) + "%";
+    }
+
+    /**
+     * Returns a one line summary of the metrics.
+     * @return the summary.
+     */
+    @Override
+    public String toString() {
+        return "[CACHE] " + describe();
+    }
+}
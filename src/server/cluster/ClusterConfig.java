@@ -0,0 +1,126 @@
+package server.cluster;
+
+import merrimackutil.json.JSONSerializable;
+import merrimackutil.json.types.JSONArray;
+import merrimackutil.json.types.JSONObject;
+import merrimackutil.json.types.JSONType;
+
+import java.io.InvalidObjectException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The "cluster" section of the configuration file. It names this node, lists
+ * every node of the cluster and chooses how requests for recipients owned by
+ * another node are handled: "forward" relays them to the owner, "redirect"
+ * answers with a routing hint so the client can go to the owner itself.
+ */
+public class ClusterConfig implements JSONSerializable {
+    private static final int DEFAULT_VIRTUAL_NODES = 64;
+
+    private String nodeId;
+    private String mode;
+    private String secret;
+    private int virtualNodes;
+    private List<ClusterNode> nodes;
+
+    /**
+     * Constructs the cluster configuration from its JSON object.
+     * @param obj the "cluster" object of the configuration file.
+     * @throws InvalidObjectException if the object is not valid.
+     */
+    public ClusterConfig(JSONObject obj) throws InvalidObjectException {
+        deserialize(obj);
+    }
+
+    /**
+     * Gets the id of this node.
+     * @return the node id.
+     */
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * Check if foreign requests are redirected instead of forwarded.
+     * @return true in redirect mode; false in forward mode.
+     */
+    public boolean doRedirect() {
+        return mode.equals("redirect");
+    }
+
+    /**
+     * Gets the secret cluster nodes use to authenticate each other.
+     * @return the cluster secret.
+     */
+    public String getSecret() {
+        return secret;
+    }
+
+    /**
+     * Gets the number of points each node has on the hash ring.
+     * @return the number of virtual nodes.
+     */
+    public int getVirtualNodes() {
+        return virtualNodes;
+    }
+
+    /**
+     * Gets every node of the cluster, including this one.
+     * @return the nodes.
+     */
+    public List<ClusterNode> getNodes() {
+        return nodes;
+    }
+
+    /**
+     * Converts JSON data to an object of this type.
+     * @param obj a JSON type to deserialize.
+     * @throws InvalidObjectException the type does not match this object.
+     */
+    @Override
+    public void deserialize(JSONType obj) throws InvalidObjectException {
+        if (!obj.isObject()) {
+            throw new InvalidObjectException("ClusterConfig -- received array, expected Object.");
+        }
+        JSONObject cluster = (JSONObject) obj;
+        cluster.checkValidity(new String[]{"node-id", "mode", "secret", "nodes"});
+
+        nodeId = cluster.getString("node-id");
+        mode = cluster.getString("mode");
+        secret = cluster.getString("secret");
+        virtualNodes = cluster.containsKey("virtual-nodes") ? cluster.getInt("virtual-nodes") : DEFAULT_VIRTUAL_NODES;
+        if (!mode.equals("forward") && !mode.equals("redirect"))
+            throw new InvalidObjectException("ClusterConfig -- mode must be forward or redirect.");
+
+        nodes = new ArrayList<>();
+        boolean foundSelf = false;
+        JSONArray array = cluster.getArray("nodes");
+        for (int i = 0; i < array.size(); i++) {
+            ClusterNode node = new ClusterNode(array.getObject(i));
+            foundSelf |= node.getId().equals(nodeId);
+            nodes.add(node);
+        }
+        if (!foundSelf)
+            throw new InvalidObjectException("ClusterConfig -- node-id " + nodeId + " is not in the node list.");
+    }
+
+    /**
+     * Converts the object to a JSON type.
+     * @return a JSON type either JSONObject or JSONArray.
+     */
+    @Override
+    public JSONType toJSONType() {
+        JSONArray array = new JSONArray();
+        for (ClusterNode node : nodes)
+            array.add(node.toJSONType());
+
+        JSONObject obj = new JSONObject();
+        obj.put("node-id", nodeId);
+        obj.put("mode", mode);
+        obj.put("secret", secret);
+        obj.put("virtual-nodes", virtualNodes);
+        obj.put("nodes", array);
+        return obj;
+    }
+}
@@ -0,0 +1,121 @@
+package server.cluster;
+
+import common.protocol.Message;
+import merrimackutil.json.types.JSONObject;
+import merrimackutil.json.types.JSONType;
+
+import java.io.InvalidObjectException;
+
+/**
+ * Moves a post, an account or a mailbox's sequence number to the node that
+ * now owns it. Sent between cluster nodes during a rebalance and
+ * authenticated with the cluster secret.
+ */
+public class ClusterMigrate implements Message {
+    /** Migrates a post. */
+    public static final String OP_POST = "post";
+    /** Migrates an account. */
+    public static final String OP_USER = "user";
+    /** Migrates the last sequence number of a recipient's mailbox. */
+    public static final String OP_SEQ = "seq";
+
+    private String secret;
+    private String op;
+    private JSONObject data;
+
+    public ClusterMigrate() {}
+
+    public ClusterMigrate(String secret, String op, JSONObject data) {
+        this.secret = secret;
+        this.op = op;
+        this.data = data;
+    }
+
+    /**
+     * Returns the cluster secret.
+     * @return the secret.
+     */
+    public String getSecret() {
+        return secret;
+    }
+
+    /**
+     * Returns what is being migrated.
+     * @return one of the {@code OP_} constants.
+     */
+    public String getOp() {
+        return op;
+    }
+
+    /**
+     * Returns the JSON encoding of the migrated post, account or sequence
+     * number.
+     * @return the data.
+     */
+    public JSONObject getData() {
+        return data;
+    }
+
+    /**
+     * Gets the message type as a string.
+     * @return the message type as a string.
+     */
+    @Override
+    public String getType() {
+        return "ClusterMigrate";
+    }
+
+    /**
+     * Converts the object to a JSON type.
+     * @return a JSON type either JSONObject or JSONArray.
+     */
+    @Override
+    public JSONType toJSONType() {
+        JSONObject obj = new JSONObject();
+        obj.put("type", getType());
+        obj.put("secret", secret);
+        obj.put("op", op);
+        obj.put("data", data);
+        return obj;
+    }
+
+    /**
+     * Deserialize a JSON object into a ClusterMigrate instance.
+     * @param obj the JSON object to deserialize
+     * @throws InvalidObjectException if the object is not a JSON object or a
+     *                                field is missing.
+     */
+    @Override
+    public void deserialize(JSONType obj) throws InvalidObjectException {
+        if (!(obj instanceof JSONObject)) {
+            throw new InvalidObjectException("Expected JSONObject.");
+        }
+        JSONObject json = (JSONObject) obj;
+        json.checkValidity(new String[]{"secret", "op", "data"});
+        this.secret = json.getString("secret");
+        this.op = json.getString("op");
+        this.data = json.getObject("data");
+    }
+
+    /**
+     * Decodes a JSON object into a ClusterMigrate instance.
+     * @param obj the JSON object to decode
+     * @return a ClusterMigrate instance
+     * @throws InvalidObjectException if required fields are missing
+     */
+    @Override
+    public Message decode(JSONObject obj) throws InvalidObjectException {
+        ClusterMigrate msg = new ClusterMigrate();
+        msg.deserialize(obj);
+        return msg;
+    }
+
+    /**
+     * Returns a string representation of the object.
+     * @return a string representation that omits the secret and the data.
+     */
+    @Override
+    public String toString() {
+        return "[ClusterMigrate] op=" + op;
+    }
+}
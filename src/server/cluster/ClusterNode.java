@@ -0,0 +1,97 @@
+package server.cluster;
+
+import merrimackutil.json.JSONSerializable;
+import merrimackutil.json.types.JSONObject;
+import merrimackutil.json.types.JSONType;
+
+import java.io.InvalidObjectException;
+
+/**
+ * A member of the cluster, identified by a stable id and reachable at the
+ * host and port of its bulletin board service.
+ */
+public class ClusterNode implements JSONSerializable {
+    private String id;
+    private String host;
+    private int port;
+
+    /**
+     * Constructs a node from its JSON description.
+     * @param obj the JSON object with "id", "host" and "port" fields.
+     * @throws InvalidObjectException if a field is missing.
+     */
+    public ClusterNode(JSONObject obj) throws InvalidObjectException {
+        deserialize(obj);
+    }
+
+    /**
+     * Gets the node id.
+     * @return the id.
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * Gets the host name of the node.
+     * @return the host name.
+     */
+    public String getHost() {
+        return host;
+    }
+
+    /**
+     * Gets the service port of the node.
+     * @return the port.
+     */
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * Gets the address of the node in the form used by routing hints.
+     * @return the address as host:port.
+     */
+    public String getAddress() {
+        return host + ":" + port;
+    }
+
+    /**
+     * Converts JSON data to an object of this type.
+     * @param obj a JSON type to deserialize.
+     * @throws InvalidObjectException the type does not match this object.
+     */
+    @Override
+    public void deserialize(JSONType obj) throws InvalidObjectException {
+        if (!obj.isObject()) {
+            throw new InvalidObjectException("ClusterNode expects a JSONObject.");
+        }
+        JSONObject node = (JSONObject) obj;
+        node.checkValidity(new String[]{"id", "host", "port"});
+        id = node.getString("id");
+        host = node.getString("host");
+        port = node.getInt("port");
+    }
+
+    /**
+     * Converts the object to a JSON type.
+     * @return a JSON type either JSONObject or JSONArray.
+     */
+    @Override
+    public JSONType toJSONType() {
+        JSONObject obj = new JSONObject();
+        obj.put("id", id);
+        obj.put("host", host);
+        obj.put("port", port);
+        return obj;
+    }
+
+    /**
+     * Returns a string representation of the node.
+     * @return the id and address of the node.
+     */
+    @Override
+    public String toString() {
+        return id + "@" + getAddress();
+    }
+}
@@ -0,0 +1,424 @@
+package server.cluster;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+import common.Board;
+import common.protocol.Message;
+import common.protocol.MessageRegistry;
+import common.protocol.ProtocolChannel;
+import common.protocol.messages.AckMessage;
+import common.protocol.messages.AuthenticateMessage;
+import common.protocol.messages.GetMessage;
+import common.protocol.messages.GetResponseMessage;
+import common.protocol.messages.MailboxSummary;
+import common.protocol.messages.MailboxSummaryRequest;
+import common.protocol.messages.PostMessage;
+import common.protocol.messages.PubKeyRequest;
+import common.protocol.messages.StatusMessage;
+import common.protocol.messages.SubscribeMessage;
+import common.protocol.post.Post;
+import common.protocol.user_auth.User;
+import common.protocol.user_auth.UserDatabase;
+import common.protocol.user_creation.CreateMessage;
+import merrimackutil.json.JsonIO;
+import merrimackutil.json.types.JSONObject;
+import server.Configuration;
+import server.replication.ReplicationLog;
+import server.retention.RetentionEngine;
+import server.snapshot.GroupCommitter;
+import server.snapshot.SnapshotManager;
+
+/**
+ * Partitions users across the cluster. Every request is keyed by a user
+ * name; requests for users this node does not own are forwarded to, or
+ * redirected to, the owner on the hash ring. The router also carries out
+ * rebalancing when nodes are added; requests for users whose data is on the
+ * move are held until the move is over.
+ */
+public class ClusterRouter {
+    private static final int TIMEOUT_MS = 10000;
+    // The responses a forwarded request can get, shared by every channel to another node
+    private static final MessageRegistry RESPONSE_TYPES = MessageRegistry.of(
+        new StatusMessage(), new GetResponseMessage(), new MailboxSummary());
+
+    private final String configFile;
+    private final Board board;
+    private final SnapshotManager snapshots;
+    private final RetentionEngine retention;
+    private final ReplicationLog replicationLog;
+    private final GroupCommitter committer;
+    private volatile ClusterConfig config;
+    private volatile HashRing ring;
+    // Users whose data a rebalance is moving off this node; guarded by itself
+    private final Set<String> moving = new HashSet<>();
+
+    /**
+     * Creates a router.
+     * @param configFile the configuration file, re-read on rebalance.
+     * @param config the cluster section of the configuration.
+     * @param board the local board.
+     * @param snapshots the snapshot manager changes are logged to, or null.
+     * @param retention the retention engine migrated posts are admitted to, or null.
+     * @param replicationLog the log migrated posts and accounts are shipped to followers through, or null.
+     * @param committer makes migrated data durable before it is acknowledged.
+     */
+    public ClusterRouter(String configFile, ClusterConfig config, Board board, SnapshotManager snapshots,
+        RetentionEngine retention, ReplicationLog replicationLog, GroupCommitter committer) {
+        this.configFile = configFile;
+        this.board = board;
+        this.snapshots = snapshots;
+        this.retention = retention;
+        this.replicationLog = replicationLog;
+        this.committer = committer;
+        install(config);
+    }
+
+    /**
+     * Makes a cluster configuration the current one.
+     * @param config the cluster configuration.
+     */
+    private synchronized void install(ClusterConfig config) {
+        this.config = config;
+        this.ring = new HashRing(config.getNodes(), config.getVirtualNodes());
+        System.out.println("[CLUSTER] Node " + config.getNodeId() + " in a cluster of " + config.getNodes().size());
+    }
+
+    /**
+     * Finds the user a message is routed by.
+     * @param msg the message.
+     * @return the routing key or null if the message is handled by any node.
+     */
+    public static String routingKey(Message msg) {
+        if (msg instanceof CreateMessage)
+            return ((CreateMessage) msg).getUsername();
+        if (msg instanceof AuthenticateMessage)
+            return ((AuthenticateMessage) msg).getUser();
+        if (msg instanceof PubKeyRequest)
+            return ((PubKeyRequest) msg).getUser();
+        if (msg instanceof PostMessage)
+            return ((PostMessage) msg).getUser();
+        if (msg instanceof GetMessage)
+            return ((GetMessage) msg).getUser();
+        if (msg instanceof AckMessage)
+            return ((AckMessage) msg).getUser();
+        if (msg instanceof SubscribeMessage)
+            return ((SubscribeMessage) msg).getUser();
+        if (msg instanceof MailboxSummaryRequest)
+            return ((MailboxSummaryRequest) msg).getUser();
+        return null;
+    }
+
+    /**
+     * Check if this node owns a user.
+     * @param user the user name.
+     * @return true if the user's mailbox and account live here.
+     */
+    public boolean isLocal(String user) {
+        return ring.ownerOf(user).getId().equals(config.getNodeId());
+    }
+
+    /**
+     * Waits until a rebalance is no longer moving a user's data, so a
+     * request never reaches the new owner before the user's sequence number
+     * and posts have.
+     * @param user the routing key of the request.
+     */
+    public void awaitMove(String user) {
+        synchronized (moving) {
+            try {
+                while (moving.contains(user))
+                    moving.wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Check if foreign requests are redirected instead of forwarded.
+     * @return true in redirect mode; false in forward mode.
+     */
+    public boolean doRedirect() {
+        return config.doRedirect();
+    }
+
+    /**
+     * Opens a channel to the owner of a user that stays open for the rest of
+     * a client's connection. Used in forward mode so that a client that
+     * authenticated through this node stays authenticated at the owner.
+     * @param user the routing key.
+     * @return the channel, or null if the owner can't be reached.
+     */
+    public ProtocolChannel openSession(String user) {
+        ClusterNode owner = ring.ownerOf(user);
+        try {
+            return open(owner);
+        } catch (IOException e) {
+            System.err.println("[CLUSTER] Session to " + owner + " failed: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Check if a secret matches the cluster secret.
+     * @param secret the presented secret.
+     * @return true if the secret is correct.
+     */
+    public boolean checkSecret(String secret) {
+        return secret != null && MessageDigest.isEqual(config.getSecret().getBytes(StandardCharsets.UTF_8),
+            secret.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Builds a redirect to the owner of a user. Also used in forward mode for
+     * requests that can't be relayed, such as subscriptions.
+     * @param user the routing key of the request.
+     * @return a failed status carrying the owner's address.
+     */
+    public StatusMessage redirect(String user) {
+        ClusterNode owner = ring.ownerOf(user);
+        return new StatusMessage(false, "User " + user + " is served by node " + owner.getId() + ".", owner.getAddress());
+    }
+
+    /**
+     * Handles a request for a user owned by another node, either by relaying
+     * it to the owner or by building a redirect.
+     * @param user the routing key of the request.
+     * @param msg the request.
+     * @return the response to send back to the client.
+     */
+    public Message route(String user, Message msg) {
+        ClusterNode owner = ring.ownerOf(user);
+        if (config.doRedirect())
+            return redirect(user);
+
+        ProtocolChannel channel = null;
+        try {
+            channel = open(owner);
+            channel.sendMessage(msg);
+            return receive(channel);
+        } catch (Exception e) {
+            System.err.println("[CLUSTER] Forwarding to " + owner + " failed: " + e.getMessage());
+            return new StatusMessage(false, "Node " + owner.getId() + " is unavailable.");
+        } finally {
+            if (channel != null)
+                channel.closeChannel();
+        }
+    }
+
+    /**
+     * Applies a migrated post or account sent by another node. It takes the
+     * same path as a post or an account created here: logged, shipped to
+     * the followers and committed before the old owner is told it may drop
+     * its copy.
+     * @param msg the migration message.
+     * @return the status to send back.
+     */
+    public StatusMessage acceptMigration(ClusterMigrate msg) {
+        if (!checkSecret(msg.getSecret()))
+            return new StatusMessage(false, "Bad cluster secret.");
+        try {
+            if (ClusterMigrate.OP_POST.equals(msg.getOp())) {
+                Post post = new Post(msg.getData());
+                synchronized (board) {
+                    board.addPost(post);
+                    if (snapshots != null)
+                        snapshots.logPost(post);
+                    if (replicationLog != null)
+                        replicationLog.append(ReplicationLog.OP_POST, post.toJSONType());
+                    if (retention != null)
+                        retention.admit(post);
+                    if (!committer.isDurable())
+                        board.saveToFile();
+                }
+            } else if (ClusterMigrate.OP_SEQ.equals(msg.getOp())) {
+                // Never number a post below one the old owner handed out
+                String user = msg.getData().getString("user");
+                long seq = msg.getData().getLong("seq");
+                synchronized (board) {
+                    board.mergeSequences(Map.of(user, seq));
+                    board.saveToFile();
+                }
+            } else if (ClusterMigrate.OP_USER.equals(msg.getOp())) {
+                User user = new User();
+                user.deserialize(msg.getData());
+                UserDatabase.put(user.getUser(), user);
+                UserDatabase.save(Configuration.getUsersFile());
+                if (snapshots != null)
+                    snapshots.logUser(user);
+                if (replicationLog != null)
+                    replicationLog.append(ReplicationLog.OP_USER, user.toJSONType());
+            } else {
+                return new StatusMessage(false, "Unknown migration " + msg.getOp());
+            }
+            // The old owner deletes its copy on this answer, so the change must be on disk first
+            if (!committer.commit())
+                return new StatusMessage(false, "Migration could not be made durable.");
+            return new StatusMessage(true, "Migrated.");
+        } catch (InvalidObjectException e) {
+            return new StatusMessage(false, "Invalid migration: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Re-reads the cluster section of the configuration file and moves every
+     * account and post this node no longer owns to its new owner. A
+     * recipient's last sequence number goes first, so the new owner numbers
+     * later posts above the migrated ones. Requests for moving users are
+     * held until the move is over and then routed to the new owner; other
+     * users are served throughout. Data is only dropped locally once the
+     * owner has acknowledged it; anything that fails to move stays here and
+     * is picked up by the next rebalance.
+     * @return a summary of what was moved.
+     * @throws IOException if the configuration can't be re-read.
+     */
+    public synchronized String rebalance() throws IOException {
+        JSONObject obj = JsonIO.readObject(new File(configFile));
+        if (!obj.containsKey("cluster"))
+            throw new InvalidObjectException("Configuration no longer has a cluster section.");
+        ClusterConfig next = new ClusterConfig(obj.getObject("cluster"));
+        HashRing nextRing = new HashRing(next.getNodes(), next.getVirtualNodes());
+
+        // Hold the users that change owner before the new ring sends them anywhere
+        Map<String, Long> sequences;
+        synchronized (board) {
+            sequences = board.getSequences();
+            synchronized (moving) {
+                for (User user : UserDatabase.getAll())
+                    moving.add(user.getUser());
+                moving.addAll(sequences.keySet());
+                moving.removeIf(user -> nextRing.ownerOf(user).getId().equals(next.getNodeId()));
+            }
+        }
+        try {
+            install(next);
+            return migrate(sequences);
+        } finally {
+            synchronized (moving) {
+                moving.clear();
+                moving.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Moves the data of the users this node no longer owns to their owners.
+     * @param sequences the last sequence number of every mailbox.
+     * @return a summary of what was moved.
+     */
+    private String migrate(Map<String, Long> sequences) {
+        Map<ClusterNode, List<ClusterMigrate>> moves = new HashMap<>();
+        Map<ClusterMigrate, Post> postOf = new HashMap<>();
+        for (Map.Entry<String, Long> entry : sequences.entrySet()) {
+            if (!isLocal(entry.getKey())) {
+                JSONObject data = new JSONObject();
+                data.put("user", entry.getKey());
+                data.put("seq", entry.getValue());
+                moves.computeIfAbsent(ring.ownerOf(entry.getKey()), k -> new ArrayList<>())
+                    .add(new ClusterMigrate(config.getSecret(), ClusterMigrate.OP_SEQ, data));
+            }
+        }
+        for (User user : UserDatabase.getAll()) {
+            if (!isLocal(user.getUser()))
+                moves.computeIfAbsent(ring.ownerOf(user.getUser()), k -> new ArrayList<>())
+                    .add(new ClusterMigrate(config.getSecret(), ClusterMigrate.OP_USER, (JSONObject) user.toJSONType()));
+        }
+        for (Post post : board.getPostsSnapshot()) {
+            if (!isLocal(post.getUser())) {
+                ClusterMigrate move = new ClusterMigrate(config.getSecret(), ClusterMigrate.OP_POST, (JSONObject) post.toJSONType());
+                moves.computeIfAbsent(ring.ownerOf(post.getUser()), k -> new ArrayList<>()).add(move);
+                postOf.put(move, post);
+            }
+        }
+
+        int users = 0;
+        List<Post> movedPosts = new ArrayList<>();
+        for (Map.Entry<ClusterNode, List<ClusterMigrate>> entry : moves.entrySet()) {
+            ProtocolChannel channel = null;
+            try {
+                channel = open(entry.getKey());
+                for (ClusterMigrate move : entry.getValue()) {
+                    channel.sendMessage(move);
+                    Message resp = receive(channel);
+                    if (!(resp instanceof StatusMessage) || !((StatusMessage) resp).getStatus())
+                        throw new IOException("node refused migration: " + resp);
+
+                    if (ClusterMigrate.OP_USER.equals(move.getOp())) {
+                        UserDatabase.remove(move.getData().getString("user"));
+                        users++;
+                    } else if (ClusterMigrate.OP_POST.equals(move.getOp())) {
+                        movedPosts.add(postOf.get(move));
+                    }
+                }
+            } catch (Exception e) {
+                System.err.println("[CLUSTER] Rebalance to " + entry.getKey() + " stopped: " + e.getMessage());
+            } finally {
+                if (channel != null)
+                    channel.closeChannel();
+            }
+        }
+
+        if (users > 0)
+            UserDatabase.save(Configuration.getUsersFile());
+        if (!movedPosts.isEmpty()) {
+            synchronized (board) {
+                board.removePosts(movedPosts);
+                board.saveToFile();
+            }
+        }
+        // The snapshot log only records additions, so removals need a new snapshot
+        if (snapshots != null && (users > 0 || !movedPosts.isEmpty()))
+            snapshots.snapshotNow();
+
+        String summary = "Moved " + users + " accounts and " + movedPosts.size() + " posts.";
+        System.out.println("[CLUSTER] Rebalance done. " + summary);
+        return summary;
+    }
+
+    /**
+     * Opens a channel to another node.
+     * @param node the node.
+     * @return the channel.
+     * @throws IOException if the node can't be reached.
+     */
+    public static ProtocolChannel open(ClusterNode node) throws IOException {
+        SSLSocketFactory factory = (SSLSocketFactory) SSLSocketFactory.getDefault();
+        SSLSocket socket = (SSLSocket) factory.createSocket(node.getHost(), node.getPort());
+        socket.startHandshake();
+        socket.setSoTimeout(TIMEOUT_MS);
+
+        ProtocolChannel channel = new ProtocolChannel(socket);
+        channel.setMessageTypes(RESPONSE_TYPES);
+        return channel;
+    }
+
+    /**
+     * Receives a response, skipping the empty frames the server emits after
+     * each message.
+     * @param channel the channel.
+     * @return the response.
+     * @throws InvalidObjectException if the response can't be decoded.
+     */
+    public static Message receive(ProtocolChannel channel) throws InvalidObjectException {
+        while (true) {
+            try {
+                return channel.receiveMessage();
+            } catch (NullPointerException e) {
+                // Empty frame, keep reading.
+            }
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package server.cluster;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A consistent hash ring over the cluster nodes. Each node is placed on the
+ * ring at several virtual points so that ranges stay balanced, and a user is
+ * owned by the first node clockwise from the hash of the user name. Adding a
+ * node only moves the users that fall into the new node's ranges.
+ */
+public class HashRing {
+    private final TreeMap<Long, ClusterNode> ring = new TreeMap<>();
+
+    /**
+     * Builds the ring.
+     * @param nodes the cluster nodes.
+     * @param virtualNodes the number of points per node.
+     */
+    public HashRing(List<ClusterNode> nodes, int virtualNodes) {
+        for (ClusterNode node : nodes) {
+            for (int i = 0; i < virtualNodes; i++)
+                ring.put(hash(node.getId() + "#" + i), node);
+        }
+    }
+
+    /**
+     * Finds the node that owns a user's mailbox and account.
+     * @param user the user name.
+     * @return the owning node.
+     */
+    public ClusterNode ownerOf(String user) {
+        Map.Entry<Long, ClusterNode> entry = ring.ceilingEntry(hash(user));
+        if (entry == null)
+            entry = ring.firstEntry();
+        return entry.getValue();
+    }
+
+    /**
+     * Hashes a key onto the ring using the first eight bytes of its MD5 digest.
+     * @param key the key to hash.
+     * @return the position on the ring.
+     */
+    private static long hash(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(key.getBytes(StandardCharsets.UTF_8));
+            long h = 0;
+            for (int i = 0; i < 8; i++)
+                h = (h << 8) | (digest[i] & 0xff);
+            return h;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 is not available", e);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package server.cluster;
+
+import java.io.File;
+
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+import common.protocol.Message;
+import common.protocol.ProtocolChannel;
+import common.protocol.messages.StatusMessage;
+import merrimackutil.cli.LongOption;
+import merrimackutil.cli.OptionParser;
+import merrimackutil.json.JsonIO;
+import merrimackutil.json.types.JSONObject;
+import merrimackutil.util.Tuple;
+import server.Configuration;
+
+/**
+ * Admin tool that rebalances a cluster after its membership changed.
+ *
+ * To add a node: start the new node with the full node list, add the node to
+ * the "cluster" section of every existing node's configuration file, then
+ * run this tool with any of the updated configuration files. Every node
+ * re-reads its configuration and hands the mailboxes and accounts it no
+ * longer owns to their new owners while it keeps serving.
+ */
+public class Rebalance {
+    private static final int TIMEOUT_MS = 600000;
+
+    /**
+     * Prints the help menu.
+     */
+    public static void usage() {
+        System.out.println("usage:");
+        System.out.println("  rebalance --config <configfile>");
+        System.out.println("options:");
+        System.out.println("  -c, --config\t\tA cluster node's config file listing every node.");
+        System.out.println("  -h, --help\t\tDisplay the help.");
+        System.exit(1);
+    }
+
+    /**
+     * Main entry point of the rebalance tool.
+     * @param args the command line arguments.
+     * @throws Exception if the configuration can't be read.
+     */
+    public static void main(String[] args) throws Exception {
+        LongOption[] opts = new LongOption[2];
+        opts[0] = new LongOption("help", false, 'h');
+        opts[1] = new LongOption("config", true, 'c');
+
+        OptionParser parser = new OptionParser(args);
+        parser.setLongOpts(opts);
+        parser.setOptString("hc:");
+
+        String configName = null;
+        while (parser.getOptIdx() != args.length) {
+            Tuple<Character, String> currOpt = parser.getLongOpt(false);
+            if (currOpt.getFirst() == 'c')
+                configName = currOpt.getSecond();
+            else
+                usage();
+        }
+        if (configName == null)
+            usage();
+
+        JSONObject configObj = JsonIO.readObject(new File(configName));
+        Configuration config = new Configuration(configObj);
+        config.setConfigDir(new File(configName).getParent());
+        if (config.getCluster() == null) {
+            System.out.println("The configuration has no cluster section.");
+            System.exit(1);
+        }
+
+        System.setProperty("javax.net.ssl.trustStore", config.getTruststoreFile());
+        System.setProperty("javax.net.ssl.trustStorePassword", config.getTruststorePass());
+
+        ClusterConfig cluster = config.getCluster();
+        for (ClusterNode node : cluster.getNodes()) {
+            ProtocolChannel channel = null;
+            try {
+                SSLSocketFactory factory = (SSLSocketFactory) SSLSocketFactory.getDefault();
+                SSLSocket socket = (SSLSocket) factory.createSocket(node.getHost(), node.getPort());
+                socket.startHandshake();
+                socket.setSoTimeout(TIMEOUT_MS);
+
+                channel = new ProtocolChannel(socket);
+                channel.addMessageType(new StatusMessage());
+                channel.sendMessage(new RebalanceRequest(cluster.getSecret()));
+
+                Message resp = null;
+                while (resp == null) {
+                    try {
+                        resp = channel.receiveMessage();
+                    } catch (NullPointerException e) {
+                        // Empty frame, keep reading.
+                    }
+                }
+                StatusMessage status = (StatusMessage) resp;
+                System.out.println(node + ": " + (status.getStatus() ? "" : "failed, ") + status.getPayload());
+            } catch (Exception e) {
+                System.out.println(node + ": unreachable, " + e.getMessage());
+            } finally {
+                if (channel != null)
+                    channel.closeChannel();
+            }
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package server.nonce;
+
+import common.protocol.Message;
+import merrimackutil.json.types.JSONArray;
+import merrimackutil.json.types.JSONObject;
+import merrimackutil.json.types.JSONType;
+
+import java.io.InvalidObjectException;
+
+/**
+ * Carries a batch of newly seen nonces from one node to a peer. Each entry
+ * holds the Base64 nonce and its absolute expiry time so that every node
+ * forgets it at the same moment.
+ */
+public class NonceGossip implements Message {
+    private String secret;
+    private JSONArray entries;
+
+    public NonceGossip() {}
+
+    public NonceGossip(String secret, JSONArray entries) {
+        this.secret = secret;
+        this.entries = entries;
+    }
+
+    /**
+     * Returns the gossip secret.
+     * @return the secret.
+     */
+    public String getSecret() {
+        return secret;
+    }
+
+    /**
+     * Returns the gossiped nonces.
+     * @return an array of objects with "nonce" and "expires" fields.
+     */
+    public JSONArray getEntries() {
+        return entries;
+    }
+
+    /**
+     * Gets the message type as a string.
+     * @return the message type as a string.
+     */
+    @Override
+    public String getType() {
+        return "NonceGossip";
+    }
+
+    /**
+     * Converts the object to a JSON type.
+     * @return a JSON type either JSONObject or JSONArray.
+     */
+    @Override
+    public JSONType toJSONType() {
+        JSONObject obj = new JSONObject();
+        obj.put("type", getType());
+        obj.put("secret", secret);
+        obj.put("entries", entries);
+        return obj;
+    }
+
+    /**
+     * Deserialize a JSON object into a NonceGossip instance.
+     * @param obj the JSON object to deserialize
+     * @throws InvalidObjectException if the object is not a JSON object or a
+     *                                field is missing.
+     */
+    @Override
+    public void deserialize(JSONType obj) throws InvalidObjectException {
+        if (!(obj instanceof JSONObject)) {
+            throw new InvalidObjectException("Expected JSONObject.");
+        }
+        JSONObject json = (JSONObject) obj;
+        json.checkValidity(new String[]{"secret", "entries"});
+        this.secret = json.getString("secret");
+        this.entries = json.getArray("entries");
+    }
+
+    /**
+     * Decodes a JSON object into a NonceGossip instance.
+     * @param obj the JSON object to decode
+     * @return a NonceGossip instance
+     * @throws InvalidObjectException if required fields are missing
+     */
+    @Override
+    public Message decode(JSONObject obj) throws InvalidObjectException {
+        NonceGossip msg = new NonceGossip();
+        msg.deserialize(obj);
+        return msg;
+    }
+
+    /**
+     * Returns a string representation of the object.
+     * @return a string representation that omits the secret.
+     */
+    @Override
+    public String toString() {
+        return "[NonceGossip] entries=" + (entries == null ? 0 : entries.size());
+    }
+}
@@ -0,0 +1,27 @@
+package server.nonce;
+
+/**
+ * A store of recently seen nonces used for replay protection. Nonces are
+ * remembered for a bounded time, after which they may be forgotten.
+ */
+public interface NonceStore {
+    /**
+     * Check if a nonce has been seen and has not expired yet.
+     * @param nonce the nonce.
+     * @return true if the nonce is known; otherwise, false.
+     */
+    public boolean containsNonce(byte[] nonce);
+
+    /**
+     * Records a nonce.
+     * @param nonce the nonce.
+     */
+    public void addNonce(byte[] nonce);
+
+    /**
+     * Records a nonce unless it is already known, as a single atomic step.
+     * @param nonce the nonce.
+     * @return true if the nonce was new; false if it is a replay.
+     */
+    public boolean addIfAbsent(byte[] nonce);
+}
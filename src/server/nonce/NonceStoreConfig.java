@@ -0,0 +1,162 @@
+package server.nonce;
+
+import merrimackutil.json.JSONSerializable;
+import merrimackutil.json.types.JSONArray;
+import merrimackutil.json.types.JSONObject;
+import merrimackutil.json.types.JSONType;
+import server.cluster.ClusterNode;
+
+import java.io.InvalidObjectException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The "nonce-store" section of the configuration file. A "striped" store
+ * keeps nonces in this process only; a "replicated" store also gossips every
+ * new nonce to the listed peers so that a replay sent to another node behind
+ * the same load balancer is caught too.
+ */
+public class NonceStoreConfig implements JSONSerializable {
+    // A TOTP code is accepted for 3 steps either side of now, 210 seconds in all.
+    private static final int DEFAULT_LIFETIME = 240;
+    private static final int DEFAULT_MAX_ENTRIES = 100000;
+    private static final int DEFAULT_STRIPES = 16;
+    private static final int DEFAULT_GOSSIP_MS = 500;
+
+    private String type = "striped";
+    private int lifetime = DEFAULT_LIFETIME;
+    private int maxEntries = DEFAULT_MAX_ENTRIES;
+    private int stripes = DEFAULT_STRIPES;
+    private int gossipMs = DEFAULT_GOSSIP_MS;
+    private String secret;
+    private List<ClusterNode> peers = new ArrayList<>();
+
+    /**
+     * Constructs the default configuration, a process-local striped store.
+     */
+    public NonceStoreConfig() {}
+
+    /**
+     * Constructs the nonce store configuration from its JSON object.
+     * @param obj the "nonce-store" object of the configuration file.
+     * @throws InvalidObjectException if the object is not valid.
+     */
+    public NonceStoreConfig(JSONObject obj) throws InvalidObjectException {
+        deserialize(obj);
+    }
+
+    /**
+     * Check if nonces are gossiped to peers.
+     * @return true for a replicated store; otherwise, false.
+     */
+    public boolean isReplicated() {
+        return type.equals("replicated");
+    }
+
+    /**
+     * Gets how long a nonce is remembered.
+     * @return the lifetime in seconds.
+     */
+    public int getLifetime() {
+        return lifetime;
+    }
+
+    /**
+     * Gets the maximum number of nonces kept in memory.
+     * @return the maximum number of entries.
+     */
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * Gets the number of independently locked stripes.
+     * @return the stripe count.
+     */
+    public int getStripes() {
+        return stripes;
+    }
+
+    /**
+     * Gets how often new nonces are gossiped to the peers.
+     * @return the gossip interval in milliseconds.
+     */
+    public int getGossipMs() {
+        return gossipMs;
+    }
+
+    /**
+     * Gets the secret peers use to authenticate gossip.
+     * @return the secret.
+     */
+    public String getSecret() {
+        return secret;
+    }
+
+    /**
+     * Gets the peers nonces are gossiped to.
+     * @return the peers, not including this node.
+     */
+    public List<ClusterNode> getPeers() {
+        return peers;
+    }
+
+    /**
+     * Converts JSON data to an object of this type.
+     * @param obj a JSON type to deserialize.
+     * @throws InvalidObjectException the type does not match this object.
+     */
+    @Override
+    public void deserialize(JSONType obj) throws InvalidObjectException {
+        if (!obj.isObject()) {
+            throw new InvalidObjectException("NonceStoreConfig -- received array, expected Object.");
+        }
+        JSONObject store = (JSONObject) obj;
+
+        if (store.containsKey("type"))
+            type = store.getString("type");
+        if (!type.equals("striped") && !type.equals("replicated"))
+            throw new InvalidObjectException("NonceStoreConfig -- type must be striped or replicated.");
+        if (store.containsKey("lifetime"))
+            lifetime = store.getInt("lifetime");
+        if (store.containsKey("max-entries"))
+            maxEntries = store.getInt("max-entries");
+        if (store.containsKey("stripes"))
+            stripes = store.getInt("stripes");
+        if (lifetime <= 0 || maxEntries <= 0 || stripes <= 0)
+            throw new InvalidObjectException("NonceStoreConfig -- lifetime, max-entries and stripes must be positive.");
+
+        if (isReplicated()) {
+            store.checkValidity(new String[]{"secret", "peers"});
+            secret = store.getString("secret");
+            if (store.containsKey("gossip-ms"))
+                gossipMs = store.getInt("gossip-ms");
+
+            JSONArray array = store.getArray("peers");
+            for (int i = 0; i < array.size(); i++)
+                peers.add(new ClusterNode(array.getObject(i)));
+        }
+    }
+
+    /**
+     * Converts the object to a JSON type.
+     * @return a JSON type either JSONObject or JSONArray.
+     */
+    @Override
+    public JSONType toJSONType() {
+        JSONObject obj = new JSONObject();
+        obj.put("type", type);
+        obj.put("lifetime", lifetime);
+        obj.put("max-entries", maxEntries);
+        obj.put("stripes", stripes);
+        if (isReplicated()) {
+            JSONArray array = new JSONArray();
+            for (ClusterNode peer : peers)
+                array.add(peer.toJSONType());
+            obj.put("secret", secret);
+            obj.put("gossip-ms", gossipMs);
+            obj.put("peers", array);
+        }
+        return obj;
+    }
+}
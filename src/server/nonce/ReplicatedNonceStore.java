@@ -0,0 +1,150 @@
+package server.nonce;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import common.protocol.ProtocolChannel;
+import merrimackutil.json.types.JSONArray;
+import merrimackutil.json.types.JSONObject;
+import server.cluster.ClusterNode;
+import server.cluster.ClusterRouter;
+
+/**
+ * A nonce store shared by a group of peers. Lookups and inserts are served
+ * by a local striped store; every nonce first seen here is queued and pushed
+ * to each peer in batches by the gossip thread. Nonces learned from peers
+ * are merged with their original expiry and are not gossiped again, so a
+ * nonce travels one hop and the exchange can't loop.
+ *
+ * Gossip is best effort: the queue is bounded and a peer that is down misses
+ * the batch. The window in which a replay on another node goes unnoticed is
+ * therefore one gossip interval while all peers are up.
+ */
+public class ReplicatedNonceStore implements NonceStore, Runnable {
+    private static final int QUEUE_SIZE = 10000;
+    private static final int MAX_BATCH = 1000;
+
+    private final StripedNonceStore local;
+    private final NonceStoreConfig config;
+    private final BlockingQueue<JSONObject> outbox = new ArrayBlockingQueue<>(QUEUE_SIZE);
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * Creates a replicated nonce store.
+     * @param local the local store lookups are served from.
+     * @param config the nonce store configuration listing the peers.
+     */
+    public ReplicatedNonceStore(StripedNonceStore local, NonceStoreConfig config) {
+        this.local = local;
+        this.config = config;
+    }
+
+    /**
+     * Check if a nonce has been seen here or on a peer.
+     * @param nonce the nonce.
+     * @return true if the nonce is known; otherwise, false.
+     */
+    @Override
+    public boolean containsNonce(byte[] nonce) {
+        return local.containsNonce(nonce);
+    }
+
+    /**
+     * Records a nonce and gossips it to the peers.
+     * @param nonce the nonce.
+     */
+    @Override
+    public void addNonce(byte[] nonce) {
+        addIfAbsent(nonce);
+    }
+
+    /**
+     * Records a nonce unless it is already known and gossips it if it is new.
+     * @param nonce the nonce.
+     * @return true if the nonce was new; false if it is a replay or the
+     *         local store is full.
+     */
+    @Override
+    public boolean addIfAbsent(byte[] nonce) {
+        long expires = System.currentTimeMillis() + local.getLifetimeMs();
+        if (!local.put(nonce, expires))
+            return false;
+
+        JSONObject entry = new JSONObject();
+        entry.put("nonce", Base64.getEncoder().encodeToString(nonce));
+        entry.put("expires", expires);
+        if (!outbox.offer(entry))
+            dropped.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Merges nonces gossiped by a peer.
+     * @param msg the gossip message.
+     * @return true if the peer presented the right secret; otherwise, false.
+     */
+    public boolean merge(NonceGossip msg) {
+        if (msg.getSecret() == null || !MessageDigest.isEqual(config.getSecret().getBytes(StandardCharsets.UTF_8),
+                msg.getSecret().getBytes(StandardCharsets.UTF_8)))
+            return false;
+
+        JSONArray entries = msg.getEntries();
+        for (int i = 0; i < entries.size(); i++) {
+            JSONObject entry = entries.getObject(i);
+            local.merge(Base64.getDecoder().decode(entry.getString("nonce")), entry.getLong("expires"));
+        }
+        return true;
+    }
+
+    /**
+     * Ships queued nonces to every peer until the thread is interrupted.
+     */
+    @Override
+    public void run() {
+        List<JSONObject> batch = new ArrayList<>();
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                JSONObject first = outbox.poll(config.getGossipMs(), TimeUnit.MILLISECONDS);
+                if (first == null)
+                    continue;
+                batch.add(first);
+                outbox.drainTo(batch, MAX_BATCH - 1);
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            JSONArray entries = new JSONArray();
+            entries.addAll(batch);
+            batch.clear();
+            for (ClusterNode peer : config.getPeers())
+                send(peer, new NonceGossip(config.getSecret(), entries));
+
+            long lost = dropped.getAndSet(0);
+            if (lost > 0)
+                System.err.println("[NONCE] Gossip queue full, " + lost + " nonces were not shared.");
+        }
+    }
+
+    /**
+     * Sends one batch to a peer.
+     */
+    private static void send(ClusterNode peer, NonceGossip msg) {
+        ProtocolChannel channel = null;
+        try {
+            channel = ClusterRouter.open(peer);
+            channel.sendMessage(msg);
+        } catch (Exception e) {
+            System.err.println("[NONCE] Gossip to " + peer + " failed: " + e.getMessage());
+        } finally {
+            if (channel != null)
+                channel.closeChannel();
+        }
+    }
+}
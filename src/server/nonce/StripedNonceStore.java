@@ -0,0 +1,177 @@
+package server.nonce;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * An in-memory nonce store split into independently locked stripes so that
+ * concurrent connections rarely contend. Each stripe keeps its nonces in a
+ * map for lookups and a heap ordered by expiry, so expired nonces are
+ * dropped from the top of the heap without scanning, even when nonces
+ * merged from peers arrive out of expiry order.
+ *
+ * Each stripe has a size cap that bounds memory under a flood of new
+ * nonces. Only expired nonces are ever evicted: a stripe that is still full
+ * refuses the nonce, which refuses the authentication, rather than forget a
+ * nonce that could then be replayed. Nonces merged from peers are not
+ * capped, since every peer caps the nonces it gossips.
+ */
+public class StripedNonceStore implements NonceStore {
+    private final long lifetimeMs;
+    private final int maxPerStripe;
+    private final Stripe[] stripes;
+
+    // One stripe: the nonces with their expiry times and a heap of the same entries by expiry
+    private static class Stripe {
+        private final Map<ByteBuffer, Long> expiries = new HashMap<>();
+        private final PriorityQueue<Expiry> heap = new PriorityQueue<>();
+    }
+
+    // A nonce and the expiry it was recorded with; a stale one is skipped when popped
+    private static class Expiry implements Comparable<Expiry> {
+        private final ByteBuffer key;
+        private final long expiresAt;
+
+        private Expiry(ByteBuffer key, long expiresAt) {
+            this.key = key;
+            this.expiresAt = expiresAt;
+        }
+
+        @Override
+        public int compareTo(Expiry other) {
+            return Long.compare(expiresAt, other.expiresAt);
+        }
+    }
+
+    /**
+     * Creates a striped nonce store.
+     * @param lifetimeSeconds how long a nonce is remembered.
+     * @param maxEntries the maximum number of nonces kept in total.
+     * @param stripeCount the number of independently locked stripes.
+     */
+    public StripedNonceStore(int lifetimeSeconds, int maxEntries, int stripeCount) {
+        this.lifetimeMs = lifetimeSeconds * 1000L;
+        this.maxPerStripe = Math.max(1, maxEntries / stripeCount);
+        this.stripes = new Stripe[stripeCount];
+        for (int i = 0; i < stripeCount; i++)
+            stripes[i] = new Stripe();
+    }
+
+    /**
+     * Gets the lifetime of a nonce.
+     * @return the lifetime in milliseconds.
+     */
+    public long getLifetimeMs() {
+        return lifetimeMs;
+    }
+
+    /**
+     * Check if a nonce has been seen and has not expired yet.
+     * @param nonce the nonce.
+     * @return true if the nonce is known; otherwise, false.
+     */
+    @Override
+    public boolean containsNonce(byte[] nonce) {
+        ByteBuffer key = ByteBuffer.wrap(nonce.clone());
+        Stripe stripe = stripeFor(key);
+        long now = System.currentTimeMillis();
+        synchronized (stripe) {
+            evictExpired(stripe, now);
+            Long expires = stripe.expiries.get(key);
+            return expires != null && expires > now;
+        }
+    }
+
+    /**
+     * Records a nonce.
+     * @param nonce the nonce.
+     */
+    @Override
+    public void addNonce(byte[] nonce) {
+        addIfAbsent(nonce);
+    }
+
+    /**
+     * Records a nonce unless it is already known.
+     * @param nonce the nonce.
+     * @return true if the nonce was new; false if it is a replay or the
+     *         store is full.
+     */
+    @Override
+    public boolean addIfAbsent(byte[] nonce) {
+        return put(nonce, System.currentTimeMillis() + lifetimeMs);
+    }
+
+    /**
+     * Records a nonce first seen on this node with an explicit expiry time.
+     * @param nonce the nonce.
+     * @param expiresAt when the nonce expires, in milliseconds since the epoch.
+     * @return true if the nonce was new; false if it was already known or
+     *         its stripe is full of nonces that have not expired.
+     */
+    public boolean put(byte[] nonce, long expiresAt) {
+        return put(nonce, expiresAt, true);
+    }
+
+    /**
+     * Records a nonce learned from another node with its original expiry.
+     * The size cap does not apply.
+     * @param nonce the nonce.
+     * @param expiresAt when the nonce expires, in milliseconds since the epoch.
+     * @return true if the nonce was new; false if it was already known.
+     */
+    public boolean merge(byte[] nonce, long expiresAt) {
+        return put(nonce, expiresAt, false);
+    }
+
+    /**
+     * Records a nonce unless it is known.
+     * @param nonce the nonce.
+     * @param expiresAt when the nonce expires.
+     * @param capped if a full stripe refuses the nonce.
+     * @return true if the nonce was recorded.
+     */
+    private boolean put(byte[] nonce, long expiresAt, boolean capped) {
+        ByteBuffer key = ByteBuffer.wrap(nonce.clone());
+        Stripe stripe = stripeFor(key);
+        long now = System.currentTimeMillis();
+        if (expiresAt <= now)
+            return false;
+
+        synchronized (stripe) {
+            evictExpired(stripe, now);
+            if (stripe.expiries.containsKey(key))
+                return false;
+            if (capped && stripe.expiries.size() >= maxPerStripe) {
+                System.err.println("[NONCE] Nonce store is full, refusing a new nonce.");
+                return false;
+            }
+
+            stripe.expiries.put(key, expiresAt);
+            stripe.heap.add(new Expiry(key, expiresAt));
+            return true;
+        }
+    }
+
+    /**
+     * Picks the stripe a nonce lives in.
+     */
+    private Stripe stripeFor(ByteBuffer key) {
+        return stripes[(key.hashCode() & 0x7fffffff) % stripes.length];
+    }
+
+    /**
+     * Drops expired nonces from the top of a stripe's heap. The caller holds
+     * the stripe's lock.
+     */
+    private static void evictExpired(Stripe stripe, long now) {
+        while (!stripe.heap.isEmpty() && stripe.heap.peek().expiresAt <= now) {
+            Expiry expiry = stripe.heap.poll();
+            Long current = stripe.expiries.get(expiry.key);
+            if (current != null && current == expiry.expiresAt)
+                stripe.expiries.remove(expiry.key);
+        }
+    }
+}
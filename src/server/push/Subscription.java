@@ -0,0 +1,174 @@
+package server.push;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import common.protocol.ProtocolChannel;
+import common.protocol.messages.StatusMessage;
+import common.protocol.post.Post;
+
+/**
+ * A connection parked on a recipient's mailbox. Posts are queued by the
+ * thread that commits them and written out by the registry's pushers, one
+ * drain at a time per subscription so frames go out in commit order.
+ *
+ * A slow client must not hold up the others: a subscription whose outbox
+ * grows past {@link #MAX_QUEUED} posts is dropped, and a write that takes
+ * longer than {@link #WRITE_TIMEOUT_MS} closes the socket under it so the
+ * pusher is freed.
+ */
+class Subscription {
+    /** The most posts published to a subscription that may wait to be sent. */
+    static final int MAX_QUEUED = 1024;
+    /** The longest a single frame may take to write, in milliseconds. */
+    static final long WRITE_TIMEOUT_MS = 10000;
+
+    private final String user;
+    private final ProtocolChannel channel;
+    private final ScheduledExecutorService timers;
+    private final ArrayDeque<Post> outbox = new ArrayDeque<>();
+    private final ReentrantLock sendLock = new ReentrantLock();
+    // The last sequence number queued by the catch-up; later publishes of these posts are skipped
+    private long caughtUp;
+    private boolean draining;
+    private boolean closed;
+    private ScheduledFuture<?> expiry;
+
+    /**
+     * Creates a subscription.
+     * @param user the recipient.
+     * @param channel the client's channel.
+     * @param timers the scheduler that times out writes.
+     */
+    Subscription(String user, ProtocolChannel channel, ScheduledExecutorService timers) {
+        this.user = user;
+        this.channel = channel;
+        this.timers = timers;
+    }
+
+    /**
+     * Gets the recipient.
+     * @return the user name.
+     */
+    String getUser() {
+        return user;
+    }
+
+    /**
+     * Sets the timer that ends the subscription.
+     * @param expiry the scheduled expiry.
+     */
+    synchronized void setExpiry(ScheduledFuture<?> expiry) {
+        this.expiry = expiry;
+    }
+
+    /**
+     * Sets the last sequence number the catch-up covers.
+     * @param seq the sequence number.
+     */
+    synchronized void setCaughtUp(long seq) {
+        caughtUp = seq;
+    }
+
+    /**
+     * Check if the subscription has ended.
+     * @return true once it is closed.
+     */
+    synchronized boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Queues a post for the client. A post the catch-up already queued is
+     * skipped. A published post that finds the outbox full ends the
+     * subscription; the catch-up is not bounded.
+     * @param post the post.
+     * @param catchUp if the post is part of the catch-up.
+     * @return true if a drain has to be started; false if one is already
+     *         pending, the post was queued before or the subscription is
+     *         closed.
+     */
+    boolean offer(Post post, boolean catchUp) {
+        synchronized (this) {
+            if (closed || (!catchUp && post.getSeq() <= caughtUp))
+                return false;
+            if (catchUp || outbox.size() < MAX_QUEUED) {
+                outbox.addLast(post);
+                if (draining)
+                    return false;
+                draining = true;
+                return true;
+            }
+        }
+        System.out.println("[PUSH] Dropping a subscription of " + user + ", the client is not keeping up.");
+        close(null);
+        return false;
+    }
+
+    /**
+     * Sends every queued post in the wire form it was stored with.
+     * @return false if the client is gone.
+     */
+    boolean drain() {
+        while (true) {
+            Post post;
+            synchronized (this) {
+                post = outbox.pollFirst();
+                if (post == null || closed) {
+                    draining = false;
+                    return !closed;
+                }
+            }
+            boolean failed;
+            // A write that outlasts the deadline gets its socket closed under it
+            ScheduledFuture<?> deadline = timers.schedule(() -> close(null), WRITE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            sendLock.lock();
+            try {
+                channel.sendFrame("[PostMessage] " + post.getId(), post::writeWire);
+                failed = channel.checkError();
+            } catch (RuntimeException e) {
+                failed = true;
+            } finally {
+                sendLock.unlock();
+                deadline.cancel(false);
+            }
+            if (failed) {
+                close(null);
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Ends the subscription, sends a final status if one is given and closes
+     * the connection. The status is only sent if no post is being written;
+     * otherwise, or if the client is gone, the socket is closed right away,
+     * which also ends a write stuck on it. Closing twice does nothing.
+     * @param status the final status, or null if the client is gone.
+     */
+    void close(StatusMessage status) {
+        synchronized (this) {
+            if (closed)
+                return;
+            closed = true;
+            outbox.clear();
+            if (expiry != null)
+                expiry.cancel(false);
+        }
+        if (status == null || !sendLock.tryLock()) {
+            channel.closeChannel();
+            return;
+        }
+        try {
+            channel.sendMessage(status);
+        } catch (RuntimeException e) {
+            // The client is gone already.
+        } finally {
+            sendLock.unlock();
+            channel.closeChannel();
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package server.push;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import common.Board;
+import common.protocol.ProtocolChannel;
+import common.protocol.messages.StatusMessage;
+import common.protocol.post.Post;
+
+/**
+ * Connections waiting for posts, keyed by recipient. A subscribed
+ * connection no longer holds a handler thread: posts are pushed to it by
+ * the registry's pusher threads as they are committed, and a timer ends the
+ * subscription and closes the connection when it expires. The timers run on
+ * their own thread, so expiry and write deadlines fire even while every
+ * pusher is busy writing.
+ */
+public class SubscriptionRegistry {
+    private static final int PUSHERS = 2;
+
+    private final Board board;
+    private final int maxTimeout;
+    private final int maxPerUser;
+    private final Map<String, Set<Subscription>> waiting = new HashMap<>();
+    private final ExecutorService pushers = Executors.newFixedThreadPool(PUSHERS, r -> {
+        Thread thread = new Thread(r, "push");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final ScheduledExecutorService timers = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "push-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Creates a registry.
+     * @param board the board posts are read from.
+     * @param maxTimeout the longest a connection may stay subscribed, in seconds.
+     * @param maxPerUser the most connections that may wait on one recipient.
+     */
+    public SubscriptionRegistry(Board board, int maxTimeout, int maxPerUser) {
+        this.board = board;
+        this.maxTimeout = maxTimeout;
+        this.maxPerUser = maxPerUser;
+    }
+
+    /**
+     * Parks a connection on a recipient's mailbox. The posts after
+     * {@code since} are queued first; the board lock is held while doing so,
+     * which keeps new posts from slipping in between the catch-up and the
+     * registration. Posts are published once they are committed, after they
+     * reached the board, so a publish of a post the catch-up already found
+     * is skipped.
+     * @param user the recipient.
+     * @param since the last sequence number the client has seen.
+     * @param timeout the requested timeout in seconds, capped at the maximum.
+     * @param channel the client's channel, owned by the registry from now on.
+     * @return false if the recipient already has too many subscriptions.
+     */
+    public boolean subscribe(String user, long since, int timeout, ProtocolChannel channel) {
+        Subscription sub = new Subscription(user, channel, timers);
+        int seconds = Math.max(1, Math.min(timeout, maxTimeout));
+        synchronized (board) {
+            // Subscribing holds the board lock, so the count can't change before the subscription is added
+            synchronized (this) {
+                Set<Subscription> subs = waiting.get(user);
+                if (subs != null && subs.size() >= maxPerUser)
+                    return false;
+            }
+            long last = since;
+            for (Post post : board.getPostsFor(user, since)) {
+                offer(sub, post, true);
+                last = Math.max(last, post.getSeq());
+            }
+            sub.setCaughtUp(last);
+            synchronized (this) {
+                waiting.computeIfAbsent(user, k -> new LinkedHashSet<>()).add(sub);
+            }
+        }
+        sub.setExpiry(timers.schedule(() -> expire(sub), seconds, TimeUnit.SECONDS));
+        System.out.println("[PUSH] " + user + " subscribed for " + seconds + " s after " + since + ".");
+        return true;
+    }
+
+    /**
+     * Pushes a committed post to the connections waiting for its recipient.
+     * Only queues the post, so it is cheap to call.
+     * @param post the post.
+     */
+    public void publish(Post post) {
+        List<Subscription> subs;
+        synchronized (this) {
+            Set<Subscription> set = waiting.get(post.getUser());
+            if (set == null)
+                return;
+            subs = new ArrayList<>(set);
+        }
+        for (Subscription sub : subs)
+            offer(sub, post, false);
+    }
+
+    /**
+     * Gets the number of parked connections.
+     * @return the number of subscriptions.
+     */
+    public synchronized int size() {
+        int count = 0;
+        for (Set<Subscription> subs : waiting.values())
+            count += subs.size();
+        return count;
+    }
+
+    /**
+     * Queues a post on a subscription and starts a drain if none is pending.
+     * A subscription dropped for falling behind leaves the registry.
+     */
+    private void offer(Subscription sub, Post post, boolean catchUp) {
+        if (sub.offer(post, catchUp)) {
+            pushers.execute(() -> {
+                if (!sub.drain())
+                    remove(sub);
+            });
+        } else if (sub.isClosed()) {
+            remove(sub);
+        }
+    }
+
+    /**
+     * Ends a subscription whose timeout passed.
+     */
+    private void expire(Subscription sub) {
+        remove(sub);
+        sub.close(new StatusMessage(true, "Subscription expired."));
+    }
+
+    /**
+     * Drops a subscription from the registry.
+     */
+    private synchronized void remove(Subscription sub) {
+        Set<Subscription> subs = waiting.get(sub.getUser());
+        if (subs != null && subs.remove(sub) && subs.isEmpty())
+            waiting.remove(sub.getUser());
+    }
+}
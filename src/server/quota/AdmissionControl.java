@@ -0,0 +1,165 @@
+package server.quota;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import common.Board;
+import common.protocol.Frames;
+import common.protocol.ProtocolChannel;
+import common.protocol.post.Post;
+
+/**
+ * Enforces the quotas. Every connection gets a {@link Gate} that judges its
+ * frames before they are decoded: a frame is charged against the global
+ * in-flight budget until its request has been handled, and a post frame is
+ * refused at once if it is far too large or addressed to a mailbox that is
+ * already full. Refusals cost a string search, so a flood of oversized or
+ * unwanted posts never turns into JSON trees, messages and posts.
+ *
+ * The frame checks run before the post exists and other posts may reach
+ * the mailbox meanwhile, so {@link #checkPost(Post)} repeats them exactly
+ * under the board lock before a post is added.
+ */
+public class AdmissionControl {
+    // JSON around the payload of a post frame: field names, id, user, type
+    private static final int POST_ENVELOPE = 512;
+
+    private final Board board;
+    private final QuotaConfig config;
+    private final AtomicLong inflight = new AtomicLong();
+    private final LongAdder refusedBusy = new LongAdder();
+    private final LongAdder refusedSize = new LongAdder();
+    private final LongAdder refusedQuota = new LongAdder();
+
+    /**
+     * The admission state of one connection: the bytes of the request it
+     * is handling.
+     */
+    public class Gate implements ProtocolChannel.FrameFilter {
+        private long held;
+
+        /**
+         * Charges a frame against the budget and checks post frames against
+         * the size limit and the recipient's quota. The previous frame of the
+         * connection is released first.
+         * @param frame the JSON text of the frame.
+         * @return null to decode the frame, or the reason it is refused.
+         */
+        @Override
+        public String admit(String frame) {
+            done();
+            long size = frame.length();
+            if (!reserve(size)) {
+                refusedBusy.increment();
+                return "Server is busy, try again later.";
+            }
+            held = size;
+
+            if ("post".equals(Frames.peekString(frame, "type"))) {
+                String reason = null;
+                if (config.getMaxPostBytes() > 0 && size > config.getMaxPostBytes() + POST_ENVELOPE) {
+                    refusedSize.increment();
+                    reason = "Post is larger than " + config.getMaxPostBytes() + " bytes.";
+                } else {
+                    String user = Frames.peekString(frame, "user");
+                    if (user != null)
+                        reason = checkMailbox(user, 0);
+                }
+                if (reason != null) {
+                    done();
+                    return reason;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Releases the request the connection was handling.
+         */
+        public void done() {
+            if (held > 0) {
+                inflight.addAndGet(-held);
+                held = 0;
+            }
+        }
+    }
+
+    /**
+     * Creates the admission control.
+     * @param board the board.
+     * @param config the quotas.
+     */
+    public AdmissionControl(Board board, QuotaConfig config) {
+        this.board = board;
+        this.config = config;
+    }
+
+    /**
+     * Creates the gate of a new connection.
+     * @return the gate.
+     */
+    public Gate open() {
+        return new Gate();
+    }
+
+    /**
+     * Checks a decoded post against the size limit and its recipient's
+     * quota. The caller holds the board lock and adds the post right after.
+     * @param post the post.
+     * @return null if the post may be added, or the reason it is refused.
+     */
+    public String checkPost(Post post) {
+        if (config.getMaxPostBytes() > 0 && post.getSize() > config.getMaxPostBytes()) {
+            refusedSize.increment();
+            return "Post is larger than " + config.getMaxPostBytes() + " bytes.";
+        }
+        return checkMailbox(post.getUser(), post.getSize());
+    }
+
+    /**
+     * Describes the state as comma separated key=value pairs.
+     * @return the description.
+     */
+    public String describe() {
+        return "inflight-bytes=" + inflight.get() + ", inflight-budget=" + config.getInflightBytes()
+            + ", refused-busy=" + refusedBusy.sum() + ", refused-size=" + refusedSize.sum()
+            + ", refused-quota=" + refusedQuota.sum();
+    }
+
+    /**
+     * Checks whether a mailbox has room for one more post.
+     * @param user the recipient.
+     * @param size the size of the post, or 0 if it is not known yet.
+     * @return null if there is room, or the reason there is none.
+     */
+    private String checkMailbox(String user, long size) {
+        int maxCount = config.getMailboxMaxCount();
+        long maxBytes = config.getMailboxMaxBytes();
+        if ((maxCount > 0 && board.getMailboxCount(user) >= maxCount)
+                || (maxBytes > 0 && board.getMailboxBytes(user) + Math.max(size, 1) > maxBytes)) {
+            refusedQuota.increment();
+            return "The mailbox of " + user + " is full.";
+        }
+        return null;
+    }
+
+    /**
+     * Charges bytes against the in-flight budget.
+     * @param size the bytes.
+     * @return false if they don't fit.
+     */
+    private boolean reserve(long size) {
+        long budget = config.getInflightBytes();
+        if (budget == 0) {
+            inflight.addAndGet(size);
+            return true;
+        }
+        while (true) {
+            long current = inflight.get();
+            if (current + size > budget)
+                return false;
+            if (inflight.compareAndSet(current, current + size))
+                return true;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package server.quota;
+
+import merrimackutil.json.JSONSerializable;
+import merrimackutil.json.types.JSONObject;
+import merrimackutil.json.types.JSONType;
+
+import java.io.InvalidObjectException;
+
+/**
+ * The "quota" section of the configuration file: the largest post the
+ * server accepts, how many posts and bytes a recipient's mailbox may hold
+ * and how many bytes of received requests may be in memory at once. Unlike
+ * retention limits, which evict old posts to make room, quotas refuse new
+ * posts. A limit of 0 means unlimited; every field is optional.
+ */
+public class QuotaConfig implements JSONSerializable {
+    private long maxPostBytes;
+    private int mailboxMaxCount;
+    private long mailboxMaxBytes;
+    private int inflightMb = 64;
+
+    /**
+     * Constructs the quota configuration from its JSON object.
+     * @param obj the "quota" object of the configuration file.
+     * @throws InvalidObjectException if the object is not valid.
+     */
+    public QuotaConfig(JSONObject obj) throws InvalidObjectException {
+        deserialize(obj);
+    }
+
+    /**
+     * Gets the largest post accepted.
+     * @return the size in bytes, 0 for unlimited.
+     */
+    public long getMaxPostBytes() {
+        return maxPostBytes;
+    }
+
+    /**
+     * Gets the most live posts a mailbox may hold.
+     * @return the count, 0 for unlimited.
+     */
+    public int getMailboxMaxCount() {
+        return mailboxMaxCount;
+    }
+
+    /**
+     * Gets the most bytes of live posts a mailbox may hold.
+     * @return the size in bytes, 0 for unlimited.
+     */
+    public long getMailboxMaxBytes() {
+        return mailboxMaxBytes;
+    }
+
+    /**
+     * Gets the most bytes of received requests held in memory at once.
+     * @return the budget in bytes, 0 for unlimited.
+     */
+    public long getInflightBytes() {
+        return (long) inflightMb << 20;
+    }
+
+    /**
+     * Converts JSON data to an object of this type.
+     * @param obj a JSON type to deserialize.
+     * @throws InvalidObjectException the type does not match this object.
+     */
+    @Override
+    public void deserialize(JSONType obj) throws InvalidObjectException {
+        if (!obj.isObject()) {
+            throw new InvalidObjectException("QuotaConfig -- received array, expected Object.");
+        }
+        JSONObject quota = (JSONObject) obj;
+        if (quota.containsKey("max-post-bytes"))
+            maxPostBytes = quota.getLong("max-post-bytes");
+        if (quota.containsKey("mailbox-max-count"))
+            mailboxMaxCount = quota.getInt("mailbox-max-count");
+        if (quota.containsKey("mailbox-max-bytes"))
+            mailboxMaxBytes = quota.getLong("mailbox-max-bytes");
+        if (quota.containsKey("inflight-mb"))
+            inflightMb = quota.getInt("inflight-mb");
+        if (maxPostBytes < 0 || mailboxMaxCount < 0 || mailboxMaxBytes < 0 || inflightMb < 0)
+            throw new InvalidObjectException("QuotaConfig -- limits can't be negative.");
+    }
+
+    /**
+     * Converts the object to a JSON type.
+     * @return a JSON type either JSONObject or JSONArray.
+     */
+    @Override
+    public JSONType toJSONType() {
+        JSONObject obj = new JSONObject();
+        obj.put("max-post-bytes", maxPostBytes);
+        obj.put("mailbox-max-count", mailboxMaxCount);
+        obj.put("mailbox-max-bytes", mailboxMaxBytes);
+        obj.put("inflight-mb", inflightMb);
+        return obj;
+    }
+}
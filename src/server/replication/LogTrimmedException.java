@@ -0,0 +1,19 @@
+package server.replication;
+
+/**
+ * Thrown when a reader asks the {@link ReplicationLog} for entries that have
+ * already been trimmed. The reader can't be caught up from the log and has
+ * to start over from a snapshot.
+ */
+public class LogTrimmedException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Creates the exception.
+     * @param from the LSN that was asked for.
+     * @param firstLsn the oldest LSN still kept.
+     */
+    public LogTrimmedException(long from, long firstLsn) {
+        super("LSN " + from + " was trimmed, the log starts at " + firstLsn + ".");
+    }
+}
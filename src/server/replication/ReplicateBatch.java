@@ -0,0 +1,138 @@
+package server.replication;
+
+import common.protocol.Message;
+import merrimackutil.json.types.JSONArray;
+import merrimackutil.json.types.JSONObject;
+import merrimackutil.json.types.JSONType;
+
+import java.io.InvalidObjectException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A batch of log entries shipped from the leader to a follower. An empty
+ * batch doubles as a heartbeat that carries the leader's current LSN so the
+ * follower can measure its lag while idle.
+ */
+public class ReplicateBatch implements Message {
+    private String epoch;
+    private long leaderLsn;
+    private long timestamp;
+    private List<JSONObject> entries;
+
+    public ReplicateBatch() {
+        this.entries = new ArrayList<>();
+    }
+
+    public ReplicateBatch(String epoch, long leaderLsn, long timestamp, List<JSONObject> entries) {
+        this.epoch = epoch;
+        this.leaderLsn = leaderLsn;
+        this.timestamp = timestamp;
+        this.entries = entries;
+    }
+
+    /**
+     * Returns the epoch of the leader's log.
+     * @return the epoch.
+     */
+    public String getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * Returns the newest LSN on the leader when the batch was sent.
+     * @return the leader's LSN.
+     */
+    public long getLeaderLsn() {
+        return leaderLsn;
+    }
+
+    /**
+     * Returns the leader's clock when the batch was sent.
+     * @return the time in milliseconds since the epoch.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Returns the log entries in LSN order.
+     * @return the entries, each with "lsn", "op" and "data" fields.
+     */
+    public List<JSONObject> getEntries() {
+        return entries;
+    }
+
+    /**
+     * Gets the message type as a string.
+     * @return the message type as a string.
+     */
+    @Override
+    public String getType() {
+        return "ReplicateBatch";
+    }
+
+    /**
+     * Converts the object to a JSON type.
+     * @return a JSON type either JSONObject or JSONArray.
+     */
+    @Override
+    public JSONType toJSONType() {
+        JSONArray array = new JSONArray();
+        array.addAll(entries);
+
+        JSONObject obj = new JSONObject();
+        obj.put("type", getType());
+        obj.put("epoch", epoch);
+        obj.put("leader-lsn", leaderLsn);
+        obj.put("ts", timestamp);
+        obj.put("entries", array);
+        return obj;
+    }
+
+    /**
+     * Deserialize a JSON object into a ReplicateBatch instance.
+     * @param obj the JSON object to deserialize
+     * @throws InvalidObjectException if the object is not a JSON object or
+     *                                a field is missing.
+     */
+    @Override
+    public void deserialize(JSONType obj) throws InvalidObjectException {
+        if (!(obj instanceof JSONObject)) {
+            throw new InvalidObjectException("Expected JSONObject.");
+        }
+        JSONObject json = (JSONObject) obj;
+        json.checkValidity(new String[]{"epoch", "leader-lsn", "ts", "entries"});
+        this.epoch = json.getString("epoch");
+        this.leaderLsn = json.getLong("leader-lsn");
+        this.timestamp = json.getLong("ts");
+
+        JSONArray array = json.getArray("entries");
+        entries = new ArrayList<>();
+        for (int i = 0; i < array.size(); i++) {
+            entries.add(array.getObject(i));
+        }
+    }
+
+    /**
+     * Decodes a JSON object into a ReplicateBatch instance.
+     * @param obj the JSON object to decode
+     * @return a ReplicateBatch instance
+     * @throws InvalidObjectException if required fields are missing
+     */
+    @Override
+    public Message decode(JSONObject obj) throws InvalidObjectException {
+        ReplicateBatch batch = new ReplicateBatch();
+        batch.deserialize(obj);
+        return batch;
+    }
+
+    /**
+     * Returns a string representation of the object.
+     * @return a string representation of the object
+     */
+    @Override
+    public String toString() {
+        return "[ReplicateBatch] epoch=" + epoch + ", entries=" + entries.size() + ", leader-lsn=" + leaderLsn;
+    }
+}
@@ -0,0 +1,110 @@
+package server.replication;
+
+import common.protocol.Message;
+import merrimackutil.json.types.JSONObject;
+import merrimackutil.json.types.JSONType;
+
+import java.io.InvalidObjectException;
+
+/**
+ * Sent by a follower to start tailing the leader's log.
+ */
+public class ReplicateRequest implements Message {
+    private String secret;
+    private String epoch;
+    private long from;
+
+    public ReplicateRequest() {}
+
+    public ReplicateRequest(String secret, String epoch, long from) {
+        this.secret = secret;
+        this.epoch = epoch;
+        this.from = from;
+    }
+
+    /**
+     * Returns the replication secret shared by the leader and its followers.
+     * @return the secret.
+     */
+    public String getSecret() {
+        return secret;
+    }
+
+    /**
+     * Returns the leader epoch the follower last applied entries from.
+     * @return the epoch, or an empty string for a fresh follower.
+     */
+    public String getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * Returns the first LSN the follower needs.
+     * @return the LSN to resume from.
+     */
+    public long getFrom() {
+        return from;
+    }
+
+    /**
+     * Gets the message type as a string.
+     * @return the message type as a string.
+     */
+    @Override
+    public String getType() {
+        return "ReplicateRequest";
+    }
+
+    /**
+     * Converts the object to a JSON type.
+     * @return a JSON type either JSONObject or JSONArray.
+     */
+    @Override
+    public JSONType toJSONType() {
+        JSONObject obj = new JSONObject();
+        obj.put("type", getType());
+        obj.put("secret", secret);
+        obj.put("epoch", epoch);
+        obj.put("from", from);
+        return obj;
+    }
+
+    /**
+     * Deserialize a JSON object into a ReplicateRequest instance.
+     * @param obj the JSON object to deserialize
+     * @throws InvalidObjectException if the object is not a JSON object
+     */
+    @Override
+    public void deserialize(JSONType obj) throws InvalidObjectException {
+        if (!(obj instanceof JSONObject)) {
+            throw new InvalidObjectException("Expected JSONObject.");
+        }
+        JSONObject json = (JSONObject) obj;
+        json.checkValidity(new String[]{"secret", "epoch", "from"});
+        this.secret = json.getString("secret");
+        this.epoch = json.getString("epoch");
+        this.from = json.getLong("from");
+    }
+
+    /**
+     * Decodes a JSON object into a ReplicateRequest instance.
+     * @param obj the JSON object to decode
+     * @return a ReplicateRequest instance
+     * @throws InvalidObjectException if required fields are missing
+     */
+    @Override
+    public Message decode(JSONObject obj) throws InvalidObjectException {
+        ReplicateRequest req = new ReplicateRequest();
+        req.deserialize(obj);
+        return req;
+    }
+
+    /**
+     * Returns a string representation of the object.
+     * @return a string representation that omits the secret.
+     */
+    @Override
+    public String toString() {
+        return "[ReplicateRequest] epoch=" + epoch + ", from=" + from;
+    }
+}
@@ -0,0 +1,127 @@
+package server.replication;
+
+import common.protocol.Message;
+import merrimackutil.json.types.JSONObject;
+import merrimackutil.json.types.JSONType;
+
+import java.io.InvalidObjectException;
+
+/**
+ * One chunk of a snapshot the leader streams to a follower that can't be
+ * caught up from the log alone, because it is new, restarted, or behind the
+ * oldest entry the leader still keeps. The follower concatenates the chunks
+ * and replaces its state once the last one arrives, then tails the log from
+ * the snapshot's LSN.
+ */
+public class ReplicateSnapshot implements Message {
+    private String epoch;
+    private long lsn;
+    private boolean last;
+    private String data;
+
+    public ReplicateSnapshot() {}
+
+    public ReplicateSnapshot(String epoch, long lsn, boolean last, String data) {
+        this.epoch = epoch;
+        this.lsn = lsn;
+        this.last = last;
+        this.data = data;
+    }
+
+    /**
+     * Returns the epoch of the leader's log.
+     * @return the epoch.
+     */
+    public String getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * Returns the LSN of the last log entry included in the snapshot.
+     * @return the LSN.
+     */
+    public long getLsn() {
+        return lsn;
+    }
+
+    /**
+     * Check if this is the final chunk.
+     * @return true for the last chunk.
+     */
+    public boolean isLast() {
+        return last;
+    }
+
+    /**
+     * Returns this chunk of the snapshot.
+     * @return the Base64 encoded bytes.
+     */
+    public String getData() {
+        return data;
+    }
+
+    /**
+     * Gets the message type as a string.
+     * @return the message type as a string.
+     */
+    @Override
+    public String getType() {
+        return "ReplicateSnapshot";
+    }
+
+    /**
+     * Converts the object to a JSON type.
+     * @return a JSON type either JSONObject or JSONArray.
+     */
+    @Override
+    public JSONType toJSONType() {
+        JSONObject obj = new JSONObject();
+        obj.put("type", getType());
+        obj.put("epoch", epoch);
+        obj.put("lsn", lsn);
+        obj.put("last", last);
+        obj.put("data", data);
+        return obj;
+    }
+
+    /**
+     * Deserialize a JSON object into a ReplicateSnapshot instance.
+     * @param obj the JSON object to deserialize
+     * @throws InvalidObjectException if the object is not a JSON object or
+     *                                a field is missing.
+     */
+    @Override
+    public void deserialize(JSONType obj) throws InvalidObjectException {
+        if (!(obj instanceof JSONObject)) {
+            throw new InvalidObjectException("Expected JSONObject.");
+        }
+        JSONObject json = (JSONObject) obj;
+        json.checkValidity(new String[]{"epoch", "lsn", "last", "data"});
+        this.epoch = json.getString("epoch");
+        this.lsn = json.getLong("lsn");
+        this.last = json.getBoolean("last");
+        this.data = json.getString("data");
+    }
+
+    /**
+     * Decodes a JSON object into a ReplicateSnapshot instance.
+     * @param obj the JSON object to decode
+     * @return a ReplicateSnapshot instance
+     * @throws InvalidObjectException if required fields are missing
+     */
+    @Override
+    public Message decode(JSONObject obj) throws InvalidObjectException {
+        ReplicateSnapshot msg = new ReplicateSnapshot();
+        msg.deserialize(obj);
+        return msg;
+    }
+
+    /**
+     * Returns a string representation of the object.
+     * @return a string representation of the object
+     */
+    @Override
+    public String toString() {
+        return "[ReplicateSnapshot] epoch=" + epoch + ", lsn=" + lsn + ", last=" + last;
+    }
+}
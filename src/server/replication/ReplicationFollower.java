@@ -0,0 +1,243 @@
+package server.replication;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+import common.Board;
+import common.protocol.Message;
+import common.protocol.ProtocolChannel;
+import common.protocol.post.Post;
+import common.protocol.user_auth.User;
+import common.protocol.user_auth.UserDatabase;
+import merrimackutil.json.types.JSONArray;
+import merrimackutil.json.types.JSONObject;
+import server.snapshot.Snapshot;
+import server.push.SubscriptionRegistry;
+import server.snapshot.SnapshotManager;
+
+/**
+ * Follower side of log shipping. Tails the leader's log over TLS and applies
+ * every entry to the local board and user database, reconnecting whenever
+ * the connection to the leader is lost.
+ */
+public class ReplicationFollower implements Runnable {
+    private static final long RETRY_MS = 2000;
+    private static final int READ_TIMEOUT_MS = 10000;
+
+    private final Board board;
+    private final String usersFile;
+    private final String leaderHost;
+    private final int leaderPort;
+    private final String secret;
+    private final ReplicationMetrics metrics = new ReplicationMetrics();
+    private final SnapshotManager snapshots;
+    private final SubscriptionRegistry subscriptions;
+
+    private String epoch = "";
+    private long appliedLsn = 0;
+
+    /**
+     * Creates a follower.
+     * @param board the local board to apply posts to.
+     * @param usersFile the local users file.
+     * @param leaderHost the leader's host name.
+     * @param leaderPort the leader's replication port.
+     * @param secret the replication secret.
+     * @param snapshots the snapshot manager applied changes are logged to, or null.
+     * @param subscriptions the connections applied posts are pushed to.
+     */
+    public ReplicationFollower(Board board, String usersFile, String leaderHost, int leaderPort, String secret,
+        SnapshotManager snapshots, SubscriptionRegistry subscriptions) {
+        this.board = board;
+        this.usersFile = usersFile;
+        this.leaderHost = leaderHost;
+        this.leaderPort = leaderPort;
+        this.secret = secret;
+        this.snapshots = snapshots;
+        this.subscriptions = subscriptions;
+    }
+
+    /**
+     * Gets the replication lag metrics of this follower.
+     * @return the metrics.
+     */
+    public ReplicationMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Tails the leader until the process exits.
+     */
+    @Override
+    public void run() {
+        while (true) {
+            try {
+                tail();
+            } catch (Exception e) {
+                System.err.println("[REPLICATION] Lost leader " + leaderHost + ":" + leaderPort + ": " + e.getMessage());
+            }
+            metrics.setConnected(false);
+
+            try {
+                Thread.sleep(RETRY_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Connects to the leader and applies batches until the connection drops.
+     * @throws Exception if the connection fails or a batch can't be applied.
+     */
+    private void tail() throws Exception {
+        SSLSocketFactory factory = (SSLSocketFactory) SSLSocketFactory.getDefault();
+        SSLSocket socket = (SSLSocket) factory.createSocket(leaderHost, leaderPort);
+        socket.startHandshake();
+        socket.setSoTimeout(READ_TIMEOUT_MS);
+
+        ProtocolChannel channel = new ProtocolChannel(socket);
+        channel.addMessageType(new ReplicateBatch());
+        channel.addMessageType(new ReplicateSnapshot());
+        try {
+            channel.sendMessage(new ReplicateRequest(secret, epoch, appliedLsn + 1));
+            metrics.setConnected(true);
+            System.out.println("[REPLICATION] Following " + leaderHost + ":" + leaderPort + " from LSN " + (appliedLsn + 1));
+
+            long lastReport = 0;
+            ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+            while (true) {
+                Message msg;
+                try {
+                    msg = channel.receiveMessage();
+                } catch (NullPointerException e) {
+                    continue;   // Empty frame between messages.
+                }
+                if (msg instanceof ReplicateSnapshot) {
+                    ReplicateSnapshot chunk = (ReplicateSnapshot) msg;
+                    snapshot.write(Base64.getDecoder().decode(chunk.getData()));
+                    if (chunk.isLast()) {
+                        install(chunk, snapshot.toByteArray());
+                        snapshot.reset();
+                    }
+                    continue;
+                }
+                if (!(msg instanceof ReplicateBatch))
+                    throw new IllegalStateException("Unexpected message " + msg);
+
+                apply((ReplicateBatch) msg);
+
+                long now = System.currentTimeMillis();
+                if (now - lastReport >= 10000) {
+                    System.out.println(metrics);
+                    lastReport = now;
+                }
+            }
+        } finally {
+            channel.closeChannel();
+        }
+    }
+
+    /**
+     * Replaces the local state with a snapshot from the leader and persists it.
+     * @param last the final chunk of the snapshot.
+     * @param data the whole snapshot.
+     * @throws Exception if the snapshot is damaged.
+     */
+    private void install(ReplicateSnapshot last, byte[] data) throws Exception {
+        Snapshot snapshot = Snapshot.decode(ByteBuffer.wrap(data));
+        System.out.println("[REPLICATION] Installing snapshot at LSN " + last.getLsn() + " with "
+            + snapshot.getUsers().size() + " users and " + snapshot.getPosts().size() + " posts.");
+
+        synchronized (board) {
+            board.clear();
+            board.addPosts(snapshot.getPosts());
+            board.mergeSequences(snapshot.getPostSequences());
+            UserDatabase.clear();
+            for (User user : snapshot.getUsers())
+                UserDatabase.put(user.getUser(), user);
+            board.saveToFile();
+        }
+        UserDatabase.save(usersFile);
+        if (snapshots != null)
+            snapshots.snapshotNow();
+
+        epoch = last.getEpoch();
+        appliedLsn = last.getLsn();
+    }
+
+    /**
+     * Applies a batch to the local state and persists it.
+     * @param batch the batch from the leader.
+     * @throws Exception if an entry can't be decoded or the batch leaves a
+     *         gap after the last applied entry.
+     */
+    private void apply(ReplicateBatch batch) throws Exception {
+        // Entries must follow on from the last applied one; after a gap the
+        // follower reconnects, and the leader sends a snapshot if it must
+        long expected = appliedLsn + 1;
+        for (JSONObject entry : batch.getEntries()) {
+            long lsn = entry.getLong("lsn");
+            if (lsn <= appliedLsn)
+                continue;
+            if (lsn != expected)
+                throw new IllegalStateException("Expected LSN " + expected + " but got " + lsn + ".");
+            expected++;
+        }
+        epoch = batch.getEpoch();
+
+        boolean postsChanged = false;
+        boolean usersChanged = false;
+        for (JSONObject entry : batch.getEntries()) {
+            long lsn = entry.getLong("lsn");
+            if (lsn <= appliedLsn)
+                continue;
+
+            String op = entry.getString("op");
+            if (ReplicationLog.OP_POST.equals(op)) {
+                Post post = new Post(entry.getObject("data"));
+                synchronized (board) {
+                    board.addPost(post);
+                    if (snapshots != null)
+                        snapshots.logPost(post);
+                    subscriptions.publish(post);
+                }
+                postsChanged = true;
+            } else if (ReplicationLog.OP_USER.equals(op)) {
+                User user = new User();
+                user.deserialize(entry.getObject("data"));
+                UserDatabase.put(user.getUser(), user);
+                if (snapshots != null)
+                    snapshots.logUser(user);
+                usersChanged = true;
+            } else if (ReplicationLog.OP_DELETE.equals(op)) {
+                JSONObject data = entry.getObject("data");
+                JSONArray array = data.getArray("ids");
+                List<String> ids = new ArrayList<>();
+                for (int i = 0; i < array.size(); i++)
+                    ids.add(array.getString(i));
+                synchronized (board) {
+                    board.tombstone(data.getString("user"), ids);
+                    if (snapshots != null)
+                        snapshots.logDelete(data.getString("user"), ids);
+                }
+                postsChanged = true;
+            }
+            appliedLsn = lsn;
+        }
+
+        if (postsChanged)
+            board.saveToFile();
+        if (usersChanged)
+            UserDatabase.save(usersFile);
+
+        metrics.recordBatch(appliedLsn, batch.getLeaderLsn(), batch.getTimestamp(), batch.getEntries().size());
+    }
+}
@@ -0,0 +1,105 @@
+package server.replication;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import merrimackutil.json.types.JSONObject;
+import merrimackutil.json.types.JSONType;
+
+/**
+ * The leader's ordered log of changes. Every committed post and account is
+ * appended with a log sequence number (LSN) and shipped to the followers in
+ * LSN order. Each leader process has a random epoch so that a follower can
+ * tell when the leader has restarted and its LSNs no longer line up.
+ *
+ * Only the newest entries are kept. A follower that needs older entries is
+ * sent a snapshot instead, so the log does not have to reach back to the
+ * start of the board.
+ */
+public class ReplicationLog {
+    /** Log operation for a committed post. */
+    public static final String OP_POST = "post";
+    /** Log operation for a created account. */
+    public static final String OP_USER = "user";
+    /** Log operation for posts tombstoned by their recipient. */
+    public static final String OP_DELETE = "delete";
+
+    private static final int MAX_ENTRIES = 100000;
+    private static final int TRIM_ENTRIES = MAX_ENTRIES / 10;
+
+    private final String epoch = UUID.randomUUID().toString();
+    private final List<JSONObject> entries = new ArrayList<>();
+    private long firstLsn = 1;
+
+    /**
+     * Gets the epoch of this log.
+     * @return the epoch identifier.
+     */
+    public String getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * Appends a change to the log and wakes up waiting shippers.
+     * @param op the operation, one of the {@code OP_} constants.
+     * @param data the JSON encoding of the changed object.
+     * @return the LSN assigned to the entry.
+     */
+    public synchronized long append(String op, JSONType data) {
+        if (entries.size() >= MAX_ENTRIES) {
+            entries.subList(0, TRIM_ENTRIES).clear();
+            firstLsn += TRIM_ENTRIES;
+        }
+
+        long lsn = firstLsn + entries.size();
+        JSONObject entry = new JSONObject();
+        entry.put("lsn", lsn);
+        entry.put("op", op);
+        entry.put("data", data);
+        entries.add(entry);
+        notifyAll();
+        return lsn;
+    }
+
+    /**
+     * Gets the LSN of the newest entry.
+     * @return the last LSN or 0 if the log is empty.
+     */
+    public synchronized long getLastLsn() {
+        return firstLsn + entries.size() - 1;
+    }
+
+    /**
+     * Gets the LSN of the oldest entry still kept.
+     * @return the first LSN.
+     */
+    public synchronized long getFirstLsn() {
+        return firstLsn;
+    }
+
+    /**
+     * Reads entries starting at an LSN, waiting for new entries if the reader
+     * is already caught up.
+     * @param from the first LSN to return.
+     * @param max the maximum number of entries to return.
+     * @param waitMs how long to wait for new entries.
+     * @return the entries, possibly empty if the wait timed out.
+     * @throws LogTrimmedException if entries from {@code from} on were trimmed,
+     *         before or during the wait.
+     * @throws InterruptedException if the wait is interrupted.
+     */
+    public synchronized List<JSONObject> readFrom(long from, int max, long waitMs)
+            throws LogTrimmedException, InterruptedException {
+        if (from > getLastLsn() && waitMs > 0)
+            wait(waitMs);
+        // Skipping ahead would hand the reader entries after a gap
+        if (from < firstLsn)
+            throw new LogTrimmedException(from, firstLsn);
+
+        List<JSONObject> batch = new ArrayList<>();
+        for (long lsn = from; lsn <= getLastLsn() && batch.size() < max; lsn++)
+            batch.add(entries.get((int) (lsn - firstLsn)));
+        return batch;
+    }
+}
@@ -0,0 +1,78 @@
+package server.replication;
+
+/**
+ * Replication lag metrics of a follower. The entry lag is the number of log
+ * entries the leader has committed that the follower has not applied yet.
+ * The time lag is how long ago the leader sent the newest batch the follower
+ * has applied; it assumes the two clocks are in sync, which holds for nodes
+ * on the same host.
+ */
+public class ReplicationMetrics {
+    private volatile boolean connected;
+    private volatile long appliedLsn;
+    private volatile long leaderLsn;
+    private volatile long lastLeaderTs;
+    private volatile long entriesApplied;
+    private volatile long reconnects;
+
+    /**
+     * Records the state of the connection to the leader.
+     * @param connected true if the follower is connected.
+     */
+    void setConnected(boolean connected) {
+        if (this.connected && !connected)
+            reconnects++;
+        this.connected = connected;
+    }
+
+    /**
+     * Records a batch that has been applied.
+     * @param appliedLsn the newest LSN applied locally.
+     * @param leaderLsn the newest LSN on the leader.
+     * @param leaderTs the leader's clock when the batch was sent.
+     * @param count the number of entries in the batch.
+     */
+    void recordBatch(long appliedLsn, long leaderLsn, long leaderTs, int count) {
+        this.appliedLsn = appliedLsn;
+        this.leaderLsn = leaderLsn;
+        this.lastLeaderTs = leaderTs;
+        this.entriesApplied += count;
+    }
+
+    /**
+     * Gets the number of entries the follower is behind the leader.
+     * @return the lag in log entries.
+     */
+    public long getEntryLag() {
+        return Math.max(0, leaderLsn - appliedLsn);
+    }
+
+    /**
+     * Gets how stale the follower's view of the leader is.
+     * @return the lag in milliseconds, or -1 if no batch was received yet.
+     */
+    public long getTimeLagMs() {
+        if (lastLeaderTs == 0)
+            return -1;
+        return Math.max(0, System.currentTimeMillis() - lastLeaderTs);
+    }
+
+    /**
+     * Describes the metrics as comma separated key=value pairs.
+     * @return the description.
+     */
+    public String describe() {
+        return "role=follower, connected=" + connected + ", applied-lsn=" + appliedLsn
+            + ", leader-lsn=" + leaderLsn + ", lag-entries=" + getEntryLag() + ", lag-ms=" + getTimeLagMs()
+            + ", entries-applied=" + entriesApplied + ", reconnects=" + reconnects;
+    }
+
+    /**
+     * Returns a one line summary of the metrics.
+     * @return the summary.
+     */
+    @Override
+    public String toString() {
+        return "[REPLICATION] " + describe();
+    }
+}
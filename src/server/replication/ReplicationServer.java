@@ -0,0 +1,174 @@
+package server.replication;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.SSLServerSocketFactory;
+
+import common.Board;
+import common.protocol.Message;
+import common.protocol.ProtocolChannel;
+import common.protocol.post.Post;
+import common.protocol.user_auth.User;
+import common.protocol.user_auth.UserDatabase;
+import merrimackutil.json.types.JSONObject;
+import server.snapshot.Snapshot;
+
+/**
+ * Leader side of log shipping. Listens on the replication port and streams
+ * the {@link ReplicationLog} to every follower that connects, starting from
+ * the LSN the follower asks for. A follower from another epoch, or one that
+ * is behind the oldest entry still in the log, is first sent a snapshot of
+ * the board and the users; so is a connected follower the log is trimmed
+ * past.
+ */
+public class ReplicationServer implements Runnable {
+    private static final int BATCH_SIZE = 256;
+    private static final long HEARTBEAT_MS = 1000;
+    private static final int SNAPSHOT_CHUNK = 512 * 1024;
+
+    private final ReplicationLog log;
+    private final Board board;
+    private final int port;
+    private final String secret;
+    private final ExecutorService shippers = Executors.newCachedThreadPool();
+
+    /**
+     * Creates a replication server.
+     * @param log the leader's log.
+     * @param board the leader's board.
+     * @param port the port followers connect to.
+     * @param secret the secret followers must present.
+     */
+    public ReplicationServer(ReplicationLog log, Board board, int port, String secret) {
+        this.log = log;
+        this.board = board;
+        this.port = port;
+        this.secret = secret;
+    }
+
+    /**
+     * Accepts follower connections until the process exits.
+     */
+    @Override
+    public void run() {
+        try {
+            SSLServerSocketFactory sslFactory = (SSLServerSocketFactory) SSLServerSocketFactory.getDefault();
+            SSLServerSocket server = (SSLServerSocket) sslFactory.createServerSocket(port);
+            System.out.println("[REPLICATION] Leader accepting followers on port " + port);
+
+            while (true) {
+                Socket sock = server.accept();
+                shippers.submit(() -> ship(sock));
+            }
+        } catch (IOException e) {
+            System.err.println("[REPLICATION] Replication listener failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Streams the log to a single follower until it disconnects.
+     * @param sock the follower's socket.
+     */
+    private void ship(Socket sock) {
+        ProtocolChannel channel = null;
+        try {
+            channel = new ProtocolChannel(sock);
+            channel.addMessageType(new ReplicateRequest());
+
+            Message msg = channel.receiveMessage();
+            if (!(msg instanceof ReplicateRequest)) {
+                System.err.println("[REPLICATION] Unexpected message from follower: " + msg);
+                return;
+            }
+
+            ReplicateRequest req = (ReplicateRequest) msg;
+            if (!MessageDigest.isEqual(secret.getBytes(StandardCharsets.UTF_8),
+                    req.getSecret().getBytes(StandardCharsets.UTF_8))) {
+                System.err.println("[REPLICATION] Rejected follower with a bad secret: " + sock.getRemoteSocketAddress());
+                return;
+            }
+
+            // A follower from another epoch has LSNs that mean nothing here,
+            // and one behind the log can't be caught up from it; both start
+            // over from a snapshot.
+            long next = req.getFrom();
+            if (!log.getEpoch().equals(req.getEpoch()) || next < log.getFirstLsn()) {
+                next = sendSnapshot(channel) + 1;
+                if (channel.checkError())
+                    return;
+            }
+            System.out.println("[REPLICATION] Follower " + sock.getRemoteSocketAddress()
+                + " tailing from LSN " + next);
+
+            while (true) {
+                List<JSONObject> entries;
+                try {
+                    entries = log.readFrom(next, BATCH_SIZE, HEARTBEAT_MS);
+                } catch (LogTrimmedException e) {
+                    // The follower fell behind the log while connected, start it over
+                    System.out.println("[REPLICATION] Follower " + sock.getRemoteSocketAddress()
+                        + " fell behind: " + e.getMessage());
+                    next = sendSnapshot(channel) + 1;
+                    if (channel.checkError())
+                        break;
+                    continue;
+                }
+                channel.sendMessage(new ReplicateBatch(log.getEpoch(), log.getLastLsn(),
+                    System.currentTimeMillis(), entries));
+                if (channel.checkError())
+                    break;
+                next += entries.size();
+            }
+            System.out.println("[REPLICATION] Follower " + sock.getRemoteSocketAddress() + " disconnected at LSN " + (next - 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            System.err.println("[REPLICATION] Shipping to follower failed: " + e.getMessage());
+        } finally {
+            if (channel != null)
+                channel.closeChannel();
+        }
+    }
+
+    /**
+     * Streams a snapshot of the board and the users in chunks. Posts are
+     * logged under the board's lock, so copying the board and reading the
+     * last LSN under that lock gives an LSN that matches the posts. An
+     * account created while the copy is taken may be both in the snapshot
+     * and in the log after it, which is harmless.
+     * @param channel the follower's channel.
+     * @return the LSN the snapshot is current to.
+     */
+    private long sendSnapshot(ProtocolChannel channel) {
+        List<Post> posts;
+        List<User> users;
+        Map<String, Long> postSequences;
+        long lsn;
+        synchronized (board) {
+            posts = board.getPostsSnapshot();
+            postSequences = board.getSequences();
+            users = new ArrayList<>(UserDatabase.getAll());
+            lsn = log.getLastLsn();
+        }
+
+        byte[] data = Snapshot.encode(lsn, users, posts, postSequences);
+        for (int off = 0; off < data.length; off += SNAPSHOT_CHUNK) {
+            int len = Math.min(SNAPSHOT_CHUNK, data.length - off);
+            String chunk = Base64.getEncoder().encodeToString(Arrays.copyOfRange(data, off, off + len));
+            channel.sendMessage(new ReplicateSnapshot(log.getEpoch(), lsn, off + len == data.length, chunk));
+        }
+        System.out.println("[REPLICATION] Sent a snapshot at LSN " + lsn + " (" + data.length + " bytes).");
+        return lsn;
+    }
+}
@@ -0,0 +1,69 @@
+package server.replication;
+
+import common.protocol.Message;
+import merrimackutil.json.types.JSONObject;
+import merrimackutil.json.types.JSONType;
+
+import java.io.InvalidObjectException;
+
+/**
+ * Asks a server for its replication state. The server answers with a
+ * StatusMessage whose payload lists the role, the LSNs and, on a follower,
+ * the replication lag as comma separated key=value pairs.
+ */
+public class ReplicationStatusRequest implements Message {
+
+    public ReplicationStatusRequest() {}
+
+    /**
+     * Gets the message type as a string.
+     * @return the message type as a string.
+     */
+    @Override
+    public String getType() {
+        return "ReplicationStatus";
+    }
+
+    /**
+     * Converts the object to a JSON type.
+     * @return a JSON type either JSONObject or JSONArray.
+     */
+    @Override
+    public JSONType toJSONType() {
+        JSONObject obj = new JSONObject();
+        obj.put("type", getType());
+        return obj;
+    }
+
+    /**
+     * Deserialize a JSON object into a ReplicationStatusRequest instance.
+     * @param obj the JSON object to deserialize
+     * @throws InvalidObjectException if the object is not a JSON object
+     */
+    @Override
+    public void deserialize(JSONType obj) throws InvalidObjectException {
+        if (!(obj instanceof JSONObject)) {
+            throw new InvalidObjectException("Expected JSONObject.");
+        }
+    }
+
+    /**
+     * Decodes a JSON object into a ReplicationStatusRequest instance.
+     * @param obj the JSON object to decode
+     * @return a ReplicationStatusRequest instance
+     * @throws InvalidObjectException if the object is not a valid JSONObject
+     */
+    @Override
+    public Message decode(JSONObject obj) throws InvalidObjectException {
+        return new ReplicationStatusRequest();
+    }
+
+    /**
+     * Returns a string representation of the object.
+     * @return a string representation of the object
+     */
+    @Override
+    public String toString() {
+        return "[ReplicationStatus]";
+    }
+}
@@ -0,0 +1,102 @@
+package server.retention;
+
+import merrimackutil.json.JSONSerializable;
+import merrimackutil.json.types.JSONObject;
+import merrimackutil.json.types.JSONType;
+
+import java.io.InvalidObjectException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The "retention" section of the configuration file. The "board" policy
+ * bounds the whole board, the "mailbox" policy bounds every recipient's
+ * mailbox and "recipients" overrides the mailbox policy for named users.
+ * Every part is optional.
+ */
+public class RetentionConfig implements JSONSerializable {
+    private RetentionPolicy board = new RetentionPolicy();
+    private RetentionPolicy mailbox = new RetentionPolicy();
+    private Map<String, RetentionPolicy> recipients = new HashMap<>();
+
+    /**
+     * Constructs the retention configuration from its JSON object.
+     * @param obj the "retention" object of the configuration file.
+     * @throws InvalidObjectException if the object is not valid.
+     */
+    public RetentionConfig(JSONObject obj) throws InvalidObjectException {
+        deserialize(obj);
+    }
+
+    /**
+     * Gets the policy for the whole board.
+     * @return the board policy.
+     */
+    public RetentionPolicy getBoard() {
+        return board;
+    }
+
+    /**
+     * Gets the mailbox policy of a recipient.
+     * @param user the recipient.
+     * @return the recipient's own policy, or the default mailbox policy.
+     */
+    public RetentionPolicy policyFor(String user) {
+        return recipients.getOrDefault(user, mailbox);
+    }
+
+    /**
+     * Gets the age after which a recipient's posts expire, the tighter of the
+     * board and mailbox limits.
+     * @param user the recipient.
+     * @return the age in seconds, 0 if posts never expire.
+     */
+    public long maxAgeFor(String user) {
+        long boardAge = board.getMaxAge();
+        long mailboxAge = policyFor(user).getMaxAge();
+        if (boardAge == 0)
+            return mailboxAge;
+        if (mailboxAge == 0)
+            return boardAge;
+        return Math.min(boardAge, mailboxAge);
+    }
+
+    /**
+     * Converts JSON data to an object of this type.
+     * @param obj a JSON type to deserialize.
+     * @throws InvalidObjectException the type does not match this object.
+     */
+    @Override
+    public void deserialize(JSONType obj) throws InvalidObjectException {
+        if (!obj.isObject()) {
+            throw new InvalidObjectException("RetentionConfig -- received array, expected Object.");
+        }
+        JSONObject retention = (JSONObject) obj;
+        if (retention.containsKey("board"))
+            board = new RetentionPolicy(retention.getObject("board"));
+        if (retention.containsKey("mailbox"))
+            mailbox = new RetentionPolicy(retention.getObject("mailbox"));
+        if (retention.containsKey("recipients")) {
+            JSONObject overrides = retention.getObject("recipients");
+            for (String user : overrides.keySet())
+                recipients.put(user, new RetentionPolicy(overrides.getObject(user)));
+        }
+    }
+
+    /**
+     * Converts the object to a JSON type.
+     * @return a JSON type either JSONObject or JSONArray.
+     */
+    @Override
+    public JSONType toJSONType() {
+        JSONObject overrides = new JSONObject();
+        for (Map.Entry<String, RetentionPolicy> entry : recipients.entrySet())
+            overrides.put(entry.getKey(), entry.getValue().toJSONType());
+
+        JSONObject obj = new JSONObject();
+        obj.put("board", board.toJSONType());
+        obj.put("mailbox", mailbox.toJSONType());
+        obj.put("recipients", overrides);
+        return obj;
+    }
+}
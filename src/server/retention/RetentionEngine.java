@@ -0,0 +1,150 @@
+package server.retention;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import common.Board;
+import common.protocol.post.Post;
+import server.Tombstoner;
+
+/**
+ * Enforces the retention policies. Every post with a maximum age is put on a
+ * timer wheel when it is admitted and tombstoned when its timer fires, so
+ * expiry costs nothing per tick beyond the posts that are due. Count and
+ * size limits are enforced when a post is admitted by evicting the oldest
+ * live posts of the mailbox, then of the board. Expired and evicted posts
+ * go through the same tombstone path as acknowledged ones and are removed
+ * from storage by the compactor.
+ */
+public class RetentionEngine implements Runnable {
+    private static final long TICK_MS = 1000;
+
+    private final Board board;
+    private final RetentionConfig config;
+    private final Tombstoner tombstoner;
+    private final TimerWheel<Post> wheel = new TimerWheel<>(TICK_MS, System.currentTimeMillis());
+
+    /**
+     * Creates a retention engine.
+     * @param board the board.
+     * @param config the retention policies.
+     * @param tombstoner deletes posts and logs the deletes.
+     */
+    public RetentionEngine(Board board, RetentionConfig config, Tombstoner tombstoner) {
+        this.board = board;
+        this.config = config;
+        this.tombstoner = tombstoner;
+    }
+
+    /**
+     * Schedules the posts already on the board, brings every mailbox within
+     * its limits and starts the expiry thread.
+     */
+    public void start() {
+        int removed = 0;
+        synchronized (board) {
+            for (Post post : board.getPostsSnapshot())
+                schedule(post);
+            for (String user : board.getRecipients())
+                removed += enforce(user);
+            if (removed > 0)
+                board.saveToFile();
+        }
+        System.out.println("[RETENTION] Tracking " + wheel.size() + " expiring posts, evicted " + removed + ".");
+        new Thread(this, "retention").start();
+    }
+
+    /**
+     * Check if a post can be stored at all under its recipient's size limits.
+     * @param post the post.
+     * @return true if the post is not larger than the mailbox or board limit.
+     */
+    public boolean fits(Post post) {
+        long mailboxBytes = config.policyFor(post.getUser()).getMaxBytes();
+        long boardBytes = config.getBoard().getMaxBytes();
+        return (mailboxBytes == 0 || post.getSize() <= mailboxBytes)
+            && (boardBytes == 0 || post.getSize() <= boardBytes);
+    }
+
+    /**
+     * Applies the policies to a post that was just added to the board. The
+     * caller holds the board lock and saves the board afterwards.
+     * @param post the post.
+     * @return the number of older posts evicted to make room.
+     */
+    public int admit(Post post) {
+        synchronized (board) {
+            schedule(post);
+            return enforce(post.getUser());
+        }
+    }
+
+    /**
+     * Puts a post on the timer wheel if its recipient has a maximum age.
+     */
+    private void schedule(Post post) {
+        long maxAge = config.maxAgeFor(post.getUser());
+        if (maxAge > 0)
+            wheel.schedule(post, post.getTimestamp() + maxAge * 1000);
+    }
+
+    /**
+     * Evicts the oldest posts until the recipient's mailbox and the board
+     * are within their count and size limits.
+     */
+    private int enforce(String user) {
+        int removed = 0;
+        RetentionPolicy mailbox = config.policyFor(user);
+        while (mailbox.isExceeded(board.getMailboxCount(user), board.getMailboxBytes(user))) {
+            Post oldest = board.oldestLive(user);
+            if (oldest == null)
+                break;
+            removed += tombstoner.tombstone(user, Collections.singletonList(oldest.getId()));
+        }
+
+        RetentionPolicy whole = config.getBoard();
+        while (whole.isExceeded(board.getLiveCount(), board.getLiveBytes())) {
+            Post oldest = board.oldestLive();
+            if (oldest == null)
+                break;
+            removed += tombstoner.tombstone(oldest.getUser(), Collections.singletonList(oldest.getId()));
+        }
+        return removed;
+    }
+
+    /**
+     * Advances the timer wheel once per tick and tombstones the posts that
+     * expired, one delete per recipient.
+     */
+    @Override
+    public void run() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                Thread.sleep(TICK_MS);
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            List<Post> expired = wheel.advance(System.currentTimeMillis());
+            if (expired.isEmpty())
+                continue;
+
+            Map<String, List<String>> byUser = new LinkedHashMap<>();
+            for (Post post : expired)
+                byUser.computeIfAbsent(post.getUser(), k -> new ArrayList<>()).add(post.getId());
+
+            int removed = 0;
+            synchronized (board) {
+                for (Map.Entry<String, List<String>> entry : byUser.entrySet())
+                    removed += tombstoner.tombstone(entry.getKey(), entry.getValue());
+                if (removed > 0)
+                    board.saveToFile();
+            }
+            if (removed > 0)
+                System.out.println("[RETENTION] Expired " + removed + " posts.");
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package server.retention;
+
+import merrimackutil.json.JSONSerializable;
+import merrimackutil.json.types.JSONObject;
+import merrimackutil.json.types.JSONType;
+
+import java.io.InvalidObjectException;
+
+/**
+ * Limits on how much mail is kept: a maximum age, a maximum number of posts
+ * and a maximum total size. A limit of 0 means unlimited.
+ */
+public class RetentionPolicy implements JSONSerializable {
+    private long maxAge;
+    private int maxCount;
+    private long maxBytes;
+
+    /**
+     * Constructs a policy without limits.
+     */
+    public RetentionPolicy() {}
+
+    /**
+     * Constructs a policy from its JSON object.
+     * @param obj the JSON object with optional "max-age", "max-count" and "max-bytes" fields.
+     * @throws InvalidObjectException if the object is not valid.
+     */
+    public RetentionPolicy(JSONObject obj) throws InvalidObjectException {
+        deserialize(obj);
+    }
+
+    /**
+     * Gets the maximum age of a post.
+     * @return the age in seconds, 0 for unlimited.
+     */
+    public long getMaxAge() {
+        return maxAge;
+    }
+
+    /**
+     * Gets the maximum number of posts.
+     * @return the count, 0 for unlimited.
+     */
+    public int getMaxCount() {
+        return maxCount;
+    }
+
+    /**
+     * Gets the maximum total size of the posts.
+     * @return the size in bytes, 0 for unlimited.
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Check if a set of posts is over the count or size limit.
+     * @param count the number of posts.
+     * @param bytes the total size of the posts.
+     * @return true if the oldest posts must go.
+     */
+    public boolean isExceeded(int count, long bytes) {
+        return (maxCount > 0 && count > maxCount) || (maxBytes > 0 && bytes > maxBytes);
+    }
+
+    /**
+     * Converts JSON data to an object of this type.
+     * @param obj a JSON type to deserialize.
+     * @throws InvalidObjectException the type does not match this object.
+     */
+    @Override
+    public void deserialize(JSONType obj) throws InvalidObjectException {
+        if (!obj.isObject()) {
+            throw new InvalidObjectException("RetentionPolicy -- received array, expected Object.");
+        }
+        JSONObject policy = (JSONObject) obj;
+        if (policy.containsKey("max-age"))
+            maxAge = policy.getLong("max-age");
+        if (policy.containsKey("max-count"))
+            maxCount = policy.getInt("max-count");
+        if (policy.containsKey("max-bytes"))
+            maxBytes = policy.getLong("max-bytes");
+        if (maxAge < 0 || maxCount < 0 || maxBytes < 0)
+            throw new InvalidObjectException("RetentionPolicy -- limits can't be negative.");
+    }
+
+    /**
+     * Converts the object to a JSON type.
+     * @return a JSON type either JSONObject or JSONArray.
+     */
+    @Override
+    public JSONType toJSONType() {
+        JSONObject obj = new JSONObject();
+        obj.put("max-age", maxAge);
+        obj.put("max-count", maxCount);
+        obj.put("max-bytes", maxBytes);
+        return obj;
+    }
+}
@@ -0,0 +1,128 @@
+package server.retention;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A hierarchical timing wheel. Four wheels of 64 slots each cover 64 ticks,
+ * 64^2 ticks, 64^3 ticks and 64^4 ticks ahead. A timer goes into the
+ * coarsest slot that still separates it from now; when the finest wheel
+ * wraps, the next slot of the wheel above is cascaded down. Scheduling and
+ * expiry are O(1) per timer, and a tick only touches the timers that are due
+ * or being cascaded, never the whole set.
+ *
+ * With a one second tick the wheels reach about 194 days ahead. Timers
+ * further out park in the top wheel and are placed again when it cascades.
+ *
+ * @param <T> the type of the scheduled items.
+ */
+public class TimerWheel<T> {
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int LEVELS = 4;
+    private static final long SPAN = 1L << (SLOT_BITS * LEVELS);
+
+    private static class Timer<T> {
+        private final T item;
+        private final long deadline;
+
+        private Timer(T item, long deadline) {
+            this.item = item;
+            this.deadline = deadline;
+        }
+    }
+
+    private final long tickMs;
+    private final List<List<Timer<T>>> slots = new ArrayList<>();
+    private long now;
+    private int size;
+
+    /**
+     * Creates a timer wheel.
+     * @param tickMs the length of a tick in milliseconds.
+     * @param startMs the current time in milliseconds since the epoch.
+     */
+    public TimerWheel(long tickMs, long startMs) {
+        this.tickMs = tickMs;
+        this.now = startMs / tickMs;
+        for (int i = 0; i < LEVELS * SLOTS; i++)
+            slots.add(new ArrayList<>());
+    }
+
+    /**
+     * Schedules an item. An item that is already due fires on the next tick.
+     * @param item the item.
+     * @param deadlineMs when the item is due, in milliseconds since the epoch.
+     */
+    public synchronized void schedule(T item, long deadlineMs) {
+        long deadline = Math.max((deadlineMs + tickMs - 1) / tickMs, now + 1);
+        place(new Timer<>(item, deadline));
+        size++;
+    }
+
+    /**
+     * Gets the number of scheduled items.
+     * @return the number of items.
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Advances the wheel to the current time.
+     * @param nowMs the current time in milliseconds since the epoch.
+     * @return the items that came due, in deadline order.
+     */
+    public synchronized List<T> advance(long nowMs) {
+        long target = nowMs / tickMs;
+        List<T> due = new ArrayList<>();
+        while (now < target) {
+            now++;
+            // Cascade every wheel whose slot boundary this tick crosses
+            for (int level = 1; level < LEVELS; level++) {
+                if ((now & ((1L << (SLOT_BITS * level)) - 1)) != 0)
+                    break;
+                cascade(level, (int) ((now >> (SLOT_BITS * level)) & (SLOTS - 1)));
+            }
+
+            List<Timer<T>> slot = slots.get((int) (now & (SLOTS - 1)));
+            List<Timer<T>> fired = new ArrayList<>(slot);
+            slot.clear();
+            for (Timer<T> timer : fired) {
+                if (timer.deadline <= now) {
+                    due.add(timer.item);
+                    size--;
+                } else {
+                    place(timer);
+                }
+            }
+        }
+        return due;
+    }
+
+    /**
+     * Moves the timers of one slot down to finer wheels.
+     */
+    private void cascade(int level, int index) {
+        List<Timer<T>> slot = slots.get(level * SLOTS + index);
+        List<Timer<T>> moved = new ArrayList<>(slot);
+        slot.clear();
+        for (Timer<T> timer : moved)
+            place(timer);
+    }
+
+    /**
+     * Puts a timer into the coarsest slot that fires no later than its
+     * deadline. A timer due now goes into the current slot of the finest
+     * wheel, which {@link #advance(long)} processes right after cascading.
+     */
+    private void place(Timer<T> timer) {
+        long delta = Math.min(Math.max(timer.deadline - now, 0), SPAN - 1);
+        long tick = now + delta;
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= 1L << (SLOT_BITS * (level + 1)))
+            level++;
+        int index = (int) ((tick >> (SLOT_BITS * level)) & (SLOTS - 1));
+        slots.get(level * SLOTS + index).add(timer);
+    }
+}
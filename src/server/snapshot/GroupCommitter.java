@@ -0,0 +1,166 @@
+package server.snapshot;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Makes logged changes durable before their callers are answered. A caller
+ * appends its record to the change log, releases the board lock and then
+ * calls {@link #commit()}. What happens next depends on the mode:
+ * <ul>
+ *   <li>"none": nothing, the log is left to the operating system.</li>
+ *   <li>"per-post": the caller syncs the log itself.</li>
+ *   <li>"batched": the caller waits while a single writer syncs the log once
+ *       for every caller that queued up within the batch size or the time
+ *       window, so one fsync covers many posts.</li>
+ * </ul>
+ */
+public class GroupCommitter implements Runnable {
+    public static final String MODE_NONE = "none";
+    public static final String MODE_BATCHED = "batched";
+    public static final String MODE_PER_POST = "per-post";
+
+    /**
+     * Forces everything appended to the log so far to stable storage.
+     */
+    public interface Syncer {
+        void sync() throws IOException;
+    }
+
+    // A caller waiting for its batch
+    private static class Waiter {
+        private boolean done;
+        private boolean ok;
+    }
+
+    private final String mode;
+    private final int batchSize;
+    private final long windowMs;
+    private final Syncer syncer;
+    private final ArrayDeque<Waiter> queue = new ArrayDeque<>();
+    private long batches;
+    private long commits;
+
+    /**
+     * Creates a group committer.
+     * @param mode the durability mode, "none", "batched" or "per-post".
+     * @param batchSize the number of waiting callers that triggers a sync.
+     * @param windowMs the longest the first caller of a batch waits for others.
+     * @param syncer syncs the change log.
+     */
+    public GroupCommitter(String mode, int batchSize, int windowMs, Syncer syncer) {
+        this.mode = mode;
+        this.batchSize = batchSize;
+        this.windowMs = windowMs;
+        this.syncer = syncer;
+    }
+
+    /**
+     * Starts the writer thread in batched mode.
+     */
+    public void start() {
+        if (MODE_BATCHED.equals(mode)) {
+            Thread writer = new Thread(this, "group-commit");
+            writer.setDaemon(true);
+            writer.start();
+            System.out.println("[COMMIT] Syncing the change log every " + batchSize + " posts or " + windowMs + " ms.");
+        } else {
+            System.out.println("[COMMIT] Durability mode " + mode + ".");
+        }
+    }
+
+    /**
+     * Waits until every change the caller logged is durable.
+     * @return false if the log could not be synced.
+     */
+    public boolean commit() {
+        if (MODE_NONE.equals(mode))
+            return true;
+        if (MODE_PER_POST.equals(mode))
+            return sync();
+
+        Waiter waiter = new Waiter();
+        synchronized (this) {
+            queue.addLast(waiter);
+            if (queue.size() == 1 || queue.size() >= batchSize)
+                notifyAll();
+            try {
+                while (!waiter.done)
+                    wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return waiter.ok;
+    }
+
+    /**
+     * Checks whether commits sync the change log. The log is then the
+     * durable record of every change and the board store only needs to be
+     * written when a snapshot is taken.
+     * @return false in mode "none".
+     */
+    public boolean isDurable() {
+        return !MODE_NONE.equals(mode);
+    }
+
+    /**
+     * Gets the average number of commits per sync in batched mode.
+     * @return the average batch size.
+     */
+    public synchronized double getAverageBatch() {
+        return batches == 0 ? 0 : (double) commits / batches;
+    }
+
+    /**
+     * Collects callers into batches and syncs the log once per batch.
+     */
+    @Override
+    public void run() {
+        while (!Thread.currentThread().isInterrupted()) {
+            List<Waiter> batch;
+            synchronized (this) {
+                try {
+                    while (queue.isEmpty())
+                        wait();
+                    // Give other posts the rest of the window to join
+                    long deadline = System.currentTimeMillis() + windowMs;
+                    long left;
+                    while (queue.size() < batchSize && (left = deadline - System.currentTimeMillis()) > 0)
+                        wait(left);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                batch = new ArrayList<>(queue);
+                queue.clear();
+            }
+
+            boolean ok = sync();
+            synchronized (this) {
+                for (Waiter waiter : batch) {
+                    waiter.done = true;
+                    waiter.ok = ok;
+                }
+                batches++;
+                commits += batch.size();
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Syncs the log, reporting failures.
+     */
+    private boolean sync() {
+        try {
+            syncer.sync();
+            return true;
+        } catch (IOException e) {
+            System.err.println("[COMMIT] Syncing the change log failed: " + e.getMessage());
+            return false;
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package server.snapshot;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import common.protocol.post.Post;
+import common.protocol.user_auth.User;
+
+/**
+ * A point-in-time copy of the board and the user database in a compact
+ * binary form. Strings are stored length-prefixed in UTF-8 so a snapshot can
+ * be decoded straight out of a memory-mapped file without a JSON parse.
+ *
+ * Layout, big-endian:
+ * <pre>
+ *   int    magic "BBS4"
+ *   long   sequence number of the last change included
+ *   int    user count, then per user: user, salt, pass, totp-key, pubkey
+ *   int    post count, then per post: id, long ts, long seq, user, message, wrappedkey, iv, type
+ *   int    recipient count, then per recipient: user, long last post sequence number
+ *   int    CRC-32 of everything before it
+ * </pre>
+ */
+public class Snapshot {
+    private static final int MAGIC = 0x42425334;
+
+    private final long sequence;
+    private final List<User> users;
+    private final List<Post> posts;
+    private final Map<String, Long> postSequences;
+
+    /**
+     * Creates a snapshot.
+     * @param sequence the sequence number of the last change included.
+     * @param users the accounts.
+     * @param posts the posts in board order.
+     * @param postSequences the last post sequence number of every recipient.
+     */
+    public Snapshot(long sequence, List<User> users, List<Post> posts, Map<String, Long> postSequences) {
+        this.sequence = sequence;
+        this.users = users;
+        this.posts = posts;
+        this.postSequences = postSequences;
+    }
+
+    /**
+     * Gets the sequence number of the last change in the snapshot.
+     * @return the sequence number.
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Gets the accounts in the snapshot.
+     * @return the users.
+     */
+    public List<User> getUsers() {
+        return users;
+    }
+
+    /**
+     * Gets the posts in the snapshot.
+     * @return the posts in board order.
+     */
+    public List<Post> getPosts() {
+        return posts;
+    }
+
+    /**
+     * Gets the last post sequence number of every recipient, including
+     * recipients whose posts have all been deleted.
+     * @return the sequence numbers by recipient.
+     */
+    public Map<String, Long> getPostSequences() {
+        return postSequences;
+    }
+
+    /**
+     * Encodes a snapshot.
+     * @param sequence the sequence number of the last change included.
+     * @param users the accounts.
+     * @param posts the posts in board order.
+     * @param postSequences the last post sequence number of every recipient.
+     * @return the encoded snapshot.
+     */
+    public static byte[] encode(long sequence, Collection<User> users, List<Post> posts,
+        Map<String, Long> postSequences) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.writeLong(sequence);
+            out.writeInt(users.size());
+            for (User user : users)
+                writeUser(out, user);
+            out.writeInt(posts.size());
+            for (Post post : posts)
+                writePost(out, post);
+            out.writeInt(postSequences.size());
+            for (Map.Entry<String, Long> entry : postSequences.entrySet()) {
+                writeString(out, entry.getKey());
+                out.writeLong(entry.getValue());
+            }
+            out.flush();
+
+            CRC32 crc = new CRC32();
+            crc.update(bytes.toByteArray());
+            out.writeInt((int) crc.getValue());
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException("In-memory write failed", e);
+        }
+    }
+
+    /**
+     * Decodes a snapshot after checking its checksum.
+     * @param buf the encoded snapshot, e.g. a mapped file.
+     * @return the snapshot.
+     * @throws InvalidObjectException if the data is not an intact snapshot.
+     */
+    public static Snapshot decode(ByteBuffer buf) throws InvalidObjectException {
+        if (buf.remaining() < 24)
+            throw new InvalidObjectException("Snapshot is truncated.");
+
+        ByteBuffer body = buf.slice(buf.position(), buf.remaining() - 4);
+        CRC32 crc = new CRC32();
+        crc.update(body.duplicate());
+        if ((int) crc.getValue() != buf.getInt(buf.limit() - 4))
+            throw new InvalidObjectException("Snapshot checksum mismatch.");
+
+        try {
+            if (body.getInt() != MAGIC)
+                throw new InvalidObjectException("Not a snapshot.");
+            long sequence = body.getLong();
+
+            int userCount = body.getInt();
+            List<User> users = new ArrayList<>(userCount);
+            for (int i = 0; i < userCount; i++)
+                users.add(readUser(body));
+
+            int postCount = body.getInt();
+            List<Post> posts = new ArrayList<>(postCount);
+            for (int i = 0; i < postCount; i++)
+                posts.add(readPost(body));
+
+            int recipientCount = body.getInt();
+            Map<String, Long> postSequences = new HashMap<>();
+            for (int i = 0; i < recipientCount; i++)
+                postSequences.put(readString(body), body.getLong());
+            return new Snapshot(sequence, users, posts, postSequences);
+        } catch (RuntimeException e) {
+            throw new InvalidObjectException("Malformed snapshot: " + e);
+        }
+    }
+
+    /**
+     * Writes an account in snapshot form.
+     * @param out the stream.
+     * @param user the account.
+     * @throws IOException if the write fails.
+     */
+    public static void writeUser(DataOutputStream out, User user) throws IOException {
+        writeString(out, user.getUser());
+        writeString(out, user.getSalt());
+        writeString(out, user.getPass());
+        writeString(out, user.getTotpKey());
+        writeString(out, user.getPubkey());
+    }
+
+    /**
+     * Reads an account in snapshot form.
+     * @param buf the buffer.
+     * @return the account.
+     */
+    public static User readUser(ByteBuffer buf) {
+        String name = readString(buf);
+        String salt = readString(buf);
+        String pass = readString(buf);
+        String totpKey = readString(buf);
+        String pubkey = readString(buf);
+        return new User(salt, pass, totpKey, name, pubkey);
+    }
+
+    /**
+     * Writes a post in snapshot form.
+     * @param out the stream.
+     * @param post the post.
+     * @throws IOException if the write fails.
+     */
+    public static void writePost(DataOutputStream out, Post post) throws IOException {
+        writeString(out, post.getId());
+        out.writeLong(post.getTimestamp());
+        out.writeLong(post.getSeq());
+        writeString(out, post.getUser());
+        writeString(out, post.getMessage());
+        writeString(out, post.getWrappedKey());
+        writeString(out, post.getIv());
+        writeString(out, post.getType());
+    }
+
+    /**
+     * Reads a post in snapshot form.
+     * @param buf the buffer.
+     * @return the post.
+     */
+    public static Post readPost(ByteBuffer buf) {
+        String id = readString(buf);
+        long timestamp = buf.getLong();
+        long seq = buf.getLong();
+        String user = readString(buf);
+        String message = readString(buf);
+        String wrappedKey = readString(buf);
+        String iv = readString(buf);
+        String type = readString(buf);
+        return new Post(id, timestamp, seq, user, message, wrappedKey, iv, type);
+    }
+
+    /**
+     * Writes a length-prefixed UTF-8 string, using a length of -1 for null.
+     */
+    public static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads a length-prefixed UTF-8 string.
+     */
+    public static String readString(ByteBuffer buf) {
+        int len = buf.getInt();
+        if (len < 0)
+            return null;
+        if (len > buf.remaining())
+            throw new BufferUnderflowException();
+        byte[] bytes = new byte[len];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,387 @@
+package server.snapshot;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import common.Board;
+import common.protocol.post.Post;
+import common.protocol.user_auth.User;
+import common.protocol.user_auth.UserDatabase;
+
+/**
+ * Keeps a binary snapshot of the board and the user database plus a log of
+ * the changes made since. Snapshots only hold live posts, so tombstoned
+ * posts are dropped from storage at the next snapshot. At startup the snapshot is memory-mapped and only
+ * the log is replayed on top, which is much faster than parsing the JSON
+ * files. A background thread takes a new snapshot every interval.
+ *
+ * Every logged change carries a sequence number and the snapshot records
+ * the last one it includes. Taking a snapshot first moves the current log
+ * aside, so a crash at any point leaves a snapshot and logs that replay to
+ * the same state; changes already in the snapshot are skipped.
+ *
+ * Each log record ends with a CRC-32 of the record, so recovery stops at the
+ * first torn or damaged record and cuts it off. Recovery only ever reads the
+ * logs written since the last snapshot.
+ */
+public class SnapshotManager implements Runnable {
+    private static final byte OP_POST = 'P';
+    private static final byte OP_USER = 'U';
+    private static final byte OP_DELETE = 'D';
+
+    private final Board board;
+    private final File snapshotFile;
+    private final File logFile;
+    private final File oldLogFile;
+    private final long intervalMs;
+    private final Object snapshotLock = new Object();
+
+    private DataOutputStream log;
+    private FileChannel logChannel;
+    private long sequence;
+    private volatile long snapshotSequence = -1;
+
+    /**
+     * Creates a snapshot manager.
+     * @param board the board.
+     * @param snapshotFile the snapshot file.
+     * @param logFile the file changes since the snapshot are logged to.
+     * @param intervalSeconds how often a new snapshot is taken.
+     */
+    public SnapshotManager(Board board, String snapshotFile, String logFile, int intervalSeconds) {
+        this.board = board;
+        this.snapshotFile = new File(snapshotFile);
+        this.logFile = new File(logFile);
+        this.oldLogFile = new File(logFile + ".old");
+        this.intervalMs = intervalSeconds * 1000L;
+    }
+
+    /**
+     * Loads the board and the user database from the snapshot and replays the
+     * logged changes on top.
+     * @return true if the state was restored; false if there is no usable
+     *         snapshot and the caller has to load the state some other way.
+     * @throws IOException if a log can't be read.
+     */
+    public synchronized boolean restore() throws IOException {
+        if (!snapshotFile.exists())
+            return false;
+
+        long start = System.currentTimeMillis();
+        Snapshot snapshot;
+        try (FileChannel channel = FileChannel.open(snapshotFile.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            snapshot = Snapshot.decode(buf);
+        } catch (InvalidObjectException e) {
+            System.err.println("[SNAPSHOT] Ignoring " + snapshotFile + ": " + e.getMessage());
+            return false;
+        }
+
+        board.clear();
+        board.addPosts(snapshot.getPosts());
+        board.mergeSequences(snapshot.getPostSequences());
+        UserDatabase.clear();
+        for (User user : snapshot.getUsers())
+            UserDatabase.put(user.getUser(), user);
+        sequence = snapshot.getSequence();
+        snapshotSequence = sequence;
+
+        int replayed = replay(oldLogFile) + replay(logFile);
+        System.out.println("[SNAPSHOT] Restored " + snapshot.getUsers().size() + " users and "
+            + snapshot.getPosts().size() + " posts, replayed " + replayed + " changes in "
+            + (System.currentTimeMillis() - start) + " ms.");
+        return true;
+    }
+
+    /**
+     * Opens the change log and takes a first snapshot. If {@link #restore()}
+     * did not restore the state, any stale logs are discarded since the
+     * state was loaded from elsewhere.
+     * @param restored the result of {@link #restore()}.
+     * @throws IOException if the log can't be opened.
+     */
+    public void start(boolean restored) throws IOException {
+        synchronized (this) {
+            if (!restored) {
+                Files.deleteIfExists(oldLogFile.toPath());
+                Files.deleteIfExists(logFile.toPath());
+                sequence = 0;
+            }
+            openLog(true);
+        }
+        if (!restored || hasChanges())
+            snapshotNow();
+        new Thread(this, "snapshotter").start();
+    }
+
+    // Writes the body of a log record
+    private interface RecordBody {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    /**
+     * Logs a post added to the board.
+     * @param post the post.
+     */
+    public synchronized void logPost(Post post) {
+        try {
+            append(OP_POST, out -> Snapshot.writePost(out, post));
+        } catch (IOException e) {
+            System.err.println("[SNAPSHOT] Failed to log post: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Logs an account added to the user database.
+     * @param user the account.
+     */
+    public synchronized void logUser(User user) {
+        try {
+            append(OP_USER, out -> Snapshot.writeUser(out, user));
+        } catch (IOException e) {
+            System.err.println("[SNAPSHOT] Failed to log user: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Logs posts tombstoned by a recipient.
+     * @param user the recipient.
+     * @param ids the ids of the tombstoned posts.
+     */
+    public synchronized void logDelete(String user, Collection<String> ids) {
+        try {
+            append(OP_DELETE, out -> {
+                Snapshot.writeString(out, user);
+                out.writeInt(ids.size());
+                for (String id : ids)
+                    Snapshot.writeString(out, id);
+            });
+        } catch (IOException e) {
+            System.err.println("[SNAPSHOT] Failed to log delete: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Appends a record to the log: the operation, the next sequence number,
+     * the body and a CRC-32 of all three. The caller holds this lock.
+     * @param op the operation.
+     * @param body writes the body of the record.
+     * @throws IOException if the log can't be written.
+     */
+    private void append(byte op, RecordBody body) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream record = new DataOutputStream(bytes);
+        record.writeByte(op);
+        record.writeLong(++sequence);
+        body.write(record);
+        record.flush();
+
+        byte[] data = bytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        log.write(data);
+        log.writeInt((int) crc.getValue());
+        log.flush();
+    }
+
+    /**
+     * Takes a snapshot. Only copying
+     * the state and moving the log aside happen under the board's lock; the
+     * snapshot is encoded and written while posting continues. The board
+     * store is written afterwards.
+     */
+    public void snapshotNow() {
+        synchronized (snapshotLock) {
+            List<Post> posts;
+            List<User> users;
+            Map<String, Long> postSequences;
+            long seq;
+            try {
+                synchronized (board) {
+                    synchronized (this) {
+                        posts = board.getPostsSnapshot();
+                        postSequences = board.getSequences();
+                        users = new ArrayList<>(UserDatabase.getAll());
+                        seq = sequence;
+                        rotateLog();
+                    }
+                }
+
+                byte[] data = Snapshot.encode(seq, users, posts, postSequences);
+                File tmp = new File(snapshotFile.getPath() + ".tmp");
+                try (FileChannel channel = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                    channel.write(ByteBuffer.wrap(data));
+                    channel.force(true);
+                }
+                Files.move(tmp.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+                Files.deleteIfExists(oldLogFile.toPath());
+                snapshotSequence = seq;
+                System.out.println("[SNAPSHOT] Wrote snapshot at sequence " + seq + " (" + data.length + " bytes).");
+            } catch (IOException e) {
+                System.err.println("[SNAPSHOT] Snapshot failed, keeping the logs: " + e.getMessage());
+            }
+
+            // With a durable change log the board store is not written per post, so catch it up here
+            synchronized (board) {
+                board.saveToFile();
+            }
+        }
+    }
+
+    /**
+     * Takes a snapshot every interval until the thread is interrupted.
+     */
+    @Override
+    public void run() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                Thread.sleep(intervalMs);
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (hasChanges())
+                snapshotNow();
+        }
+    }
+
+    /**
+     * Check if changes were logged since the last snapshot.
+     * @return true if the snapshot is out of date.
+     */
+    private synchronized boolean hasChanges() {
+        return sequence != snapshotSequence;
+    }
+
+    /**
+     * Moves the current log aside and starts an empty one. If the previous
+     * snapshot failed the older log is still there, so the current log is
+     * appended to it instead of replacing it. The caller holds this lock.
+     * @throws IOException if the files can't be moved.
+     */
+    private void rotateLog() throws IOException {
+        log.flush();
+        logChannel.force(false);
+        log.close();
+        if (oldLogFile.exists())
+            Files.write(oldLogFile.toPath(), Files.readAllBytes(logFile.toPath()), StandardOpenOption.APPEND);
+        else
+            Files.move(logFile.toPath(), oldLogFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        openLog(false);
+    }
+
+    /**
+     * Opens the change log for writing. The caller holds this lock.
+     * @param append if the log is appended to rather than started over.
+     * @throws IOException if the log can't be opened.
+     */
+    private void openLog(boolean append) throws IOException {
+        FileOutputStream out = new FileOutputStream(logFile, append);
+        logChannel = out.getChannel();
+        log = new DataOutputStream(new BufferedOutputStream(out));
+    }
+
+    /**
+     * Forces everything logged so far to stable storage. Only the flush
+     * happens under this lock; the fsync runs while other threads keep
+     * logging.
+     * @throws IOException if the log can't be synced.
+     */
+    public void sync() throws IOException {
+        FileChannel channel;
+        synchronized (this) {
+            log.flush();
+            channel = logChannel;
+        }
+        try {
+            channel.force(false);
+        } catch (ClosedChannelException e) {
+            // The log was rotated meanwhile, and rotating syncs it first
+        }
+    }
+
+    /**
+     * Applies the changes in a log that are newer than the current state. A
+     * record cut short by a crash, or one whose checksum does not match, ends
+     * the replay and is cut off the file together with everything after it,
+     * so that later appends start on a record boundary.
+     * @param file the log file.
+     * @return the number of changes applied.
+     * @throws IOException if the log can't be read.
+     */
+    private int replay(File file) throws IOException {
+        if (!file.exists())
+            return 0;
+
+        int applied = 0;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            int good = 0;
+            try {
+                while (buf.hasRemaining()) {
+                    int start = buf.position();
+                    byte op = buf.get();
+                    long seq = buf.getLong();
+                    Post post = null;
+                    User user = null;
+                    String recipient = null;
+                    List<String> ids = null;
+                    if (op == OP_POST) {
+                        post = Snapshot.readPost(buf);
+                    } else if (op == OP_USER) {
+                        user = Snapshot.readUser(buf);
+                    } else if (op == OP_DELETE) {
+                        recipient = Snapshot.readString(buf);
+                        int count = buf.getInt();
+                        ids = new ArrayList<>();
+                        for (int i = 0; i < count; i++)
+                            ids.add(Snapshot.readString(buf));
+                    } else {
+                        throw new InvalidObjectException("unknown operation " + op);
+                    }
+
+                    CRC32 crc = new CRC32();
+                    crc.update(buf.slice(start, buf.position() - start));
+                    if ((int) crc.getValue() != buf.getInt())
+                        throw new InvalidObjectException("checksum mismatch");
+
+                    if (seq > sequence) {
+                        if (post != null)
+                            board.addPost(post);
+                        else if (user != null)
+                            UserDatabase.put(user.getUser(), user);
+                        else
+                            board.tombstone(recipient, ids);
+                        sequence = seq;
+                        applied++;
+                    }
+                    good = buf.position();
+                }
+            } catch (BufferUnderflowException | NegativeArraySizeException | InvalidObjectException e) {
+                System.err.println("[SNAPSHOT] Dropping torn record at offset " + good + " of " + file
+                    + " (" + (e.getMessage() != null ? e.getMessage() : "truncated") + ")");
+                channel.truncate(good);
+            }
+        }
+        return applied;
+    }
+}
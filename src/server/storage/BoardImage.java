@@ -0,0 +1,138 @@
+package server.storage;
+
+import java.io.InvalidObjectException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import common.ParallelLoader;
+import common.protocol.post.Post;
+import merrimackutil.json.JSONSerializable;
+import merrimackutil.json.types.JSONArray;
+import merrimackutil.json.types.JSONObject;
+import merrimackutil.json.types.JSONType;
+
+/**
+ * The persistent state of a board: its posts in order, the ids of the posts
+ * tombstoned but not compacted yet and the last sequence number of every
+ * recipient. Its JSON form is the board file.
+ *
+ * An image handed to a store by the board wraps the board's own
+ * collections and is only valid while the board lock is held.
+ */
+public class BoardImage implements JSONSerializable {
+    private List<Post> posts;
+    private Set<String> tombstones;
+    private Map<String, Long> sequences;
+
+    /**
+     * Creates an empty image.
+     */
+    public BoardImage() {
+        this(new ArrayList<>(), new HashSet<>(), new HashMap<>());
+    }
+
+    /**
+     * Creates an image over existing collections.
+     * @param posts the posts, oldest first.
+     * @param tombstones the ids of tombstoned posts.
+     * @param sequences the last sequence number of every recipient.
+     */
+    public BoardImage(List<Post> posts, Set<String> tombstones, Map<String, Long> sequences) {
+        this.posts = posts;
+        this.tombstones = tombstones;
+        this.sequences = sequences;
+    }
+
+    /**
+     * Constructs an image from the JSON form of a board file.
+     * @param obj the board object.
+     * @throws InvalidObjectException if the object is not a valid board.
+     */
+    public BoardImage(JSONObject obj) throws InvalidObjectException {
+        this();
+        deserialize(obj);
+    }
+
+    /**
+     * Gets the posts.
+     * @return the posts, oldest first.
+     */
+    public List<Post> getPosts() {
+        return posts;
+    }
+
+    /**
+     * Gets the ids of the tombstoned posts.
+     * @return the tombstoned ids.
+     */
+    public Set<String> getTombstones() {
+        return tombstones;
+    }
+
+    /**
+     * Gets the last sequence number of every recipient.
+     * @return the sequence numbers by recipient.
+     */
+    public Map<String, Long> getSequences() {
+        return sequences;
+    }
+
+    /**
+     * Converts the object to a JSON type.
+     * @return a JSON type either JSONObject or JSONArray.
+     * The returned JSONObject contains a field "posts", which is a JSONArray of
+     * Post JSONTypes, and a field "tombstones" with the ids of acknowledged
+     * posts that have not been compacted yet, and a field "sequences" with
+     * the last sequence number of every recipient, if there are any.
+     */
+    @Override
+    public JSONType toJSONType() {
+        JSONArray entries = new JSONArray();
+        for (Post post : posts)
+            entries.add(post.toJSONType());
+        JSONArray ids = new JSONArray();
+        ids.addAll(tombstones);
+        JSONObject lastSeqs = new JSONObject();
+        for (Map.Entry<String, Long> entry : sequences.entrySet())
+            lastSeqs.put(entry.getKey(), entry.getValue());
+
+        JSONObject root = new JSONObject();
+        root.put("posts", entries);
+        root.put("tombstones", ids);
+        // The JSON parser can't read an empty object back, so leave it out
+        if (!lastSeqs.isEmpty())
+            root.put("sequences", lastSeqs);
+        return root;
+    }
+
+    /**
+     * Converts JSON data to an object of this type. The "tombstones" and
+     * "sequences" fields are optional so older board files still load. Posts
+     * are decoded in parallel.
+     * @param obj a JSON type to deserialize.
+     * @throws InvalidObjectException the type does not match this object.
+     */
+    @Override
+    public void deserialize(JSONType obj) throws InvalidObjectException {
+        if (!obj.isObject())
+            throw new InvalidObjectException("BoardImage -- received array, expected Object.");
+        JSONObject boardObj = (JSONObject) obj;
+        boardObj.checkValidity(new String[]{"posts"});
+
+        posts.addAll(ParallelLoader.decode(boardObj.getArray("posts"), post -> new Post((JSONObject) post)));
+        if (boardObj.containsKey("tombstones")) {
+            JSONArray ids = boardObj.getArray("tombstones");
+            for (int i = 0; i < ids.size(); i++)
+                tombstones.add(ids.getString(i));
+        }
+        if (boardObj.containsKey("sequences")) {
+            JSONObject lastSeqs = boardObj.getObject("sequences");
+            for (String user : lastSeqs.keySet())
+                sequences.merge(user, lastSeqs.getLong(user), Math::max);
+        }
+    }
+}
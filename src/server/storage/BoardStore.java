@@ -0,0 +1,97 @@
+package server.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.util.Collection;
+
+import common.protocol.post.Post;
+
+/**
+ * The storage engine behind the board. The board keeps every post in memory
+ * and answers reads from its own indexes; the store only makes the changes
+ * durable and hands the stored board back at startup. Engines differ in what
+ * a change costs: "memory" keeps nothing, "json" rewrites the whole board
+ * file on every save, "log" appends each change to a log and "sharded"
+ * splits the board file by recipient and rewrites only the shards touched.
+ *
+ * Calls come from the board with its lock held, so engines need no locking
+ * of their own unless they write from threads of their own.
+ */
+public interface BoardStore {
+    String ENGINE_MEMORY = "memory";
+    String ENGINE_JSON = "json";
+    String ENGINE_LOG = "log";
+    String ENGINE_SHARDED = "sharded";
+
+    /**
+     * Reads the stored board.
+     * @return the stored posts, tombstones and sequence numbers; empty if
+     *         nothing is stored yet.
+     * @throws IOException if the store can't be read.
+     */
+    BoardImage load() throws IOException;
+
+    /**
+     * Check if the store keeps single changes. A store that does not is
+     * given the whole board through {@link #snapshot(BoardImage)} on every
+     * save instead.
+     * @return true if {@link #append(Post)} and {@link #delete(String, Collection)}
+     *         are used.
+     */
+    boolean isIncremental();
+
+    /**
+     * Stores a post added to the board.
+     * @param post the post.
+     * @throws IOException if the post can't be stored.
+     */
+    void append(Post post) throws IOException;
+
+    /**
+     * Stores the ids of tombstoned posts.
+     * @param user the recipient of the posts.
+     * @param ids the ids of the posts.
+     * @throws IOException if the delete can't be stored.
+     */
+    void delete(String user, Collection<String> ids) throws IOException;
+
+    /**
+     * Replaces everything stored with the given board, e.g. after compaction.
+     * @param image the board.
+     * @throws IOException if the board can't be stored.
+     */
+    void snapshot(BoardImage image) throws IOException;
+
+    /**
+     * Pushes buffered changes out to the operating system.
+     * @throws IOException if the changes can't be written.
+     */
+    void flush() throws IOException;
+
+    /**
+     * Creates a store.
+     * @param engine the engine name: "memory", "json", "log" or "sharded".
+     * @param boardFile the board file used by the json engine.
+     * @param logFile the log used by the log engine.
+     * @param shardDir the directory of the shard files used by the sharded engine.
+     * @param shards the number of shards used by the sharded engine.
+     * @return the store.
+     * @throws IOException if the engine is unknown or can't be set up.
+     */
+    static BoardStore open(String engine, String boardFile, String logFile, String shardDir, int shards)
+            throws IOException {
+        switch (engine) {
+            case ENGINE_MEMORY:
+                return new MemoryBoardStore();
+            case ENGINE_JSON:
+                return new JsonBoardStore(new File(boardFile));
+            case ENGINE_LOG:
+                return new LogBoardStore(new File(logFile));
+            case ENGINE_SHARDED:
+                return new ShardedBoardStore(new File(shardDir), shards);
+            default:
+                throw new InvalidObjectException("Unknown board store " + engine);
+        }
+    }
+}
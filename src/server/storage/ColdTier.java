@@ -0,0 +1,249 @@
+package server.storage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import common.protocol.post.Payload;
+import common.protocol.post.Post;
+import merrimackutil.json.JsonIO;
+import merrimackutil.json.types.JSONObject;
+
+/**
+ * The cold tier of the board: old posts that are rarely read, compressed
+ * and kept on disk. Each post is stored as its deflated wire form and holds
+ * only a small record of where it lies. Reads inflate the record, so cold
+ * posts cost disk reads and CPU but next to no heap.
+ *
+ * Records are appended to files of a fixed size. Every file counts its live
+ * records, and one that holds none and is no longer written to is deleted.
+ * Like the payload segments, the tier is scratch space: the board store
+ * stays the durable copy and old files are cleared when the tier is opened.
+ * Unlike a mapping, a deleted file can't be read any more, so a reader that
+ * still holds a post compaction dropped meanwhile gets an I/O error.
+ */
+public class ColdTier {
+    private static final long FILE_SIZE = 64L << 20;
+
+    private final File dir;
+    private final List<ColdFile> files = new ArrayList<>();
+    private ColdFile active;
+    private int nextIndex;
+    private long rawBytes;
+    private long storedBytes;
+
+    // A file of compressed records and its bookkeeping
+    private static class ColdFile {
+        private final File file;
+        private final FileChannel channel;
+        private long used;
+        private int live;
+
+        private ColdFile(File file, FileChannel channel) {
+            this.file = file;
+            this.channel = channel;
+        }
+    }
+
+    // A post stored in a cold file
+    private class Record implements Payload {
+        private final ColdFile file;
+        private final long offset;
+        private final int length;
+        private final int size;
+        private boolean released;
+
+        private Record(ColdFile file, long offset, int length, int size) {
+            this.file = file;
+            this.offset = offset;
+            this.length = length;
+            this.size = size;
+        }
+
+        /**
+         * Reads the compressed record.
+         * @return the deflated wire form.
+         */
+        private byte[] readCompressed() {
+            ByteBuffer buf = ByteBuffer.allocate(length);
+            try {
+                while (buf.hasRemaining()) {
+                    if (file.channel.read(buf, offset + buf.position()) < 0)
+                        throw new IOException("Cold record cut short in " + file.file);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return buf.array();
+        }
+
+        /**
+         * Inflates the record and parses the post's fields out of it.
+         * @return the PostMessage object of the post.
+         */
+        private JSONObject fields() {
+            try (InflaterInputStream in = new InflaterInputStream(new ByteArrayInputStream(readCompressed()))) {
+                return JsonIO.readObject(new String(in.readAllBytes(), StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public String getMessage() {
+            return fields().getString("message");
+        }
+
+        @Override
+        public String getWrappedKey() {
+            return fields().getString("wrappedkey");
+        }
+
+        @Override
+        public String getIv() {
+            return fields().getString("iv");
+        }
+
+        @Override
+        public int getSize() {
+            return size;
+        }
+
+        @Override
+        public void writeWire(OutputStream out) throws IOException {
+            byte[] compressed;
+            try {
+                compressed = readCompressed();
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            try (InflaterInputStream in = new InflaterInputStream(new ByteArrayInputStream(compressed))) {
+                in.transferTo(out);
+            }
+        }
+
+        @Override
+        public void release() {
+            synchronized (ColdTier.this) {
+                if (!released) {
+                    released = true;
+                    free(file);
+                }
+            }
+        }
+    }
+
+    /**
+     * Opens the cold tier, deleting files left by an earlier run.
+     * @param dir the directory of the cold files.
+     * @throws IOException if the directory can't be created.
+     */
+    public ColdTier(File dir) throws IOException {
+        this.dir = dir;
+        if (!dir.isDirectory() && !dir.mkdirs())
+            throw new IOException("Can't create cold tier directory " + dir);
+        File[] old = dir.listFiles((d, name) -> name.endsWith(".cold"));
+        if (old != null) {
+            for (File file : old)
+                file.delete();
+        }
+    }
+
+    /**
+     * Compresses the wire form of a post and appends it to the tier.
+     * @param post the post, numbered.
+     * @return the stored payload to hand to {@link Post#offload(Payload)}.
+     * @throws IOException if the record can't be written.
+     */
+    public Payload store(Post post) throws IOException {
+        ByteArrayOutputStream raw = new ByteArrayOutputStream();
+        post.writeWire(raw);
+        ByteArrayOutputStream packed = new ByteArrayOutputStream();
+        try (DeflaterOutputStream out = new DeflaterOutputStream(packed)) {
+            raw.writeTo(out);
+        }
+        byte[] record = packed.toByteArray();
+
+        synchronized (this) {
+            if (active == null || active.used + record.length > FILE_SIZE)
+                roll();
+            long offset = active.used;
+            ByteBuffer buf = ByteBuffer.wrap(record);
+            while (buf.hasRemaining())
+                active.channel.write(buf, offset + buf.position());
+            active.used += record.length;
+            active.live++;
+            rawBytes += raw.size();
+            storedBytes += record.length;
+            return new Record(active, offset, record.length, post.getSize());
+        }
+    }
+
+    /**
+     * Check if a payload is stored in this tier.
+     * @param payload the payload of a post, or null for one on the heap.
+     * @return true if the payload is a cold record.
+     */
+    public boolean holds(Payload payload) {
+        return payload instanceof Record;
+    }
+
+    /**
+     * Describes the space saved by compression.
+     * @return the raw and stored bytes of everything moved to the tier.
+     */
+    public synchronized String describe() {
+        return "cold-files=" + files.size() + ", cold-raw-bytes=" + rawBytes + ", cold-stored-bytes=" + storedBytes;
+    }
+
+    /**
+     * Opens a new file to append to. The caller holds the lock.
+     * @throws IOException if the file can't be created.
+     */
+    private void roll() throws IOException {
+        ColdFile previous = active;
+        File file = new File(dir, String.format("tier-%06d.cold", nextIndex++));
+        active = new ColdFile(file, FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE));
+        files.add(active);
+        if (previous != null && previous.live == 0)
+            drop(previous);
+    }
+
+    /**
+     * Counts a record as gone and deletes its file once it is empty. The
+     * caller holds the lock.
+     * @param file the file of the record.
+     */
+    private void free(ColdFile file) {
+        file.live--;
+        if (file.live == 0 && file != active)
+            drop(file);
+    }
+
+    /**
+     * Closes and deletes an empty file. The caller holds the lock.
+     * @param file the file.
+     */
+    private void drop(ColdFile file) {
+        files.remove(file);
+        try {
+            file.channel.close();
+        } catch (IOException e) {
+            // Nothing is left to read from it
+        }
+        if (!file.file.delete())
+            System.err.println("[STORE] Could not delete " + file.file);
+    }
+}
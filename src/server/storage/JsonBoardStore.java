@@ -0,0 +1,67 @@
+package server.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+
+import common.AtomicFile;
+import common.protocol.post.Post;
+import merrimackutil.json.JsonIO;
+
+/**
+ * The original board file: the whole board as formatted JSON, rewritten on
+ * every save. Saves cost time in the size of the board, but the file stays
+ * readable and compatible with earlier versions.
+ */
+public class JsonBoardStore implements BoardStore {
+    private final File file;
+
+    /**
+     * Creates a store on a board file.
+     * @param file the board file.
+     */
+    public JsonBoardStore(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Reads the board file.
+     * @return the stored board, or an empty one if there is no file yet.
+     * @throws IOException if the file can't be read or is not a board.
+     */
+    @Override
+    public BoardImage load() throws IOException {
+        if (!file.exists())
+            return new BoardImage();
+        return new BoardImage(JsonIO.readObject(file));
+    }
+
+    /**
+     * Check if the store keeps single changes.
+     * @return false, every save rewrites the whole file.
+     */
+    @Override
+    public boolean isIncremental() {
+        return false;
+    }
+
+    @Override
+    public void append(Post post) {}
+
+    @Override
+    public void delete(String user, Collection<String> ids) {}
+
+    /**
+     * Writes the board to a temporary file that replaces the board file
+     * atomically, so a crash while saving leaves the previous board intact.
+     * @param image the board.
+     * @throws IOException if the file can't be written.
+     */
+    @Override
+    public void snapshot(BoardImage image) throws IOException {
+        AtomicFile.writeJson(image, file);
+    }
+
+    @Override
+    public void flush() {}
+}
@@ -0,0 +1,224 @@
+package server.storage;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import common.AtomicFile;
+import common.protocol.post.Post;
+import server.snapshot.Snapshot;
+
+/**
+ * A log-structured store. Every added post and every batch of tombstoned
+ * ids is appended to the log as a binary record, so a save costs time in
+ * the size of the change rather than of the board. Loading replays the log.
+ *
+ * A snapshot, which the board takes after compaction, writes the live board
+ * to a new log and renames it over the old one, which keeps the log from
+ * growing without bound. Records end with a CRC-32 like those of the
+ * snapshot change log; loading cuts the log at the first torn or damaged
+ * record.
+ *
+ * Appends are buffered and pushed to the operating system on flush, so a
+ * crash of the process loses nothing that was saved. Syncing to disk is left
+ * to the snapshot change log and the configured durability.
+ */
+public class LogBoardStore implements BoardStore {
+    private static final byte OP_POST = 'P';
+    private static final byte OP_DELETE = 'D';
+    private static final byte OP_SEQUENCES = 'S';
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final File file;
+    private DataOutputStream out;
+
+    // Writes the body of a log record
+    private interface RecordBody {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    /**
+     * Creates a store on a log file.
+     * @param file the log file.
+     */
+    public LogBoardStore(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Replays the log.
+     * @return the stored board, or an empty one if there is no log yet.
+     * @throws IOException if the log can't be read.
+     */
+    @Override
+    public BoardImage load() throws IOException {
+        BoardImage image = new BoardImage();
+        if (!file.exists())
+            return image;
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            int good = 0;
+            try {
+                while (buf.hasRemaining()) {
+                    int start = buf.position();
+                    byte op = buf.get();
+                    if (op == OP_POST) {
+                        image.getPosts().add(Snapshot.readPost(buf));
+                    } else if (op == OP_DELETE) {
+                        int count = buf.getInt();
+                        for (int i = 0; i < count; i++)
+                            image.getTombstones().add(Snapshot.readString(buf));
+                    } else if (op == OP_SEQUENCES) {
+                        int count = buf.getInt();
+                        for (int i = 0; i < count; i++)
+                            image.getSequences().merge(Snapshot.readString(buf), buf.getLong(), Math::max);
+                    } else {
+                        throw new InvalidObjectException("unknown operation " + op);
+                    }
+
+                    CRC32 crc = new CRC32();
+                    crc.update(buf.slice(start, buf.position() - start));
+                    if ((int) crc.getValue() != buf.getInt())
+                        throw new InvalidObjectException("checksum mismatch");
+                    good = buf.position();
+                }
+            } catch (BufferUnderflowException | NegativeArraySizeException | InvalidObjectException e) {
+                // A damaged record was never acknowledged as saved, so the
+                // records already read above it are the board
+                System.err.println("[STORE] Dropping torn record at offset " + good + " of " + file
+                    + " (" + (e.getMessage() != null ? e.getMessage() : "truncated") + ")");
+                channel.truncate(good);
+            }
+        }
+        System.out.println("[STORE] Loaded " + image.getPosts().size() + " posts from " + file + ".");
+        return image;
+    }
+
+    /**
+     * Check if the store keeps single changes.
+     * @return true, changes are appended to the log.
+     */
+    @Override
+    public boolean isIncremental() {
+        return true;
+    }
+
+    /**
+     * Appends a post to the log.
+     * @param post the post.
+     * @throws IOException if the log can't be written.
+     */
+    @Override
+    public void append(Post post) throws IOException {
+        record(output(), OP_POST, out -> Snapshot.writePost(out, post));
+    }
+
+    /**
+     * Appends tombstoned ids to the log.
+     * @param user the recipient of the posts.
+     * @param ids the ids of the posts.
+     * @throws IOException if the log can't be written.
+     */
+    @Override
+    public void delete(String user, Collection<String> ids) throws IOException {
+        record(output(), OP_DELETE, out -> {
+            out.writeInt(ids.size());
+            for (String id : ids)
+                Snapshot.writeString(out, id);
+        });
+    }
+
+    /**
+     * Writes the board to a new log that replaces the current one atomically.
+     * @param image the board.
+     * @throws IOException if the log can't be written.
+     */
+    @Override
+    public void snapshot(BoardImage image) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(tmp)) {
+            DataOutputStream tmpOut = new DataOutputStream(new BufferedOutputStream(fos, BUFFER_SIZE));
+            for (Post post : image.getPosts())
+                record(tmpOut, OP_POST, out -> Snapshot.writePost(out, post));
+            if (!image.getTombstones().isEmpty()) {
+                record(tmpOut, OP_DELETE, out -> {
+                    out.writeInt(image.getTombstones().size());
+                    for (String id : image.getTombstones())
+                        Snapshot.writeString(out, id);
+                });
+            }
+            record(tmpOut, OP_SEQUENCES, out -> {
+                out.writeInt(image.getSequences().size());
+                for (Map.Entry<String, Long> entry : image.getSequences().entrySet()) {
+                    Snapshot.writeString(out, entry.getKey());
+                    out.writeLong(entry.getValue());
+                }
+            });
+            tmpOut.flush();
+            fos.getFD().sync();
+        }
+
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        AtomicFile.syncDirectory(file);
+    }
+
+    /**
+     * Pushes buffered records to the operating system.
+     * @throws IOException if the log can't be written.
+     */
+    @Override
+    public void flush() throws IOException {
+        if (out != null)
+            out.flush();
+    }
+
+    /**
+     * Opens the log for appending if it is not open yet.
+     * @return the log stream.
+     * @throws IOException if the log can't be opened.
+     */
+    private DataOutputStream output() throws IOException {
+        if (out == null)
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true), BUFFER_SIZE));
+        return out;
+    }
+
+    /**
+     * Writes a record: the operation, the body and a CRC-32 of both.
+     * @param target the stream to write to.
+     * @param op the operation.
+     * @param body writes the body of the record.
+     * @throws IOException if the record can't be written.
+     */
+    private static void record(DataOutputStream target, byte op, RecordBody body) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream record = new DataOutputStream(bytes);
+        record.writeByte(op);
+        body.write(record);
+        record.flush();
+
+        byte[] data = bytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        target.write(data);
+        target.writeInt((int) crc.getValue());
+    }
+}
@@ -0,0 +1,43 @@
+package server.storage;
+
+import java.util.Collection;
+
+import common.protocol.post.Post;
+
+/**
+ * A store that keeps nothing. The board lives only in memory and is empty
+ * after a restart, which makes this engine the cheapest one for tests and
+ * benchmarks, or for nodes that restore from a snapshot or a leader.
+ */
+public class MemoryBoardStore implements BoardStore {
+
+    /**
+     * Reads the stored board.
+     * @return an empty board.
+     */
+    @Override
+    public BoardImage load() {
+        return new BoardImage();
+    }
+
+    /**
+     * Check if the store keeps single changes.
+     * @return true, so the board never builds a full image for this store.
+     */
+    @Override
+    public boolean isIncremental() {
+        return true;
+    }
+
+    @Override
+    public void append(Post post) {}
+
+    @Override
+    public void delete(String user, Collection<String> ids) {}
+
+    @Override
+    public void snapshot(BoardImage image) {}
+
+    @Override
+    public void flush() {}
+}
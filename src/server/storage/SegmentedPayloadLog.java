@@ -0,0 +1,267 @@
+package server.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import common.protocol.post.Payload;
+import common.protocol.post.Post;
+
+/**
+ * Keeps the encrypted payloads of posts in fixed-size, memory-mapped segment
+ * files instead of on the Java heap. A post that is moved here only keeps
+ * its segment, offset and size; its getters read the strings straight from
+ * the mapped region when a response is built. The record also holds the
+ * post's wire form, which responses copy from the mapping to the socket.
+ * Heap use then no longer grows with the size of the ciphertexts on the
+ * board, and neither does the work of the garbage collector.
+ *
+ * Payloads are appended to the active segment until it is full and a new
+ * one is mapped. Every segment counts its live payloads, and one that holds
+ * none and is no longer active is deleted. Its mapping lives on until the
+ * last post read from it is gone, so readers never see a payload vanish.
+ *
+ * The segments are scratch space: the board store and the snapshots remain
+ * the durable copy, and old segments are cleared when the log is opened.
+ * Appends happen under the board lock; reads may come from any thread.
+ */
+public class SegmentedPayloadLog {
+    private static final ThreadLocal<byte[]> SCRATCH = ThreadLocal.withInitial(() -> new byte[16384]);
+
+    private final File dir;
+    private final int segmentSize;
+    private final List<Segment> segments = new ArrayList<>();
+    private Segment active;
+    private int nextIndex;
+
+    // A mapped segment file and its bookkeeping
+    private static class Segment {
+        private final File file;
+        private final MappedByteBuffer buf;
+        private int used;
+        private int live;
+
+        private Segment(File file, MappedByteBuffer buf) {
+            this.file = file;
+            this.buf = buf;
+        }
+
+        /**
+         * Finds a field of the payload record at an offset.
+         * @param offset the offset of the record.
+         * @param field the field: 0 message, 1 wrapped key, 2 IV, 3 wire form.
+         * @return the position of the field's length prefix.
+         */
+        private int position(int offset, int field) {
+            int pos = offset;
+            for (int i = 0; i < field; i++)
+                pos += 4 + Math.max(0, buf.getInt(pos));
+            return pos;
+        }
+
+        /**
+         * Reads a string field of the payload record at an offset.
+         * @param offset the offset of the record.
+         * @param field the field: 0 message, 1 wrapped key, 2 IV.
+         * @return the string, or null if it was null.
+         */
+        private String read(int offset, int field) {
+            int pos = position(offset, field);
+            int len = buf.getInt(pos);
+            if (len < 0)
+                return null;
+            byte[] bytes = new byte[len];
+            buf.get(pos + 4, bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+
+    // A payload stored in a segment
+    private class Slot implements Payload {
+        private final Segment segment;
+        private final int offset;
+        private final int size;
+        private boolean released;
+
+        private Slot(Segment segment, int offset, int size) {
+            this.segment = segment;
+            this.offset = offset;
+            this.size = size;
+        }
+
+        @Override
+        public String getMessage() {
+            return segment.read(offset, 0);
+        }
+
+        @Override
+        public String getWrappedKey() {
+            return segment.read(offset, 1);
+        }
+
+        @Override
+        public String getIv() {
+            return segment.read(offset, 2);
+        }
+
+        @Override
+        public int getSize() {
+            return size;
+        }
+
+        @Override
+        public void writeWire(OutputStream out) throws IOException {
+            int pos = segment.position(offset, 3);
+            int len = segment.buf.getInt(pos);
+            byte[] scratch = SCRATCH.get();
+            for (int done = 0; done < len; done += scratch.length) {
+                int n = Math.min(scratch.length, len - done);
+                segment.buf.get(pos + 4 + done, scratch, 0, n);
+                out.write(scratch, 0, n);
+            }
+        }
+
+        @Override
+        public void release() {
+            synchronized (SegmentedPayloadLog.this) {
+                if (!released) {
+                    released = true;
+                    free(segment);
+                }
+            }
+        }
+    }
+
+    /**
+     * Opens a payload log, deleting segments left by an earlier run.
+     * @param dir the directory of the segment files.
+     * @param segmentSize the size of a segment in bytes.
+     * @throws IOException if the directory can't be created.
+     */
+    public SegmentedPayloadLog(File dir, int segmentSize) throws IOException {
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        if (!dir.isDirectory() && !dir.mkdirs())
+            throw new IOException("Can't create payload directory " + dir);
+        File[] old = dir.listFiles((d, name) -> name.endsWith(".seg"));
+        if (old != null) {
+            for (File file : old)
+                file.delete();
+        }
+        System.out.println("[STORE] Keeping post payloads in " + (segmentSize >> 20) + " MB segments in " + dir + ".");
+    }
+
+    /**
+     * Copies the payload and the wire form of a post into the active segment.
+     * @param post the post, numbered and not offloaded yet.
+     * @return the stored payload to hand to {@link Post#offload(Payload)}.
+     * @throws IOException if a new segment can't be mapped.
+     */
+    public synchronized Payload append(Post post) throws IOException {
+        byte[] message = bytes(post.getMessage());
+        byte[] wrappedKey = bytes(post.getWrappedKey());
+        byte[] iv = bytes(post.getIv());
+        byte[] wire = post.encodeWire();
+        int length = 16 + length(message) + length(wrappedKey) + length(iv) + wire.length;
+        if (active == null || active.used + length > active.buf.capacity())
+            roll(length);
+
+        int offset = active.used;
+        int pos = put(active.buf, offset, message);
+        pos = put(active.buf, pos, wrappedKey);
+        pos = put(active.buf, pos, iv);
+        put(active.buf, pos, wire);
+        active.used += length;
+        active.live++;
+        return new Slot(active, offset, post.getSize());
+    }
+
+    /**
+     * Gets the number of mapped segments.
+     * @return the number of segments.
+     */
+    public synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * Maps a new active segment. A payload larger than the segment size gets
+     * a segment of its own size.
+     * @param length the length of the record that did not fit.
+     * @throws IOException if the segment can't be mapped.
+     */
+    private void roll(int length) throws IOException {
+        Segment previous = active;
+        File file = new File(dir, String.format("segment-%06d.seg", nextIndex++));
+        int size = Math.max(segmentSize, length);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            active = new Segment(file, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+        }
+        segments.add(active);
+        if (previous != null && previous.live == 0)
+            drop(previous);
+    }
+
+    /**
+     * Counts a payload as gone and deletes its segment once it is empty.
+     * @param segment the segment of the payload.
+     */
+    private void free(Segment segment) {
+        segment.live--;
+        if (segment.live == 0 && segment != active)
+            drop(segment);
+    }
+
+    /**
+     * Deletes an empty segment. The mapping stays valid until it is no longer
+     * referenced.
+     * @param segment the segment.
+     */
+    private void drop(Segment segment) {
+        segments.remove(segment);
+        if (!segment.file.delete())
+            System.err.println("[STORE] Could not delete " + segment.file);
+    }
+
+    /**
+     * Encodes a string for a record.
+     * @param s the string, possibly null.
+     * @return the UTF-8 bytes, or null.
+     */
+    private static byte[] bytes(String s) {
+        return s == null ? null : s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Gets the encoded length of a field without its length prefix.
+     * @param bytes the bytes, possibly null.
+     * @return the length.
+     */
+    private static int length(byte[] bytes) {
+        return bytes == null ? 0 : bytes.length;
+    }
+
+    /**
+     * Writes a length-prefixed field, using a length of -1 for null.
+     * @param buf the segment buffer.
+     * @param pos where to write.
+     * @param bytes the field.
+     * @return the position after the field.
+     */
+    private static int put(MappedByteBuffer buf, int pos, byte[] bytes) {
+        if (bytes == null) {
+            buf.putInt(pos, -1);
+            return pos + 4;
+        }
+        buf.putInt(pos, bytes.length);
+        buf.put(pos + 4, bytes);
+        return pos + 4 + bytes.length;
+    }
+}
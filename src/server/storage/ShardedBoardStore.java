@@ -0,0 +1,361 @@
+package server.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import common.AtomicFile;
+import common.ParallelLoader;
+import common.protocol.post.Post;
+import merrimackutil.json.JsonIO;
+
+/**
+ * Splits the board file by recipient. Posts, tombstones and sequence numbers
+ * are partitioned by a hash of the recipient into a fixed number of shard
+ * files, each in the format of the board file. Every shard has its own lock
+ * and its own writer thread. A save marks the shards it touched and
+ * {@link #flush()} waits until their writers have rewritten them, so a save
+ * only rewrites a fraction of the board and a save touching many shards,
+ * such as one after compaction, writes them in parallel.
+ *
+ * A snapshot after compaction repartitions the board in memory and only
+ * rewrites the shards whose contents changed, so compacting a few busy
+ * mailboxes leaves the other shards alone.
+ *
+ * The in-memory board still has a single lock; the engine requires the
+ * snapshot change log, so with a durable commit mode posts are acknowledged
+ * once the log is synced and the shards are only written with snapshots.
+ */
+public class ShardedBoardStore implements BoardStore {
+    private static final Pattern SHARD_FILE = Pattern.compile("shard-(\\d+)\\.json");
+    private static final long RETRY_MS = 1000;
+
+    private final File dir;
+    private final Shard[] shards;
+
+    // One shard file, its contents and its writer
+    private class Shard implements Runnable {
+        private final File file;
+        private List<Post> posts = new ArrayList<>();
+        private Set<String> tombstones = new HashSet<>();
+        private Map<String, Long> sequences = new HashMap<>();
+        private boolean changed;
+        private boolean dirty;
+        // Flushes handed to the writer, written and failed, counted
+        private long requested;
+        private long written;
+        private long failed;
+        private String error;
+
+        private Shard(int index) {
+            this.file = new File(dir, String.format("shard-%03d.json", index));
+        }
+
+        /**
+         * Hands the changes made since the last flush to the writer.
+         * @return the flush to wait for, or 0 if nothing changed.
+         */
+        private synchronized long signal() {
+            if (!changed)
+                return 0;
+            changed = false;
+            dirty = true;
+            notifyAll();
+            return ++requested;
+        }
+
+        /**
+         * Waits until the writer has written a flush or a later one.
+         * @param flush the flush returned by {@link #signal()}.
+         * @throws IOException if the write failed or the wait was interrupted.
+         */
+        private synchronized void await(long flush) throws IOException {
+            try {
+                while (written < flush && failed < flush)
+                    wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while writing " + file);
+            }
+            if (written < flush)
+                throw new IOException("Failed to write " + file + ": " + error);
+        }
+
+        /**
+         * Waits for changes and rewrites the shard file until the thread is
+         * interrupted.
+         */
+        @Override
+        public void run() {
+            while (!Thread.currentThread().isInterrupted()) {
+                BoardImage image;
+                long flush;
+                synchronized (this) {
+                    try {
+                        while (!dirty)
+                            wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    dirty = false;
+                    flush = requested;
+                    image = new BoardImage(new ArrayList<>(posts), new HashSet<>(tombstones),
+                        new HashMap<>(sequences));
+                }
+                try {
+                    AtomicFile.writeJson(image, file);
+                    synchronized (this) {
+                        written = flush;
+                        notifyAll();
+                    }
+                } catch (IOException | RuntimeException e) {
+                    // A payload may have been dropped while it was written; fail the waiting flush and try again
+                    System.err.println("[STORE] Failed to write " + file + ": " + e.getMessage());
+                    synchronized (this) {
+                        failed = flush;
+                        error = e.getMessage();
+                        dirty = true;
+                        notifyAll();
+                    }
+                    try {
+                        Thread.sleep(RETRY_MS);
+                    } catch (InterruptedException ie) {
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates a store and starts the writers of its shards.
+     * @param dir the directory of the shard files.
+     * @param count the number of shards.
+     * @throws IOException if the directory can't be created.
+     */
+    public ShardedBoardStore(File dir, int count) throws IOException {
+        this.dir = dir;
+        if (!dir.isDirectory() && !dir.mkdirs())
+            throw new IOException("Can't create board shard directory " + dir);
+        shards = new Shard[count];
+        for (int i = 0; i < count; i++) {
+            shards[i] = new Shard(i);
+            Thread writer = new Thread(shards[i], "board-shard-" + i);
+            writer.setDaemon(true);
+            writer.start();
+        }
+    }
+
+    /**
+     * Reads every shard file in the directory and merges them into one board,
+     * posts ordered by their timestamps. Files written with a different
+     * number of shards are repartitioned and rewritten.
+     * @return the stored board, or an empty one if there are no shard files.
+     * @throws IOException if a shard file can't be read or is not a board.
+     */
+    @Override
+    public BoardImage load() throws IOException {
+        BoardImage board = new BoardImage();
+        boolean stale = false;
+        List<File> extra = new ArrayList<>();
+        File[] files = dir.listFiles((d, name) -> SHARD_FILE.matcher(name).matches());
+        if (files != null) {
+            // Every file is parsed on a thread of its own
+            List<BoardImage> images = ParallelLoader.map(Arrays.asList(files),
+                file -> new BoardImage(JsonIO.readObject(file)), 1);
+            for (int i = 0; i < files.length; i++) {
+                File file = files[i];
+                Matcher m = SHARD_FILE.matcher(file.getName());
+                m.matches();
+                int index = Integer.parseInt(m.group(1));
+                BoardImage shard = images.get(i);
+                for (Post post : shard.getPosts())
+                    stale |= index(post.getUser()) != index;
+                if (index >= shards.length)
+                    extra.add(file);
+                board.getPosts().addAll(shard.getPosts());
+                board.getTombstones().addAll(shard.getTombstones());
+                for (Map.Entry<String, Long> entry : shard.getSequences().entrySet())
+                    board.getSequences().merge(entry.getKey(), entry.getValue(), Math::max);
+            }
+        }
+        board.getPosts().sort(Comparator.comparingLong(Post::getTimestamp));
+
+        partition(board);
+        if (stale || !extra.isEmpty()) {
+            for (Shard shard : shards) {
+                synchronized (shard) {
+                    AtomicFile.writeJson(new BoardImage(shard.posts, shard.tombstones, shard.sequences), shard.file);
+                }
+            }
+            for (File file : extra) {
+                if (!file.delete())
+                    System.err.println("[STORE] Could not delete " + file);
+            }
+            System.out.println("[STORE] Repartitioned the board into " + shards.length + " shards.");
+        }
+        System.out.println("[STORE] Loaded " + board.getPosts().size() + " posts from " + shards.length + " shards.");
+        return board;
+    }
+
+    /**
+     * Check if the store keeps single changes.
+     * @return true, changes only touch the shard of their recipient.
+     */
+    @Override
+    public boolean isIncremental() {
+        return true;
+    }
+
+    /**
+     * Adds a post to the shard of its recipient.
+     * @param post the post.
+     */
+    @Override
+    public void append(Post post) {
+        Shard shard = shards[index(post.getUser())];
+        synchronized (shard) {
+            shard.posts.add(post);
+            shard.sequences.merge(post.getUser(), post.getSeq(), Math::max);
+            shard.changed = true;
+        }
+    }
+
+    /**
+     * Adds tombstoned ids to the shard of their recipient.
+     * @param user the recipient of the posts.
+     * @param ids the ids of the posts.
+     */
+    @Override
+    public void delete(String user, Collection<String> ids) {
+        Shard shard = shards[index(user)];
+        synchronized (shard) {
+            shard.tombstones.addAll(ids);
+            shard.changed = true;
+        }
+    }
+
+    /**
+     * Repartitions the board and marks the shards whose contents changed.
+     * @param image the board.
+     */
+    @Override
+    public void snapshot(BoardImage image) {
+        List<List<Post>> posts = new ArrayList<>();
+        List<Set<String>> tombstones = new ArrayList<>();
+        List<Map<String, Long>> sequences = new ArrayList<>();
+        split(image, posts, tombstones, sequences);
+        for (int i = 0; i < shards.length; i++) {
+            Shard shard = shards[i];
+            synchronized (shard) {
+                if (!same(shard.posts, posts.get(i)) || !shard.tombstones.equals(tombstones.get(i))
+                        || !shard.sequences.equals(sequences.get(i))) {
+                    shard.posts = posts.get(i);
+                    shard.tombstones = tombstones.get(i);
+                    shard.sequences = sequences.get(i);
+                    shard.changed = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Wakes the writers of the shards changed since the last flush and waits
+     * until they have written them.
+     * @throws IOException if a shard could not be written.
+     */
+    @Override
+    public void flush() throws IOException {
+        long[] flushes = new long[shards.length];
+        for (int i = 0; i < shards.length; i++)
+            flushes[i] = shards[i].signal();
+        for (int i = 0; i < shards.length; i++) {
+            if (flushes[i] != 0)
+                shards[i].await(flushes[i]);
+        }
+    }
+
+    /**
+     * Replaces the contents of every shard with its part of a board, without
+     * marking anything to be written.
+     * @param image the board.
+     */
+    private void partition(BoardImage image) {
+        List<List<Post>> posts = new ArrayList<>();
+        List<Set<String>> tombstones = new ArrayList<>();
+        List<Map<String, Long>> sequences = new ArrayList<>();
+        split(image, posts, tombstones, sequences);
+        for (int i = 0; i < shards.length; i++) {
+            synchronized (shards[i]) {
+                shards[i].posts = posts.get(i);
+                shards[i].tombstones = tombstones.get(i);
+                shards[i].sequences = sequences.get(i);
+            }
+        }
+    }
+
+    /**
+     * Splits a board into the parts of the shards.
+     * @param image the board.
+     * @param posts receives the posts of every shard.
+     * @param tombstones receives the tombstoned ids of every shard.
+     * @param sequences receives the sequence numbers of every shard.
+     */
+    private void split(BoardImage image, List<List<Post>> posts, List<Set<String>> tombstones,
+            List<Map<String, Long>> sequences) {
+        for (int i = 0; i < shards.length; i++) {
+            posts.add(new ArrayList<>());
+            tombstones.add(new HashSet<>());
+            sequences.add(new HashMap<>());
+        }
+        Map<String, Integer> owners = new HashMap<>();
+        for (Post post : image.getPosts()) {
+            int index = index(post.getUser());
+            posts.get(index).add(post);
+            owners.put(post.getId(), index);
+        }
+        for (String id : image.getTombstones()) {
+            Integer index = owners.get(id);
+            if (index != null)
+                tombstones.get(index).add(id);
+        }
+        for (Map.Entry<String, Long> entry : image.getSequences().entrySet())
+            sequences.get(index(entry.getKey())).put(entry.getKey(), entry.getValue());
+    }
+
+    /**
+     * Check if two lists hold the same posts in the same order.
+     * @param a a list of posts.
+     * @param b another list of posts.
+     * @return true if the lists hold the same post objects.
+     */
+    private static boolean same(List<Post> a, List<Post> b) {
+        if (a.size() != b.size())
+            return false;
+        for (int i = 0; i < a.size(); i++) {
+            if (a.get(i) != b.get(i))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Finds the shard of a recipient.
+     * @param user the recipient.
+     * @return the index of the shard.
+     */
+    private int index(String user) {
+        return Math.floorMod(user.hashCode(), shards.length);
+    }
+}
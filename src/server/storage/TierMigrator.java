@@ -0,0 +1,94 @@
+package server.storage;
+
+import java.io.IOException;
+import java.util.List;
+
+import common.Board;
+import common.protocol.post.Payload;
+import common.protocol.post.Post;
+
+/**
+ * Periodically moves posts that have left the hot window into the cold
+ * tier. Posts are compressed outside the board lock and swapped in in
+ * small batches, so readers and writers only ever wait for a batch.
+ */
+public class TierMigrator implements Runnable {
+    private static final int BATCH = 256;
+
+    private final Board board;
+    private final ColdTier cold;
+    private final long hotMs;
+    private final long intervalMs;
+
+    /**
+     * Creates a migrator.
+     * @param board the board.
+     * @param cold the cold tier.
+     * @param hotMs how long posts stay in the hot tier.
+     * @param intervalSeconds how often to look for posts to move.
+     */
+    public TierMigrator(Board board, ColdTier cold, long hotMs, int intervalSeconds) {
+        this.board = board;
+        this.cold = cold;
+        this.hotMs = hotMs;
+        this.intervalMs = intervalSeconds * 1000L;
+    }
+
+    /**
+     * Moves old posts every interval until the thread is interrupted.
+     */
+    @Override
+    public void run() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                Thread.sleep(intervalMs);
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            long cutoff = System.currentTimeMillis() - hotMs;
+            List<Post> due = board.findPosts(post -> post.getTimestamp() < cutoff && !cold.holds(post.getPayload()));
+            if (due.isEmpty())
+                continue;
+            int moved = 0;
+            try {
+                for (int start = 0; start < due.size(); start += BATCH)
+                    moved += migrate(due.subList(start, Math.min(due.size(), start + BATCH)));
+            } catch (IOException e) {
+                System.err.println("[STORE] Moving posts to the cold tier failed: " + e.getMessage());
+            }
+            System.out.println("[STORE] Moved " + moved + " posts to the cold tier, " + cold.describe() + ".");
+        }
+    }
+
+    /**
+     * Compresses a batch of posts and swaps their payloads.
+     * @param batch the posts.
+     * @return the number of posts moved.
+     * @throws IOException if the cold tier can't be written.
+     */
+    private int migrate(List<Post> batch) throws IOException {
+        Payload[] stored = new Payload[batch.size()];
+        try {
+            for (int i = 0; i < batch.size(); i++)
+                stored[i] = cold.store(batch.get(i));
+        } catch (IOException e) {
+            for (Payload payload : stored) {
+                if (payload != null)
+                    payload.release();
+            }
+            throw e;
+        }
+
+        int moved = 0;
+        synchronized (board) {
+            for (int i = 0; i < batch.size(); i++) {
+                if (board.replacePayload(batch.get(i), stored[i]))
+                    moved++;
+                else
+                    stored[i].release();
+            }
+        }
+        return moved;
+    }
+}